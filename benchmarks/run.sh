@@ -0,0 +1,40 @@
+#!/bin/sh
+# run.sh builds the store and the benchmarks and runs JMH, writing the results as
+# JSON to benchmarks/results/<commit>-<UTC time>.json so runs of different releases
+# can be charted side by side. Arguments are passed on to JMH, e.g. a benchmark
+# regex and -p parameter filters:
+#
+#    benchmarks/run.sh StoreBenchmark -p valueSize=1024
+#
+# `run.sh footprint` runs KeyDirFootprint instead, once per keyDir type and key
+# count, each in a JVM of its own, and writes the CSV lines to
+# benchmarks/results/<commit>-<UTC time>-footprint.csv. The counts can be given
+# after it, the JVM options in FOOTPRINT_OPTS:
+#
+#    FOOTPRINT_OPTS="-Xmx40g -XX:MaxDirectMemorySize=16g" benchmarks/run.sh footprint 10000000
+set -e
+root=$(cd "$(dirname "$0")/.." && pwd)
+mvn -B -q -f "$root/pom.xml" install -DskipTests
+mvn -B -q -f "$root/benchmarks/pom.xml" package
+mkdir -p "$root/benchmarks/results"
+name="$(git -C "$root" rev-parse --short HEAD)-$(date -u +%Y%m%dT%H%M%SZ)"
+if [ "$1" = footprint ]; then
+    shift
+    counts=${*:-10000000 50000000 100000000}
+    result="$root/benchmarks/results/$name-footprint.csv"
+    header=--header
+    for type in HASH_MAP OFF_HEAP; do
+        for count in $counts; do
+            # shellcheck disable=SC2086
+            java ${FOOTPRINT_OPTS:--Xmx20g -XX:MaxDirectMemorySize=8g} \
+                -cp "$root/benchmarks/target/benchmarks.jar" \
+                net.tutysara.db.KeyDirFootprint $header "$type" "$count" | tee -a "$result"
+            header=
+        done
+    done
+    echo "results written to $result"
+    exit
+fi
+result="$root/benchmarks/results/$name.json"
+java -jar "$root/benchmarks/target/benchmarks.jar" -rf json -rff "$result" "$@"
+echo "results written to $result"
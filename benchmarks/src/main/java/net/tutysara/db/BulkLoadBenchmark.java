@@ -0,0 +1,98 @@
+package net.tutysara.db;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Comparator;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+// BulkLoadBenchmark loads BATCH keys per invocation, one set at a time or as one
+// WriteBatch. Scores are in keys per second. With SYNC_PER_WRITE every set pays
+// its own fsync while the batch pays one, with OS_FLUSH the difference is the
+// per append overhead of the writer.
+//
+//    java -jar benchmarks/target/benchmarks.jar BulkLoadBenchmark -rf json
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BulkLoadBenchmark {
+    private static final int BATCH = 1000;
+
+    @Param({"SYNC_PER_WRITE", "OS_FLUSH"})
+    public Durability.Mode durability;
+
+    @Param({"128"})
+    public int valueSize;
+
+    private Path dir;
+    private DiskStore store;
+    private byte[][] keyBytes;
+    private byte[] value;
+    private final WriteBatch batch = new WriteBatch();
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("bitcask-bulk-load");
+        var options = Options.defaults()
+                .withDurability(durability == Durability.Mode.SYNC_PER_WRITE
+                        ? Durability.syncPerWrite() : Durability.osFlush())
+                .withMergeInterval(Duration.ZERO);
+        store = new DiskStore(dir.toString(), options);
+        keyBytes = new byte[BATCH][];
+        for (int i = 0; i < BATCH; i++) {
+            keyBytes[i] = String.format("key-%012d", i).getBytes(StandardCharsets.US_ASCII);
+        }
+        value = new byte[valueSize];
+        ThreadLocalRandom.current().nextBytes(value);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        store.close();
+        try (Stream<Path> files = Files.walk(dir)) {
+            for (Path path : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(path);
+            }
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void singleSets() throws IOException {
+        for (byte[] key : keyBytes) {
+            store.set(key, value);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void writeBatch() throws IOException {
+        batch.clear();
+        for (byte[] key : keyBytes) {
+            batch.set(key, value);
+        }
+        store.write(batch);
+    }
+}
@@ -0,0 +1,129 @@
+package net.tutysara.db;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+// CompressionBenchmark weighs the read and write latency of compressed values
+// against the disk space they save. Values are JSON documents with random ids and
+// names, they compress about 4-6x like real ones.
+//
+//    level=0   compression off, the baseline
+//    level=1   Deflater.BEST_SPEED, the default
+//    level=6   Deflater.DEFAULT_COMPRESSION
+//
+// The data directory size of the trial is printed at tear down as
+//
+//    footprint: level=1 valueSize=4096 data=... bytes ratio=...
+//
+// where ratio is raw value bytes / data bytes.
+//
+//    java -jar benchmarks/target/benchmarks.jar CompressionBenchmark -rf json
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CompressionBenchmark {
+
+    @Param({"0", "1", "6"})
+    public int level;
+
+    @Param({"1024", "16384"})
+    public int valueSize;
+
+    @Param({"20000"})
+    public int keys;
+
+    private Path dir;
+    private DiskStore store;
+    private byte[][] keyBytes;
+    private byte[][] values;
+    private final SplittableRandom random = new SplittableRandom(42);
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("bitcask-compression");
+        var options = Options.defaults()
+                .withDurability(Durability.osFlush())
+                .withMergeInterval(Duration.ZERO);
+        if (level > 0) {
+            options = options.withCompressionThreshold(256).withCompressionLevel(level);
+        }
+        Random random = new Random(42);
+        values = new byte[64][];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = json(random, valueSize);
+        }
+        keyBytes = new byte[keys][];
+        store = new DiskStore(dir.toString(), options);
+        for (int i = 0; i < keys; i++) {
+            keyBytes[i] = String.format("key-%012d", i).getBytes(StandardCharsets.US_ASCII);
+            store.set(keyBytes[i], values[i % values.length]);
+        }
+        long data;
+        try (Stream<Path> files = Files.list(dir)) {
+            data = files.filter(Segment::isSegmentFile).mapToLong(path -> path.toFile().length()).sum();
+        }
+        System.out.printf("%nfootprint: level=%d valueSize=%d data=%d bytes ratio=%.2f%n",
+                level, valueSize, data, (double) keys * valueSize / data);
+    }
+
+    // json returns a value of about size bytes: an array of small documents
+    private static byte[] json(Random random, int size) {
+        StringBuilder builder = new StringBuilder("[");
+        while (builder.length() < size - 100) {
+            builder.append("{\"id\":").append(random.nextInt(1_000_000))
+                    .append(",\"name\":\"user-").append(Integer.toHexString(random.nextInt()))
+                    .append("\",\"active\":").append(random.nextBoolean())
+                    .append(",\"score\":").append(random.nextInt(100))
+                    .append(",\"tags\":[\"alpha\",\"beta\"]},");
+        }
+        builder.append("{}]");
+        return builder.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        store.close();
+        try (Stream<Path> files = Files.walk(dir)) {
+            for (Path path : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(path);
+            }
+        }
+    }
+
+    @Benchmark
+    public byte[] get() throws IOException {
+        return store.get(keyBytes[random.nextInt(keys)]);
+    }
+
+    @Benchmark
+    public byte[] set() throws IOException {
+        int key = random.nextInt(keys);
+        store.set(keyBytes[key], values[key % values.length]);
+        return keyBytes[key];
+    }
+}
@@ -0,0 +1,124 @@
+package net.tutysara.db;
+
+import net.tutysara.db.datatype.U32;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// FormatBenchmark measures the record codec and the U32 conversions on their own,
+// without any I/O.
+//
+//    encodeKV / decodeKV   the String API, allocates the record and the Strings
+//    encodeInto            Format.encode into a reused buffer, the write path
+//    checksum              CRC32C of a whole record
+//    headerRoundTrip       encode a header and read its fields back in place, what
+//                          every set and every scanned record does
+//    u32*                  the U32 conversions
+//
+// encodeInto and headerRoundTrip should not allocate at all, the U32 conversions
+// only the object they return. Run with the GC profiler to check
+// gc.alloc.rate.norm, the bytes allocated per operation:
+//
+//    java -jar benchmarks/target/benchmarks.jar FormatBenchmark -prof gc -rf json
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FormatBenchmark {
+
+    @Param({"16", "1024"})
+    public int valueSize;
+
+    private final String key = "key-000000000042";
+    private String value;
+    private byte[] record;
+    private ByteBuffer keyBuffer;
+    private ByteBuffer valueBuffer;
+    private ByteBuffer recordBuffer;
+    private final ByteBuffer headerBuffer = ByteBuffer.allocate(Format.HEADER_SIZE);
+    private long timestamp;
+    private U32 u32;
+    private byte[] u32Bytes;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        StringBuilder builder = new StringBuilder(valueSize);
+        for (int i = 0; i < valueSize; i++) {
+            builder.append((char) ('a' + random.nextInt(26)));
+        }
+        value = builder.toString();
+        timestamp = System.currentTimeMillis() / 1000L;
+        record = Format.encodeKV(timestamp, key, value);
+        keyBuffer = ByteBuffer.wrap(key.getBytes(StandardCharsets.UTF_8));
+        valueBuffer = ByteBuffer.wrap(value.getBytes(StandardCharsets.UTF_8));
+        recordBuffer = ByteBuffer.allocate(record.length);
+        u32 = U32.fromLong(timestamp);
+        u32Bytes = u32.bytes();
+    }
+
+    @Benchmark
+    public byte[] encodeKV() {
+        return Format.encodeKV(timestamp, key, value);
+    }
+
+    @Benchmark
+    public Format.DecoderResponse decodeKV() {
+        return Format.decodeKV(record);
+    }
+
+    @Benchmark
+    public ByteBuffer encodeInto() {
+        recordBuffer.clear();
+        Format.encode(timestamp, keyBuffer, valueBuffer, recordBuffer);
+        return recordBuffer;
+    }
+
+    @Benchmark
+    public long headerRoundTrip() {
+        headerBuffer.clear();
+        Format.encodeHeader(timestamp, 16, valueSize, headerBuffer);
+        return Format.timestamp(headerBuffer, 0) + Format.keySize(headerBuffer, 0)
+                + Format.valueSize(headerBuffer, 0);
+    }
+
+    @Benchmark
+    public int checksum() {
+        return Format.checksum(ByteBuffer.wrap(record), 0, record.length - Format.CRC_SIZE);
+    }
+
+    @Benchmark
+    public U32 u32FromLong() {
+        return U32.fromLong(timestamp);
+    }
+
+    @Benchmark
+    public long u32ToLong() {
+        return u32.toLong();
+    }
+
+    @Benchmark
+    public byte[] u32Bytes() {
+        return u32.bytes();
+    }
+
+    @Benchmark
+    public U32 u32FromBytes() {
+        return U32.fromBytes(u32Bytes);
+    }
+}
@@ -0,0 +1,95 @@
+package net.tutysara.db;
+
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.nio.charset.StandardCharsets;
+
+// KeyDirFootprint measures the memory a keyDir needs per key. It fills a keyDir
+// with `count` keys of the form "user:000000000042" (17 bytes) and reports the heap
+// and direct memory it holds once the garbage of the fill has been collected.
+//
+// It measures one count per JVM, leftover heap and arena state of an earlier fill
+// would skew the next one. Give the JVM enough room; the HASH_MAP keyDir needs a
+// bit more than 150 bytes of heap per key:
+//
+//    java -Xmx20g -XX:MaxDirectMemorySize=8g -cp benchmarks/target/benchmarks.jar \
+//         net.tutysara.db.KeyDirFootprint HASH_MAP 100000000
+//    java -Xmx2g -XX:MaxDirectMemorySize=8g -cp benchmarks/target/benchmarks.jar \
+//         net.tutysara.db.KeyDirFootprint OFF_HEAP 100000000
+//
+// `benchmarks/run.sh footprint` runs 10M, 50M and 100M keys of both types, each
+// in a JVM of its own. The result is printed as one CSV line:
+//
+//    type,keys,heap_bytes,direct_bytes,bytes_per_key,fill_millis
+//
+// With --header the CSV header line is printed first.
+public class KeyDirFootprint {
+
+    public static void main(String[] args) throws InterruptedException {
+        boolean header = args.length == 3 && args[0].equals("--header");
+        int first = header ? 1 : 0;
+        if (args.length - first != 2) {
+            System.err.println("usage: KeyDirFootprint [--header] HASH_MAP|OFF_HEAP keys");
+            System.exit(1);
+        }
+        KeyDirType type = KeyDirType.valueOf(args[first]);
+        long count = Long.parseLong(args[first + 1].replace("_", ""));
+        if (header) {
+            System.out.println("type,keys,heap_bytes,direct_bytes,bytes_per_key,fill_millis");
+        }
+        measure(type, count);
+    }
+
+    private static void measure(KeyDirType type, long count) throws InterruptedException {
+        long heapBefore = usedHeap();
+        long directBefore = usedDirect();
+
+        long started = System.nanoTime();
+        KeyDir keyDir = KeyDir.create(Options.defaults().withKeyDirType(type));
+        byte[] key = "user:000000000000".getBytes(StandardCharsets.US_ASCII);
+        for (long i = 0; i < count; i++) {
+            writeDigits(key, i);
+            keyDir.put(key, new Format.KeyEntry((int) (i >>> 20), i & 0xffffffffL, i * 64, 64));
+        }
+        long fillMillis = (System.nanoTime() - started) / 1_000_000;
+
+        long heap = usedHeap() - heapBefore;
+        long direct = usedDirect() - directBefore;
+        System.out.printf("%s,%d,%d,%d,%.1f,%d%n", type, count, heap, direct,
+                (double) (heap + direct) / count, fillMillis);
+
+        // keep the keyDir reachable until everything was measured
+        if (keyDir.size() != count) {
+            throw new IllegalStateException("expected " + count + " keys, found " + keyDir.size());
+        }
+        keyDir.close();
+    }
+
+    // writeDigits writes `value` as 12 decimal digits at the end of the key
+    private static void writeDigits(byte[] key, long value) {
+        for (int i = key.length - 1; i >= key.length - 12; i--) {
+            key[i] = (byte) ('0' + (value % 10));
+            value /= 10;
+        }
+    }
+
+    private static long usedHeap() throws InterruptedException {
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(100);
+        }
+        return memory.getHeapMemoryUsage().getUsed();
+    }
+
+    private static long usedDirect() {
+        long used = 0;
+        for (BufferPoolMXBean pool : ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class)) {
+            if (pool.getName().equals("direct")) {
+                used += pool.getMemoryUsed();
+            }
+        }
+        return used;
+    }
+}
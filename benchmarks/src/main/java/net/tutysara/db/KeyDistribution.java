@@ -0,0 +1,55 @@
+package net.tutysara.db;
+
+import java.util.Arrays;
+import java.util.Random;
+
+// KeyDistribution picks which keys a benchmark touches.
+//
+//    UNIFORM  - every key is equally likely
+//    ZIPFIAN  - YCSB's Zipfian with theta 0.99: rank r is picked with a weight of
+//               1/(r+1)^0.99, so a small set of keys gets most of the traffic.
+//               Ranks are mapped to shuffled keys, the hot keys are spread over
+//               all the files.
+//
+// Drawing from the distribution costs more than a cached read, so benchmarks draw
+// a sequence of key indexes once in setup and walk it.
+public enum KeyDistribution {
+    UNIFORM,
+    ZIPFIAN;
+
+    static final double THETA = 0.99;
+
+    // samples returns `count` key indexes in [0, keys), count has to be a power of
+    // two so callers can wrap around with a mask
+    int[] samples(int keys, int count, Random random) {
+        assert Integer.bitCount(count) == 1 : "count should be a power of two";
+        int[] samples = new int[count];
+        if (this == UNIFORM) {
+            for (int i = 0; i < count; i++) {
+                samples[i] = random.nextInt(keys);
+            }
+            return samples;
+        }
+        double[] cdf = new double[keys];
+        double sum = 0;
+        for (int i = 0; i < keys; i++) {
+            sum += 1 / Math.pow(i + 1, THETA);
+            cdf[i] = sum;
+        }
+        int[] keyOfRank = new int[keys];
+        for (int i = 0; i < keys; i++) {
+            keyOfRank[i] = i;
+        }
+        for (int i = keys - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int swap = keyOfRank[i];
+            keyOfRank[i] = keyOfRank[j];
+            keyOfRank[j] = swap;
+        }
+        for (int i = 0; i < count; i++) {
+            int rank = Arrays.binarySearch(cdf, random.nextDouble() * sum);
+            samples[i] = keyOfRank[rank < 0 ? Math.min(-rank - 1, keys - 1) : rank];
+        }
+        return samples;
+    }
+}
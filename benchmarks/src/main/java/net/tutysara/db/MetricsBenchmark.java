@@ -0,0 +1,67 @@
+package net.tutysara.db;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+// MetricsBenchmark measures what the metrics add to one get or set. Compare it
+// with the time of the operation itself in StoreBenchmark, a get of a 1 KiB value
+// from the page cache takes about 2 us.
+//
+//    record         a get that is timed: a counter increment, two System.nanoTime
+//                   calls and a histogram record
+//    recordSampled  an average get with the default Options.latencySampling
+//    recordThreads4 recordSampled from 4 threads on the same Metrics
+//    snapshot       DiskStore.metrics minus the segments, what a poller pays
+//
+//    java -jar benchmarks/target/benchmarks.jar MetricsBenchmark
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MetricsBenchmark {
+
+    private final Metrics metrics = new Metrics(Options.defaults().latencySampling());
+
+    @Benchmark
+    public long record() {
+        metrics.gets.increment();
+        long started = System.nanoTime();
+        metrics.getLatency.record(System.nanoTime() - started);
+        return started;
+    }
+
+    @Benchmark
+    public long recordSampled() {
+        metrics.gets.increment();
+        if (!metrics.sampled()) {
+            return 0;
+        }
+        long started = System.nanoTime();
+        metrics.getLatency.record(System.nanoTime() - started);
+        return started;
+    }
+
+    @Benchmark
+    @Threads(4)
+    public long recordThreads4() {
+        return recordSampled();
+    }
+
+    @Benchmark
+    public LatencyStats snapshot() {
+        metrics.gets.sum();
+        return metrics.getLatency.snapshot();
+    }
+}
@@ -0,0 +1,113 @@
+package net.tutysara.db;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+// RangeScanBenchmark reads RANGE consecutive keys from a random start, once with
+// DiskStore.scan and once with a get per key in key order. The keys were written
+// in random order, so key order jumps all over the files; scan reads them in file
+// order instead. Scores are in keys per second.
+//
+//    java -jar benchmarks/target/benchmarks.jar RangeScanBenchmark -rf json
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RangeScanBenchmark {
+    private static final int RANGE = 1000;
+
+    @Param({"256"})
+    public int valueSize;
+
+    @Param({"200000"})
+    public int keys;
+
+    private Path dir;
+    private DiskStore store;
+    private byte[][] keyBytes;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        dir = Files.createTempDirectory("bitcask-range-scan");
+        var options = Options.defaults()
+                .withDurability(Durability.osFlush())
+                .withKeyDirType(KeyDirType.SORTED)
+                .withMaxSegmentSize(16L * 1024 * 1024)
+                .withMergeInterval(Duration.ZERO);
+        keyBytes = new byte[keys][];
+        for (int i = 0; i < keys; i++) {
+            keyBytes[i] = String.format("key-%012d", i).getBytes(StandardCharsets.US_ASCII);
+        }
+        int[] order = KeyDistribution.UNIFORM.samples(keys, Integer.highestOneBit(keys) << 1, new Random(42));
+        Random random = new Random(42);
+        byte[] value = new byte[valueSize];
+        store = new DiskStore(dir.toString(), options);
+        for (int i = 0; i < keys; i++) {
+            random.nextBytes(value);
+            store.set(keyBytes[i], value);
+        }
+        // overwrite in random order, key order and file order no longer match
+        for (int k : order) {
+            random.nextBytes(value);
+            store.set(keyBytes[k], value);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        store.close();
+        try (Stream<Path> files = Files.walk(dir)) {
+            for (Path path : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(path);
+            }
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(RANGE)
+    public long scan() {
+        int start = ThreadLocalRandom.current().nextInt(keys - RANGE);
+        long bytes = 0;
+        var iterator = store.scan(keyBytes[start], keyBytes[start + RANGE]);
+        while (iterator.hasNext()) {
+            bytes += iterator.next().value().length;
+        }
+        return bytes;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(RANGE)
+    public long getEach() throws IOException {
+        int start = ThreadLocalRandom.current().nextInt(keys - RANGE);
+        long bytes = 0;
+        for (int k = start; k < start + RANGE; k++) {
+            bytes += store.get(keyBytes[k]).length;
+        }
+        return bytes;
+    }
+}
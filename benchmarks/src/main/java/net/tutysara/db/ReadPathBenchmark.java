@@ -0,0 +1,125 @@
+package net.tutysara.db;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Comparator;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+// ReadPathBenchmark compares the two ReadModes on a store whose data fits in the
+// page cache, the case the mapped read path is meant for. The store is filled once
+// per trial with `keys` random values of `valueSize` bytes in 16 MiB segments, so
+// nearly every lookup hits a sealed segment. Lookups pick uniformly random keys.
+//
+//    getInto    reads into a reused ByteBuffer, only the read path is measured
+//    getBytes   allocates the value array, what a typical caller pays
+//
+//    java -jar benchmarks/target/benchmarks.jar ReadPathBenchmark -rf json
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ReadPathBenchmark {
+
+    @Param({"CHANNEL", "MMAP"})
+    public ReadMode readMode;
+
+    @Param({"128", "4096"})
+    public int valueSize;
+
+    @Param({"100000"})
+    public int keys;
+
+    private Path dir;
+    private DiskStore store;
+    // keyBytes is precomputed, formatting a key costs more than a mapped read
+    private byte[][] keyBytes;
+
+    @State(Scope.Thread)
+    public static class Buffers {
+        final ByteBuffer key = ByteBuffer.allocate(16);
+        ByteBuffer value;
+
+        @Setup
+        public void setUp(ReadPathBenchmark benchmark) {
+            value = ByteBuffer.allocate(benchmark.valueSize);
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        dir = Files.createTempDirectory("bitcask-read-path");
+        var options = Options.defaults()
+                .withDurability(Durability.osFlush())
+                .withMaxSegmentSize(16L * 1024 * 1024)
+                .withMergeInterval(Duration.ZERO);
+        keyBytes = new byte[keys][];
+        for (int i = 0; i < keys; i++) {
+            keyBytes[i] = String.format("key-%012d", i).getBytes(StandardCharsets.US_ASCII);
+        }
+        byte[] value = new byte[valueSize];
+        try (DiskStore filling = new DiskStore(dir.toString(), options)) {
+            for (int i = 0; i < keys; i++) {
+                ThreadLocalRandom.current().nextBytes(value);
+                filling.set(keyBytes[i], value);
+            }
+        }
+        store = new DiskStore(dir.toString(), options.withReadMode(readMode));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        store.close();
+        try (Stream<Path> files = Files.walk(dir)) {
+            for (Path path : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(path);
+            }
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    public int getInto(Buffers buffers) throws IOException {
+        return getInto(buffers.key, buffers.value);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public int getIntoThreads4(Buffers buffers) throws IOException {
+        return getInto(buffers.key, buffers.value);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public byte[] getBytes() throws IOException {
+        return store.get(keyBytes[ThreadLocalRandom.current().nextInt(keys)]);
+    }
+
+    private int getInto(ByteBuffer key, ByteBuffer value) throws IOException {
+        key.clear().put(keyBytes[ThreadLocalRandom.current().nextInt(keys)]).flip();
+        value.clear();
+        return store.get(key, value);
+    }
+}
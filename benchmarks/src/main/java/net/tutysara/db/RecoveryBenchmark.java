@@ -0,0 +1,114 @@
+package net.tutysara.db;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+// RecoveryBenchmark measures how long opening a store takes, that is rebuilding the
+// keyDir from the data directory. The data files are generated once per trial:
+// `keys` keys written twice each, so half of the records are dead, in 16 MiB
+// segments. Every invocation opens the store once.
+//
+//    hints=true   sealed segments are loaded from their hint files
+//    hints=false  the hint files are deleted before every open and each segment is
+//                 scanned (and its hint file written again)
+//
+//    java -jar benchmarks/target/benchmarks.jar RecoveryBenchmark -rf json
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class RecoveryBenchmark {
+
+    @Param({"1000000"})
+    public int keys;
+
+    @Param({"100"})
+    public int valueSize;
+
+    @Param({"true", "false"})
+    public boolean hints;
+
+    @Param({"1", "4"})
+    public int recoveryThreads;
+
+    @Param({"HASH_MAP", "OFF_HEAP"})
+    public KeyDirType keyDirType;
+
+    private Path dir;
+    private Options options;
+    private DiskStore store;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        dir = Files.createTempDirectory("bitcask-recovery");
+        options = Options.defaults()
+                .withDurability(Durability.osFlush())
+                .withMaxSegmentSize(16L * 1024 * 1024)
+                .withMergeInterval(Duration.ZERO);
+        Random random = new Random(42);
+        byte[] value = new byte[valueSize];
+        try (DiskStore filling = new DiskStore(dir.toString(), options)) {
+            for (int round = 0; round < 2; round++) {
+                for (int i = 0; i < keys; i++) {
+                    random.nextBytes(value);
+                    filling.set(String.format("key-%012d", i).getBytes(StandardCharsets.US_ASCII), value);
+                }
+            }
+        }
+        options = options.withRecoveryThreads(recoveryThreads).withKeyDirType(keyDirType);
+    }
+
+    @Setup(Level.Invocation)
+    public void dropHints() throws IOException {
+        if (!hints) {
+            try (Stream<Path> files = Files.list(dir)) {
+                for (Path path : files.filter(p -> p.toString().endsWith(HintFile.SUFFIX)).toList()) {
+                    Files.delete(path);
+                }
+            }
+        }
+    }
+
+    @TearDown(Level.Invocation)
+    public void closeStore() throws Exception {
+        store.close();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        try (Stream<Path> files = Files.walk(dir)) {
+            for (Path path : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(path);
+            }
+        }
+    }
+
+    @Benchmark
+    public int open() throws IOException {
+        store = new DiskStore(dir.toString(), options);
+        return store.recoveryStats().keys();
+    }
+}
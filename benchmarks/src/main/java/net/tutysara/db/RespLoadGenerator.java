@@ -0,0 +1,224 @@
+package net.tutysara.db;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Stream;
+
+// RespLoadGenerator measures RespServer over loopback. It starts a server on a
+// store in a temp directory, or uses one given as host:port, and runs every
+// combination of
+//
+//    connections   1, 4, 16, 64 clients, each on its own thread
+//    pipeline      1 or 16 commands sent before the replies are read
+//
+// for `seconds` each. Commands are GETs and SETs of 100 byte values on 100k keys,
+// `readPercent` of them GETs. The latency of a command is from writing its
+// pipeline until its reply is read, so it includes the wait behind the commands
+// ahead of it. Every result is printed as one CSV line:
+//
+//    connections,pipeline,ops_per_sec,p50_us,p99_us,p999_us
+//
+//    java -cp benchmarks/target/benchmarks.jar net.tutysara.db.RespLoadGenerator [seconds] [readPercent] [host:port]
+public class RespLoadGenerator {
+    private static final int[] CONNECTIONS = {1, 4, 16, 64};
+    private static final int[] PIPELINES = {1, 16};
+    private static final int KEYS = 100_000;
+    private static final int VALUE_SIZE = 100;
+
+    public static void main(String[] args) throws Exception {
+        int seconds = args.length > 0 ? Integer.parseInt(args[0]) : 5;
+        int readPercent = args.length > 1 ? Integer.parseInt(args[1]) : 80;
+        Path dir = null;
+        DiskStore store = null;
+        RespServer server = null;
+        InetSocketAddress address;
+        if (args.length > 2) {
+            String[] hostPort = args[2].split(":");
+            address = new InetSocketAddress(hostPort[0], Integer.parseInt(hostPort[1]));
+        } else {
+            dir = Files.createTempDirectory("bitcask-resp");
+            store = new DiskStore(dir.toString(), Options.defaults()
+                    .withDurability(Durability.groupCommit(1024, Duration.ZERO)));
+            server = new RespServer(store, new InetSocketAddress("127.0.0.1", 0),
+                    2 * Runtime.getRuntime().availableProcessors());
+            address = server.address();
+        }
+        try {
+            fill(address);
+            System.out.println("connections,pipeline,ops_per_sec,p50_us,p99_us,p999_us");
+            for (int pipeline : PIPELINES) {
+                for (int connections : CONNECTIONS) {
+                    run(address, connections, pipeline, readPercent, Duration.ofSeconds(seconds));
+                }
+            }
+        } finally {
+            if (server != null) {
+                server.close();
+                store.close();
+                try (Stream<Path> files = Files.walk(dir)) {
+                    for (Path path : files.sorted(Comparator.reverseOrder()).toList()) {
+                        Files.delete(path);
+                    }
+                }
+            }
+        }
+    }
+
+    // fill sets every key once, so that GETs find something
+    private static void fill(InetSocketAddress address) throws IOException {
+        byte[] value = new byte[VALUE_SIZE];
+        try (Client client = new Client(address)) {
+            for (int i = 0; i < KEYS; i += 1000) {
+                for (int k = i; k < Math.min(KEYS, i + 1000); k++) {
+                    client.set(key(k), value);
+                }
+                client.flush();
+                for (int k = i; k < Math.min(KEYS, i + 1000); k++) {
+                    client.skipReply();
+                }
+            }
+        }
+    }
+
+    private static void run(InetSocketAddress address, int connections, int pipeline, int readPercent,
+                            Duration duration) throws Exception {
+        Histogram latency = new Histogram();
+        AtomicBoolean stop = new AtomicBoolean();
+        long[] ops = new long[connections];
+        List<Thread> threads = new ArrayList<>();
+        List<Throwable> failures = new ArrayList<>();
+        for (int c = 0; c < connections; c++) {
+            int id = c;
+            Thread thread = new Thread(() -> {
+                SplittableRandom random = new SplittableRandom(id);
+                byte[] value = new byte[VALUE_SIZE];
+                try (Client client = new Client(address)) {
+                    while (!stop.get()) {
+                        long started = System.nanoTime();
+                        for (int i = 0; i < pipeline; i++) {
+                            byte[] key = key(random.nextInt(KEYS));
+                            if (random.nextInt(100) < readPercent) {
+                                client.get(key);
+                            } else {
+                                client.set(key, value);
+                            }
+                        }
+                        client.flush();
+                        for (int i = 0; i < pipeline; i++) {
+                            client.skipReply();
+                            latency.record(System.nanoTime() - started);
+                        }
+                        ops[id] += pipeline;
+                    }
+                } catch (Throwable e) {
+                    synchronized (failures) {
+                        failures.add(e);
+                    }
+                }
+            });
+            threads.add(thread);
+        }
+        long started = System.nanoTime();
+        threads.forEach(Thread::start);
+        Thread.sleep(duration.toMillis());
+        stop.set(true);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        double seconds = (System.nanoTime() - started) / 1e9;
+        if (!failures.isEmpty()) {
+            throw new IOException("Client failed", failures.get(0));
+        }
+        long total = 0;
+        for (long n : ops) {
+            total += n;
+        }
+        LatencyStats stats = latency.snapshot();
+        System.out.printf("%d,%d,%.0f,%.1f,%.1f,%.1f%n", connections, pipeline, total / seconds,
+                stats.p50() / 1e3, stats.p99() / 1e3, stats.p999() / 1e3);
+    }
+
+    private static byte[] key(int k) {
+        return String.format("key-%08d", k).getBytes(StandardCharsets.US_ASCII);
+    }
+
+    // Client writes commands into a buffered stream and skips over the replies
+    private static final class Client implements AutoCloseable {
+        private final Socket socket;
+        private final OutputStream out;
+        private final InputStream in;
+
+        Client(InetSocketAddress address) throws IOException {
+            socket = new Socket(address.getAddress(), address.getPort());
+            socket.setTcpNoDelay(true);
+            out = new BufferedOutputStream(socket.getOutputStream(), 64 * 1024);
+            in = new BufferedInputStream(socket.getInputStream(), 64 * 1024);
+        }
+
+        void get(byte[] key) throws IOException {
+            out.write("*2\r\n$3\r\nGET\r\n".getBytes(StandardCharsets.US_ASCII));
+            bulk(key);
+        }
+
+        void set(byte[] key, byte[] value) throws IOException {
+            out.write("*3\r\n$3\r\nSET\r\n".getBytes(StandardCharsets.US_ASCII));
+            bulk(key);
+            bulk(value);
+        }
+
+        private void bulk(byte[] arg) throws IOException {
+            out.write(('$' + Integer.toString(arg.length) + "\r\n").getBytes(StandardCharsets.US_ASCII));
+            out.write(arg);
+            out.write('\r');
+            out.write('\n');
+        }
+
+        void flush() throws IOException {
+            out.flush();
+        }
+
+        // skipReply reads one reply of GET or SET, failing on an error
+        void skipReply() throws IOException {
+            int type = in.read();
+            long number = 0;
+            boolean negative = false;
+            int b;
+            while ((b = in.read()) != '\r') {
+                if (b < 0) {
+                    throw new EOFException();
+                }
+                if (type == '-') {
+                    throw new IOException("Server replied with an error");
+                }
+                if (b == '-') {
+                    negative = true;
+                } else if (type == '$') {
+                    number = number * 10 + (b - '0');
+                }
+            }
+            in.read();
+            if (type == '$' && !negative) {
+                in.skipNBytes(number + 2);
+            }
+        }
+
+        public void close() throws IOException {
+            socket.close();
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package net.tutysara.db;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+// ShardedStoreBenchmark measures how set throughput grows with the number of
+// shards, 8 threads writing 1 KiB values to random keys.
+//
+//    durability=SYNC   Durability.syncPerWrite, every set waits for its own sync.
+//                      One DiskStore syncs one record at a time, N shards sync N.
+//    durability=OS     Durability.osFlush, no syncs: only the write lock of the
+//                      single log is shared
+//
+// All shards are in one temp directory, so they share a disk. Put the shard
+// directories on different disks to measure more than the lock and the syncs:
+//
+//    java -jar benchmarks/target/benchmarks.jar ShardedStoreBenchmark -rf json
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ShardedStoreBenchmark {
+    private static final int KEYS = 100_000;
+
+    @Param({"1", "2", "4", "8"})
+    public int shards;
+
+    @Param({"SYNC", "OS"})
+    public String durability;
+
+    private Path dir;
+    private ShardedStore store;
+    private byte[][] keyBytes;
+
+    @State(Scope.Thread)
+    public static class Worker {
+        final SplittableRandom random = new SplittableRandom();
+        final byte[] value = new byte[1024];
+
+        @Setup
+        public void setUp() {
+            new Random().nextBytes(value);
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("bitcask-sharded");
+        var options = Options.defaults()
+                .withDurability(durability.equals("SYNC") ? Durability.syncPerWrite() : Durability.osFlush())
+                .withMergeInterval(Duration.ofSeconds(1));
+        keyBytes = new byte[KEYS][];
+        for (int i = 0; i < KEYS; i++) {
+            keyBytes[i] = String.format("key-%012d", i).getBytes(StandardCharsets.US_ASCII);
+        }
+        store = new ShardedStore(dir.toString(), shards, options);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        store.close();
+        try (Stream<Path> files = Files.walk(dir)) {
+            for (Path path : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(path);
+            }
+        }
+    }
+
+    @Benchmark
+    @Threads(8)
+    public byte[] set(Worker worker) throws IOException {
+        byte[] key = keyBytes[worker.random.nextInt(KEYS)];
+        store.set(key, worker.value);
+        return key;
+    }
+}
@@ -0,0 +1,136 @@
+package net.tutysara.db;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+// StoreBenchmark measures DiskStore get and set through the byte[] API, the whole
+// matrix of:
+//
+//    valueSize     16 B to 1 MiB
+//    readPercent   share of gets, the rest are sets of existing keys
+//    distribution  UNIFORM or ZIPFIAN keys, see KeyDistribution
+//    threads       ops on 1 thread, opsThreads4 on 4
+//
+// The store is filled once per trial with DATA_SIZE bytes of values, so big values
+// mean few keys. Sets use OS_FLUSH durability, the fsync cost is measured by
+// BulkLoadBenchmark. The background merge runs as configured by default so that
+// overwrites do not grow the data directory without bound.
+//
+// The full matrix takes long, pick a slice with -p:
+//
+//    java -jar benchmarks/target/benchmarks.jar StoreBenchmark -p valueSize=1024 -rf json
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class StoreBenchmark {
+    private static final long DATA_SIZE = 256L * 1024 * 1024;
+    private static final int MAX_KEYS = 100_000;
+    private static final int SAMPLES = 1 << 20;
+
+    @Param({"16", "1024", "65536", "1048576"})
+    public int valueSize;
+
+    @Param({"100", "95", "50", "0"})
+    public int readPercent;
+
+    @Param({"UNIFORM", "ZIPFIAN"})
+    public KeyDistribution distribution;
+
+    private Path dir;
+    private DiskStore store;
+    private byte[][] keyBytes;
+    private int[] samples;
+
+    // Worker is the per thread state: where it is in the key sequence, its own
+    // random for the read/write choice and the value it writes
+    @State(Scope.Thread)
+    public static class Worker {
+        final SplittableRandom random = new SplittableRandom();
+        int next = random.nextInt(SAMPLES);
+        byte[] value;
+
+        @Setup
+        public void setUp(StoreBenchmark benchmark) {
+            value = new byte[benchmark.valueSize];
+            new Random().nextBytes(value);
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("bitcask-store");
+        var options = Options.defaults()
+                .withDurability(Durability.osFlush())
+                .withMergeInterval(Duration.ofSeconds(1));
+        int keys = (int) Math.max(64, Math.min(MAX_KEYS, DATA_SIZE / valueSize));
+        keyBytes = new byte[keys][];
+        for (int i = 0; i < keys; i++) {
+            keyBytes[i] = String.format("key-%012d", i).getBytes(StandardCharsets.US_ASCII);
+        }
+        Random random = new Random(42);
+        byte[] value = new byte[valueSize];
+        store = new DiskStore(dir.toString(), options);
+        for (int i = 0; i < keys; i++) {
+            random.nextBytes(value);
+            store.set(keyBytes[i], value);
+        }
+        samples = distribution.samples(keys, SAMPLES, random);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        store.close();
+        try (Stream<Path> files = Files.walk(dir)) {
+            for (Path path : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(path);
+            }
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    public byte[] ops(Worker worker) throws IOException {
+        return op(worker);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public byte[] opsThreads4(Worker worker) throws IOException {
+        return op(worker);
+    }
+
+    private byte[] op(Worker worker) throws IOException {
+        byte[] key = keyBytes[samples[worker.next++ & (SAMPLES - 1)]];
+        if (worker.random.nextInt(100) < readPercent) {
+            return store.get(key);
+        }
+        store.set(key, worker.value);
+        return key;
+    }
+}
@@ -0,0 +1,117 @@
+package net.tutysara.db;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+// ZipfianReadBenchmark reads keys with a Zipfian popularity (see KeyDistribution)
+// from a store with and without the value cache. The cache holds about 10% of the
+// data. The cache counters of the trial are printed at tear down, so the hit rate
+// can be checked against the score.
+//
+//    java -jar benchmarks/target/benchmarks.jar ZipfianReadBenchmark -rf json
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ZipfianReadBenchmark {
+    private static final int SAMPLES = 1 << 20;
+
+    @Param({"0", "10"})
+    public int cachePercent;
+
+    @Param({"1024"})
+    public int valueSize;
+
+    @Param({"100000"})
+    public int keys;
+
+    private Path dir;
+    private DiskStore store;
+    private byte[][] keyBytes;
+    // samples is a precomputed Zipfian key sequence, drawing from the distribution
+    // costs more than a cached read
+    private int[] samples;
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        int next = new Random().nextInt(SAMPLES);
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        dir = Files.createTempDirectory("bitcask-zipfian");
+        var options = Options.defaults()
+                .withDurability(Durability.osFlush())
+                .withMaxSegmentSize(16L * 1024 * 1024)
+                .withMergeInterval(Duration.ZERO);
+        keyBytes = new byte[keys][];
+        for (int i = 0; i < keys; i++) {
+            keyBytes[i] = String.format("key-%012d", i).getBytes(StandardCharsets.US_ASCII);
+        }
+        Random random = new Random(42);
+        byte[] value = new byte[valueSize];
+        try (DiskStore filling = new DiskStore(dir.toString(), options)) {
+            for (int i = 0; i < keys; i++) {
+                random.nextBytes(value);
+                filling.set(keyBytes[i], value);
+            }
+        }
+        long dataSize = (long) keys * (valueSize + 16);
+        store = new DiskStore(dir.toString(), options.withValueCacheSize(dataSize * cachePercent / 100));
+        samples = KeyDistribution.ZIPFIAN.samples(keys, SAMPLES, random);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        var stats = store.cacheStats();
+        System.out.printf("%ncache: hits=%d misses=%d evictions=%d entries=%d bytes=%d hitRate=%.3f%n",
+                stats.hits(), stats.misses(), stats.evictions(), stats.entries(), stats.bytes(), stats.hitRate());
+        store.close();
+        try (Stream<Path> files = Files.walk(dir)) {
+            for (Path path : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(path);
+            }
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    public byte[] get(Cursor cursor) throws IOException {
+        return read(cursor);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public byte[] getThreads4(Cursor cursor) throws IOException {
+        return read(cursor);
+    }
+
+    private byte[] read(Cursor cursor) throws IOException {
+        int key = samples[cursor.next++ & (SAMPLES - 1)];
+        return store.get(keyBytes[key]);
+    }
+}
@@ -4,12 +4,27 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
 
 
-public class App 
+// App runs the store on its own:
+//
+//    java -jar bitcask.jar serve <dir> [port] [workers]
+//
+// serves the store in dir over RESP on port (6379 by default) until the process
+// is stopped, see RespServer. Writes of concurrent connections share syncs through
+// group commit. Without arguments it runs a small demo in test.db.
+public class App
 {
     private static final Logger logger = LoggerFactory.getLogger(App.class);
     public static void main( String[] args ) throws IOException {
+        if (args.length >= 2 && args[0].equals("serve")) {
+            serve(args[1], args.length > 2 ? Integer.parseInt(args[2]) : 6379,
+                    args.length > 3 ? Integer.parseInt(args[3]) : 2 * Runtime.getRuntime().availableProcessors());
+            return;
+        }
         try(DiskStore ds = new DiskStore("test.db")) {
             ds.set("name", "jojo");
             var name = ds.get("name");
@@ -19,4 +34,29 @@ public class App
             logger.error("Error while closing datastore", e);
         }
     }
+
+    private static void serve(String dir, int port, int workers) throws IOException {
+        var options = Options.defaults()
+                .withDurability(Durability.groupCommit(1024, Duration.ZERO))
+                .withJmx(true);
+        CountDownLatch stopped = new CountDownLatch(1);
+        try (DiskStore ds = new DiskStore(dir, options);
+             RespServer server = new RespServer(ds, new InetSocketAddress(port), workers)) {
+            // on SIGTERM let main close the server and the store before the JVM exits
+            Thread main = Thread.currentThread();
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                stopped.countDown();
+                try {
+                    main.join();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }));
+            stopped.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            logger.error("Error while closing the server", e);
+        }
+    }
 }
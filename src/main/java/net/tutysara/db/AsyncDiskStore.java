@@ -0,0 +1,72 @@
+package net.tutysara.db;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.function.Supplier;
+
+// AsyncDiskStore is the AsyncStore of a DiskStore. It is a view, closing the
+// DiskStore closes it too.
+//
+// How each call avoids blocking its caller:
+//
+//    get      a key that is not in the keyDir completes at once. Otherwise the
+//             positional read runs on the executor, reads never take a lock, so
+//             any number of them can be in flight.
+//    set ..   the record, or the batch, is encoded on the calling thread, the
+//             caller may reuse its arrays and its WriteBatch as soon as the call
+//             returned. With GROUP_COMMIT the encoded record is put on the
+//             writer's queue and the future completes when its batch is synced.
+//             With the other Durability modes the write happens on the
+//             appending thread, so the append itself runs on the executor.
+//
+// The futures of the writer complete on the writer thread while it holds the
+// write lock, they are handed over to the executor before the caller sees them.
+final class AsyncDiskStore implements AsyncStore {
+    private final DiskStore store;
+    private final Executor executor;
+    private final boolean queued;
+
+    AsyncDiskStore(DiskStore store, Executor executor, boolean queued) {
+        this.store = store;
+        this.executor = executor;
+        this.queued = queued;
+    }
+
+    public CompletableFuture<byte[]> get(byte[] key) {
+        if (!store.probe(key)) {
+            return CompletableFuture.completedFuture(null);
+        }
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return store.get(key);
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            }
+        }, executor);
+    }
+
+    public CompletableFuture<Void> set(byte[] key, byte[] value) {
+        return append(store.encodeSet(ByteBuffer.wrap(key), ByteBuffer.wrap(value), 0));
+    }
+
+    public CompletableFuture<Void> delete(byte[] key) {
+        return append(store.encodeDelete(ByteBuffer.wrap(key)));
+    }
+
+    public CompletableFuture<Void> write(WriteBatch batch) {
+        return append(store.encodeWrite(batch));
+    }
+
+    // append runs the append of an already encoded record or batch, the caller's
+    // arrays and batch are not touched any more and can be reused at once
+    private CompletableFuture<Void> append(Supplier<CompletableFuture<Void>> write) {
+        if (queued) {
+            return write.get().whenCompleteAsync((result, e) -> {
+            }, executor);
+        }
+        return CompletableFuture.supplyAsync(write, executor).thenCompose(done -> done);
+    }
+}
@@ -0,0 +1,25 @@
+package net.tutysara.db;
+
+import java.util.concurrent.CompletableFuture;
+
+// AsyncStore is the non-blocking API of the store, see DiskStore.async. No method
+// waits for the disk on the calling thread: reads run on the executor given to
+// async, writes are queued to the group commit writer. Every future completes on
+// that executor, never on the writer thread, so whatever the caller chains onto it
+// cannot hold up other writes.
+//
+// Failures complete the future exceptionally, with the IOException as the cause.
+public interface AsyncStore {
+    // get completes with the value of the key, or null if the key does not exist
+    public CompletableFuture<byte[]> get(byte[] key);
+
+    // set completes once the record is as durable as the configured Durability
+    // promises and a get sees the new value
+    public CompletableFuture<Void> set(byte[] key, byte[] value);
+
+    // delete removes the key, deleting a key that does not exist is not an error
+    public CompletableFuture<Void> delete(byte[] key);
+
+    // write applies every operation of the batch or none of them, see WriteBatch
+    public CompletableFuture<Void> write(WriteBatch batch);
+}
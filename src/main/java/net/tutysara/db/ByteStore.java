@@ -0,0 +1,28 @@
+package net.tutysara.db;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+// ByteStore is the binary API of the store. Keys and values are opaque bytes, so
+// callers that already hold bytes skip the String round trip of Store, and the
+// ByteBuffer variants let a caller reuse its own buffers across calls.
+public interface ByteStore {
+    // get returns the value of the key, or null if the key does not exist
+    public byte[] get(byte[] key) throws IOException;
+
+    // get reads the value of the key, the remaining bytes of `key`, into dst. The
+    // value is read from the data file straight into dst and the position of dst is
+    // moved past it. Returns the size of the value, or -1 if the key does not exist.
+    // If the value does not fit into dst.remaining(), dst is left untouched and the
+    // caller can retry with a buffer of the returned size.
+    public int get(ByteBuffer key, ByteBuffer dst) throws IOException;
+
+    public void set(byte[] key, byte[] value) throws IOException;
+
+    // set stores the remaining bytes of value under the remaining bytes of key, the
+    // positions of both buffers are left alone
+    public void set(ByteBuffer key, ByteBuffer value) throws IOException;
+
+    // delete removes the key, deleting a key that does not exist is not an error
+    public void delete(byte[] key) throws IOException;
+}
@@ -0,0 +1,19 @@
+package net.tutysara.db;
+
+// CacheStats is a point in time copy of the value cache counters of a DiskStore.
+//
+//    hits       - gets answered from the cache
+//    misses     - gets that had to read the data file
+//    evictions  - entries dropped or not admitted to stay within maxBytes
+//    entries    - values in the cache now
+//    bytes      - estimated heap used by them, values plus per entry overhead
+//    maxBytes   - the configured size, Options.valueCacheSize
+//
+// All zero when the cache is off.
+public record CacheStats(long hits, long misses, long evictions, long entries, long bytes, long maxBytes) {
+
+    public double hitRate() {
+        long requests = hits + misses;
+        return requests == 0 ? 0 : (double) hits / requests;
+    }
+}
@@ -0,0 +1,100 @@
+package net.tutysara.db;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+// Compression deflates values of at least Options.compressionThreshold bytes
+// before they are written. A compressed value is stored as
+//
+//    ┌──────────────┬────────────────┐
+//    │ raw_size(4B) │ deflate stream │
+//    └──────────────┴────────────────┘
+//
+// and its record has the COMPRESSED flag set, see Format. The stream is raw
+// deflate, without the zlib header and Adler-32: the checksum of the record
+// already covers it. value_size is the size of what is stored, so nothing that
+// only walks the file needs to know about compression. raw_size lets get allocate
+// the value before inflating it.
+//
+// A value that does not get smaller is stored raw. Values of a WriteBatch are
+// always stored raw, the merge compresses them when it copies them.
+//
+// Deflater and Inflater hold native memory and are expensive to create, every
+// thread keeps one of each and resets it for the next value.
+final class Compression {
+    static final int SIZE_PREFIX = 4;
+
+    private static final ThreadLocal<Deflater> DEFLATER =
+            ThreadLocal.withInitial(() -> new Deflater(Deflater.BEST_SPEED, true));
+    private static final ThreadLocal<Inflater> INFLATER = ThreadLocal.withInitial(() -> new Inflater(true));
+
+    private Compression() {
+    }
+
+    // compress returns the stored form of the remaining bytes of value, or null if
+    // it would not be smaller than the value itself. The position of value is left
+    // alone.
+    static byte[] compress(ByteBuffer value, int level) {
+        int rawSize = value.remaining();
+        if (rawSize <= SIZE_PREFIX) {
+            return null;
+        }
+        Deflater deflater = DEFLATER.get();
+        deflater.reset();
+        deflater.setLevel(level);
+        deflater.setInput(value.duplicate());
+        deflater.finish();
+        // anything that reaches rawSize is not worth it
+        byte[] stored = new byte[rawSize];
+        ByteBuffer.wrap(stored).putInt(rawSize);
+        int size = SIZE_PREFIX;
+        while (!deflater.finished()) {
+            if (size == stored.length) {
+                return null;
+            }
+            size += deflater.deflate(stored, size, stored.length - size);
+        }
+        return Arrays.copyOf(stored, size);
+    }
+
+    // rawSize returns the size of the value stored in the remaining bytes of stored
+    static int rawSize(ByteBuffer stored) {
+        return stored.getInt(stored.position());
+    }
+
+    // decompress inflates the value stored in the remaining bytes of stored into dst,
+    // which needs rawSize bytes left
+    static void decompress(ByteBuffer stored, ByteBuffer dst) throws IOException {
+        int rawSize = rawSize(stored);
+        if (rawSize < 0 || rawSize > dst.remaining()) {
+            throw new IOException("Corrupt compressed value, raw size " + rawSize);
+        }
+        Inflater inflater = INFLATER.get();
+        inflater.reset();
+        inflater.setInput(stored.slice(stored.position() + SIZE_PREFIX, stored.remaining() - SIZE_PREFIX));
+        ByteBuffer out = dst.slice(dst.position(), rawSize);
+        try {
+            while (out.hasRemaining()) {
+                if (inflater.inflate(out) == 0 && (inflater.finished() || inflater.needsInput()
+                        || inflater.needsDictionary())) {
+                    throw new IOException("Corrupt compressed value, it ends after "
+                            + out.position() + " of " + rawSize + " bytes");
+                }
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt compressed value", e);
+        }
+        dst.position(dst.position() + rawSize);
+    }
+
+    static byte[] decompress(byte[] stored) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(stored);
+        byte[] value = new byte[rawSize(buffer)];
+        decompress(buffer, ByteBuffer.wrap(value));
+        return value;
+    }
+}
@@ -5,40 +5,166 @@ import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
-import java.nio.channels.FileChannel;
+import java.nio.channels.ClosedChannelException;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.nio.file.StandardOpenOption;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
-;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.function.Consumer;
+import java.util.function.IntFunction;
+import java.util.function.Supplier;
 
-public class DiskStore implements Store, AutoCloseable{
+public class DiskStore implements Store, ByteStore, AutoCloseable{
     private static final Logger log = LoggerFactory.getLogger(DiskStore.class);
-    private FileChannel filechannel;
-    private Map<String, Format.KeyEntry> keyDir =  new HashMap<>();
+    // MAX_TTL keeps expiry times within the U32 timestamp of a record
+    private static final Duration MAX_TTL = Duration.ofDays(365L * 80);
+    // segments holds every open data file, the active one included
+    private Segments segments;
+    // keyDir is read without any locking by get, see KeyDir for the implementations.
+    // Entries are only ever published after the record bytes are on disk. It keeps
+    // what open snapshots need of the entries it replaced, see VersionedKeyDir.
+    private VersionedKeyDir keyDir;
+    // writer is the single append path. Readers never go through it, they only use
+    // positional reads which do not touch the shared channel position.
+    private LogWriter writer;
+    // batchSequence is odd while the keyDir updates of a WriteBatch are being
+    // published and pendingBatch holds what its keys had before, see encodeWrite
+    private volatile long batchSequence;
+    private volatile PendingBatch pendingBatch;
+    // merger rewrites sealed segments in the background to drop dead records
+    private Merger merger;
+    // sweeper removes the keys whose ttl ran out from the keyDir
+    private ExpirySweeper sweeper;
+    // valueCache holds hot values by record location, null when it is off
+    private ValueCache valueCache;
+    private RecoveryStats recoveryStats;
+    private Options options;
+    // metrics is updated on every operation, see metrics()
+    private Metrics metrics;
+    // mbean is registered when Options.jmx is on, null otherwise
+    private DiskStoreJmx mbean;
 
     private DiskStore(){
     }
 
-    public DiskStore(String fileName) throws IOException {
-        Path path = Paths.get(fileName);
-        var filechannel = FileChannel.open(path,
-                StandardOpenOption.READ,
-                StandardOpenOption.WRITE,
-                StandardOpenOption.CREATE,
-                StandardOpenOption.SYNC);
+    public DiskStore(String dirName) throws IOException {
+        this(dirName, Options.defaults());
+    }
+
+    // dirName is the data directory of the store, it is created if it does not
+    // exist. See Segment for the layout of the directory. A single data file
+    // written before segments existed is adopted, see adoptLegacyFile.
+    public DiskStore(String dirName, Options options) throws IOException {
+        Path dir = Paths.get(dirName);
+        adoptLegacyFile(dir);
+        Files.createDirectories(dir);
+        boolean sync = options.durability().mode() == Durability.Mode.SYNC_PER_WRITE;
+        this.options = options;
+        this.metrics = new Metrics(options.latencySampling());
+
+        this.segments = new Segments(dir, options.readMode());
+        KeyDir recovered = KeyDir.create(options);
+        this.keyDir = new VersionedKeyDir(recovered);
+        this.valueCache = options.valueCacheSize() > 0 ? new ValueCache(options.valueCacheSize()) : null;
+        List<Segment> existing = segments.openExisting();
+
+        // sealed segments always have a hint file, so the newest data file without
+        // one was the active segment when the store was closed
+        Segment tail = null;
+        if (!existing.isEmpty()) {
+            Segment newest = existing.get(existing.size() - 1);
+            if (!HintFile.exists(dir, newest.fileId())) {
+                tail = newest;
+            }
+        }
+        HintFile.Builder tailHints = new HintFile.Builder();
+        // the sweeper and the merge both remove keys whose ttl ran out
+        Consumer<Format.KeyEntry> expired = dead -> {
+            metrics.expired.increment();
+            dropKey(dead);
+        };
+        this.sweeper = new ExpirySweeper(keyDir, expired);
+        this.recoveryStats = new Recovery(segments, recovered, options, sweeper).run(existing, tail, tailHints);
 
-        this.filechannel = filechannel;
+        // keep appending to the tail unless it is already full or was written in an
+        // older format, every other file stays sealed
+        for (Segment segment : existing) {
+            if (segment != tail) {
+                segments.seal(segment);
+            }
+        }
+        Segment active;
+        HintFile.Builder activeHints;
+        if (tail != null && tail.size() < options.maxSegmentSize()
+                && (tail.version() == Format.VERSION || tail.size() == 0)) {
+            active = segments.reopenWritable(tail, sync);
+            activeHints = tailHints;
+        } else {
+            if (tail != null) {
+                tailHints.write(dir, tail.fileId());
+                segments.seal(tail);
+            }
+            active = segments.create(sync);
+            activeHints = new HintFile.Builder();
+        }
+        this.writer = new LogWriter(segments, active, activeHints, options, metrics);
+        keyDir.publish(writer.published(), () -> {
+        });
+        this.merger = new Merger(segments, keyDir, writer, options, expired);
+        if (options.jmx()) {
+            this.mbean = DiskStoreJmx.register(this, dir);
+        }
+    }
 
-        if(filechannel.size() > 0){
-            initKeyDir();
+    // adoptLegacyFile turns the data file of a store from before segments, where
+    // dirName was the file itself, into a data directory with that file as its
+    // first segment:
+    //
+    //    test.db  ──►  test.db.adopt/000000001.data  ──►  test.db/000000001.data
+    //
+    // Both steps are renames. A crash between them leaves only the temporary
+    // directory, the next open moves it into place. The file is read as a version
+    // 0 segment, see Segment.
+    static void adoptLegacyFile(Path dir) throws IOException {
+        Path tmp = dir.resolveSibling(dir.getFileName() + ".adopt");
+        if (Files.isRegularFile(dir)) {
+            Files.createDirectories(tmp);
+            Files.move(dir, tmp.resolve(Segment.fileName(1)), StandardCopyOption.ATOMIC_MOVE);
+        }
+        if (!Files.exists(dir) && Files.isDirectory(tmp)) {
+            Files.move(tmp, dir, StandardCopyOption.ATOMIC_MOVE);
+            log.info("Adopted the single file store {} as segment {}", dir, Segment.fileName(1));
         }
     }
 
     public void close() throws Exception {
-        if(filechannel != null){
-            filechannel.close();
+        if(mbean != null){
+            mbean.unregister();
+        }
+        if(sweeper != null){
+            sweeper.close();
+        }
+        if(merger != null){
+            merger.close();
+        }
+        if(writer != null){
+            writer.close();
+        }
+        if(segments != null){
+            segments.close();
+        }
+        if(keyDir != null){
+            keyDir.close();
         }
     }
 
@@ -48,87 +174,512 @@ public class DiskStore implements Store, AutoCloseable{
         //
         // How get works?
         //	1. Check if there is any KeyEntry record for the key in keyDir
-        //	2. Return an empty string if key doesn't exist
-        //	3. If it exists, then read KeyEntry.totalSize bytes starting from the
-        //     KeyEntry.position from the disk
-        //	4. Decode the bytes into valid KV pair and return the value
+        //	2. Return an empty string if key doesn't exist, or has expired
+        //	3. If it exists, then read the value bytes of the record starting from
+        //     KeyEntry.position from the data file KeyEntry.fileId
+        //	4. Decode the value bytes and return the value
         //
+        byte[] value = get(key.getBytes(Format.CHAR_SET));
+        return value == null ? "" : new String(value, Format.CHAR_SET);
+    }
+
+    public byte[] get(byte[] key) throws IOException {
+        byte[][] value = new byte[1][];
+        int size = readValue(key, valueSize -> {
+            value[0] = new byte[valueSize];
+            return ByteBuffer.wrap(value[0]);
+        });
+        return size < 0 ? null : value[0];
+    }
+
+    public int get(ByteBuffer key, ByteBuffer dst) throws IOException {
+        byte[] keyBytes = new byte[key.remaining()];
+        key.get(key.position(), keyBytes);
+        int size = readValue(keyBytes,
+                valueSize -> valueSize > dst.remaining() ? null : dst.slice(dst.position(), valueSize));
+        if (size > 0 && size <= dst.remaining()) {
+            dst.position(dst.position() + size);
+        }
+        return size;
+    }
 
-        var keyEntry = keyDir.get(key);
-        if(keyEntry == null){
-            return "";
+    // readValue looks up the key and reads its value into the buffer that target
+    // returns for the value size, or nowhere if target returns null. Returns the
+    // value size, or -1 if the key does not exist.
+    //
+    // The key is already known, so only the value slice of the record is read:
+    //
+    //    position
+    //    ┌───────────┬─────┬───────┐
+    //    │ header    │ key │ value │
+    //    └───────────┴─────┴───────┘
+    //                      ^ position + HEADER_SIZE + key size
+    //
+    // A compressed value is read into a buffer of its own first and inflated into
+    // the target, the size passed to target is the raw size.
+    //
+    // With the value cache on, a cached value is copied into the target instead and
+    // a value read from the file is added to the cache. The cache holds values
+    // inflated.
+    //
+    // A merge can move the record and delete its segment between the keyDir lookup
+    // and the read, in that case the keyDir already points at the new location and
+    // we retry.
+    //
+    // An entry whose ttl ran out is a miss, whether the sweeper removed it yet or
+    // not, and the file is not read.
+    //
+    // Every call counts as a get, misses and failures included, and sampled calls
+    // are timed.
+    private int readValue(byte[] key, IntFunction<ByteBuffer> target) throws IOException {
+        metrics.gets.increment();
+        if (!metrics.sampled()) {
+            return readValueAt(key, target);
         }
-        // move the current pointer to the right offset
-        filechannel.position(keyEntry.position());
-        ByteBuffer buffer = ByteBuffer.allocate(keyEntry.totalSize());
-        filechannel.read(buffer);
-        buffer.flip();
-        Format.DecoderResponse response = Format.decodeKV(buffer.array());
-        return response.value();
+        long started = System.nanoTime();
+        try {
+            return readValueAt(key, target);
+        } finally {
+            metrics.getLatency.record(System.nanoTime() - started);
+        }
+    }
 
+    private int readValueAt(byte[] key, IntFunction<ByteBuffer> target) throws IOException {
+        while (true) {
+            var keyEntry = visibleEntry(key);
+            if (keyEntry == null || isExpired(keyEntry)) {
+                return -1;
+            }
+            int valueOffset = Format.valueOffset(key.length);
+            if (valueCache != null) {
+                byte[] cached = valueCache.get(keyEntry.fileId(), keyEntry.position());
+                if (cached != null) {
+                    ByteBuffer buffer = target.apply(cached.length);
+                    if (buffer != null) {
+                        buffer.put(cached);
+                    }
+                    return cached.length;
+                }
+            }
+            var segment = segments.get(keyEntry.fileId());
+            try {
+                if (segment != null) {
+                    int valueSize = keyEntry.totalSize() - valueOffset - Format.trailerSize(segment.version());
+                    ByteBuffer stored = null;
+                    if (keyEntry.compressed()) {
+                        stored = ByteBuffer.allocate(valueSize);
+                        segment.read(stored, keyEntry.position() + valueOffset);
+                        metrics.bytesRead.add(valueSize);
+                        valueSize = Compression.rawSize(stored);
+                    }
+                    ByteBuffer buffer = target.apply(valueSize);
+                    if (buffer != null) {
+                        if (stored != null) {
+                            Compression.decompress(stored, buffer.duplicate());
+                        } else {
+                            segment.read(buffer, keyEntry.position() + valueOffset);
+                            metrics.bytesRead.add(valueSize);
+                        }
+                        if (valueCache != null) {
+                            byte[] value = new byte[valueSize];
+                            buffer.get(0, value);
+                            valueCache.put(keyEntry.fileId(), keyEntry.position(), value);
+                        }
+                    }
+                    return valueSize;
+                }
+            } catch (ClosedChannelException e) {
+                if (keyEntry.equals(visibleEntry(key))) {
+                    throw e;
+                }
+                continue;
+            }
+            if (keyEntry.equals(visibleEntry(key))) {
+                throw new IOException("Missing data file " + keyEntry.fileId() + " for key "
+                        + new String(key, Format.CHAR_SET));
+            }
+        }
+    }
+
+    // containsKey tells whether the key exists without reading the data file
+    boolean containsKey(byte[] key) {
+        var keyEntry = visibleEntry(key);
+        return keyEntry != null && !isExpired(keyEntry);
+    }
+
+    // PendingBatch is the WriteBatch being published while batchSequence is
+    // `sequence`: before maps each of its keys to the entry it had before the
+    // batch, null if it had none
+    private record PendingBatch(long sequence, Map<ByteBuffer, Format.KeyEntry> before) {
+    }
+
+    // visibleEntry is the keyDir entry of the key with the WriteBatch that is being
+    // published left out: a key of the batch has the entry it had before, any
+    // other key its current one. It never waits for the writer, a batch that
+    // started or ended during the lookup makes it look again. With no batch being
+    // published it costs two volatile reads more than the keyDir lookup.
+    private Format.KeyEntry visibleEntry(byte[] key) {
+        while (true) {
+            long seen = batchSequence;
+            if ((seen & 1) != 0) {
+                PendingBatch pending = pendingBatch;
+                if (pending == null || pending.sequence() != seen) {
+                    continue;
+                }
+                ByteBuffer wrapped = ByteBuffer.wrap(key);
+                if (pending.before().containsKey(wrapped)) {
+                    return pending.before().get(wrapped);
+                }
+            }
+            var keyEntry = keyDir.get(key);
+            if (batchSequence == seen) {
+                return keyEntry;
+            }
+        }
+    }
+
+    // isExpired reads the clock only for entries that have a ttl
+    private static boolean isExpired(Format.KeyEntry keyEntry) {
+        return keyEntry.expires() && keyEntry.expired(System.currentTimeMillis());
+    }
+
+    // probe is a get that stops before the data file: it tells whether the key
+    // exists, and counts as a get that found nothing if it does not. AsyncStore.get
+    // answers a missing key with it.
+    boolean probe(byte[] key) {
+        if (containsKey(key)) {
+            return true;
+        }
+        metrics.gets.increment();
+        return false;
+    }
+
+    // async returns the non-blocking API of the store, see AsyncStore. Reads, and
+    // writes when the Durability mode is not GROUP_COMMIT, run on executor: size it
+    // for the number of reads the disk serves at once, not for the number of
+    // requests in flight. The AsyncStore is closed with the store.
+    public AsyncStore async(Executor executor) {
+        return new AsyncDiskStore(this, executor, options.durability().mode() == Durability.Mode.GROUP_COMMIT);
+    }
+
+    // logSource returns the log of the store for a Follower, see LogShipper. Needs
+    // Options.keepTombstones, otherwise a merge can drop deletes that a follower
+    // has not read yet and it would keep those keys forever.
+    public LogSource logSource() {
+        if (!options.keepTombstones()) {
+            throw new IllegalStateException("logSource needs Options.keepTombstones");
+        }
+        return new LogShipper(segments, writer);
+    }
+
+    // scan returns the keys in [from, to), in unsigned byte order, together with
+    // their values. A null bound is open. The iterator is lazy and reads the values
+    // of the keys ahead in file order, see RangeIterator. Values read by scan do not
+    // go through the value cache.
+    //
+    // Needs KeyDirType.SORTED, other keyDirs throw UnsupportedOperationException.
+    public Iterator<KeyValue> scan(byte[] from, byte[] to) {
+        return new RangeIterator(keyDir.range(from, to), segments, this::get);
+    }
+
+    // prefix returns the keys that start with prefix and their values, like scan
+    public Iterator<KeyValue> prefix(byte[] prefix) {
+        return scan(prefix, RangeIterator.prefixEnd(prefix));
+    }
+
+    // snapshot returns a read only view of the store as it is now, see Snapshot. It
+    // takes the same time for any size of store, at most the time the writer takes
+    // to publish one append. A get through it costs about as much as a get on the
+    // store. Close the snapshot when done: until then it keeps merged segments on
+    // disk, and the old entry of every key written since in memory, as much as a
+    // keyDir entry with its key.
+    public Snapshot snapshot() {
+        return new Snapshot(keyDir, keyDir.open(segments::pin), segments);
     }
 
     public void set(String key, String value) throws IOException {
+        await(setAsync(key, value));
+    }
+
+    public void set(byte[] key, byte[] value) throws IOException {
+        await(setAsync(ByteBuffer.wrap(key), ByteBuffer.wrap(value)));
+    }
+
+    public void set(ByteBuffer key, ByteBuffer value) throws IOException {
+        await(setAsync(key, value));
+    }
+
+    // set with a ttl stores a key that expires: from ttl after the call on, get
+    // does not find it and the sweeper removes it, see ExpirySweeper. Expiry times
+    // are whole seconds, rounded up, so the key lives at most a second longer
+    // than ttl. Setting the key again replaces the ttl, without one the key no
+    // longer expires. A ttl that is zero or negative is an IllegalArgumentException.
+    public void set(String key, String value, Duration ttl) throws IOException {
+        set(key.getBytes(Format.CHAR_SET), value.getBytes(Format.CHAR_SET), ttl);
+    }
+
+    public void set(byte[] key, byte[] value, Duration ttl) throws IOException {
+        await(setAsync(ByteBuffer.wrap(key), ByteBuffer.wrap(value), ttl));
+    }
+
+    public CompletableFuture<Void> setAsync(ByteBuffer key, ByteBuffer value, Duration ttl) {
+        return encodeSet(key, value, expiresAt(ttl)).get();
+    }
+
+    // expiresAt is the expiry time of a record set now with ttl, in epoch seconds
+    static long expiresAt(Duration ttl) {
+        if (ttl.compareTo(Duration.ZERO) <= 0) {
+            throw new IllegalArgumentException("ttl should be positive: " + ttl);
+        }
+        long millis = System.currentTimeMillis() + (ttl.compareTo(MAX_TTL) > 0 ? MAX_TTL : ttl).toMillis();
+        return Math.min((millis + 999) / 1000, 0xFFFF_FFFFL);
+    }
+
+    public CompletableFuture<Void> setAsync(String key, String value) {
+        return setAsync(ByteBuffer.wrap(key.getBytes(Format.CHAR_SET)),
+                ByteBuffer.wrap(value.getBytes(Format.CHAR_SET)));
+    }
+
+    public CompletableFuture<Void> setAsync(ByteBuffer key, ByteBuffer value) {
+        return encodeSet(key, value, 0).get();
+    }
+
+    // encodeSet encodes the record of a set and returns its append, expiresAt is 0
+    // for a key that does not expire. Nothing of key and value is used after it
+    // returned, the append can run on any thread. The encode* methods are split
+    // from their append for AsyncDiskStore.
+    Supplier<CompletableFuture<Void>> encodeSet(ByteBuffer key, ByteBuffer value, long expiresAt) {
         // Set stores the key and value on the disk
         //
         // The steps to save a KV to disk is simple:
         // 1. Encode the KV into bytes
-        // 2. Write the bytes to disk by appending to the file
+        // 2. Write the bytes to disk by appending to the active data file
         // 3. Update KeyDir with the KeyEntry of this key
+        //
+        // Encoding happens on the caller's thread, only the append and the keyDir
+        // update are serialised by the writer so that the keyDir order always matches
+        // the file order. The returned future completes once the record is as
+        // durable as the configured Durability promises.
+        //
+        // The record is encoded in one pass into an array of its exact size. It
+        // cannot be a reused buffer: with group commit it waits in the writer's
+        // queue after this method returned. With compression on, a large value is
+        // deflated first, also on the caller's thread.
+        //
+        // A record that expires has its expiry time in place of the time it was
+        // written, with the EXPIRES flag, see Format.
+        metrics.sets.increment();
+        long started = metrics.sampled() ? System.nanoTime() : -1;
+        boolean expires = expiresAt != 0;
+        long timeStamp = expires ? expiresAt : System.currentTimeMillis() / 1000L;
+        byte[] stored = null;
+        if (options.compressionThreshold() > 0 && value.remaining() >= options.compressionThreshold()) {
+            stored = Compression.compress(value, options.compressionLevel());
+        }
+        boolean compressed = stored != null;
+        if (compressed) {
+            value = ByteBuffer.wrap(stored);
+        }
+        byte[] record = new byte[Format.recordSize(key.remaining(), value.remaining())];
+        Format.encode(timeStamp, key, value, compressed, expires, ByteBuffer.wrap(record));
+        byte[] keyBytes = new byte[key.remaining()];
+        key.get(key.position(), keyBytes);
+        return () -> writer.append(record, (fileId, position) -> {
+            keyDir.publish(new LogPosition(fileId, position + record.length), () -> putKeyEntry(keyBytes,
+                    new Format.KeyEntry(fileId, timeStamp, position, record.length, compressed, expires)));
+            if (started != -1) {
+                metrics.setLatency.record(System.nanoTime() - started);
+            }
+        });
+    }
+
+    public void delete(String key) throws IOException {
+        await(deleteAsync(ByteBuffer.wrap(key.getBytes(Format.CHAR_SET))));
+    }
+
+    public void delete(byte[] key) throws IOException {
+        await(deleteAsync(ByteBuffer.wrap(key)));
+    }
+
+    public CompletableFuture<Void> deleteAsync(ByteBuffer key) {
+        return encodeDelete(key).get();
+    }
+
+    // encodeDelete encodes the tombstone of a delete and returns its append, like
+    // encodeSet
+    Supplier<CompletableFuture<Void>> encodeDelete(ByteBuffer key) {
+        // Delete appends a tombstone for the key and drops the key from the keyDir
+        // once the tombstone is written. The record the key pointed at and the
+        // tombstone itself both count as dead bytes, the merge reclaims the first
+        // and drops the tombstone once no older record of the key is left.
+        metrics.deletes.increment();
         long timeStamp = System.currentTimeMillis() / 1000L;
-        byte[] bytes = Format.encodeKV(timeStamp,  key, value);
-        ByteBuffer buffer = ByteBuffer.allocate(bytes.length);
-        buffer.put(bytes);
-        buffer.flip();
-        // move to end of file and write
-        long position = filechannel.size();
-        int bytesWritten = filechannel.write(buffer, position);
-        assert bytesWritten == bytes.length : " Mismatch between bytesWritten and bytes.length";
-        keyDir.put(key, new Format.KeyEntry(timeStamp, position, bytesWritten));
-
-    }
-
-    private void initKeyDir() throws IOException {
-        // we will initialise the keyDir by reading the contents of the file, record by
-        // record. As we read each record, we will also update our keyDir with the
-        // corresponding KeyEntry
+        byte[] record = new byte[Format.tombstoneSize(key.remaining())];
+        Format.encodeTombstone(timeStamp, key, ByteBuffer.wrap(record));
+        byte[] keyBytes = new byte[key.remaining()];
+        key.get(key.position(), keyBytes);
+        return () -> writer.append(record, (fileId, position) -> keyDir.publish(
+                new LogPosition(fileId, position + record.length), () -> {
+                    dropKey(keyDir.remove(keyBytes));
+                    addDeadBytes(new Format.KeyEntry(fileId, timeStamp, position, record.length));
+                }));
+    }
+
+    public void write(WriteBatch batch) throws IOException {
+        await(writeAsync(batch));
+    }
+
+    public CompletableFuture<Void> writeAsync(WriteBatch batch) {
+        return encodeWrite(batch).get();
+    }
+
+    // encodeWrite encodes the batch and returns its append, like encodeSet. The
+    // batch can be cleared or reused once it returned.
+    Supplier<CompletableFuture<Void>> encodeWrite(WriteBatch batch) {
+        // Write appends every operation of the batch with one append, so with one
+        // write and one sync, and then applies them to the keyDir in batch order.
+        // After a crash either all of them or none are recovered.
+        //
+        // Readers see all of the keyDir updates or none of them. Before they are
+        // applied the publisher notes the entry every key of the batch has, then
+        // makes batchSequence odd. While it is odd a get of one of those keys
+        // returns the noted entry, a get of any other key reads the keyDir as
+        // usual; nobody waits for the batch. Once a get returned a value of the
+        // batch, every later get returns the batch's value of its key too.
+        // Publishers never run concurrently, so the writer is the only one
+        // changing batchSequence.
+        //
+        //    batchSequence   2n ──► 2n+1 ──── put, remove, put ──── 2n+2
+        //    get, batch key           entry before the batch       ► batch's entry
+        //    get, other key           keyDir ───────────────────────────────────►
+        //
+        // A get that overlaps a change of batchSequence looks the key up again.
+        // The keyDir lock of publish keeps the merger and the sweeper from moving
+        // a key of the batch while it is noted.
         //
-        // NOTE: this method is a blocking one, if the DB size is huge then it will take
-        // a lot of time to startup
-
-        log.info("Loading file data...");
-        int recordCount = 0;
-        while(true){
-            ByteBuffer buffer = ByteBuffer.allocate(Format.HEADER_SIZE);
-            long position = filechannel.position();
-            int bytesRead = filechannel.read(buffer);
-            if(bytesRead == -1){
-                break; // we have reached EOF
+        // Snapshots see all of a batch or none of it as well, scans are not gated,
+        // see RangeIterator.
+        if (batch.isEmpty()) {
+            return () -> CompletableFuture.completedFuture(null);
+        }
+        metrics.batches.increment();
+        byte[] data = batch.encode();
+        var ops = batch.ops();
+        return () -> writer.append(data, (fileId, position) -> keyDir.publish(
+                new LogPosition(fileId, position + data.length), () -> {
+                    Map<ByteBuffer, Format.KeyEntry> before = new HashMap<>();
+                    for (WriteBatch.Op op : ops) {
+                        before.put(ByteBuffer.wrap(op.key()), keyDir.get(op.key()));
+                    }
+                    pendingBatch = new PendingBatch(batchSequence + 1, before);
+                    batchSequence++;
+                    try {
+                        for (WriteBatch.Op op : ops) {
+                            var keyEntry = new Format.KeyEntry(fileId, op.timestamp(), position + op.offset(),
+                                    op.size(), false, op.expires());
+                            if (op.tombstone()) {
+                                dropKey(keyDir.remove(op.key()));
+                                addDeadBytes(keyEntry);
+                            } else {
+                                putKeyEntry(op.key(), keyEntry);
+                            }
+                        }
+                    } finally {
+                        batchSequence++;
+                        pendingBatch = null;
+                    }
+                }));
+    }
+
+    // merge rewrites every sealed segment that has dead records and deletes the old
+    // files. The background merge does the same, but only for segments whose dead
+    // ratio passed Options.mergeTriggerRatio. Returns the number of segments merged.
+    public int merge() throws IOException {
+        return merger.merge(Double.MIN_VALUE);
+    }
+
+    public MergeMetrics mergeMetrics() {
+        return merger.metrics();
+    }
+
+    // cacheStats returns the value cache counters, all zero when the cache is off
+    public CacheStats cacheStats() {
+        return valueCache == null ? new CacheStats(0, 0, 0, 0, 0, 0) : valueCache.stats();
+    }
+
+    // recoveryStats tells how long it took to rebuild the keyDir when the store
+    // was opened
+    public RecoveryStats recoveryStats() {
+        return recoveryStats;
+    }
+
+    // metrics returns a point in time copy of every counter of the store, see
+    // StoreMetrics. It is cheap enough to poll every second: it adds up the
+    // counters and histograms and asks every segment for its size, it does not
+    // read any file.
+    public StoreMetrics metrics() throws IOException {
+        int activeId = writer.published().fileId();
+        List<SegmentStats> segmentStats = new ArrayList<>();
+        for (Segment segment : segments.all()) {
+            long size;
+            try {
+                size = segment.size();
+            } catch (ClosedChannelException e) {
+                // merged away since we listed the segments
+                continue;
             }
-            buffer.flip();
-            var header = Format.decodeHeader(buffer.array());
-            buffer.clear();
-
-            ByteBuffer bufferKey = ByteBuffer.allocate(header.keySize());
-            bytesRead = filechannel.read(bufferKey);
-            assert bytesRead == header.keySize() : "Mismatch between bytesRead and header.keySize";
-            bufferKey.flip();
-            String key = new String(bufferKey.array(), Format.CHAR_SET);
-            bufferKey.clear();
-
-            ByteBuffer bufferValue = ByteBuffer.allocate(header.valueSize());
-            bytesRead = filechannel.read(bufferValue);
-            assert bytesRead == header.valueSize() : "Mismatch between bytesRead and header.valueSize";
-            bufferValue.flip();
-            String value = new String(bufferValue.array(), Format.CHAR_SET);
-            bufferValue.clear();
-
-            int totalSize = Format.HEADER_SIZE +  header.keySize() + header.valueSize();
-            keyDir.put(key, new Format.KeyEntry(header.timeStamp().toLong(), position, totalSize));
-            recordCount++;
-            log.info("loaded key={}, value={}", key, value);
-
-        }
-        log.info("Scanned {} entries, Loaded {} unique keys", recordCount,keyDir.size());
+            long dead = Math.min(segment.deadBytes(), size);
+            segmentStats.add(new SegmentStats(segment.fileId(), size, size - dead, dead,
+                    segment.keys(), segment.fileId() == activeId));
+        }
+        segmentStats.sort(Comparator.comparingInt(SegmentStats::fileId));
+        return new StoreMetrics(metrics.gets.sum(), metrics.sets.sum(), metrics.deletes.sum(),
+                metrics.batches.sum(), metrics.bytesWritten.sum(), metrics.bytesRead.sum(),
+                metrics.syncs.sum(), metrics.expired.sum(), metrics.getLatency.snapshot(), metrics.setLatency.snapshot(),
+                metrics.syncLatency.snapshot(), keyDir.size(), segmentStats, recoveryStats,
+                merger.metrics(), cacheStats());
+    }
+
+    private void putKeyEntry(byte[] key, Format.KeyEntry keyEntry) {
+        segments.get(keyEntry.fileId()).addKey();
+        dropKey(keyDir.put(key, keyEntry));
+        if (keyEntry.expires()) {
+            sweeper.add(key, keyEntry);
+        }
+    }
+
+    // dropKey marks the record the keyDir pointed at as dead
+    private void dropKey(Format.KeyEntry dead) {
+        if (dead != null) {
+            if (valueCache != null) {
+                valueCache.invalidate(dead.fileId(), dead.position());
+            }
+            var segment = segments.get(dead.fileId());
+            if (segment != null) {
+                segment.dropKey(dead.totalSize());
+            }
+        }
+    }
+
+    // addDeadBytes marks a record the keyDir never pointed at as dead, a tombstone
+    private void addDeadBytes(Format.KeyEntry dead) {
+        var segment = segments.get(dead.fileId());
+        if (segment != null) {
+            segment.addDeadBytes(dead.totalSize());
+        }
+    }
+
+    private static void await(CompletableFuture<Void> future) throws IOException {
+        try {
+            future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for the write to complete", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException ioException) {
+                throw ioException;
+            }
+            throw new IOException(e.getCause());
+        }
     }
 }
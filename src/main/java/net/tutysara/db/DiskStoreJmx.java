@@ -0,0 +1,158 @@
+package net.tutysara.db;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Path;
+
+// DiskStoreJmx registers a store with the platform MBeanServer, see DiskStoreMXBean.
+// Two stores of the same directory in one JVM would get the same name, the second
+// one is not registered and a warning is logged.
+final class DiskStoreJmx implements DiskStoreMXBean {
+    private static final Logger log = LoggerFactory.getLogger(DiskStoreJmx.class);
+
+    private final DiskStore store;
+    private final ObjectName name;
+
+    private DiskStoreJmx(DiskStore store, ObjectName name) {
+        this.store = store;
+        this.name = name;
+    }
+
+    // register returns the registered bean, or null if it could not be registered
+    static DiskStoreJmx register(DiskStore store, Path dir) {
+        try {
+            ObjectName name = name(dir);
+            DiskStoreJmx mbean = new DiskStoreJmx(store, name);
+            ManagementFactory.getPlatformMBeanServer().registerMBean(mbean, name);
+            return mbean;
+        } catch (JMException e) {
+            log.warn("Could not register the DiskStore MBean for {}", dir, e);
+            return null;
+        }
+    }
+
+    static ObjectName name(Path dir) throws JMException {
+        return new ObjectName("net.tutysara.db:type=DiskStore,dir="
+                + ObjectName.quote(dir.toAbsolutePath().normalize().toString()));
+    }
+
+    void unregister() {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            server.unregisterMBean(name);
+        } catch (JMException e) {
+            log.warn("Could not unregister the DiskStore MBean {}", name, e);
+        }
+    }
+
+    private StoreMetrics metrics() {
+        try {
+            return store.metrics();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public long getGets() {
+        return metrics().gets();
+    }
+
+    public long getSets() {
+        return metrics().sets();
+    }
+
+    public long getDeletes() {
+        return metrics().deletes();
+    }
+
+    public long getBatches() {
+        return metrics().batches();
+    }
+
+    public long getBytesWritten() {
+        return metrics().bytesWritten();
+    }
+
+    public long getBytesRead() {
+        return metrics().bytesRead();
+    }
+
+    public long getSyncs() {
+        return metrics().syncs();
+    }
+
+    public long getExpired() {
+        return metrics().expired();
+    }
+
+    public int getKeys() {
+        return metrics().keys();
+    }
+
+    public int getSegments() {
+        return metrics().segments().size();
+    }
+
+    public long getLiveBytes() {
+        return metrics().liveBytes();
+    }
+
+    public long getDeadBytes() {
+        return metrics().deadBytes();
+    }
+
+    public long getGetLatencyP50() {
+        return metrics().getLatency().p50();
+    }
+
+    public long getGetLatencyP99() {
+        return metrics().getLatency().p99();
+    }
+
+    public long getGetLatencyP999() {
+        return metrics().getLatency().p999();
+    }
+
+    public long getSetLatencyP50() {
+        return metrics().setLatency().p50();
+    }
+
+    public long getSetLatencyP99() {
+        return metrics().setLatency().p99();
+    }
+
+    public long getSetLatencyP999() {
+        return metrics().setLatency().p999();
+    }
+
+    public long getSyncLatencyP50() {
+        return metrics().syncLatency().p50();
+    }
+
+    public long getSyncLatencyP99() {
+        return metrics().syncLatency().p99();
+    }
+
+    public long getSyncLatencyP999() {
+        return metrics().syncLatency().p999();
+    }
+
+    public long getRecoveryMillis() {
+        return metrics().recovery().duration().toMillis();
+    }
+
+    public long getMergeBytesReclaimed() {
+        return metrics().merge().bytesReclaimed();
+    }
+
+    public double getCacheHitRate() {
+        return metrics().cache().hitRate();
+    }
+}
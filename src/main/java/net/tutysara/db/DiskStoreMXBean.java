@@ -0,0 +1,56 @@
+package net.tutysara.db;
+
+// DiskStoreMXBean is what a store registered with Options.withJmx shows in JMX,
+// under net.tutysara.db:type=DiskStore,dir="<data directory>". The attributes are
+// the ones of StoreMetrics, latencies in nanoseconds. Every read of an attribute
+// takes a new DiskStore.metrics, so two attributes are not from the same moment.
+public interface DiskStoreMXBean {
+
+    long getGets();
+
+    long getSets();
+
+    long getDeletes();
+
+    long getBatches();
+
+    long getBytesWritten();
+
+    long getBytesRead();
+
+    long getSyncs();
+
+    long getExpired();
+
+    int getKeys();
+
+    int getSegments();
+
+    long getLiveBytes();
+
+    long getDeadBytes();
+
+    long getGetLatencyP50();
+
+    long getGetLatencyP99();
+
+    long getGetLatencyP999();
+
+    long getSetLatencyP50();
+
+    long getSetLatencyP99();
+
+    long getSetLatencyP999();
+
+    long getSyncLatencyP50();
+
+    long getSyncLatencyP99();
+
+    long getSyncLatencyP999();
+
+    long getRecoveryMillis();
+
+    long getMergeBytesReclaimed();
+
+    double getCacheHitRate();
+}
@@ -0,0 +1,45 @@
+package net.tutysara.db;
+
+import java.time.Duration;
+
+// Durability decides when a set is acknowledged to the caller.
+//
+//    SYNC_PER_WRITE - the data file is opened with StandardOpenOption.SYNC, every
+//                     record is on stable storage before set returns. This is the
+//                     slowest mode and the default, it is what DiskStore always did.
+//    GROUP_COMMIT   - concurrent writes are queued, written with one gathering write
+//                     and made durable with a single force() per batch. A batch is
+//                     closed when it holds maxBatchSize records or linger has passed
+//                     since the first record was taken off the queue.
+//    OS_FLUSH       - records are handed to the OS page cache and only forced when the
+//                     store is closed, the OS flushes them whenever it wants. A crash
+//                     of the machine (not the process) can lose acknowledged writes.
+public record Durability(Mode mode, int maxBatchSize, Duration linger) {
+
+    public enum Mode {
+        SYNC_PER_WRITE,
+        GROUP_COMMIT,
+        OS_FLUSH
+    }
+
+    public Durability {
+        if (maxBatchSize <= 0) {
+            throw new IllegalArgumentException("maxBatchSize should be positive: " + maxBatchSize);
+        }
+        if (linger.isNegative()) {
+            throw new IllegalArgumentException("linger should not be negative: " + linger);
+        }
+    }
+
+    public static Durability syncPerWrite() {
+        return new Durability(Mode.SYNC_PER_WRITE, 1, Duration.ZERO);
+    }
+
+    public static Durability groupCommit(int maxBatchSize, Duration linger) {
+        return new Durability(Mode.GROUP_COMMIT, maxBatchSize, linger);
+    }
+
+    public static Durability osFlush() {
+        return new Durability(Mode.OS_FLUSH, 1, Duration.ZERO);
+    }
+}
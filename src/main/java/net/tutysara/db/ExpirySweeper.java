@@ -0,0 +1,114 @@
+package net.tutysara.db;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+// ExpirySweeper drops the keys whose ttl ran out from the keyDir, so that they
+// stop taking memory and their records count as dead bytes for the merge. get
+// does not need it, it already treats an expired entry as missing.
+//
+// Every key set with a ttl goes into an ExpiryWheel. Once a second the sweeper
+// takes the keys that expired during that second out of the wheel and removes
+// each of them with a compare and set on the keyDir, if it still maps to an
+// expired entry. The work is spread over the seconds the way the expiry times
+// are, and neither writers nor readers ever wait for it: the wheel lock is only
+// held to add a key or to take out one second's worth. The sweeper thread is
+// started by the first key added, a store without ttls never has one.
+final class ExpirySweeper implements AutoCloseable {
+    private static final Logger log = LoggerFactory.getLogger(ExpirySweeper.class);
+
+    private final KeyDir keyDir;
+    private final Consumer<Format.KeyEntry> dropKey;
+    private final ExpiryWheel wheel = new ExpiryWheel(System.currentTimeMillis() / 1000);
+    // lock guards starting and stopping scheduler
+    private final ReentrantLock lock = new ReentrantLock();
+    private volatile ScheduledExecutorService scheduler;
+    private boolean closed;
+
+    // dropKey is called with every entry the sweeper removed
+    ExpirySweeper(KeyDir keyDir, Consumer<Format.KeyEntry> dropKey) {
+        this.keyDir = keyDir;
+        this.dropKey = dropKey;
+    }
+
+    // add schedules the key of an entry that expires
+    void add(byte[] key, Format.KeyEntry keyEntry) {
+        wheel.add(key, keyEntry.timestamp());
+        if (scheduler == null) {
+            start();
+        }
+    }
+
+    private void start() {
+        lock.lock();
+        try {
+            if (scheduler != null || closed) {
+                return;
+            }
+            scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "bitcask-expiry");
+                thread.setDaemon(true);
+                return thread;
+            });
+            scheduler.scheduleWithFixedDelay(this::sweepInBackground, 1, 1, TimeUnit.SECONDS);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // started is whether the sweeper thread runs
+    boolean started() {
+        return scheduler != null;
+    }
+
+    private void sweepInBackground() {
+        try {
+            sweep(System.currentTimeMillis());
+        } catch (RuntimeException e) {
+            log.error("Expiry sweep failed", e);
+        }
+    }
+
+    // sweep removes the keys that expired by nowMillis and returns how many
+    int sweep(long nowMillis) {
+        int removed = 0;
+        for (ExpiryWheel.Entry entry : wheel.advance(nowMillis / 1000)) {
+            var current = keyDir.get(entry.key());
+            // the key may have been set again, with or without a ttl, or deleted
+            if (current != null && current.expired(nowMillis) && keyDir.remove(entry.key(), current)) {
+                dropKey.accept(current);
+                removed++;
+            } else if (current != null && current.expires() && current.timestamp() != entry.expiresAt()) {
+                // two writers of the key added it in the other order, follow the keyDir
+                wheel.add(entry.key(), current.timestamp());
+            }
+        }
+        return removed;
+    }
+
+    // pending is the number of keys waiting in the wheel
+    int pending() {
+        return wheel.size();
+    }
+
+    public void close() throws Exception {
+        ScheduledExecutorService running;
+        lock.lock();
+        try {
+            closed = true;
+            running = scheduler;
+        } finally {
+            lock.unlock();
+        }
+        if (running != null) {
+            running.shutdownNow();
+            running.awaitTermination(1, TimeUnit.MINUTES);
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package net.tutysara.db;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+// ExpiryWheel keeps the keys that have a ttl sorted by expiry time, coarsely
+// enough that adding one is O(1) and finding the due ones costs nothing for the
+// keys that are not due. It is a hierarchical timing wheel with a tick of one
+// second, the resolution of expiry times:
+//
+//    level 0   64 slots of 1 s       ┌──┬──┬──┬──┬─────┬──┐
+//                                    │  │  │▲ │  │ ... │  │  one slot fires per tick
+//                                    └──┴──┴┼─┴──┴─────┴──┘
+//    level 1   64 slots of 64 s      ┌──┬──┬┴─┬──┬─────┬──┐
+//                                    │  │  │  │  │ ... │  │  cascades every 64 ticks
+//                                    └──┴──┴──┴──┴─────┴──┘
+//    ...
+//    level 4   64 slots of 64^4 s, about 34 years in all
+//
+// A key goes to the lowest level whose span covers its expiry, in the slot its
+// expiry time falls in. When the clock reaches the start of a slot of a higher
+// level, that slot is cascaded: its keys go down a level or more, closer to
+// their exact second. So every key moves at most once per level and advance only
+// looks at the keys that are due or about to be.
+//
+// A key is in the wheel at most once: adding it again moves it to the slot of
+// its new expiry time, an index from key to slot finds the old one. The wheel
+// does not follow deletes and overwrites without a ttl, a key may come out of it
+// when it no longer expires; the caller checks the keyDir. Expiry times further
+// out than the wheel reaches wait in the last slot of the top level and are put
+// back whenever it cascades.
+final class ExpiryWheel {
+    private static final int SLOT_BITS = 6;
+    private static final int SLOTS = 1 << SLOT_BITS;
+    private static final int LEVELS = 5;
+
+    record Entry(byte[] key, long expiresAt) {
+    }
+
+    private final ReentrantLock lock = new ReentrantLock();
+    // slots[level][slot], created on first use
+    private final Slot[][] slots = new Slot[LEVELS][SLOTS];
+    // slotOf is the slot every key in the wheel is in
+    private final Map<ByteBuffer, Slot> slotOf = new HashMap<>();
+    // due are the keys that expire at or before now
+    private Slot due = new Slot();
+    private long now;
+
+    // Slot is one bucket of the wheel, by key so that a key that is added again
+    // leaves its old slot
+    private static final class Slot {
+        final Map<ByteBuffer, Entry> entries = new HashMap<>();
+    }
+
+    // now is the current time in epoch seconds
+    ExpiryWheel(long now) {
+        this.now = now;
+    }
+
+    // add schedules the key to be returned by advance once the clock reaches
+    // expiresAt, in epoch seconds, instead of when it was added before
+    void add(byte[] key, long expiresAt) {
+        lock.lock();
+        try {
+            ByteBuffer wrapped = ByteBuffer.wrap(key);
+            Slot old = slotOf.get(wrapped);
+            if (old != null) {
+                old.entries.remove(wrapped);
+            }
+            place(wrapped, new Entry(key, expiresAt));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // advance moves the clock to `to`, in epoch seconds, and returns the keys that
+    // expire at or before it. The clock never goes back.
+    List<Entry> advance(long to) {
+        lock.lock();
+        try {
+            while (now < to) {
+                now++;
+                for (int level = LEVELS - 1; level > 0; level--) {
+                    if ((now & ((1L << (SLOT_BITS * level)) - 1)) == 0) {
+                        Slot cascaded = take(level, now);
+                        if (cascaded != null) {
+                            cascaded.entries.forEach(this::place);
+                        }
+                    }
+                }
+                Slot fired = take(0, now);
+                if (fired != null) {
+                    fired.entries.forEach(this::place);
+                }
+            }
+            List<Entry> expired = new ArrayList<>(due.entries.values());
+            due.entries.keySet().forEach(slotOf::remove);
+            due = new Slot();
+            return expired;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // size is the number of keys in the wheel
+    int size() {
+        lock.lock();
+        try {
+            return slotOf.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // place puts the entry in its slot, caller holds lock
+    private void place(ByteBuffer key, Entry entry) {
+        Slot slot = slotFor(entry.expiresAt());
+        slot.entries.put(key, entry);
+        slotOf.put(key, slot);
+    }
+
+    private Slot slotFor(long expiresAt) {
+        long delay = expiresAt - now;
+        if (delay <= 0) {
+            return due;
+        }
+        for (int level = 0; level < LEVELS; level++) {
+            if (delay < 1L << (SLOT_BITS * (level + 1))) {
+                return slot(level, expiresAt);
+            }
+        }
+        // beyond the reach of the wheel, look again when the clock gets closer
+        return slot(LEVELS - 1, now - 1);
+    }
+
+    private Slot slot(int level, long time) {
+        int index = (int) (time >>> (SLOT_BITS * level)) & (SLOTS - 1);
+        if (slots[level][index] == null) {
+            slots[level][index] = new Slot();
+        }
+        return slots[level][index];
+    }
+
+    private Slot take(int level, long time) {
+        int index = (int) (time >>> (SLOT_BITS * level)) & (SLOTS - 1);
+        Slot taken = slots[level][index];
+        slots[level][index] = null;
+        return taken;
+    }
+}
@@ -0,0 +1,236 @@
+package net.tutysara.db;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Follower is a read replica: a DiskStore of its own that tails the log of a
+// primary through a LogSource and serves reads of what it has applied.
+//
+//    primary                                       follower
+//    ┌──────────────┐   read(position, CHUNK_SIZE)   ┌──────────────┐
+//    │ LogShipper   │ ◄───────────────────────────── │ poll         │
+//    │              │ ─────────── LogChunk ────────► │  write batch │──► own data files
+//    └──────────────┘                                │  FOLLOWER    │──► position
+//                                                    └──────────────┘
+//
+// Every chunk is applied as one WriteBatch, then the position after it is saved in
+// the FOLLOWER file of the directory. A restart resumes from there. A crash
+// between the two applies the chunk a second time, which changes nothing: records
+// are applied in log order and each one replaces whatever the key had.
+//
+// The follower sees the writes of the primary once they are published there, a
+// chunk at a time. With start the lag stays within the poll interval plus the time
+// to apply what was written meanwhile, lag tells how far behind it is.
+//
+// The records get new timestamps and values are stored raw, the follower's merge
+// compresses them if its Options say so. Keys with a ttl keep their expiry time,
+// a record that has already expired is applied as a delete.
+public final class Follower implements AutoCloseable {
+    private static final Logger log = LoggerFactory.getLogger(Follower.class);
+    static final String POSITION_FILE = "FOLLOWER";
+    // CHUNK_SIZE is how many log bytes one poll asks for
+    static final int CHUNK_SIZE = 1024 * 1024;
+
+    private final DiskStore store;
+    private final LogSource source;
+    private final Path positionFile;
+    // pollLock keeps polls in order, start polls on a thread of its own
+    private final ReentrantLock pollLock = new ReentrantLock();
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "bitcask-follower");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private volatile boolean closed;
+    private volatile LogPosition position;
+    private volatile LogPosition primary;
+    private volatile long behind = -1;
+    private volatile long caughtUpAt = System.currentTimeMillis();
+
+    // dirName is the data directory of the follower, it must not be written by
+    // anything else
+    public Follower(String dirName, Options options, LogSource source) throws IOException {
+        Path dir = Paths.get(dirName);
+        this.store = new DiskStore(dirName, options);
+        this.source = source;
+        this.positionFile = dir.resolve(POSITION_FILE);
+        try {
+            this.position = loadPosition(positionFile);
+        } catch (IOException e) {
+            closeStore();
+            throw e;
+        }
+    }
+
+    public byte[] get(byte[] key) throws IOException {
+        return store.get(key);
+    }
+
+    public String get(String key) throws IOException {
+        return store.get(key);
+    }
+
+    // position is where the follower reads the log of the primary next
+    public LogPosition position() {
+        return position;
+    }
+
+    public ReplicationLag lag() {
+        LogPosition end = primary;
+        long bytes = behind;
+        long millis = bytes == 0 ? 0 : System.currentTimeMillis() - caughtUpAt;
+        return new ReplicationLag(position, end, end == null ? -1 : bytes, end == null ? -1 : millis);
+    }
+
+    // poll reads one chunk of the log and applies it, it returns the number of
+    // records applied
+    public int poll() throws IOException {
+        pollLock.lock();
+        try {
+            return apply(source.read(position, CHUNK_SIZE));
+        } finally {
+            pollLock.unlock();
+        }
+    }
+
+    // catchUp polls until a chunk reaches the end of the log of the primary. A
+    // chunk can be short and still leave the follower behind, the source may hand
+    // out less, so it goes by behind.
+    public void catchUp() throws IOException {
+        pollLock.lock();
+        try {
+            LogChunk chunk;
+            do {
+                chunk = source.read(position, CHUNK_SIZE);
+                apply(chunk);
+            } while (chunk.behind() > 0 && !closed);
+        } finally {
+            pollLock.unlock();
+        }
+    }
+
+    // start catches up every interval in the background, until close. Failures,
+    // of the transport for instance, are logged and tried again at the next
+    // interval.
+    public void start(Duration interval) {
+        if (interval.isZero() || interval.isNegative()) {
+            throw new IllegalArgumentException("interval should be positive: " + interval);
+        }
+        long millis = interval.toMillis();
+        scheduler.scheduleWithFixedDelay(this::catchUpInBackground, 0, millis, TimeUnit.MILLISECONDS);
+    }
+
+    private void catchUpInBackground() {
+        try {
+            catchUp();
+        } catch (IOException e) {
+            log.warn("Follower failed to catch up from {}", position, e);
+        }
+    }
+
+    // apply writes the records of the chunk as one batch and moves position past
+    // them. Caller holds pollLock.
+    private int apply(LogChunk chunk) throws IOException {
+        ByteBuffer records = ByteBuffer.wrap(chunk.records());
+        WriteBatch batch = new WriteBatch();
+        long now = System.currentTimeMillis();
+        int index = 0;
+        while (index < records.limit()) {
+            if (records.limit() - index < Format.HEADER_SIZE) {
+                throw new IOException("Log chunk from " + position + " ends inside a record");
+            }
+            int keySize = Format.keySize(records, index);
+            int valueSize = Format.valueSize(records, index);
+            long totalSize = (long) Format.HEADER_SIZE + keySize + Format.valueLength(valueSize) + Format.CRC_SIZE;
+            if (valueSize < Format.TOMBSTONE || totalSize > records.limit() - index
+                    || !Format.isIntact(records, index, (int) totalSize)) {
+                throw new IOException("Damaged record in log chunk from " + position + " at " + index);
+            }
+            byte[] key = new byte[keySize];
+            records.get(index + Format.HEADER_SIZE, key);
+            long expiresAt = Format.expires(records, index) ? Format.timestamp(records, index) : 0;
+            if (valueSize == Format.TOMBSTONE || (expiresAt != 0 && expiresAt * 1000 <= now)) {
+                batch.delete(key);
+            } else {
+                byte[] value = new byte[valueSize];
+                records.get(index + Format.valueOffset(keySize), value);
+                batch.set(key, Format.isCompressed(records, index) ? Compression.decompress(value) : value, expiresAt);
+            }
+            index += (int) totalSize;
+        }
+        store.write(batch);
+        if (!chunk.next().equals(position)) {
+            savePosition(positionFile, chunk.next());
+            position = chunk.next();
+        }
+        primary = chunk.end();
+        behind = chunk.behind();
+        if (chunk.behind() == 0) {
+            caughtUpAt = System.currentTimeMillis();
+        }
+        return batch.size();
+    }
+
+    // loadPosition reads the FOLLOWER file, a follower without one starts at the
+    // beginning of the log
+    private static LogPosition loadPosition(Path file) throws IOException {
+        if (!Files.exists(file)) {
+            return new LogPosition(0, 0);
+        }
+        String[] fields = Files.readString(file, StandardCharsets.US_ASCII).trim().split(" ");
+        try {
+            return new LogPosition(Integer.parseInt(fields[0]), Long.parseLong(fields[1]));
+        } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+            throw new IOException("Damaged follower position in " + file, e);
+        }
+    }
+
+    // savePosition replaces the FOLLOWER file with "<fileId> <offset>" atomically,
+    // like HintFile does
+    private static void savePosition(Path file, LogPosition position) throws IOException {
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.WRITE,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.wrap((position.fileId() + " " + position.offset() + "\n")
+                    .getBytes(StandardCharsets.US_ASCII));
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(true);
+        }
+        Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void closeStore() {
+        try {
+            store.close();
+        } catch (Exception e) {
+            log.warn("Failed to close the follower store", e);
+        }
+    }
+
+    // close stops the background polls and closes the store, the primary is left
+    // alone
+    public void close() throws Exception {
+        // no interrupt, it would close the channel the store is writing to
+        closed = true;
+        scheduler.shutdown();
+        scheduler.awaitTermination(1, TimeUnit.MINUTES);
+        store.close();
+    }
+}
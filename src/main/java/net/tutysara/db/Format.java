@@ -29,6 +29,9 @@ package net.tutysara.db;
 //    encodeKV - takes the key value pair and encodes them into bytes
 //    decodeKV - takes a bunch of bytes and decodes them into key value pairs
 //
+// The engine itself works on bytes: encode writes a record straight into a caller
+// supplied buffer and the read path only ever touches the value slice of a record.
+//
 //**workshop note**
 //
 //For the workshop, the functions will have the following signature:
@@ -38,10 +41,13 @@ package net.tutysara.db;
 
 import net.tutysara.db.datatype.U32;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
+import java.util.zip.CRC32C;
 
 
 public class Format {
@@ -69,72 +75,295 @@ public class Format {
 // stored by 4 bytes is 2,147,483,647 (2 ** 31 - 1), roughly ~2.1GB. So, the size of
 // each key or value cannot exceed this. Theoretically, a single row can be as large
 // as ~4.2GB.
+//
+// Since format version 1 every record ends with a checksum:
+//
+//	┌───────────┬──────────┬────────────┬─────┬───────┬───────────┐
+//	│ timestamp │ key_size │ value_size │ key │ value │ crc32c(4B)│
+//	└───────────┴──────────┴────────────┴─────┴───────┴───────────┘
+//
+// The CRC32C covers everything before it. It goes last so that the header, and
+// with it the offsets of key and value, look the same in both versions, and so
+// that a record torn by a crash is missing its checksum rather than its sizes.
+// Version 0 records have no checksum; the version is kept per data file, see
+// Segment.
+//
+// delete appends a tombstone: a record whose value_size is TOMBSTONE (-1) and that
+// has no value bytes. A tombstone hides every older record of its key.
+//
+// A WriteBatch is appended as a batch marker followed by its records. The marker
+// is a record whose value_size is BATCH (-2) and whose key is not a key but the
+// size of what follows:
+//
+//	┌────────┬───────────┬──────────────────┬────────────┐┌────────┬────────┬─────
+//	│ header │ count(4B) │ batch_length(8B) │ crc32c(4B) ││ record │ record │ ...
+//	└────────┴───────────┴──────────────────┴────────────┘└────────┴────────┴─────
+//	                                                      └─── batch_length bytes ──
+//
+// Recovery only applies the records of a batch if all count of them are intact.
+//
+// Since format version 2 the top bit of key_size is the COMPRESSED flag: the value
+// bytes are the value deflated, see Compression. Keys are never that long, and
+// keySize masks the flag out, so the layout of the record does not change.
+// Version 1 files never have the flag set.
+//
+// Since format version 3 the second bit of key_size is the EXPIRES flag: the
+// timestamp of the record is not when it was written but when it expires, see
+// DiskStore.set with a ttl. From that second on the record counts as deleted.
     public static int HEADER_SIZE = 12;
+    public static int CRC_SIZE = 4;
+    // VERSION is the format of every record written by this code
+    public static int VERSION = 3;
+    public static int TOMBSTONE = -1;
+    public static int BATCH = -2;
+    static final int BATCH_INFO_SIZE = 12;
+    static final int COMPRESSED = 0x8000_0000;
+    static final int EXPIRES = 0x4000_0000;
     public static Charset CHAR_SET = StandardCharsets.UTF_8;
+    // crc is reset for every checksum rather than allocated, see checksum
+    private static final ThreadLocal<CRC32C> crc = ThreadLocal.withInitial(CRC32C::new);
 
-// KeyEntry keeps the metadata about the KV, specially the position of
-// the byte offset in the file. Whenever we insert/update a key, we create a new
+// KeyEntry keeps the metadata about the KV, specially the data file (fileId) and
+// the byte offset in that file. Whenever we insert/update a key, we create a new
 // KeyEntry object and insert that into keyDir.
 
     static byte[] encodeHeader(Header header) {
         ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE);
-        buffer.put(header.timeStamp.bytes());
-        buffer.putInt(header.keySize);
-        buffer.putInt(header.valueSize);
+        encodeHeader(header.timeStamp, header.keySize, header.valueSize, buffer);
         return buffer.array();
     }
 
+    static void encodeHeader(U32 timeStamp, int keySize, int valueSize, ByteBuffer dst) {
+        encodeHeader(timeStamp.toLong(), keySize, valueSize, dst);
+    }
+
+    // encodeHeader writes the header at the position of dst and moves the position
+    // past it. The timestamp is stored as an unsigned 32 bit int.
+    static void encodeHeader(long timestamp, int keySize, int valueSize, ByteBuffer dst) {
+        assert timestamp >= 0 && timestamp <= U32.maxval() : "timestamp should fit in 32 bits unsigned";
+        dst.putInt((int) timestamp);
+        dst.putInt(keySize);
+        dst.putInt(valueSize);
+    }
+
     static Header decodeHeader(byte[] bytes) {
         assert bytes.length == HEADER_SIZE : "header size should be equal to " + HEADER_SIZE;
-        ByteBuffer buffer = ByteBuffer.wrap(bytes);
-        byte[] dest = new byte[4];
-        buffer.get(dest);
-        U32 timeStamp = U32.fromBytes(dest);
-        int keySize = buffer.getInt();
-        int valueSize = buffer.getInt();
-        return new Header(timeStamp, keySize, valueSize);
+        return decodeHeader(ByteBuffer.wrap(bytes), 0);
     }
 
-    public static byte[] encodeKV(long timestamp, String key, String value) {
+    // decodeHeader reads the header that starts at `index` of the buffer, without
+    // moving its position
+    static Header decodeHeader(ByteBuffer buffer, int index) {
+        return new Header(new U32(buffer.getInt(index)), keySize(buffer, index), valueSize(buffer, index));
+    }
 
-        int keySize = key.getBytes(CHAR_SET).length;
-        int valueSize = value.getBytes(CHAR_SET).length;
+    // timestamp, keySize and valueSize read one field of the header that starts at
+    // `index` straight from the buffer. The hot paths (scan, recovery, hints) use
+    // them instead of decodeHeader so that no object is created per record.
+    static long timestamp(ByteBuffer buffer, int index) {
+        return Integer.toUnsignedLong(buffer.getInt(index));
+    }
 
-        Header header = new Header(U32.fromLong(timestamp), keySize, valueSize);
-        byte[] headerBytes = encodeHeader(header);
+    static int keySize(ByteBuffer buffer, int index) {
+        return buffer.getInt(index + 4) & ~(COMPRESSED | EXPIRES);
+    }
 
-        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + keySize + valueSize);
-        buffer.put(headerBytes);
-        buffer.put(key.getBytes(CHAR_SET));
-        buffer.put(value.getBytes(CHAR_SET));
-        return buffer.array();
+    static boolean isCompressed(ByteBuffer buffer, int index) {
+        return (buffer.getInt(index + 4) & COMPRESSED) != 0;
+    }
 
+    static boolean expires(ByteBuffer buffer, int index) {
+        return (buffer.getInt(index + 4) & EXPIRES) != 0;
     }
 
-    public static DecoderResponse decodeKV(byte[] data) {
-        Header header = decodeHeader(Arrays.copyOfRange(data, 0, HEADER_SIZE));
+    static int valueSize(ByteBuffer buffer, int index) {
+        return buffer.getInt(index + 8);
+    }
 
-        String key = new String(
-                Arrays.copyOfRange(data,
-                        HEADER_SIZE,
-                        HEADER_SIZE + header.keySize));
-        String val = new String(Arrays.copyOfRange(data,
-                HEADER_SIZE + header.keySize,
-                data.length));
-        return new DecoderResponse(header.timeStamp.toLong(), key, val);
+    // valueLength is the number of value bytes that follow the key, 0 for
+    // tombstones and batch markers
+    static int valueLength(int valueSize) {
+        return Math.max(valueSize, 0);
     }
 
-    record KeyEntry(long timestamp, long position, int totalSize) {
+    // recordSize is the number of bytes encode writes for a key and value
+    static int recordSize(int keySize, int valueSize) {
+        return recordSize(VERSION, keySize, valueSize);
     }
 
-    record Header(U32 timeStamp, int keySize, int valueSize) {
+    static int recordSize(int version, int keySize, int valueSize) {
+        return HEADER_SIZE + keySize + valueSize + trailerSize(version);
+    }
+
+    // trailerSize is the number of bytes after the value of a record
+    static int trailerSize(int version) {
+        return version == 0 ? 0 : CRC_SIZE;
+    }
+
+    // valueOffset is where the value starts, relative to the start of the record.
+    // Since the key is known when a value is looked up, get can read the value
+    // straight from there without reading or decoding the header and the key.
+    static int valueOffset(int keySize) {
+        return HEADER_SIZE + keySize;
+    }
+
+    // encode writes one record into dst in a single pass: the header, then the bytes
+    // of key and value, then the checksum. The positions of key and value are left
+    // alone, the position of dst is moved past the record. dst can be reused for any
+    // number of records.
+    static void encode(long timestamp, ByteBuffer key, ByteBuffer value, ByteBuffer dst) {
+        encode(timestamp, key, value, false, dst);
+    }
+
+    // encode with compressed set writes a record whose value is the stored form of
+    // a compressed value, see Compression
+    static void encode(long timestamp, ByteBuffer key, ByteBuffer value, boolean compressed, ByteBuffer dst) {
+        encode(timestamp, key, value, compressed, false, dst);
+    }
+
+    // encode with expires set writes a record whose timestamp is its expiry time
+    static void encode(long timestamp, ByteBuffer key, ByteBuffer value, boolean compressed, boolean expires,
+                       ByteBuffer dst) {
+        int start = dst.position();
+        int keySize = key.remaining();
+        int valueSize = value.remaining();
+        int flags = (compressed ? COMPRESSED : 0) | (expires ? EXPIRES : 0);
+        encodeHeader(timestamp, keySize | flags, valueSize, dst);
+        dst.put(dst.position(), key, key.position(), keySize);
+        dst.position(dst.position() + keySize);
+        dst.put(dst.position(), value, value.position(), valueSize);
+        dst.position(dst.position() + valueSize);
+        dst.putInt(checksum(dst, start, dst.position() - start));
+    }
+
+    // encodeTombstone writes the tombstone of a key into dst, like encode
+    static void encodeTombstone(long timestamp, ByteBuffer key, ByteBuffer dst) {
+        int start = dst.position();
+        int keySize = key.remaining();
+        encodeHeader(timestamp, keySize, TOMBSTONE, dst);
+        dst.put(dst.position(), key, key.position(), keySize);
+        dst.position(dst.position() + keySize);
+        dst.putInt(checksum(dst, start, dst.position() - start));
+    }
+
+    static int tombstoneSize(int keySize) {
+        return recordSize(keySize, 0);
     }
 
-    record DecoderResponse(long timestamp, String key, String value) {
-        public int size() {
-            return Format.HEADER_SIZE +
-                    key.getBytes(Format.CHAR_SET).length +
-                    value.getBytes(Format.CHAR_SET).length;
+    // encodeBatchMarker writes the marker of a batch of `count` records taking
+    // `length` bytes into dst, like encode
+    static void encodeBatchMarker(long timestamp, int count, long length, ByteBuffer dst) {
+        int start = dst.position();
+        encodeHeader(timestamp, BATCH_INFO_SIZE, BATCH, dst);
+        dst.putInt(count);
+        dst.putLong(length);
+        dst.putInt(checksum(dst, start, dst.position() - start));
+    }
+
+    static int batchMarkerSize() {
+        return recordSize(BATCH_INFO_SIZE, 0);
+    }
+
+    // batchCount and batchLength read the batch marker that starts at `index`
+    static int batchCount(ByteBuffer buffer, int index) {
+        return buffer.getInt(index + HEADER_SIZE);
+    }
+
+    static long batchLength(ByteBuffer buffer, int index) {
+        return buffer.getLong(index + HEADER_SIZE + 4);
+    }
+
+    // checksum is the CRC32C of `length` bytes of the buffer from `index` on. It
+    // runs for every record encoded or scanned, so each thread reuses one CRC32C
+    // and a heap buffer is read through its array.
+    static int checksum(ByteBuffer buffer, int index, int length) {
+        CRC32C crc = Format.crc.get();
+        crc.reset();
+        if (buffer.hasArray()) {
+            crc.update(buffer.array(), buffer.arrayOffset() + index, length);
+        } else {
+            crc.update(buffer.duplicate().limit(index + length).position(index));
+        }
+        return (int) crc.getValue();
+    }
+
+    // upgrade turns a version 0 record, which starts at index 0 and ends at the limit
+    // of the buffer, into a record of the current version
+    static ByteBuffer upgrade(ByteBuffer record) {
+        int size = record.limit();
+        ByteBuffer upgraded = ByteBuffer.allocate(size + CRC_SIZE);
+        upgraded.put(0, record, 0, size);
+        upgraded.putInt(size, checksum(upgraded, 0, size));
+        return upgraded;
+    }
+
+    // isIntact tells whether the version 1 record of `totalSize` bytes at `index`
+    // still matches its checksum
+    static boolean isIntact(ByteBuffer buffer, int index, int totalSize) {
+        int checked = totalSize - CRC_SIZE;
+        return checked >= HEADER_SIZE && buffer.getInt(index + checked) == checksum(buffer, index, checked);
+    }
+
+    public static byte[] encodeKV(long timestamp, String key, String value) {
+        byte[] keyBytes = key.getBytes(CHAR_SET);
+        byte[] valueBytes = value.getBytes(CHAR_SET);
+        byte[] record = new byte[recordSize(keyBytes.length, valueBytes.length)];
+        encode(timestamp, ByteBuffer.wrap(keyBytes), ByteBuffer.wrap(valueBytes), ByteBuffer.wrap(record));
+        return record;
+    }
+
+    public static DecoderResponse decodeKV(byte[] data) {
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        int keySize = keySize(buffer, 0);
+        int valueLength = valueLength(valueSize(buffer, 0));
+        String key = new String(data, HEADER_SIZE, keySize, CHAR_SET);
+        String val;
+        if (isCompressed(buffer, 0)) {
+            try {
+                val = new String(Compression.decompress(
+                        Arrays.copyOfRange(data, valueOffset(keySize), valueOffset(keySize) + valueLength)), CHAR_SET);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        } else {
+            val = new String(data, valueOffset(keySize), valueLength, CHAR_SET);
+        }
+        return new DecoderResponse(timestamp(buffer, 0), key, val, recordSize(keySize, valueLength));
+    }
+
+    // compressed tells that the value of the record is stored compressed, get has to
+    // inflate it. expires tells that timestamp is the expiry time of the record.
+    record KeyEntry(int fileId, long timestamp, long position, int totalSize, boolean compressed,
+                    boolean expires) {
+        KeyEntry(int fileId, long timestamp, long position, int totalSize) {
+            this(fileId, timestamp, position, totalSize, false, false);
+        }
+
+        KeyEntry(int fileId, long timestamp, long position, int totalSize, boolean compressed) {
+            this(fileId, timestamp, position, totalSize, compressed, false);
+        }
+
+        // expired tells whether the record has expired at nowMillis
+        boolean expired(long nowMillis) {
+            return expires && timestamp * 1000 <= nowMillis;
+        }
+    }
+
+    record Header(U32 timeStamp, int keySize, int valueSize) {
+        boolean isTombstone() {
+            return valueSize == TOMBSTONE;
+        }
+
+        boolean isBatchMarker() {
+            return valueSize == BATCH;
         }
+
+        // valueLength is the number of value bytes that follow the key
+        int valueLength() {
+            return Format.valueLength(valueSize);
+        }
+    }
+
+    record DecoderResponse(long timestamp, String key, String value, int size) {
     }
 }
@@ -0,0 +1,64 @@
+package net.tutysara.db;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BinaryOperator;
+
+// HashMapKeyDir keeps the keyDir in a ConcurrentHashMap on the heap
+final class HashMapKeyDir implements KeyDir {
+
+    private final ConcurrentHashMap<Key, Format.KeyEntry> entries = new ConcurrentHashMap<>();
+
+    public Format.KeyEntry get(byte[] key) {
+        return entries.get(new Key(key));
+    }
+
+    public Format.KeyEntry put(byte[] key, Format.KeyEntry keyEntry) {
+        return entries.put(new Key(key.clone()), keyEntry);
+    }
+
+    public boolean replace(byte[] key, Format.KeyEntry expected, Format.KeyEntry keyEntry) {
+        return entries.replace(new Key(key), expected, keyEntry);
+    }
+
+    public Format.KeyEntry merge(byte[] key, Format.KeyEntry keyEntry, BinaryOperator<Format.KeyEntry> remapping) {
+        return entries.merge(new Key(key.clone()), keyEntry, remapping);
+    }
+
+    public Format.KeyEntry remove(byte[] key) {
+        return entries.remove(new Key(key));
+    }
+
+    public boolean remove(byte[] key, Format.KeyEntry expected) {
+        return entries.remove(new Key(key), expected);
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public void close() {
+        entries.clear();
+    }
+
+    // Key gives a byte array value semantics so it can be used as a map key
+    private static final class Key {
+        private final byte[] bytes;
+        private final int hash;
+
+        Key(byte[] bytes) {
+            this.bytes = bytes;
+            this.hash = Arrays.hashCode(bytes);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Key other && hash == other.hash && Arrays.equals(bytes, other.bytes);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package net.tutysara.db;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+// HintFile is the keyDir of one sealed segment written to disk. It lives next to
+// the data file and holds everything initKeyDir needs, but no values:
+//
+//    000000004.data   ┌─────┬─────┬─────┬─────┬─────┐
+//                     │ rec │ rec │ rec │ rec │ rec │ ...
+//                     └─────┴─────┴─────┴─────┴─────┘
+//    000000004.hint   ┌───────────────┬──────────────┬────────────────┬─────────────┬─────┐
+//                     │ timestamp(4B) │ key_size(4B) │ total_size(4B) │ position(8B)│ key │ ...
+//                     └───────────────┴──────────────┴────────────────┴─────────────┴─────┘
+//
+// There is one hint entry per record, in file order, so replaying a hint file
+// gives exactly the same keyDir as scanning the data file. The entry of a tombstone
+// has the negated total size of the tombstone record. key_size is copied from the
+// record as it is, with its COMPRESSED and EXPIRES flags. Loading a segment from
+// its hint reads a few bytes per key instead of every value, so startup time
+// depends on the number of keys rather than the size of the data.
+//
+// Hint files are written once, when a segment is sealed or produced by a merge,
+// to a temporary file that is then renamed. A segment that has a hint file is
+// therefore always sealed and its hint is complete.
+final class HintFile {
+
+    static final String SUFFIX = ".hint";
+    private static final int ENTRY_HEADER_SIZE = 20;
+
+    interface HintVisitor {
+        void visit(byte[] key, Format.KeyEntry keyEntry);
+    }
+
+    private record Entry(byte[] key, Format.KeyEntry keyEntry, boolean tombstone) {
+    }
+
+    private HintFile() {
+    }
+
+    static Path path(Path dir, int fileId) {
+        return dir.resolve(String.format("%09d%s", fileId, SUFFIX));
+    }
+
+    static boolean exists(Path dir, int fileId) {
+        return Files.exists(path(dir, fileId));
+    }
+
+    // load replays the hint file of a segment into the visitor. It returns false,
+    // without calling the visitor, when there is no usable hint file; the caller
+    // then has to scan the data file. Tombstones are skipped.
+    static boolean load(Path dir, int fileId, HintVisitor visitor) throws IOException {
+        return load(dir, fileId, visitor, (key, keyEntry) -> {
+        });
+    }
+
+    // load replays the entries of records to visitor and those of tombstones to
+    // tombstoneVisitor, in file order
+    static boolean load(Path dir, int fileId, HintVisitor visitor, HintVisitor tombstoneVisitor) throws IOException {
+        Path path = path(dir, fileId);
+        if (!Files.exists(path)) {
+            return false;
+        }
+        ByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            buffer = ByteBuffer.allocate((int) channel.size());
+            while (buffer.hasRemaining() && channel.read(buffer) != -1) {
+            }
+            buffer.flip();
+        }
+        List<Entry> entries = new ArrayList<>();
+        try {
+            while (buffer.hasRemaining()) {
+                long timestamp = Integer.toUnsignedLong(buffer.getInt());
+                int keySize = buffer.getInt();
+                int totalSize = buffer.getInt();
+                long position = buffer.getLong();
+                byte[] key = new byte[keySize & ~(Format.COMPRESSED | Format.EXPIRES)];
+                buffer.get(key);
+                entries.add(new Entry(key,
+                        new Format.KeyEntry(fileId, timestamp, position, Math.abs(totalSize),
+                                (keySize & Format.COMPRESSED) != 0, (keySize & Format.EXPIRES) != 0),
+                        totalSize < 0));
+            }
+        } catch (BufferUnderflowException e) {
+            return false;
+        }
+        for (Entry entry : entries) {
+            (entry.tombstone() ? tombstoneVisitor : visitor).visit(entry.key(), entry.keyEntry());
+        }
+        return true;
+    }
+
+    static void delete(Path dir, int fileId) throws IOException {
+        Files.deleteIfExists(path(dir, fileId));
+    }
+
+    // Builder collects the hint entries of a segment while it is being written,
+    // the hint file itself is only written by write
+    static final class Builder {
+        private final ByteArrayOutputStream entries = new ByteArrayOutputStream();
+        private final ByteBuffer entryHeader = ByteBuffer.allocate(ENTRY_HEADER_SIZE);
+
+        // add records the hint entry of an encoded record, the record has to start
+        // at index 0 of the buffer and end at its limit
+        void add(ByteBuffer record, long position) {
+            add(record, 0, record.limit(), position);
+        }
+
+        // add records the hint entry of the record of totalSize bytes at `index`,
+        // copying the header fields and the key without any temporary object
+        private void add(ByteBuffer data, int index, int totalSize, long position) {
+            int keySize = Format.keySize(data, index);
+            entryHeader.clear();
+            entryHeader.putInt(data.getInt(index));
+            entryHeader.putInt(data.getInt(index + 4));
+            entryHeader.putInt(Format.valueSize(data, index) == Format.TOMBSTONE ? -totalSize : totalSize);
+            entryHeader.putLong(position);
+            entries.write(entryHeader.array(), 0, ENTRY_HEADER_SIZE);
+            if (data.hasArray()) {
+                entries.write(data.array(), data.arrayOffset() + index + Format.HEADER_SIZE, keySize);
+            } else {
+                byte[] key = new byte[keySize];
+                data.get(index + Format.HEADER_SIZE, key);
+                entries.write(key, 0, keySize);
+            }
+        }
+
+        // addAll records the hint entries of every record in `data`, which holds
+        // whole encoded records and starts at `position` in the segment. Batch
+        // markers get no entry, a hint only ever describes committed records.
+        void addAll(ByteBuffer data, long position) {
+            int index = 0;
+            while (index < data.limit()) {
+                int valueSize = Format.valueSize(data, index);
+                int totalSize = Format.recordSize(Format.keySize(data, index), Format.valueLength(valueSize));
+                if (valueSize != Format.BATCH) {
+                    add(data, index, totalSize, position + index);
+                }
+                index += totalSize;
+            }
+        }
+
+        void write(Path dir, int fileId) throws IOException {
+            Path path = path(dir, fileId);
+            Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+            try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.WRITE,
+                    StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                ByteBuffer buffer = ByteBuffer.wrap(entries.toByteArray());
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                channel.force(true);
+            }
+            Files.move(tmp, path, StandardCopyOption.ATOMIC_MOVE);
+        }
+    }
+}
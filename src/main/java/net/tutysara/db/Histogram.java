@@ -0,0 +1,96 @@
+package net.tutysara.db;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+// Histogram counts latencies in nanoseconds in log-linear buckets, the way
+// HdrHistogram does: values below SUB_BUCKETS get a bucket each, above that every
+// power of two is split into SUB_BUCKETS buckets of equal width.
+//
+//    value      0 1 2 .. 31 │ 32 33 .. 63 │ 64 66 .. 126 │ 128 132 .. 252 │ ...
+//    bucket     0 1 2 .. 31 │ 32 33 .. 63 │ 64 65 .. 95  │ 96  97  .. 127 │ ...
+//                           └─ width 1 ──┘ └─ width 2 ──┘ └─── width 4 ──┘
+//
+// A value is therefore reported at most 1/32 (about 3%) too high, whatever its
+// size. Values from MAX_VALUE on (about 18 minutes) go to the last bucket.
+//
+// record is one increment of a plain array slot. Threads are spread over a few
+// stripes by thread id, so concurrent callers rarely touch the same slot; a
+// snapshot adds the stripes up. Snapshots are not atomic, a record that runs at
+// the same time may or may not be in them.
+final class Histogram {
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    static final long MAX_VALUE = (1L << 40) - 1;
+    // the highest bucket is the one of MAX_VALUE
+    static final int BUCKETS = bucket(MAX_VALUE) + 1;
+    private static final int STRIPES = Math.min(16,
+            Integer.highestOneBit(Runtime.getRuntime().availableProcessors() * 2 - 1));
+
+    private final AtomicLongArray[] stripes = new AtomicLongArray[STRIPES];
+    private final LongAdder sum = new LongAdder();
+
+    Histogram() {
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new AtomicLongArray(BUCKETS);
+        }
+    }
+
+    void record(long nanos) {
+        long value = Math.max(0, Math.min(nanos, MAX_VALUE));
+        stripes[(int) Thread.currentThread().getId() & (STRIPES - 1)].incrementAndGet(bucket(value));
+        sum.add(value);
+    }
+
+    // bucket returns the index of the bucket of value, 0 <= value <= MAX_VALUE
+    static int bucket(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return ((shift + 1) << SUB_BUCKET_BITS) + (int) (value >>> shift) - SUB_BUCKETS;
+    }
+
+    // highestValue returns the largest value that goes to the bucket
+    static long highestValue(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int shift = (bucket >>> SUB_BUCKET_BITS) - 1;
+        long subBucket = SUB_BUCKETS + (bucket & (SUB_BUCKETS - 1));
+        return ((subBucket + 1) << shift) - 1;
+    }
+
+    LatencyStats snapshot() {
+        long[] counts = new long[BUCKETS];
+        long count = 0;
+        for (AtomicLongArray stripe : stripes) {
+            for (int i = 0; i < BUCKETS; i++) {
+                long n = stripe.get(i);
+                counts[i] += n;
+                count += n;
+            }
+        }
+        if (count == 0) {
+            return LatencyStats.EMPTY;
+        }
+        return new LatencyStats(count, sum.sum() / count,
+                percentile(counts, count, 0.50), percentile(counts, count, 0.90),
+                percentile(counts, count, 0.99), percentile(counts, count, 0.999),
+                percentile(counts, count, 1.0));
+    }
+
+    // percentile returns the highest value of the bucket that holds the value at
+    // fraction of the recorded values
+    private static long percentile(long[] counts, long count, double fraction) {
+        long rank = Math.max(1, (long) Math.ceil(fraction * count));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return highestValue(i);
+            }
+        }
+        return highestValue(counts.length - 1);
+    }
+}
@@ -0,0 +1,59 @@
+package net.tutysara.db;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.function.BinaryOperator;
+
+// KeyDir is the in-memory index of a Bitcask: for every key it holds the KeyEntry
+// of the newest record. Keys are the raw UTF-8 bytes as they are stored on disk.
+//
+// Implementations must be safe for concurrent use: get is called by any number of
+// readers while the writer, the merger and the recovery workers update it.
+// Arrays passed in are never modified and not kept after the call returns.
+interface KeyDir extends AutoCloseable {
+
+    static KeyDir create(Options options) {
+        return switch (options.keyDirType()) {
+            case HASH_MAP -> new HashMapKeyDir();
+            case OFF_HEAP -> new OffHeapKeyDir();
+            case SORTED -> new SortedKeyDir();
+        };
+    }
+
+    // get returns the entry of the key or null
+    Format.KeyEntry get(byte[] key);
+
+    // put stores the entry and returns the previous one or null
+    Format.KeyEntry put(byte[] key, Format.KeyEntry keyEntry);
+
+    // replace stores keyEntry only if the key currently maps to expected
+    boolean replace(byte[] key, Format.KeyEntry expected, Format.KeyEntry keyEntry);
+
+    // merge stores keyEntry if the key is absent, otherwise the result of
+    // remapping(current, keyEntry). The whole operation is atomic.
+    Format.KeyEntry merge(byte[] key, Format.KeyEntry keyEntry, BinaryOperator<Format.KeyEntry> remapping);
+
+    // remove drops the key and returns its entry or null
+    Format.KeyEntry remove(byte[] key);
+
+    // remove with an expected entry only drops the key if it currently maps to it
+    boolean remove(byte[] key, Format.KeyEntry expected);
+
+    int size();
+
+    // isOrdered tells whether the keyDir supports range
+    default boolean isOrdered() {
+        return false;
+    }
+
+    // range iterates over the keys in [from, to) in unsigned byte order, a null
+    // bound is open. The iterator is weakly consistent: it never fails because of
+    // concurrent updates and may or may not see them. The returned keys must not
+    // be modified.
+    default Iterator<Map.Entry<byte[], Format.KeyEntry>> range(byte[] from, byte[] to) {
+        throw new UnsupportedOperationException("range needs an ordered keyDir, see KeyDirType.SORTED");
+    }
+
+    // close releases the memory held by the keyDir, it must not be used afterwards
+    void close();
+}
@@ -0,0 +1,19 @@
+package net.tutysara.db;
+
+// KeyDirType selects the keyDir implementation of a store.
+//
+//    HASH_MAP - a ConcurrentHashMap on the Java heap, the simplest and fastest for
+//               small key counts, but it costs well over 100 bytes of objects and
+//               headers per key
+//    OFF_HEAP - an open addressing hash table in direct memory that stores the raw
+//               key bytes next to the primitive KeyEntry fields, 24 bytes plus the
+//               key plus an 8 byte slot per entry (before growth slack) and nothing
+//               for the GC to trace
+//    SORTED   - a ConcurrentSkipListMap on the Java heap, ordered by key. Lookups
+//               are O(log n), in exchange DiskStore.scan and prefix work. Costs a
+//               bit more per key than HASH_MAP.
+public enum KeyDirType {
+    HASH_MAP,
+    OFF_HEAP,
+    SORTED
+}
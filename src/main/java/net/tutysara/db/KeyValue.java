@@ -0,0 +1,5 @@
+package net.tutysara.db;
+
+// KeyValue is one key and its value as returned by DiskStore.scan and prefix
+public record KeyValue(byte[] key, byte[] value) {
+}
@@ -0,0 +1,14 @@
+package net.tutysara.db;
+
+// LatencyStats is a point in time copy of one latency histogram, all times in
+// nanoseconds. Percentiles are accurate to about 3%, see Histogram.
+//
+//    count  - operations recorded
+//    mean   - average latency
+//    p50 .. p999 - latency that 50%, 90%, 99% and 99.9% of the operations stayed
+//                  under
+//    max    - the slowest operation
+public record LatencyStats(long count, long mean, long p50, long p90, long p99, long p999, long max) {
+
+    static final LatencyStats EMPTY = new LatencyStats(0, 0, 0, 0, 0, 0, 0);
+}
@@ -0,0 +1,55 @@
+package net.tutysara.db;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+// LogChunk is a piece of the log of a primary, see LogSource. records holds whole
+// records of the current format, one after the other, in log order:
+//
+//    ┌────────┬───────────┬────────┬─────
+//    │ record │ tombstone │ record │ ...
+//    └────────┴───────────┴────────┴─────
+//
+// Batch markers are left out, but a chunk never ends inside a batch: applying a
+// chunk at once keeps batches all or nothing.
+//
+//    next    - where to read from for the records after this chunk
+//    end     - where the log of the primary ended when the chunk was read
+//    behind  - log bytes between next and end
+public record LogChunk(LogPosition next, LogPosition end, long behind, byte[] records) {
+    private static final int HEADER_SIZE = 4 + 8 + 4 + 8 + 8 + 4;
+
+    // encode returns the chunk as bytes for a transport:
+    //
+    //    ┌──────┬─────────┬──────┬─────────┬────────┬────────┬─────────┐
+    //    │ next │ next    │ end  │ end     │ behind │ length │ records │
+    //    │ id   │ offset  │ id   │ offset  │        │        │         │
+    //    │ (4B) │ (8B)    │ (4B) │ (8B)    │ (8B)   │ (4B)   │         │
+    //    └──────┴─────────┴──────┴─────────┴────────┴────────┴─────────┘
+    public byte[] encode() {
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + records.length);
+        buffer.putInt(next.fileId()).putLong(next.offset())
+                .putInt(end.fileId()).putLong(end.offset())
+                .putLong(behind)
+                .putInt(records.length)
+                .put(records);
+        return buffer.array();
+    }
+
+    public static LogChunk decode(byte[] bytes) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        if (buffer.remaining() < HEADER_SIZE) {
+            throw new IOException("Log chunk too short: " + bytes.length + " bytes");
+        }
+        LogPosition next = new LogPosition(buffer.getInt(), buffer.getLong());
+        LogPosition end = new LogPosition(buffer.getInt(), buffer.getLong());
+        long behind = buffer.getLong();
+        int length = buffer.getInt();
+        if (length != buffer.remaining()) {
+            throw new IOException("Log chunk has " + buffer.remaining() + " bytes of records, expected " + length);
+        }
+        byte[] records = new byte[length];
+        buffer.get(records);
+        return new LogChunk(next, end, behind, records);
+    }
+}
@@ -0,0 +1,7 @@
+package net.tutysara.db;
+
+// LogPosition is a position in the log of a store: the data file and the offset in
+// it. Data files only grow and file ids only grow, so positions are ordered the
+// same way the records were written.
+public record LogPosition(int fileId, long offset) {
+}
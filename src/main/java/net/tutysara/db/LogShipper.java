@@ -0,0 +1,107 @@
+package net.tutysara.db;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Comparator;
+import java.util.List;
+
+// LogShipper is the primary side of replication, the LogSource of a DiskStore. It
+// reads the published part of the log from a position on, so a Follower can
+// apply the same records in the same order:
+//
+//    000000003.data  ┌─────┬─────┐
+//                    │ rec │ rec │                       sealed, read to its end
+//                    └─────┴─────┘
+//    000000005.data  ┌─────┬─────┬─────┬─────┐
+//                    │ rec │ rec │ rec │ rec │           active
+//                    └─────┴─────┴─────┴─────┘
+//                          ^ from            ^ published
+//
+// A position whose file is gone, because the file was merged or was the empty
+// active segment when the writer rolled over, stands for the start of the next
+// file. Skipping ahead like this loses nothing a follower needs:
+//	- a merge output has a larger id than every file it merged, and it only holds
+//	  copies of records that were live, the newest of their key, when it ran. A
+//	  follower that applied part of the merged files and then the whole output
+//	  ends up with the same values, one that applied all of them before the merge
+//	  reads the output again, which changes nothing.
+//	- the merge drops the tombstones a follower may still need unless
+//	  Options.keepTombstones is on, which DiskStore.logSource checks.
+//
+// Reads pin the segments, so a merge running at the same time does not delete a
+// file while it is being read.
+final class LogShipper implements LogSource {
+    private final Segments segments;
+    private final LogWriter writer;
+
+    LogShipper(Segments segments, LogWriter writer) {
+        this.segments = segments;
+        this.writer = writer;
+    }
+
+    public LogChunk read(LogPosition from, int maxBytes) throws IOException {
+        assert maxBytes > 0 : "maxBytes should be positive";
+        Segments.Pin pin = segments.pin();
+        try {
+            // read after the pin: every segment of the pin up to end.fileId is
+            // sealed, or is the active one and written up to end.offset. The writer
+            // may already have created a newer one that nothing was published to.
+            LogPosition end = writer.published();
+            List<Segment> visible = pin.segments().values().stream()
+                    .filter(segment -> segment.fileId() <= end.fileId())
+                    .sorted(Comparator.comparingInt(Segment::fileId))
+                    .toList();
+            ByteArrayOutputStream records = new ByteArrayOutputStream();
+            LogPosition next = from;
+            for (Segment segment : visible) {
+                if (segment.fileId() < next.fileId()) {
+                    continue;
+                }
+                if (records.size() >= maxBytes) {
+                    break;
+                }
+                long start = segment.fileId() == next.fileId() ? Math.max(next.offset(), segment.dataStart())
+                        : segment.dataStart();
+                long limit = limit(segment, end);
+                long to = Math.min(limit, start + maxBytes - records.size());
+                long read = start < to ? segment.scan(start, to, (position, record) -> {
+                    if (segment.version() == 0) {
+                        record = Format.upgrade(record);
+                    }
+                    byte[] bytes = new byte[record.remaining()];
+                    record.get(record.position(), bytes);
+                    records.writeBytes(bytes);
+                }, (position, length) -> {
+                }) : start;
+                next = new LogPosition(segment.fileId(), read);
+                if (segment.fileId() == end.fileId() || (read >= to && to < limit)) {
+                    break;
+                }
+                // the sealed segment is read to its end, or to a torn tail that is
+                // never going to be completed
+                next = new LogPosition(segment.fileId() + 1, 0);
+            }
+            return new LogChunk(next, end, behind(visible, next, end), records.toByteArray());
+        } finally {
+            segments.release(pin);
+        }
+    }
+
+    // limit is where the published records of the segment end
+    private static long limit(Segment segment, LogPosition end) throws IOException {
+        return segment.fileId() == end.fileId() ? end.offset() : segment.size();
+    }
+
+    // behind adds up the bytes of the segments from next to end
+    private static long behind(List<Segment> visible, LogPosition next, LogPosition end) throws IOException {
+        long behind = 0;
+        for (Segment segment : visible) {
+            if (segment.fileId() >= next.fileId()) {
+                long start = segment.fileId() == next.fileId() ? Math.max(next.offset(), segment.dataStart())
+                        : segment.dataStart();
+                behind += Math.max(0, limit(segment, end) - start);
+            }
+        }
+        return behind;
+    }
+}
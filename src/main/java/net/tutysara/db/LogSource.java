@@ -0,0 +1,14 @@
+package net.tutysara.db;
+
+import java.io.IOException;
+
+// LogSource is how a Follower gets the log of its primary. The in-process one is
+// DiskStore.logSource; a transport between processes sends the two arguments to
+// the primary, calls its logSource there and sends back the LogChunk, which
+// encode and decode turn into bytes and back.
+public interface LogSource {
+    // read returns the records from `from` on, about maxBytes of them: a chunk
+    // always ends after a whole batch, so it can be larger. A chunk without records
+    // means the follower is caught up.
+    public LogChunk read(LogPosition from, int maxBytes) throws IOException;
+}
@@ -0,0 +1,316 @@
+package net.tutysara.db;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+// LogWriter is the single append path of a DiskStore. All encoded records go
+// through it and it is the only code that moves the end of the active data file.
+// It also rolls the active segment over once it has grown past
+// Options.maxSegmentSize: the segment is forced, sealed and a new one is created.
+// A record is never split across segments. While a segment is active the writer
+// collects its hint entries, they are written out as its HintFile when it is sealed.
+//
+// An append is one encoded record, or the whole encoded WriteBatch, and it is
+// always written contiguously into one segment. Every append carries a Publisher,
+// which is called with the file id and offset of the append once the record is as durable as the Durability mode promises. Publishers
+// are always called in file order and never concurrently, so the keyDir updates
+// they make follow the order of the log.
+//
+// For SYNC_PER_WRITE and OS_FLUSH the append happens on the calling thread under
+// writeLock. For GROUP_COMMIT callers only enqueue their record and a dedicated
+// writer thread turns the queue into batches:
+//
+//    queue:   [r1][r2][r3][r4][r5] ...
+//                  │
+//                  ▼  drain up to maxBatchSize, wait at most linger for more
+//    batch:   [r1][r2][r3]  ──  one gathering write  ──  one force()
+//                  │
+//                  ▼
+//    publish r1, r2, r3 in order, then complete their futures
+//
+// An IOException fails the appends it hit and the writer goes on, the next append
+// overwrites the tail. Anything else, a publisher that threw or an Error, may have
+// left the keyDir halfway through an append: the writer fails the rest of the
+// batch and every append after it, with the cause, and takes no more writes.
+class LogWriter implements AutoCloseable {
+    private static final Logger log = LoggerFactory.getLogger(LogWriter.class);
+
+    interface Publisher {
+        void publish(int fileId, long position);
+    }
+
+    private record PendingWrite(ByteBuffer data, Publisher publisher, CompletableFuture<Void> done) {
+    }
+
+    private final Segments segments;
+    private final Durability durability;
+    private final long maxSegmentSize;
+    private final Metrics metrics;
+    private final ReentrantLock writeLock = new ReentrantLock();
+    private final BlockingQueue<PendingWrite> queue = new LinkedBlockingQueue<>();
+    private final Thread writerThread;
+    private volatile boolean closed;
+    // failed is what stopped the writer, see the top of the file
+    private volatile Throwable failed;
+    // active and writeOffset are only read and changed under writeLock
+    private Segment active;
+    private HintFile.Builder activeHints;
+    private long writeOffset;
+    // published is where the log ends for readers: every append before it has been
+    // published, none after it. It only moves forward, see published().
+    private volatile LogPosition published;
+
+    // activeHints has to hold the hint entries of the records already in active
+    LogWriter(Segments segments, Segment active, HintFile.Builder activeHints, Options options,
+              Metrics metrics) throws IOException {
+        this.segments = segments;
+        this.durability = options.durability();
+        this.maxSegmentSize = options.maxSegmentSize();
+        this.metrics = metrics;
+        this.active = active;
+        this.activeHints = activeHints;
+        this.writeOffset = active.size();
+        this.published = new LogPosition(active.fileId(), writeOffset);
+        if (durability.mode() == Durability.Mode.GROUP_COMMIT) {
+            writerThread = new Thread(this::runGroupCommit, "bitcask-group-commit");
+            writerThread.setDaemon(true);
+            writerThread.start();
+        } else {
+            writerThread = null;
+        }
+    }
+
+    CompletableFuture<Void> append(byte[] record, Publisher publisher) {
+        var pending = new PendingWrite(ByteBuffer.wrap(record), publisher, new CompletableFuture<>());
+        if (closed) {
+            pending.done().completeExceptionally(new ClosedChannelException());
+            return pending.done();
+        }
+        if (failed != null) {
+            pending.done().completeExceptionally(failure());
+            return pending.done();
+        }
+        if (writerThread != null) {
+            queue.add(pending);
+            // close may have drained the queue between the check above and the add
+            if (closed) {
+                failPending(new ClosedChannelException());
+            }
+            return pending.done();
+        }
+        writeLock.lock();
+        try {
+            writeBatch(List.of(pending));
+        } finally {
+            writeLock.unlock();
+        }
+        return pending.done();
+    }
+
+    private void runGroupCommit() {
+        List<PendingWrite> batch = new ArrayList<>(durability.maxBatchSize());
+        long lingerNanos = durability.linger().toNanos();
+        try {
+            while (!closed || !queue.isEmpty()) {
+                PendingWrite first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                queue.drainTo(batch, durability.maxBatchSize() - batch.size());
+                long deadline = System.nanoTime() + lingerNanos;
+                while (batch.size() < durability.maxBatchSize()) {
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) {
+                        break;
+                    }
+                    PendingWrite next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                    queue.drainTo(batch, durability.maxBatchSize() - batch.size());
+                }
+                writeLock.lock();
+                try {
+                    writeBatch(batch);
+                } finally {
+                    writeLock.unlock();
+                }
+                batch.clear();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void writeBatch(List<PendingWrite> batch) {
+        // caller holds writeLock
+        if (failed != null) {
+            IOException e = failure();
+            batch.forEach(pending -> pending.done().completeExceptionally(e));
+            return;
+        }
+        int from = 0;
+        try {
+            while (from < batch.size()) {
+                // take the records that still fit into the active segment, a record
+                // larger than a whole segment gets an empty segment of its own
+                int to = from;
+                long end = writeOffset;
+                while (to < batch.size()) {
+                    int size = batch.get(to).data().remaining();
+                    if (end > active.dataStart() && end + size > maxSegmentSize) {
+                        break;
+                    }
+                    end += size;
+                    to++;
+                }
+                if (to == from) {
+                    rollover();
+                    continue;
+                }
+                writeRun(batch.subList(from, to));
+                from = to;
+            }
+        } catch (IOException e) {
+            // the tail of the file is in an unknown state, the next batch overwrites it
+            log.error("Failed to append a batch of {} records", batch.size() - from, e);
+            batch.subList(from, batch.size()).forEach(pending -> pending.done().completeExceptionally(e));
+        } catch (RuntimeException | Error e) {
+            log.error("Failed to publish a batch of {} records, the store takes no more writes",
+                    batch.size() - from, e);
+            failed = e;
+            IOException failure = failure();
+            batch.subList(from, batch.size()).forEach(pending -> pending.done().completeExceptionally(failure));
+        }
+    }
+
+    private IOException failure() {
+        return new IOException("The log writer failed, the store takes no more writes", failed);
+    }
+
+    private void writeRun(List<PendingWrite> run) throws IOException {
+        ByteBuffer[] buffers = new ByteBuffer[run.size()];
+        long[] positions = new long[run.size()];
+        long position = writeOffset;
+        for (int i = 0; i < run.size(); i++) {
+            buffers[i] = run.get(i).data();
+            positions[i] = position;
+            position += buffers[i].remaining();
+        }
+        FileChannel filechannel = active.channel();
+        filechannel.position(writeOffset);
+        // with SYNC_PER_WRITE the channel syncs every write itself, the write is the sync
+        long started = System.nanoTime();
+        while (buffers[buffers.length - 1].hasRemaining()) {
+            filechannel.write(buffers);
+        }
+        if (durability.mode() == Durability.Mode.GROUP_COMMIT) {
+            started = System.nanoTime();
+            filechannel.force(false);
+        }
+        if (durability.mode() != Durability.Mode.OS_FLUSH) {
+            metrics.recordSync(System.nanoTime() - started);
+        }
+        metrics.bytesWritten.add(position - writeOffset);
+        writeOffset = position;
+        for (int i = 0; i < run.size(); i++) {
+            activeHints.addAll(run.get(i).data().duplicate().rewind(), positions[i]);
+            run.get(i).publisher().publish(active.fileId(), positions[i]);
+        }
+        published = new LogPosition(active.fileId(), writeOffset);
+        run.forEach(pending -> pending.done().complete(null));
+    }
+
+    // published returns the end of the published part of the log without waiting for
+    // the writer
+    LogPosition published() {
+        return published;
+    }
+
+    int activeFileId() {
+        writeLock.lock();
+        try {
+            return active.fileId();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    // sealAndReserve seals the active segment and reserves `count` file ids that
+    // sort after every existing segment but before the new active segment. The
+    // merger writes its output there: newer than everything it merged, older than
+    // anything written after the merge started. Returns the first reserved id.
+    int sealAndReserve(int count) throws IOException {
+        writeLock.lock();
+        try {
+            int first = segments.reserve(count);
+            rollover();
+            return first;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    private void rollover() throws IOException {
+        // caller holds writeLock. The sealed segment keeps the channel it was written
+        // with, readers may be using it right now.
+        if (durability.mode() != Durability.Mode.SYNC_PER_WRITE) {
+            long started = System.nanoTime();
+            active.channel().force(false);
+            metrics.recordSync(System.nanoTime() - started);
+        }
+        Segment sealed = active;
+        boolean empty = writeOffset == sealed.dataStart();
+        if (!empty) {
+            activeHints.write(segments.dir(), sealed.fileId());
+            segments.seal(sealed);
+        }
+        active = segments.create(durability.mode() == Durability.Mode.SYNC_PER_WRITE);
+        activeHints = new HintFile.Builder();
+        published = new LogPosition(active.fileId(), active.dataStart());
+        if (empty) {
+            // nothing was written to it, no key can point at it
+            segments.remove(List.of(sealed));
+        }
+        writeOffset = active.dataStart();
+        log.info("Sealed segment {}, new active segment {}", sealed.fileId(), active.fileId());
+    }
+
+    private void failPending(IOException e) {
+        PendingWrite pending;
+        while ((pending = queue.poll()) != null) {
+            pending.done().completeExceptionally(e);
+        }
+    }
+
+    public void close() throws Exception {
+        closed = true;
+        if (writerThread != null) {
+            // the writer thread keeps going until the queue is empty
+            writerThread.join();
+            failPending(new ClosedChannelException());
+        }
+        writeLock.lock();
+        try {
+            if (durability.mode() != Durability.Mode.SYNC_PER_WRITE && active.channel().isOpen()) {
+                active.channel().force(false);
+            }
+        } finally {
+            writeLock.unlock();
+        }
+    }
+}
@@ -0,0 +1,11 @@
+package net.tutysara.db;
+
+// MergeMetrics is a point in time copy of the merge counters of a DiskStore.
+//
+//    merges          - merges that ran to completion
+//    segmentsMerged  - sealed segments rewritten and deleted
+//    bytesRewritten  - live bytes copied into new segments
+//    bytesReclaimed  - disk space given back, size of the deleted segments minus
+//                      the bytes rewritten from them
+public record MergeMetrics(long merges, long segmentsMerged, long bytesRewritten, long bytesReclaimed) {
+}
@@ -0,0 +1,357 @@
+package net.tutysara.db;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+// Merger rewrites the live records of sealed segments into new segments and
+// deletes the old ones, this is how a Bitcask gets rid of overwritten values.
+//
+// How merge works?
+//	1. Pick the sealed segments whose dead bytes ratio is high enough
+//	2. Seal the active segment and reserve file ids for the output, so the output
+//	   sorts after every merged segment and before anything written from now on
+//	3. Scan the picked segments, a record is live if the keyDir still points at it,
+//	   copy the live ones to the output segments
+//	4. Force the output segments, write their hint files and publish them, then move every copied key over with
+//	   a compare and set on the keyDir. If a writer overwrote the key in the
+//	   meantime the set fails and the copy simply becomes a dead record.
+//	5. Remove and delete the merged segments
+//
+// A tombstone is copied only while it may still hide something: its key has to be
+// absent from the keyDir (otherwise a newer record replaced it), and some sealed
+// segment older than the tombstone has to stay around after the merge, since that
+// segment may hold an older record of the key. Once all older segments went
+// through a merge together with the tombstone, it is dropped. With
+// Options.keepTombstones the second condition is skipped, a Follower may still have
+// the older record even though the primary merged it away.
+//
+// A record whose ttl ran out is never copied, even if the sweeper has not removed
+// its key yet; the merge removes it then. It still hides the older records of its
+// key though, so it is replaced by a tombstone under the same rules as above.
+//
+// With compression on, a raw value that is large enough is compressed while it is
+// copied. Values written before compression was turned on, and those of write
+// batches, end up compressed this way.
+//
+// Readers and the writer are never blocked: the keyDir is only changed one key
+// at a time with compare and set, and a reader that raced with step 5 retries.
+class Merger implements AutoCloseable {
+    private static final Logger log = LoggerFactory.getLogger(Merger.class);
+
+    private record Moved(byte[] key, Format.KeyEntry from, Format.KeyEntry to) {
+    }
+
+    private final Segments segments;
+    private final KeyDir keyDir;
+    private final LogWriter writer;
+    private final Options options;
+    private final Consumer<Format.KeyEntry> expired;
+    private final ReentrantLock mergeLock = new ReentrantLock();
+    private final ScheduledExecutorService scheduler;
+    private final int compressionThreshold;
+
+    private final AtomicLong merges = new AtomicLong();
+    private final AtomicLong segmentsMerged = new AtomicLong();
+    private final AtomicLong bytesRewritten = new AtomicLong();
+    private final AtomicLong bytesReclaimed = new AtomicLong();
+
+    // expired is called with every entry the merge removed because its ttl ran out
+    Merger(Segments segments, KeyDir keyDir, LogWriter writer, Options options, Consumer<Format.KeyEntry> expired) {
+        this.segments = segments;
+        this.keyDir = keyDir;
+        this.writer = writer;
+        this.options = options;
+        this.expired = expired;
+        this.compressionThreshold = options.compressionThreshold();
+        if (options.mergeInterval().isZero()) {
+            scheduler = null;
+        } else {
+            scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "bitcask-merge");
+                thread.setDaemon(true);
+                return thread;
+            });
+            long interval = options.mergeInterval().toMillis();
+            scheduler.scheduleWithFixedDelay(this::mergeInBackground, interval, interval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    MergeMetrics metrics() {
+        return new MergeMetrics(merges.get(), segmentsMerged.get(), bytesRewritten.get(), bytesReclaimed.get());
+    }
+
+    private void mergeInBackground() {
+        try {
+            merge(options.mergeTriggerRatio());
+        } catch (IOException e) {
+            // close interrupts a running merge, which closes the channel it was using
+            if (scheduler.isShutdown()) {
+                log.debug("Background merge stopped by close", e);
+            } else {
+                log.error("Background merge failed", e);
+            }
+        } catch (RuntimeException e) {
+            // an exception escaping would cancel every later background merge
+            log.error("Background merge failed", e);
+        }
+    }
+
+    // merge rewrites every sealed segment whose dead ratio is at least minDeadRatio
+    // and returns the number of segments merged. Only one merge runs at a time, a
+    // call made while another merge is running returns 0.
+    int merge(double minDeadRatio) throws IOException {
+        if (!mergeLock.tryLock()) {
+            return 0;
+        }
+        try {
+            int activeFileId = writer.activeFileId();
+            List<Segment> inputs = new ArrayList<>();
+            for (Segment segment : segments.all()) {
+                if (segment.fileId() < activeFileId && segment.deadRatio() >= minDeadRatio) {
+                    inputs.add(segment);
+                }
+            }
+            if (inputs.isEmpty()) {
+                return 0;
+            }
+            // each output segment is filled up to maxSegmentSize and together they
+            // hold at most the input bytes, 2n+1 ids is always enough for n inputs
+            int reserved = 2 * inputs.size() + 1;
+            int nextOutputId = writer.sealAndReserve(reserved);
+            mergeSegments(inputs, nextOutputId, nextOutputId + reserved);
+            return inputs.size();
+        } finally {
+            mergeLock.unlock();
+        }
+    }
+
+    private void mergeSegments(List<Segment> inputs, int firstOutputId, int endOutputId) throws IOException {
+        long started = System.nanoTime();
+        List<Moved> moved = new ArrayList<>();
+        Throttle throttle = new Throttle(options.mergeBytesPerSecond());
+        Output output = new Output(firstOutputId, endOutputId);
+        long inputBytes = 0;
+        // every segment below firstOutputId that is not merged now stays as it is
+        int oldestKept = Integer.MAX_VALUE;
+        for (Segment segment : segments.all()) {
+            if (segment.fileId() < firstOutputId && !inputs.contains(segment)) {
+                oldestKept = Math.min(oldestKept, segment.fileId());
+            }
+        }
+        int oldestKeptId = oldestKept;
+        long now = System.currentTimeMillis();
+
+        // a merge that fails before its outputs are published leaves no file behind,
+        // the next open would take them for segments and their records would
+        // duplicate the inputs
+        try {
+            for (Segment input : inputs) {
+                inputBytes += input.size();
+                input.scan(input.dataStart(), (position, record) -> {
+                    throttle.acquire(record.remaining());
+                    byte[] key = new byte[Format.keySize(record, 0)];
+                    record.get(Format.HEADER_SIZE, key);
+                    var entry = keyDir.get(key);
+                    boolean tombstone = Format.valueSize(record, 0) == Format.TOMBSTONE;
+                    if (!tombstone && Format.expires(record, 0) && Format.timestamp(record, 0) * 1000 <= now) {
+                        if (entry != null && entry.fileId() == input.fileId() && entry.position() == position
+                                && keyDir.remove(key, entry)) {
+                            expired.accept(entry);
+                            entry = null;
+                        }
+                        record = expiredTombstone(record, key);
+                        tombstone = true;
+                    }
+                    if (tombstone) {
+                        if (entry == null && (options.keepTombstones() || oldestKeptId < input.fileId())) {
+                            // kept tombstones are not dead in the output, they are needed
+                            output.append(new Format.KeyEntry(input.fileId(), Format.timestamp(record, 0),
+                                    position, record.limit()), record);
+                        }
+                        return;
+                    }
+                    if (entry == null || entry.fileId() != input.fileId() || entry.position() != position) {
+                        return; // dead record
+                    }
+                    if (input.version() == 0) {
+                        record = Format.upgrade(record);
+                    }
+                    if (compressionThreshold > 0 && !entry.compressed()
+                            && Format.valueSize(record, 0) >= compressionThreshold) {
+                        record = compress(record);
+                    }
+                    moved.add(new Moved(key, entry, output.append(entry, record)));
+                });
+            }
+            output.finish();
+        } catch (Throwable e) {
+            try {
+                output.discard();
+            } catch (IOException suppressed) {
+                e.addSuppressed(suppressed);
+            }
+            throw e;
+        }
+
+        // the outputs have to be readable before any key points at them
+        for (Segment segment : output.segments) {
+            segments.seal(segment);
+            segments.publish(segment);
+        }
+        for (Moved m : moved) {
+            if (keyDir.replace(m.key(), m.from(), m.to())) {
+                segments.get(m.to().fileId()).addKey();
+            } else {
+                // overwritten while we were merging, the copy is dead already
+                segments.get(m.to().fileId()).addDeadBytes(m.to().totalSize());
+            }
+        }
+        segments.remove(inputs);
+
+        merges.incrementAndGet();
+        segmentsMerged.addAndGet(inputs.size());
+        bytesRewritten.addAndGet(output.bytes);
+        bytesReclaimed.addAndGet(inputBytes - output.bytes);
+        log.info("Merged {} segments into {} in {} ms, reclaimed {} bytes",
+                inputs.size(), output.segments.size(), (System.nanoTime() - started) / 1_000_000,
+                inputBytes - output.bytes);
+    }
+
+    // expiredTombstone returns the tombstone that stands in for an expired record
+    private static ByteBuffer expiredTombstone(ByteBuffer record, byte[] key) {
+        ByteBuffer tombstone = ByteBuffer.allocate(Format.tombstoneSize(key.length));
+        Format.encodeTombstone(Format.timestamp(record, 0), ByteBuffer.wrap(key), tombstone);
+        return tombstone.flip();
+    }
+
+    // compress returns the record with its value compressed, or the record itself if
+    // the value does not get smaller
+    private ByteBuffer compress(ByteBuffer record) {
+        int keySize = Format.keySize(record, 0);
+        int valueOffset = Format.valueOffset(keySize);
+        byte[] stored = Compression.compress(record.slice(valueOffset, Format.valueSize(record, 0)),
+                options.compressionLevel());
+        if (stored == null) {
+            return record;
+        }
+        ByteBuffer compressed = ByteBuffer.allocate(Format.recordSize(keySize, stored.length));
+        Format.encode(Format.timestamp(record, 0), record.slice(Format.HEADER_SIZE, keySize),
+                ByteBuffer.wrap(stored), true, Format.expires(record, 0), compressed);
+        return compressed.flip();
+    }
+
+    // Output appends the copied records to the reserved segments, rolling over to
+    // the next reserved id with the same rule as the LogWriter
+    private final class Output {
+        private final List<Segment> segments = new ArrayList<>();
+        private final int firstId;
+        private final int endId;
+        private int nextId;
+        private Segment segment;
+        private HintFile.Builder hints;
+        private long offset;
+        private long bytes;
+
+        Output(int firstId, int endId) {
+            this.firstId = firstId;
+            this.nextId = firstId;
+            this.endId = endId;
+        }
+
+        Format.KeyEntry append(Format.KeyEntry entry, ByteBuffer record) throws IOException {
+            int size = record.remaining();
+            boolean compressed = Format.isCompressed(record, 0);
+            boolean expires = Format.expires(record, 0);
+            if (segment == null || (offset > segment.dataStart() && offset + size > options.maxSegmentSize())) {
+                finish();
+                if (nextId >= endId) {
+                    // the next id may already be the active segment
+                    throw new IOException("Merge ran out of reserved file ids at " + nextId);
+                }
+                segment = Merger.this.segments.createReserved(nextId++);
+                hints = new HintFile.Builder();
+                segments.add(segment);
+                offset = segment.dataStart();
+            }
+            long position = offset;
+            hints.add(record, position);
+            while (record.hasRemaining()) {
+                offset += segment.channel().write(record, offset);
+            }
+            bytes += size;
+            return new Format.KeyEntry(segment.fileId(), entry.timestamp(), position, size, compressed, expires);
+        }
+
+        void finish() throws IOException {
+            if (segment != null) {
+                segment.channel().force(false);
+                hints.write(Merger.this.segments.dir(), segment.fileId());
+            }
+        }
+
+        // discard closes and deletes the data and hint files of every id handed out
+        // so far, including one whose creation failed halfway
+        void discard() throws IOException {
+            for (Segment output : segments) {
+                output.close();
+            }
+            Path dir = Merger.this.segments.dir();
+            for (int id = firstId; id < nextId; id++) {
+                Files.deleteIfExists(dir.resolve(Segment.fileName(id)));
+                HintFile.delete(dir, id);
+            }
+        }
+    }
+
+    public void close() throws Exception {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler.awaitTermination(1, TimeUnit.MINUTES);
+        }
+        // wait for a merge started by DiskStore.merge
+        mergeLock.lock();
+        mergeLock.unlock();
+    }
+
+    // Throttle keeps the merge under bytesPerSecond by sleeping whenever it gets
+    // ahead of the allowed rate
+    private static final class Throttle {
+        private final long bytesPerSecond;
+        private final long started = System.nanoTime();
+        private long bytes;
+
+        Throttle(long bytesPerSecond) {
+            this.bytesPerSecond = bytesPerSecond;
+        }
+
+        void acquire(long count) throws IOException {
+            if (bytesPerSecond == 0) {
+                return;
+            }
+            bytes += count;
+            long allowedAt = started + bytes * 1_000_000_000L / bytesPerSecond;
+            long wait = allowedAt - System.nanoTime();
+            if (wait > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(wait);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Merge interrupted", e);
+                }
+            }
+        }
+    }
+}
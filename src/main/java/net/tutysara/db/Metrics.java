@@ -0,0 +1,42 @@
+package net.tutysara.db;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+// Metrics holds the counters and latency histograms of one DiskStore, see
+// StoreMetrics for what they mean. Everything is updated on the hot paths, so
+// counters are LongAdders and latencies go to striped Histograms: an update never
+// takes a lock and rarely contends with another thread.
+//
+// The clock is the expensive part, two System.nanoTime calls cost more than all
+// the rest. Gets and sets are therefore only timed when sampled() says so, see
+// Options.latencySampling.
+final class Metrics {
+    final LongAdder gets = new LongAdder();
+    final LongAdder sets = new LongAdder();
+    final LongAdder deletes = new LongAdder();
+    final LongAdder batches = new LongAdder();
+    final LongAdder bytesWritten = new LongAdder();
+    final LongAdder bytesRead = new LongAdder();
+    final LongAdder syncs = new LongAdder();
+    final LongAdder expired = new LongAdder();
+    final Histogram getLatency = new Histogram();
+    final Histogram setLatency = new Histogram();
+    final Histogram syncLatency = new Histogram();
+    private final int sampling;
+
+    Metrics(int sampling) {
+        this.sampling = sampling;
+    }
+
+    // sampled tells whether to time the operation about to start, never with a
+    // sampling of 0
+    boolean sampled() {
+        return sampling == 1 || (sampling > 1 && ThreadLocalRandom.current().nextInt(sampling) == 0);
+    }
+
+    void recordSync(long nanos) {
+        syncs.increment();
+        syncLatency.record(nanos);
+    }
+}
@@ -0,0 +1,397 @@
+package net.tutysara.db;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.BinaryOperator;
+
+// OffHeapKeyDir is an open addressing hash table in direct memory. It never
+// creates an object per key, so a keyDir with hundreds of millions of keys costs
+// neither object headers nor GC time.
+//
+// The table is split into stripes by the top bits of the key hash. Every stripe
+// has its own lock and two direct buffers:
+//
+//    index    one 8 byte slot per bucket, linear probing
+//             ┌──────────────┬─────────────────────┐
+//             │ key hash(4B) │ arena offset + 1(4B)│   0 = empty slot
+//             └──────────────┴─────────────────────┘
+//
+//    arena    the entries, appended one after the other
+//             ┌────────────┬───────────────┬─────────────┬────────────────┬──────────────┬─────┐
+//             │ fileId(4B) │ timestamp(4B) │ position(8B)│ total_size(4B) │ key_size(4B) │ key │
+//             └────────────┴───────────────┴─────────────┴────────────────┴──────────────┴─────┘
+//
+//             the top bit of total_size is KeyEntry.compressed, the top bit of
+//             position KeyEntry.expires
+//
+// Keeping the hash in the slot means a probe only touches the arena when the hash
+// matches. An update of an existing key overwrites the fixed fields in place.
+// remove empties the slot with backward shift deletion, so no probe chain is ever
+// cut short, and leaves the entry in the arena as garbage. Once more than half of
+// the arena is garbage the live entries are copied into a new, smaller arena.
+//
+// Readers use StampedLock optimistic reads: they read without locking and only
+// retry under the read lock if a writer changed the stripe in the meantime. A
+// racing read may see a half written entry, or an offset past the end of a buffer
+// that was just replaced, both are caught and retried.
+final class OffHeapKeyDir implements KeyDir {
+
+    private static final int STRIPE_BITS = 6;
+    private static final int STRIPES = 1 << STRIPE_BITS;
+    private static final int ENTRY_HEADER_SIZE = 24;
+    private static final int INITIAL_SLOTS = 1024;
+    private static final int INITIAL_ARENA_SIZE = 16 * 1024;
+    private static final int MAX_ARENA_SIZE = Integer.MAX_VALUE - 8;
+    private static final int MIN_COMPACT_SIZE = 64 * 1024;
+    private static final long EMPTY = 0;
+
+    private final Stripe[] stripes = new Stripe[STRIPES];
+
+    OffHeapKeyDir() {
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Stripe();
+        }
+    }
+
+    public Format.KeyEntry get(byte[] key) {
+        int hash = hash(key);
+        return stripe(hash).get(key, hash);
+    }
+
+    public Format.KeyEntry put(byte[] key, Format.KeyEntry keyEntry) {
+        int hash = hash(key);
+        return stripe(hash).merge(key, hash, keyEntry, (current, candidate) -> candidate, true);
+    }
+
+    public boolean replace(byte[] key, Format.KeyEntry expected, Format.KeyEntry keyEntry) {
+        int hash = hash(key);
+        return stripe(hash).replace(key, hash, expected, keyEntry);
+    }
+
+    public Format.KeyEntry merge(byte[] key, Format.KeyEntry keyEntry, BinaryOperator<Format.KeyEntry> remapping) {
+        int hash = hash(key);
+        return stripe(hash).merge(key, hash, keyEntry, remapping, false);
+    }
+
+    public Format.KeyEntry remove(byte[] key) {
+        int hash = hash(key);
+        return stripe(hash).remove(key, hash, null);
+    }
+
+    public boolean remove(byte[] key, Format.KeyEntry expected) {
+        int hash = hash(key);
+        return stripe(hash).remove(key, hash, expected) != null;
+    }
+
+    public int size() {
+        int size = 0;
+        for (Stripe stripe : stripes) {
+            long stamp = stripe.lock.readLock();
+            try {
+                size += stripe.size;
+            } finally {
+                stripe.lock.unlockRead(stamp);
+            }
+        }
+        return size;
+    }
+
+    // offHeapBytes is the direct memory held by the table
+    long offHeapBytes() {
+        long bytes = 0;
+        for (Stripe stripe : stripes) {
+            long stamp = stripe.lock.readLock();
+            try {
+                bytes += stripe.index.capacity() + stripe.arena.capacity();
+            } finally {
+                stripe.lock.unlockRead(stamp);
+            }
+        }
+        return bytes;
+    }
+
+    public void close() {
+        // direct buffers are freed once they are unreachable, drop them right away
+        for (Stripe stripe : stripes) {
+            long stamp = stripe.lock.writeLock();
+            try {
+                stripe.index = ByteBuffer.allocateDirect(8);
+                stripe.arena = ByteBuffer.allocateDirect(8);
+                stripe.mask = 0;
+                stripe.size = 0;
+                stripe.arenaEnd = 0;
+                stripe.garbage = 0;
+            } finally {
+                stripe.lock.unlockWrite(stamp);
+            }
+        }
+    }
+
+    private Stripe stripe(int hash) {
+        return stripes[hash >>> (32 - STRIPE_BITS)];
+    }
+
+    static int hash(byte[] key) {
+        // FNV-1a followed by the murmur3 finalizer, the top bits pick the stripe and
+        // the bottom bits the slot so both need to be well mixed
+        int h = 0x811c9dc5;
+        for (byte b : key) {
+            h = (h ^ b) * 0x01000193;
+        }
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+
+    private static final class Stripe {
+        private final StampedLock lock = new StampedLock();
+        private ByteBuffer index = ByteBuffer.allocateDirect(INITIAL_SLOTS * 8);
+        private ByteBuffer arena = ByteBuffer.allocateDirect(INITIAL_ARENA_SIZE);
+        private int mask = INITIAL_SLOTS - 1;
+        private int size;
+        private int arenaEnd;
+        // garbage is the number of arena bytes held by removed entries
+        private int garbage;
+
+        Format.KeyEntry get(byte[] key, int hash) {
+            long stamp = lock.tryOptimisticRead();
+            if (stamp != 0) {
+                try {
+                    ByteBuffer index = this.index;
+                    ByteBuffer arena = this.arena;
+                    int mask = this.mask;
+                    int offset = find(index, arena, mask, key, hash);
+                    Format.KeyEntry keyEntry = offset < 0 ? null : readEntry(arena, offset);
+                    if (lock.validate(stamp)) {
+                        return keyEntry;
+                    }
+                } catch (IndexOutOfBoundsException e) {
+                    // raced with a writer, retry under the read lock
+                }
+            }
+            stamp = lock.readLock();
+            try {
+                int offset = find(index, arena, mask, key, hash);
+                return offset < 0 ? null : readEntry(arena, offset);
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+
+        boolean replace(byte[] key, int hash, Format.KeyEntry expected, Format.KeyEntry keyEntry) {
+            long stamp = lock.writeLock();
+            try {
+                int offset = find(index, arena, mask, key, hash);
+                if (offset < 0 || !readEntry(arena, offset).equals(expected)) {
+                    return false;
+                }
+                writeEntry(arena, offset, keyEntry);
+                return true;
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+        }
+
+        // merge stores keyEntry for an absent key, or remapping(current, keyEntry) for
+        // a present one. Returns the previous entry when returnPrevious is set,
+        // otherwise the entry now stored.
+        Format.KeyEntry merge(byte[] key, int hash, Format.KeyEntry keyEntry,
+                              BinaryOperator<Format.KeyEntry> remapping, boolean returnPrevious) {
+            long stamp = lock.writeLock();
+            try {
+                int offset = find(index, arena, mask, key, hash);
+                if (offset >= 0) {
+                    Format.KeyEntry current = readEntry(arena, offset);
+                    Format.KeyEntry merged = remapping.apply(current, keyEntry);
+                    writeEntry(arena, offset, merged);
+                    return returnPrevious ? current : merged;
+                }
+                insert(key, hash, keyEntry);
+                return returnPrevious ? null : keyEntry;
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+        }
+
+        // remove drops the key if it maps to expected, or whatever it maps to if
+        // expected is null, and returns the removed entry
+        Format.KeyEntry remove(byte[] key, int hash, Format.KeyEntry expected) {
+            long stamp = lock.writeLock();
+            try {
+                int slot = findSlot(index, arena, mask, key, hash);
+                if (slot < 0) {
+                    return null;
+                }
+                int offset = (int) index.getLong(slot << 3) - 1;
+                Format.KeyEntry removed = readEntry(arena, offset);
+                if (expected != null && !removed.equals(expected)) {
+                    return null;
+                }
+                deleteSlot(slot);
+                size--;
+                garbage += ENTRY_HEADER_SIZE + key.length;
+                if (garbage > arenaEnd / 2 && arenaEnd > MIN_COMPACT_SIZE) {
+                    compact();
+                }
+                return removed;
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+        }
+
+        // deleteSlot empties a slot and moves later entries of the probe chain back
+        // into the hole, as long as that does not put them before their home slot
+        private void deleteSlot(int slot) {
+            int hole = slot;
+            int next = slot;
+            while (true) {
+                next = (next + 1) & mask;
+                long slotValue = index.getLong(next << 3);
+                if (slotValue == EMPTY) {
+                    break;
+                }
+                int home = (int) (slotValue >>> 32) & mask;
+                // the entry can move to the hole unless its home lies in (hole, next]
+                boolean homeBetween = hole <= next
+                        ? home > hole && home <= next
+                        : home > hole || home <= next;
+                if (!homeBetween) {
+                    index.putLong(hole << 3, slotValue);
+                    hole = next;
+                }
+            }
+            index.putLong(hole << 3, EMPTY);
+        }
+
+        // compact copies the live entries into a new arena and points the slots at
+        // their new offsets
+        private void compact() {
+            ByteBuffer compacted = ByteBuffer.allocateDirect(Math.max(INITIAL_ARENA_SIZE, arenaEnd - garbage));
+            int end = 0;
+            for (int i = 0; i <= mask; i++) {
+                long slotValue = index.getLong(i << 3);
+                if (slotValue == EMPTY) {
+                    continue;
+                }
+                int offset = (int) slotValue - 1;
+                int entrySize = ENTRY_HEADER_SIZE + arena.getInt(offset + 20);
+                compacted.put(end, arena, offset, entrySize);
+                index.putLong(i << 3, (slotValue & 0xffffffff00000000L) | (end + 1L));
+                end += entrySize;
+            }
+            arena = compacted;
+            arenaEnd = end;
+            garbage = 0;
+        }
+
+        private void insert(byte[] key, int hash, Format.KeyEntry keyEntry) {
+            // caller holds the write lock
+            if ((size + 1) * 4L > (mask + 1) * 3L) {
+                rehash((mask + 1) * 2);
+            }
+            int entrySize = ENTRY_HEADER_SIZE + key.length;
+            if (arenaEnd + (long) entrySize > arena.capacity()) {
+                growArena(entrySize);
+            }
+            int offset = arenaEnd;
+            writeEntry(arena, offset, keyEntry);
+            arena.putInt(offset + 20, key.length);
+            arena.put(offset + ENTRY_HEADER_SIZE, key);
+            arenaEnd += entrySize;
+
+            int slot = hash & mask;
+            while (index.getLong(slot << 3) != EMPTY) {
+                slot = (slot + 1) & mask;
+            }
+            index.putLong(slot << 3, ((long) hash << 32) | (offset + 1L));
+            size++;
+        }
+
+        private void rehash(int slots) {
+            ByteBuffer rehashed = ByteBuffer.allocateDirect(Math.multiplyExact(slots, 8));
+            int newMask = slots - 1;
+            for (int i = 0; i <= mask; i++) {
+                long slotValue = index.getLong(i << 3);
+                if (slotValue == EMPTY) {
+                    continue;
+                }
+                int slot = (int) (slotValue >>> 32) & newMask;
+                while (rehashed.getLong(slot << 3) != EMPTY) {
+                    slot = (slot + 1) & newMask;
+                }
+                rehashed.putLong(slot << 3, slotValue);
+            }
+            index = rehashed;
+            mask = newMask;
+        }
+
+        private void growArena(int entrySize) {
+            long needed = (long) arenaEnd + entrySize;
+            if (needed > MAX_ARENA_SIZE) {
+                throw new IllegalStateException("keyDir stripe is full, " + needed + " bytes");
+            }
+            long capacity = Math.max(needed, Math.min((long) arena.capacity() * 2, MAX_ARENA_SIZE));
+            ByteBuffer grown = ByteBuffer.allocateDirect((int) capacity);
+            grown.put(0, arena, 0, arenaEnd);
+            arena = grown;
+        }
+
+        // find returns the arena offset of the key or -1
+        private static int find(ByteBuffer index, ByteBuffer arena, int mask, byte[] key, int hash) {
+            int slot = findSlot(index, arena, mask, key, hash);
+            return slot < 0 ? -1 : (int) index.getLong(slot << 3) - 1;
+        }
+
+        // findSlot returns the index slot of the key or -1
+        private static int findSlot(ByteBuffer index, ByteBuffer arena, int mask, byte[] key, int hash) {
+            int slot = hash & mask;
+            for (int probes = 0; probes <= mask; probes++) {
+                long slotValue = index.getLong(slot << 3);
+                if (slotValue == EMPTY) {
+                    return -1;
+                }
+                if ((int) (slotValue >>> 32) == hash) {
+                    int offset = (int) slotValue - 1;
+                    if (keyEquals(arena, offset, key)) {
+                        return slot;
+                    }
+                }
+                slot = (slot + 1) & mask;
+            }
+            return -1;
+        }
+
+        private static boolean keyEquals(ByteBuffer arena, int offset, byte[] key) {
+            if (arena.getInt(offset + 20) != key.length) {
+                return false;
+            }
+            int keyOffset = offset + ENTRY_HEADER_SIZE;
+            for (int i = 0; i < key.length; i++) {
+                if (arena.get(keyOffset + i) != key[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private static Format.KeyEntry readEntry(ByteBuffer arena, int offset) {
+            return new Format.KeyEntry(
+                    arena.getInt(offset),
+                    Integer.toUnsignedLong(arena.getInt(offset + 4)),
+                    arena.getLong(offset + 8) & Long.MAX_VALUE,
+                    arena.getInt(offset + 16) & ~Format.COMPRESSED,
+                    (arena.getInt(offset + 16) & Format.COMPRESSED) != 0,
+                    arena.getLong(offset + 8) < 0);
+        }
+
+        private static void writeEntry(ByteBuffer arena, int offset, Format.KeyEntry keyEntry) {
+            arena.putInt(offset, keyEntry.fileId());
+            arena.putInt(offset + 4, (int) keyEntry.timestamp());
+            arena.putLong(offset + 8, keyEntry.expires() ? keyEntry.position() | Long.MIN_VALUE : keyEntry.position());
+            arena.putInt(offset + 16, keyEntry.compressed() ? keyEntry.totalSize() | Format.COMPRESSED : keyEntry.totalSize());
+        }
+    }
+}
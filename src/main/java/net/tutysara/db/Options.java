@@ -0,0 +1,236 @@
+package net.tutysara.db;
+
+import java.time.Duration;
+import java.util.zip.Deflater;
+
+// Options holds the tunables of a DiskStore. Options are immutable, every with*
+// method returns a copy so a single instance can be shared between stores:
+//
+//    var options = Options.defaults()
+//            .withDurability(Durability.groupCommit(128, Duration.ofMillis(2)));
+//    try (DiskStore ds = new DiskStore("books.db", options)) { ... }
+//
+// where books.db is the data directory of the store.
+public final class Options {
+
+    private Durability durability = Durability.syncPerWrite();
+    private long maxSegmentSize = 64L * 1024 * 1024;
+    private double mergeTriggerRatio = 0.5;
+    private Duration mergeInterval = Duration.ofMinutes(1);
+    private long mergeBytesPerSecond = 0;
+    private int recoveryThreads = Runtime.getRuntime().availableProcessors();
+    private KeyDirType keyDirType = KeyDirType.HASH_MAP;
+    private ReadMode readMode = ReadMode.CHANNEL;
+    private long valueCacheSize = 0;
+    private int compressionThreshold = 0;
+    private int compressionLevel = Deflater.BEST_SPEED;
+    private boolean jmx = false;
+    private int latencySampling = 16;
+    private boolean keepTombstones = false;
+
+    private Options() {
+    }
+
+    public static Options defaults() {
+        return new Options();
+    }
+
+    public Durability durability() {
+        return durability;
+    }
+
+    public Options withDurability(Durability durability) {
+        Options options = copy();
+        options.durability = durability;
+        return options;
+    }
+
+    // maxSegmentSize is the size in bytes after which the active data file is sealed
+    // and a new one is started
+    public long maxSegmentSize() {
+        return maxSegmentSize;
+    }
+
+    public Options withMaxSegmentSize(long maxSegmentSize) {
+        assert maxSegmentSize > 0 : "maxSegmentSize should be positive";
+        Options options = copy();
+        options.maxSegmentSize = maxSegmentSize;
+        return options;
+    }
+
+    // mergeTriggerRatio is the dead bytes / size ratio from which a sealed segment
+    // is picked up by the background merge
+    public double mergeTriggerRatio() {
+        return mergeTriggerRatio;
+    }
+
+    public Options withMergeTriggerRatio(double mergeTriggerRatio) {
+        assert mergeTriggerRatio > 0 && mergeTriggerRatio <= 1 : "mergeTriggerRatio should be in (0, 1]";
+        Options options = copy();
+        options.mergeTriggerRatio = mergeTriggerRatio;
+        return options;
+    }
+
+    // mergeInterval is how often the background merge checks the segments,
+    // Duration.ZERO turns the background merge off (DiskStore.merge still works)
+    public Duration mergeInterval() {
+        return mergeInterval;
+    }
+
+    public Options withMergeInterval(Duration mergeInterval) {
+        assert !mergeInterval.isNegative() : "mergeInterval should not be negative";
+        Options options = copy();
+        options.mergeInterval = mergeInterval;
+        return options;
+    }
+
+    // mergeBytesPerSecond limits how fast the merge reads sealed segments, 0 means
+    // no limit
+    public long mergeBytesPerSecond() {
+        return mergeBytesPerSecond;
+    }
+
+    public Options withMergeBytesPerSecond(long mergeBytesPerSecond) {
+        assert mergeBytesPerSecond >= 0 : "mergeBytesPerSecond should not be negative";
+        Options options = copy();
+        options.mergeBytesPerSecond = mergeBytesPerSecond;
+        return options;
+    }
+
+    // recoveryThreads is the number of workers that load segments in parallel when
+    // the store is opened
+    public int recoveryThreads() {
+        return recoveryThreads;
+    }
+
+    public Options withRecoveryThreads(int recoveryThreads) {
+        assert recoveryThreads > 0 : "recoveryThreads should be positive";
+        Options options = copy();
+        options.recoveryThreads = recoveryThreads;
+        return options;
+    }
+
+    public KeyDirType keyDirType() {
+        return keyDirType;
+    }
+
+    public Options withKeyDirType(KeyDirType keyDirType) {
+        Options options = copy();
+        options.keyDirType = keyDirType;
+        return options;
+    }
+
+    public ReadMode readMode() {
+        return readMode;
+    }
+
+    public Options withReadMode(ReadMode readMode) {
+        Options options = copy();
+        options.readMode = readMode;
+        return options;
+    }
+
+    // valueCacheSize is the number of bytes of values get keeps in memory, 0 turns
+    // the value cache off. See ValueCache.
+    public long valueCacheSize() {
+        return valueCacheSize;
+    }
+
+    public Options withValueCacheSize(long valueCacheSize) {
+        assert valueCacheSize >= 0 : "valueCacheSize should not be negative";
+        Options options = copy();
+        options.valueCacheSize = valueCacheSize;
+        return options;
+    }
+
+    // compressionThreshold is the value size in bytes from which values are stored
+    // deflated, smaller values are stored raw. 0 turns compression off. See
+    // Compression.
+    public int compressionThreshold() {
+        return compressionThreshold;
+    }
+
+    public Options withCompressionThreshold(int compressionThreshold) {
+        assert compressionThreshold >= 0 : "compressionThreshold should not be negative";
+        Options options = copy();
+        options.compressionThreshold = compressionThreshold;
+        return options;
+    }
+
+    // compressionLevel is the Deflater level, from BEST_SPEED (1) to
+    // BEST_COMPRESSION (9)
+    public int compressionLevel() {
+        return compressionLevel;
+    }
+
+    public Options withCompressionLevel(int compressionLevel) {
+        assert compressionLevel >= Deflater.BEST_SPEED && compressionLevel <= Deflater.BEST_COMPRESSION
+                : "compressionLevel should be in [1, 9]";
+        Options options = copy();
+        options.compressionLevel = compressionLevel;
+        return options;
+    }
+
+    // jmx registers a DiskStoreMXBean for the store with the platform MBeanServer,
+    // see DiskStore.metrics for the same numbers without JMX
+    public boolean jmx() {
+        return jmx;
+    }
+
+    public Options withJmx(boolean jmx) {
+        Options options = copy();
+        options.jmx = jmx;
+        return options;
+    }
+
+    // latencySampling is how many gets and sets there are for every one whose
+    // latency is recorded, picked at random. Reading the clock twice costs about as
+    // much as 2-5% of a get, so by default 1 in 16 is timed. 1 times every operation,
+    // 0 none. Counters and sync latencies always count everything.
+    public int latencySampling() {
+        return latencySampling;
+    }
+
+    public Options withLatencySampling(int latencySampling) {
+        if (latencySampling < 0) {
+            throw new IllegalArgumentException("latencySampling should not be negative: " + latencySampling);
+        }
+        Options options = copy();
+        options.latencySampling = latencySampling;
+        return options;
+    }
+
+    // keepTombstones makes the merge copy every tombstone whose key is still
+    // deleted, instead of dropping it once no older record of the key is left. A
+    // Follower that was behind when the merge ran needs the tombstone to delete its
+    // own copy of the key, so DiskStore.logSource requires it. Deleted keys then
+    // keep taking space in the data files.
+    public boolean keepTombstones() {
+        return keepTombstones;
+    }
+
+    public Options withKeepTombstones(boolean keepTombstones) {
+        Options options = copy();
+        options.keepTombstones = keepTombstones;
+        return options;
+    }
+
+    private Options copy() {
+        Options options = new Options();
+        options.durability = durability;
+        options.maxSegmentSize = maxSegmentSize;
+        options.mergeTriggerRatio = mergeTriggerRatio;
+        options.mergeInterval = mergeInterval;
+        options.mergeBytesPerSecond = mergeBytesPerSecond;
+        options.recoveryThreads = recoveryThreads;
+        options.keyDirType = keyDirType;
+        options.readMode = readMode;
+        options.valueCacheSize = valueCacheSize;
+        options.compressionThreshold = compressionThreshold;
+        options.compressionLevel = compressionLevel;
+        options.jmx = jmx;
+        options.latencySampling = latencySampling;
+        options.keepTombstones = keepTombstones;
+        return options;
+    }
+}
@@ -0,0 +1,174 @@
+package net.tutysara.db;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+// RangeIterator is the lazy iterator behind DiskStore.scan and prefix. It walks the
+// keys of an ordered keyDir in chunks of CHUNK_SIZE and reads the values of a chunk
+// in file order rather than key order, so a range read turns into mostly forward
+// reads through each segment:
+//
+//    keys in key order     a    b    c    d    e
+//    their records         4:90 3:10 4:20 3:12 4:25      (fileId:position)
+//    reads in file order   3:10 3:12 | 4:20 4:25 | 4:90
+//
+// Records that are close to each other in the same segment are read with a single
+// read of the whole span (see MAX_GAP and MAX_SPAN). The values are then handed
+// out in key order.
+//
+// Like the keyDir iterator it is weakly consistent: writes made during the
+// iteration may or may not show up. If a merge deleted a segment in the meantime,
+// the value is looked up again by key, and keys deleted in the meantime are
+// skipped, and so are keys whose ttl ran out. IOExceptions are thrown as
+// UncheckedIOException.
+final class RangeIterator implements Iterator<KeyValue> {
+    static final int CHUNK_SIZE = 256;
+    // MAX_GAP is the largest hole between two records that is still read through
+    // rather than with a separate read. Reading holes is not free even from the page
+    // cache, so it stays at about a page.
+    private static final int MAX_GAP = 4 * 1024;
+    private static final int MAX_SPAN = 1024 * 1024;
+
+    interface ValueReader {
+        byte[] get(byte[] key) throws IOException;
+    }
+
+    private final Iterator<Map.Entry<byte[], Format.KeyEntry>> keys;
+    private final Segments segments;
+    private final ValueReader fallback;
+    private final ArrayDeque<KeyValue> chunk = new ArrayDeque<>(CHUNK_SIZE);
+
+    RangeIterator(Iterator<Map.Entry<byte[], Format.KeyEntry>> keys, Segments segments, ValueReader fallback) {
+        this.keys = keys;
+        this.segments = segments;
+        this.fallback = fallback;
+    }
+
+    // prefixEnd is the smallest key greater than every key that starts with prefix,
+    // or null if there is none (the prefix is empty or all 0xFF bytes)
+    static byte[] prefixEnd(byte[] prefix) {
+        for (int i = prefix.length - 1; i >= 0; i--) {
+            if (prefix[i] != (byte) 0xFF) {
+                byte[] end = Arrays.copyOf(prefix, i + 1);
+                end[i]++;
+                return end;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public boolean hasNext() {
+        while (chunk.isEmpty() && keys.hasNext()) {
+            try {
+                fill();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        return !chunk.isEmpty();
+    }
+
+    @Override
+    public KeyValue next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return chunk.poll();
+    }
+
+    private void fill() throws IOException {
+        byte[][] chunkKeys = new byte[CHUNK_SIZE][];
+        Format.KeyEntry[] entries = new Format.KeyEntry[CHUNK_SIZE];
+        int n = 0;
+        long now = System.currentTimeMillis();
+        while (n < CHUNK_SIZE && keys.hasNext()) {
+            var entry = keys.next();
+            if (entry.getValue().expired(now)) {
+                continue;
+            }
+            chunkKeys[n] = entry.getKey();
+            entries[n] = entry.getValue();
+            n++;
+        }
+        Integer[] order = new Integer[n];
+        for (int i = 0; i < n; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, Comparator.<Integer>comparingInt(i -> entries[i].fileId())
+                .thenComparingLong(i -> entries[i].position()));
+
+        byte[][] values = new byte[n][];
+        int runStart = 0;
+        while (runStart < n) {
+            var first = entries[order[runStart]];
+            long spanEnd = first.position() + first.totalSize();
+            int runEnd = runStart + 1;
+            while (runEnd < n) {
+                var next = entries[order[runEnd]];
+                long nextEnd = next.position() + next.totalSize();
+                if (next.fileId() != first.fileId() || next.position() - spanEnd > MAX_GAP
+                        || nextEnd - first.position() > MAX_SPAN) {
+                    break;
+                }
+                spanEnd = Math.max(spanEnd, nextEnd);
+                runEnd++;
+            }
+            readRun(chunkKeys, entries, Arrays.copyOfRange(order, runStart, runEnd), spanEnd, values);
+            runStart = runEnd;
+        }
+        for (int i = 0; i < n; i++) {
+            if (values[i] != null) {
+                chunk.add(new KeyValue(chunkKeys[i], values[i]));
+            }
+        }
+    }
+
+    // readRun reads the records of `run`, all in one segment, with a single read up
+    // to spanEnd and cuts their values out of it
+    private void readRun(byte[][] chunkKeys, Format.KeyEntry[] entries, Integer[] run, long spanEnd,
+                         byte[][] values) throws IOException {
+        var first = entries[run[0]];
+        var segment = segments.get(first.fileId());
+        if (segment != null) {
+            try {
+                if (run.length == 1) {
+                    // nothing to share the read with, read just the value
+                    int i = run[0];
+                    int valueOffset = Format.valueOffset(chunkKeys[i].length);
+                    values[i] = new byte[entries[i].totalSize() - valueOffset - Format.trailerSize(segment.version())];
+                    segment.read(ByteBuffer.wrap(values[i]), first.position() + valueOffset);
+                    if (entries[i].compressed()) {
+                        values[i] = Compression.decompress(values[i]);
+                    }
+                    return;
+                }
+                ByteBuffer span = ByteBuffer.allocate((int) (spanEnd - first.position()));
+                segment.read(span, first.position());
+                for (int i : run) {
+                    int valueOffset = Format.valueOffset(chunkKeys[i].length);
+                    int valueSize = entries[i].totalSize() - valueOffset - Format.trailerSize(segment.version());
+                    values[i] = new byte[valueSize];
+                    span.get((int) (entries[i].position() - first.position()) + valueOffset, values[i]);
+                    if (entries[i].compressed()) {
+                        values[i] = Compression.decompress(values[i]);
+                    }
+                }
+                return;
+            } catch (ClosedChannelException e) {
+                // merged away while we were reading, look the keys up again below
+            }
+        }
+        for (int i : run) {
+            values[i] = fallback.get(chunkKeys[i]);
+        }
+    }
+}
@@ -0,0 +1,15 @@
+package net.tutysara.db;
+
+// ReadMode selects how get reads records from sealed data files.
+//
+//    CHANNEL - a positional FileChannel read per lookup, a syscall and a copy from
+//              the page cache every time
+//    MMAP    - sealed files are memory mapped once, in chunks of up to 1 GiB, and a
+//              lookup copies the value straight out of the mapping without a
+//              syscall. Best when the data mostly fits in the page cache.
+//
+// The active file is always read through its channel, it is still growing.
+public enum ReadMode {
+    CHANNEL,
+    MMAP
+}
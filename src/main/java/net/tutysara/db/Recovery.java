@@ -0,0 +1,239 @@
+package net.tutysara.db;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Recovery rebuilds the keyDir when a store is opened.
+//
+// Every segment is loaded by its own task on a pool of Options.recoveryThreads
+// workers: a sealed segment from its hint file, which only has the keys and
+// their locations, the tail (and sealed segments that lost their hint file in a
+// crash) with a sequential Segment.scan. The hint entries of a scanned sealed
+// segment are written out so the next startup does not scan it again.
+//
+// Workers load straight into the shared keyDir. Segments finish in any
+// order, so instead of "last put wins" every put keeps the newer of the two
+// entries, newer meaning a higher file id, or a higher position in the same file.
+// The result is the same keyDir a single thread replaying the files in order would
+// build. The entry that loses is counted as dead bytes of its segment.
+//
+// Tombstones are collected the same way, newest per key, in a map of their own.
+// Once every segment is loaded a key is dropped from the keyDir if its newest
+// tombstone is newer than its newest record. Tombstones always count as dead
+// bytes, the merge decides whether one is still needed.
+//
+// A record whose ttl ran out by the time the store is opened is skipped: it goes
+// with the tombstones, since it still hides every older record of its key. The
+// keys of the records that expire later are handed to the ExpirySweeper.
+//
+// Scanning verifies the checksum of every record. A crash in the middle of an
+// append leaves a torn record at the end of the tail, the tail is truncated right
+// before it so that new records follow the last intact one. A damaged range
+// anywhere else is skipped: its bytes are copied to a quarantine file next to the
+// segment, named after the segment and the position of the range,
+//
+//    000000004.data
+//    000000004-000001234.corrupt
+//
+// and counted as dead bytes, so the next merge drops them from the segment.
+final class Recovery {
+    private static final Logger log = LoggerFactory.getLogger(Recovery.class);
+    static final String QUARANTINE_SUFFIX = ".corrupt";
+
+    private final Segments segments;
+    private final KeyDir keyDir;
+    private final int threads;
+    private final ExpirySweeper sweeper;
+    private final long now = System.currentTimeMillis();
+
+    Recovery(Segments segments, KeyDir keyDir, Options options, ExpirySweeper sweeper) {
+        this.segments = segments;
+        this.keyDir = keyDir;
+        this.threads = options.recoveryThreads();
+        this.sweeper = sweeper;
+    }
+
+    // Damage counts what the scans of one run had to skip
+    private static final class Damage {
+        private final AtomicLong corruptBytes = new AtomicLong();
+        private final AtomicLong truncatedBytes = new AtomicLong();
+    }
+
+    // run loads every segment in `existing` into the keyDir. The hint entries of the
+    // tail, which may become the active segment again, are collected into tailHints.
+    RecoveryStats run(List<Segment> existing, Segment tail, HintFile.Builder tailHints) throws IOException {
+        long started = System.nanoTime();
+        log.info("Loading file data...");
+        AtomicInteger fromHints = new AtomicInteger();
+        AtomicInteger scanned = new AtomicInteger();
+        Damage damage = new Damage();
+        Map<ByteBuffer, Format.KeyEntry> tombstones = new ConcurrentHashMap<>();
+        int workers = Math.max(1, Math.min(threads, existing.size()));
+        ExecutorService pool = Executors.newFixedThreadPool(workers, runnable -> {
+            Thread thread = new Thread(runnable, "bitcask-recovery");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long entries = 0;
+        try {
+            List<Future<Long>> futures = new ArrayList<>();
+            for (Segment segment : existing) {
+                futures.add(pool.submit(() -> {
+                    Path dir = segments.dir();
+                    long[] hintEntries = {0};
+                    if (segment != tail && HintFile.load(dir, segment.fileId(), (key, keyEntry) -> {
+                        recover(tombstones, key, keyEntry);
+                        hintEntries[0]++;
+                    }, (key, keyEntry) -> {
+                        tombstone(tombstones, key, keyEntry);
+                        hintEntries[0]++;
+                    })) {
+                        fromHints.incrementAndGet();
+                        return hintEntries[0];
+                    }
+                    HintFile.Builder hints = segment == tail ? tailHints : new HintFile.Builder();
+                    long records = scan(segment, segment == tail, hints, tombstones, damage);
+                    if (segment != tail) {
+                        hints.write(dir, segment.fileId());
+                    }
+                    scanned.incrementAndGet();
+                    return records;
+                }));
+            }
+            for (Future<Long> future : futures) {
+                entries += future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while loading the keyDir", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException ioException) {
+                throw ioException;
+            }
+            throw new IOException(e.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+        applyTombstones(tombstones);
+
+        var stats = new RecoveryStats(Duration.ofNanos(System.nanoTime() - started),
+                fromHints.get(), scanned.get(), entries, keyDir.size(), workers,
+                damage.corruptBytes.get(), damage.truncatedBytes.get());
+        log.info("Loaded {} segments from hint files, scanned {} segments, {} entries, {} unique keys in {} ms with {} threads",
+                stats.segmentsFromHints(), stats.segmentsScanned(), stats.entries(), stats.keys(),
+                stats.duration().toMillis(), stats.threads());
+        return stats;
+    }
+
+    private long scan(Segment segment, boolean isTail, HintFile.Builder hints,
+                      Map<ByteBuffer, Format.KeyEntry> tombstones, Damage damage) throws IOException {
+        long[] recordCount = {0};
+        long end = segment.scan(segment.dataStart(), (position, record) -> {
+            byte[] key = new byte[Format.keySize(record, 0)];
+            record.get(Format.HEADER_SIZE, key);
+            var keyEntry = new Format.KeyEntry(segment.fileId(), Format.timestamp(record, 0), position, record.limit(),
+                    Format.isCompressed(record, 0), Format.expires(record, 0));
+            if (Format.valueSize(record, 0) == Format.TOMBSTONE) {
+                tombstone(tombstones, key, keyEntry);
+            } else {
+                recover(tombstones, key, keyEntry);
+            }
+            hints.add(record, position);
+            recordCount[0]++;
+        }, (position, length) -> {
+            quarantine(segment, position, length);
+            segment.addDeadBytes(length);
+            damage.corruptBytes.addAndGet(length);
+        });
+
+        long size = segment.size();
+        if (end < size) {
+            if (isTail) {
+                log.warn("Truncating torn tail of segment {} at {}, dropping {} bytes",
+                        segment.fileId(), end, size - end);
+                segment.truncate(end);
+                damage.truncatedBytes.addAndGet(size - end);
+            } else {
+                // a sealed segment is never torn, keep its bytes but do not trust them
+                quarantine(segment, end, size - end);
+                segment.addDeadBytes(size - end);
+                damage.corruptBytes.addAndGet(size - end);
+            }
+        }
+        return recordCount[0];
+    }
+
+    private void quarantine(Segment segment, long position, long length) throws IOException {
+        Path path = segments.dir().resolve(String.format("%09d-%09d%s", segment.fileId(), position, QUARANTINE_SUFFIX));
+        log.warn("Skipping {} corrupt bytes at {} of segment {}, moved to {}",
+                length, position, segment.fileId(), path.getFileName());
+        try (FileChannel out = FileChannel.open(path, StandardOpenOption.WRITE,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            segment.channel().transferTo(position, length, out);
+            out.force(true);
+        }
+    }
+
+    private void recover(Map<ByteBuffer, Format.KeyEntry> tombstones, byte[] key, Format.KeyEntry keyEntry) {
+        if (keyEntry.expires()) {
+            if (keyEntry.expired(now)) {
+                tombstone(tombstones, key, keyEntry);
+                return;
+            }
+        }
+        segments.get(keyEntry.fileId()).addKey();
+        Format.KeyEntry kept = keyDir.merge(key, keyEntry, (current, candidate) -> {
+            Format.KeyEntry newer = newest(current, candidate);
+            Format.KeyEntry older = newer == candidate ? current : candidate;
+            segments.get(older.fileId()).dropKey(older.totalSize());
+            return newer;
+        });
+        // the records of a key that a newer one replaced do not go into the wheel
+        if (keyEntry.expires() && keyEntry.equals(kept)) {
+            sweeper.add(key, keyEntry);
+        }
+    }
+
+    private void tombstone(Map<ByteBuffer, Format.KeyEntry> tombstones, byte[] key, Format.KeyEntry keyEntry) {
+        segments.get(keyEntry.fileId()).addDeadBytes(keyEntry.totalSize());
+        tombstones.merge(ByteBuffer.wrap(key), keyEntry, Recovery::newest);
+    }
+
+    private void applyTombstones(Map<ByteBuffer, Format.KeyEntry> tombstones) {
+        tombstones.forEach((key, tombstone) -> {
+            var current = keyDir.get(key.array());
+            if (current != null && isNewer(tombstone, current)) {
+                keyDir.remove(key.array());
+                segments.get(current.fileId()).dropKey(current.totalSize());
+            }
+        });
+    }
+
+    static Format.KeyEntry newest(Format.KeyEntry a, Format.KeyEntry b) {
+        return isNewer(b, a) ? b : a;
+    }
+
+    static boolean isNewer(Format.KeyEntry a, Format.KeyEntry b) {
+        if (a.fileId() != b.fileId()) {
+            return a.fileId() > b.fileId();
+        }
+        return a.position() > b.position();
+    }
+}
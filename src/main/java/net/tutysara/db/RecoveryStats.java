@@ -0,0 +1,19 @@
+package net.tutysara.db;
+
+import java.time.Duration;
+
+// RecoveryStats describes how the keyDir was rebuilt when the store was opened.
+//
+//    duration          - wall clock time spent rebuilding the keyDir
+//    segmentsFromHints - sealed segments loaded from their hint file
+//    segmentsScanned   - segments read record by record (the tail, and sealed
+//                        segments whose hint file was missing)
+//    entries           - hint entries and records replayed
+//    keys              - unique keys in the keyDir afterwards
+//    threads           - number of recovery workers
+//    corruptBytes      - bytes of damaged records that were skipped and quarantined
+//    truncatedBytes    - bytes of a torn record cut off the end of the tail
+public record RecoveryStats(Duration duration, int segmentsFromHints, int segmentsScanned,
+                            long entries, int keys, int threads,
+                            long corruptBytes, long truncatedBytes) {
+}
@@ -0,0 +1,14 @@
+package net.tutysara.db;
+
+// ReplicationLag tells how far a Follower is behind its primary, see Follower.lag.
+//
+//    position  - where the follower will read the log next, everything before it
+//                is applied
+//    primary   - where the log of the primary ended at the last poll, null before
+//                the first poll
+//    bytes     - log bytes between the two at the last poll, -1 before the first
+//                poll
+//    millis    - time since the follower last had everything the primary had
+//                published, 0 when it is caught up
+public record ReplicationLag(LogPosition position, LogPosition primary, long bytes, long millis) {
+}
@@ -0,0 +1,278 @@
+package net.tutysara.db;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// Resp reads commands and writes replies in RESP, the protocol of Redis. A client
+// sends a command as an array of bulk strings:
+//
+//    *3\r\n $3\r\nSET\r\n $3\r\nkey\r\n $5\r\nvalue\r\n
+//    └─┬─┘  └────┬─────┘  └────┬─────┘  └─────┬──────┘
+//    3 args   arg 0          arg 1          arg 2
+//
+// or, typed by hand, as an inline command: words separated by spaces, ending with
+// \r\n or \n. Replies are simple strings (+OK), errors (-ERR ...), integers (:1),
+// bulk strings ($5\r\nvalue, $-1 for null) and arrays of those (*2 ...).
+//
+// parse works on whatever part of the stream has arrived: it returns null and
+// leaves the buffer alone until a whole command is there. A connection uses a
+// Parser instead, which takes the arguments that are complete out of the buffer
+// and keeps them until the rest of the command arrives.
+final class Resp {
+    // MAX_BULK bounds one argument and MAX_ARGS the number of arguments of a
+    // command. Arguments are only allocated once they arrived, MAX_BUFFERED bounds
+    // what a connection holds: the arguments of the command that is not complete
+    // yet and the input that is not parsed yet, see RespServer.
+    static final int MAX_BULK = 64 * 1024 * 1024;
+    static final int MAX_ARGS = 1024 * 1024;
+    static final int MAX_INLINE = 64 * 1024;
+    static final long MAX_BUFFERED = 2L * MAX_BULK;
+
+    private static final byte[] CRLF = {'\r', '\n'};
+
+    // ProtocolException is a stream that is not RESP, the connection is closed
+    // after its reply
+    static final class ProtocolException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        ProtocolException(String message) {
+            super(message);
+        }
+    }
+
+    private Resp() {
+    }
+
+    // parse returns the arguments of the command at the position of buffer and
+    // moves the position past it, or returns null if the command is not complete
+    static byte[][] parse(ByteBuffer buffer) throws ProtocolException {
+        int start = buffer.position();
+        byte[][] args = new Parser().parse(buffer);
+        if (args == null) {
+            buffer.position(start);
+        }
+        return args;
+    }
+
+    // Parser parses the commands of one stream. Of a command that is not complete
+    // it takes the count and every whole argument out of the buffer, so a byte is
+    // parsed and copied once however many reads the command takes, and the
+    // buffer only has to hold the argument that is arriving.
+    static final class Parser {
+        // args is null between commands
+        private List<byte[]> args;
+        private int count;
+        private long buffered;
+
+        // parse returns the arguments of the next command and moves the position
+        // past it, or returns null once the buffer holds no more than a part of an
+        // argument
+        byte[][] parse(ByteBuffer buffer) throws ProtocolException {
+            if (args == null) {
+                if (!buffer.hasRemaining()) {
+                    return null;
+                }
+                if (buffer.get(buffer.position()) != '*') {
+                    return parseInline(buffer);
+                }
+                int start = buffer.position();
+                buffer.get();
+                long count = readNumber(buffer);
+                if (count == Long.MIN_VALUE) {
+                    buffer.position(start);
+                    return null;
+                }
+                if (count < 0 || count > MAX_ARGS) {
+                    throw new ProtocolException("invalid multibulk length");
+                }
+                this.count = (int) count;
+                this.args = new ArrayList<>((int) Math.min(count, 16));
+            }
+            while (args.size() < count) {
+                byte[] arg = parseBulk(buffer);
+                if (arg == null) {
+                    return null;
+                }
+                args.add(arg);
+                buffered += arg.length;
+            }
+            byte[][] command = args.toArray(new byte[0][]);
+            args = null;
+            buffered = 0;
+            return command;
+        }
+
+        // buffered is the size of the arguments of the command that is not
+        // complete yet
+        long buffered() {
+            return buffered;
+        }
+
+        // parseBulk returns the bulk string at the position and moves past it, or
+        // leaves the position alone and returns null if it is not complete
+        private static byte[] parseBulk(ByteBuffer buffer) throws ProtocolException {
+            int start = buffer.position();
+            if (!buffer.hasRemaining()) {
+                return null;
+            }
+            if (buffer.get() != '$') {
+                throw new ProtocolException("expected '$', got '" + (char) buffer.get(buffer.position() - 1) + "'");
+            }
+            long size = readNumber(buffer);
+            if (size == Long.MIN_VALUE) {
+                buffer.position(start);
+                return null;
+            }
+            if (size < 0 || size > MAX_BULK) {
+                throw new ProtocolException("invalid bulk length");
+            }
+            if (buffer.remaining() < size + CRLF.length) {
+                buffer.position(start);
+                return null;
+            }
+            byte[] arg = new byte[(int) size];
+            buffer.get(arg);
+            if (buffer.get() != '\r' || buffer.get() != '\n') {
+                throw new ProtocolException("bulk string not followed by CRLF");
+            }
+            return arg;
+        }
+    }
+
+    // readNumber reads digits up to \r\n, or returns Long.MIN_VALUE if the line is
+    // not complete
+    private static long readNumber(ByteBuffer buffer) throws ProtocolException {
+        long value = 0;
+        boolean negative = false;
+        int digits = 0;
+        while (buffer.hasRemaining()) {
+            byte b = buffer.get();
+            if (b == '\r') {
+                if (!buffer.hasRemaining()) {
+                    return Long.MIN_VALUE;
+                }
+                if (buffer.get() != '\n' || digits == 0) {
+                    throw new ProtocolException("invalid length");
+                }
+                return negative ? -value : value;
+            }
+            if (b == '-' && digits == 0 && !negative) {
+                negative = true;
+            } else if (b >= '0' && b <= '9' && digits < 18) {
+                value = value * 10 + (b - '0');
+                digits++;
+            } else {
+                throw new ProtocolException("invalid length");
+            }
+        }
+        return Long.MIN_VALUE;
+    }
+
+    private static byte[][] parseInline(ByteBuffer buffer) throws ProtocolException {
+        int start = buffer.position();
+        int end = -1;
+        for (int i = start; i < buffer.limit(); i++) {
+            if (buffer.get(i) == '\n') {
+                end = i;
+                break;
+            }
+        }
+        if (end < 0) {
+            if (buffer.remaining() > MAX_INLINE) {
+                throw new ProtocolException("too big inline request");
+            }
+            return null;
+        }
+        byte[] line = new byte[end - start];
+        buffer.get(line);
+        buffer.get();
+        String text = new String(line, StandardCharsets.UTF_8).strip();
+        if (text.isEmpty()) {
+            return new byte[0][];
+        }
+        return Arrays.stream(text.split("\\s+"))
+                .map(word -> word.getBytes(StandardCharsets.UTF_8))
+                .toArray(byte[][]::new);
+    }
+
+    // Reply collects the replies to a run of commands, to be written with one
+    // write
+    static final class Reply {
+        private byte[] bytes = new byte[256];
+        private int size;
+
+        Reply ok() {
+            return simple("OK");
+        }
+
+        Reply simple(String s) {
+            put((byte) '+');
+            put(s.getBytes(StandardCharsets.UTF_8));
+            return crlf();
+        }
+
+        Reply error(String message) {
+            put((byte) '-');
+            put(message.getBytes(StandardCharsets.UTF_8));
+            return crlf();
+        }
+
+        Reply integer(long value) {
+            put((byte) ':');
+            put(Long.toString(value).getBytes(StandardCharsets.US_ASCII));
+            return crlf();
+        }
+
+        Reply bulk(byte[] value) {
+            if (value == null) {
+                put(new byte[]{'$', '-', '1'});
+                return crlf();
+            }
+            put((byte) '$');
+            put(Integer.toString(value.length).getBytes(StandardCharsets.US_ASCII));
+            crlf();
+            put(value);
+            return crlf();
+        }
+
+        Reply array(int count) {
+            put((byte) '*');
+            put(Integer.toString(count).getBytes(StandardCharsets.US_ASCII));
+            return crlf();
+        }
+
+        boolean isEmpty() {
+            return size == 0;
+        }
+
+        ByteBuffer toByteBuffer() {
+            return ByteBuffer.wrap(bytes, 0, size);
+        }
+
+        private Reply crlf() {
+            put(CRLF);
+            return this;
+        }
+
+        private void put(byte b) {
+            ensure(1);
+            bytes[size++] = b;
+        }
+
+        private void put(byte[] b) {
+            ensure(b.length);
+            System.arraycopy(b, 0, bytes, size, b.length);
+            size += b.length;
+        }
+
+        private void ensure(int more) {
+            if (size + more > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, size + more));
+            }
+        }
+    }
+}
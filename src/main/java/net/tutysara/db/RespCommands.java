@@ -0,0 +1,184 @@
+package net.tutysara.db;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+// RespCommands runs the commands of one connection against a DiskStore, see
+// RespServer. The commands a client pipelined arrive together, and every run of
+// consecutive writes among them becomes one WriteBatch, so one append and one
+// sync:
+//
+//    SET a 1 │ SET b 2 │ DEL c │ GET a │ MSET d 4 e 5 │ PING
+//    └──────── batch 1 ──────┘          └── batch 2 ─┘
+//
+// A batch is written before the next read, so a GET sees the writes sent before
+// it, and the replies of its writes are only sent once it is durable. If the
+// batch fails, each of its writes gets the error.
+//
+//    GET key            bulk string, or null
+//    SET key value      +OK
+//    DEL key [key ..]   number of keys that existed
+//    MGET key [key ..]  array of bulk strings
+//    MSET key value ..  +OK
+//    PING [message]     +PONG, or the message
+//    COMMAND ..         empty array, for clients that ask on connect
+//    QUIT               +OK, then the connection is closed
+//
+// DEL counts the keys that exist when the command is batched. A concurrent write
+// of another connection can change that before the batch is written.
+final class RespCommands {
+    private final DiskStore store;
+    private final WriteBatch batch = new WriteBatch();
+    // replies of the batched writes: null for +OK, a Long for an integer
+    private final List<Long> pending = new ArrayList<>();
+    // exists holds the keys the batch sets (true) or deletes (false)
+    private final Map<ByteBuffer, Boolean> exists = new HashMap<>();
+
+    RespCommands(DiskStore store) {
+        this.store = store;
+    }
+
+    // run executes the commands in order and appends their replies to reply.
+    // Returns false if the client asked to close the connection.
+    boolean run(List<byte[][]> commands, Resp.Reply reply) {
+        for (byte[][] args : commands) {
+            if (args.length == 0) {
+                continue;
+            }
+            String name = new String(args[0], StandardCharsets.UTF_8).toUpperCase(Locale.ROOT);
+            switch (name) {
+                case "SET" -> {
+                    if (args.length != 3) {
+                        flush(reply);
+                        reply.error(args.length < 3 ? wrongArity(name) : "ERR syntax error");
+                    } else {
+                        set(args[1], args[2]);
+                        pending.add(null);
+                    }
+                }
+                case "MSET" -> {
+                    if (args.length < 3 || args.length % 2 == 0) {
+                        flush(reply);
+                        reply.error(wrongArity(name));
+                    } else {
+                        for (int i = 1; i < args.length; i += 2) {
+                            set(args[i], args[i + 1]);
+                        }
+                        pending.add(null);
+                    }
+                }
+                case "DEL" -> {
+                    if (args.length < 2) {
+                        flush(reply);
+                        reply.error(wrongArity(name));
+                    } else {
+                        long deleted = 0;
+                        for (int i = 1; i < args.length; i++) {
+                            deleted += delete(args[i]) ? 1 : 0;
+                        }
+                        pending.add(deleted);
+                    }
+                }
+                case "QUIT" -> {
+                    flush(reply);
+                    reply.ok();
+                    return false;
+                }
+                default -> {
+                    flush(reply);
+                    read(name, args, reply);
+                }
+            }
+        }
+        flush(reply);
+        return true;
+    }
+
+    private void read(String name, byte[][] args, Resp.Reply reply) {
+        try {
+            readOrThrow(name, args, reply);
+        } catch (IOException e) {
+            reply.error("ERR " + e.getMessage());
+        }
+    }
+
+    private void readOrThrow(String name, byte[][] args, Resp.Reply reply) throws IOException {
+        switch (name) {
+            case "GET" -> {
+                if (args.length != 2) {
+                    reply.error(wrongArity(name));
+                } else {
+                    reply.bulk(store.get(args[1]));
+                }
+            }
+            case "MGET" -> {
+                if (args.length < 2) {
+                    reply.error(wrongArity(name));
+                } else {
+                    reply.array(args.length - 1);
+                    for (int i = 1; i < args.length; i++) {
+                        reply.bulk(store.get(args[i]));
+                    }
+                }
+            }
+            case "PING" -> {
+                if (args.length == 1) {
+                    reply.simple("PONG");
+                } else if (args.length == 2) {
+                    reply.bulk(args[1]);
+                } else {
+                    reply.error(wrongArity(name));
+                }
+            }
+            case "COMMAND" -> reply.array(0);
+            default -> reply.error("ERR unknown command '" + name.toLowerCase(Locale.ROOT) + "'");
+        }
+    }
+
+    private void set(byte[] key, byte[] value) {
+        batch.set(key, value);
+        exists.put(ByteBuffer.wrap(key), true);
+    }
+
+    // delete batches a delete of key and tells whether the key exists before it
+    private boolean delete(byte[] key) {
+        batch.delete(key);
+        Boolean existed = exists.put(ByteBuffer.wrap(key), false);
+        return existed != null ? existed : store.containsKey(key);
+    }
+
+    // flush writes the batch and appends the replies of its writes
+    private void flush(Resp.Reply reply) {
+        if (pending.isEmpty()) {
+            return;
+        }
+        String error = null;
+        try {
+            store.write(batch);
+        } catch (IOException e) {
+            error = "ERR " + e.getMessage();
+        }
+        for (Long result : pending) {
+            if (error != null) {
+                reply.error(error);
+            } else if (result == null) {
+                reply.ok();
+            } else {
+                reply.integer(result);
+            }
+        }
+        batch.clear();
+        pending.clear();
+        exists.clear();
+    }
+
+    private static String wrongArity(String name) {
+        return "ERR wrong number of arguments for '" + name.toLowerCase(Locale.ROOT) + "' command";
+    }
+}
@@ -0,0 +1,304 @@
+package net.tutysara.db;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+// RespServer serves a DiskStore over RESP, the Redis protocol, so that any Redis
+// client can use it. See RespCommands for the commands.
+//
+// One selector thread does all the network I/O, the commands run on a pool of
+// workers:
+//
+//    selector ── read ──► parse every complete command ──► worker: RespCommands.run
+//        ▲                                                           │
+//        └──────── write the replies, read on ◄── done queue ◄───────┘
+//
+// A connection has at most one run of commands on a worker at a time, and is not
+// read from while it has one: a client that pipelines faster than the store can
+// keep up fills its socket buffers and has to wait. Everything that arrived while
+// a run was busy becomes the next run, so the deeper the pipeline, the larger the
+// batches.
+//
+// A connection holds at most Resp.MAX_BUFFERED bytes of a command that has not
+// fully arrived, its parsed arguments and unparsed input together. A client that
+// sends more gets a protocol error and is disconnected.
+public final class RespServer implements AutoCloseable {
+    private static final Logger log = LoggerFactory.getLogger(RespServer.class);
+    private static final int READ_SIZE = 64 * 1024;
+
+    private final DiskStore store;
+    private final Selector selector;
+    private final ServerSocketChannel server;
+    private final ExecutorService workers;
+    private final Thread selectorThread;
+    // done holds the connections whose run finished, for the selector thread
+    private final Queue<Connection> done = new ConcurrentLinkedQueue<>();
+    private volatile boolean closed;
+
+    // address can have port 0, see address() for the port it got. The workers
+    // spend most of their time waiting for reads and syncs, so there can be more
+    // of them than cores.
+    public RespServer(DiskStore store, InetSocketAddress address, int workerThreads) throws IOException {
+        assert workerThreads > 0 : "workerThreads should be positive";
+        this.store = store;
+        this.selector = Selector.open();
+        this.server = ServerSocketChannel.open();
+        try {
+            server.bind(address);
+            server.configureBlocking(false);
+            server.register(selector, SelectionKey.OP_ACCEPT);
+        } catch (IOException e) {
+            server.close();
+            selector.close();
+            throw e;
+        }
+        this.workers = Executors.newFixedThreadPool(workerThreads, runnable -> {
+            Thread thread = new Thread(runnable, "bitcask-resp-worker");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.selectorThread = new Thread(this::run, "bitcask-resp-selector");
+        selectorThread.start();
+        log.info("Serving RESP on {}", address());
+    }
+
+    public InetSocketAddress address() throws IOException {
+        return (InetSocketAddress) server.getLocalAddress();
+    }
+
+    private void run() {
+        try {
+            while (!closed) {
+                selector.select();
+                Connection finished;
+                while ((finished = done.poll()) != null) {
+                    finished.finishRun();
+                }
+                for (SelectionKey key : selector.selectedKeys()) {
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        accept();
+                    } else {
+                        Connection connection = (Connection) key.attachment();
+                        if (key.isWritable()) {
+                            connection.write();
+                        }
+                        if (key.isValid() && key.isReadable()) {
+                            connection.read();
+                        }
+                    }
+                }
+                selector.selectedKeys().clear();
+            }
+        } catch (IOException e) {
+            log.error("RESP selector failed", e);
+        } finally {
+            for (SelectionKey key : selector.keys()) {
+                closeQuietly(key);
+            }
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel;
+        while ((channel = server.accept()) != null) {
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+            SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+            key.attach(new Connection(key, channel));
+        }
+    }
+
+    private static void closeQuietly(SelectionKey key) {
+        key.cancel();
+        try {
+            key.channel().close();
+        } catch (IOException e) {
+            log.debug("Failed to close {}", key.channel(), e);
+        }
+    }
+
+    // close stops accepting, closes every connection and waits for the runs in
+    // progress. The store is left open.
+    public void close() throws Exception {
+        closed = true;
+        selector.wakeup();
+        selectorThread.join();
+        server.close();
+        selector.close();
+        workers.shutdown();
+        workers.awaitTermination(1, TimeUnit.MINUTES);
+    }
+
+    // Connection is one client. Its fields are only used by the selector thread,
+    // except that a worker owns commands while running is set, and sets reply and
+    // closeAfterRun before it queues the connection on done.
+    private final class Connection {
+        private final SelectionKey key;
+        private final SocketChannel channel;
+        private final RespCommands commands = new RespCommands(store);
+        private final Resp.Parser parser = new Resp.Parser();
+        private final ArrayDeque<ByteBuffer> output = new ArrayDeque<>();
+        private ByteBuffer input = ByteBuffer.allocate(READ_SIZE);
+        private boolean running;
+        // closing is set after QUIT or a protocol error: the replies are written,
+        // nothing more is read
+        private boolean closing;
+        // tooBig is set once the input hit Resp.MAX_BUFFERED, it is answered by
+        // the next run
+        private Resp.ProtocolException tooBig;
+        private Resp.Reply reply;
+        private boolean closeAfterRun;
+
+        Connection(SelectionKey key, SocketChannel channel) {
+            this.key = key;
+            this.channel = channel;
+        }
+
+        void read() {
+            // input gets what the parsed arguments leave of MAX_BUFFERED
+            long room = Resp.MAX_BUFFERED - parser.buffered();
+            if (!input.hasRemaining() || input.capacity() > room) {
+                if (input.position() >= room) {
+                    tooBig = new Resp.ProtocolException("too big request");
+                    startRun();
+                    return;
+                }
+                long capacity = input.hasRemaining() ? room : Math.min(input.capacity() * 2L, room);
+                input = ByteBuffer.allocate((int) capacity).put(input.flip());
+            }
+            int read;
+            try {
+                read = channel.read(input);
+            } catch (IOException e) {
+                read = -1;
+            }
+            if (read < 0) {
+                closeQuietly(key);
+                return;
+            }
+            startRun();
+        }
+
+        // startRun hands every complete command in input to a worker, or goes on
+        // reading if there is none
+        private void startRun() {
+            if (running || closing) {
+                return;
+            }
+            List<byte[][]> parsed = new ArrayList<>();
+            Resp.ProtocolException failure = null;
+            input.flip();
+            try {
+                byte[][] args;
+                while ((args = parser.parse(input)) != null) {
+                    parsed.add(args);
+                }
+            } catch (Resp.ProtocolException e) {
+                failure = e;
+            }
+            input.compact();
+            if (input.position() == 0 && input.capacity() > READ_SIZE) {
+                // a large argument is parsed, an idle connection keeps a small buffer
+                input = ByteBuffer.allocate(READ_SIZE);
+            }
+            if (failure == null) {
+                failure = tooBig;
+            }
+            if (parsed.isEmpty() && failure == null) {
+                interest();
+                return;
+            }
+            running = true;
+            interest();
+            Resp.ProtocolException error = failure;
+            workers.execute(() -> {
+                Resp.Reply out = new Resp.Reply();
+                boolean open;
+                try {
+                    open = commands.run(parsed, out) && error == null;
+                    if (error != null) {
+                        out.error("ERR Protocol error: " + error.getMessage());
+                    }
+                } catch (RuntimeException e) {
+                    log.error("Failed to run commands", e);
+                    out.error("ERR " + e);
+                    open = false;
+                }
+                reply = out;
+                closeAfterRun = !open;
+                done.add(this);
+                selector.wakeup();
+            });
+        }
+
+        void finishRun() {
+            running = false;
+            closing = closeAfterRun;
+            if (!reply.isEmpty()) {
+                output.add(reply.toByteBuffer());
+            }
+            reply = null;
+            if (key.isValid()) {
+                write();
+            }
+        }
+
+        void write() {
+            try {
+                while (!output.isEmpty()) {
+                    ByteBuffer next = output.peek();
+                    channel.write(next);
+                    if (next.hasRemaining()) {
+                        break;
+                    }
+                    output.poll();
+                }
+            } catch (IOException e) {
+                closeQuietly(key);
+                return;
+            }
+            if (output.isEmpty() && closing) {
+                closeQuietly(key);
+            } else if (output.isEmpty()) {
+                // the replies are out, go on with what arrived in the meantime
+                startRun();
+            } else {
+                interest();
+            }
+        }
+
+        // interest reads only when nothing is running and every reply is written
+        private void interest() {
+            if (!key.isValid()) {
+                return;
+            }
+            int ops = 0;
+            if (!output.isEmpty()) {
+                ops |= SelectionKey.OP_WRITE;
+            }
+            if (!running && output.isEmpty() && !closing && tooBig == null) {
+                ops |= SelectionKey.OP_READ;
+            }
+            key.interestOps(ops);
+        }
+    }
+}
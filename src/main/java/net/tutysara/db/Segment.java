@@ -0,0 +1,455 @@
+package net.tutysara.db;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.OpenOption;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Segment is one data file of the store. A data directory looks like this:
+//
+//    books.db/
+//    ├── 000000001.data    sealed, read only
+//    ├── 000000002.data    sealed, read only
+//    └── 000000003.data    active, the only file that is appended to
+//
+// The file id is the number in the name, ids only grow so the file order is also
+// the order in which records were written. Once the active file reaches the
+// configured size it is sealed and a new active file is created. A sealed file
+// is never written again.
+//
+// Segments stay open until they are merged away, lookups only use positional
+// reads on the already open channel. With ReadMode.MMAP a sealed segment is also
+// mapped into memory and lookups copy straight out of the mapping instead:
+//
+//    000000001.data  ┌──────────────────┬──────────────────┬─────────┐
+//                    │     region 0     │     region 1     │ region 2│
+//                    └──────────────────┴──────────────────┴─────────┘
+//                    0                  chunkSize          2*chunkSize
+//
+// A single mapping is limited to 2 GiB, so the file is mapped in chunks. A record
+// that crosses a chunk boundary is copied from both regions.
+//
+// Since format version 1 a data file starts with a small file header:
+//
+//    ┌───────────┬─────────────┐
+//    │ magic(4B) │ version(4B) │
+//    └───────────┴─────────────┘
+//
+// Files written before the header existed are version 0 and start right away with
+// the timestamp of their first record. Read as a timestamp the magic is a date in
+// 2064, so a version 0 file can not be mistaken for a newer one. Version 0 files
+// stay readable, they are only ever read and eventually merged into new files.
+//
+// Every segment also tracks its dead bytes: records that were overwritten by a
+// newer record of the same key. The merger uses dead bytes / size to decide which
+// sealed segments are worth rewriting. It also counts the keys whose newest record
+// it holds, for SegmentStats.
+final class Segment implements AutoCloseable {
+
+    static final String SUFFIX = ".data";
+    static final int FILE_MAGIC = 0xB17CA5C1;
+    static final int FILE_HEADER_SIZE = 8;
+    private static final int SCAN_BUFFER_SIZE = 256 * 1024;
+
+    // RecordVisitor is called by scan for every complete record of the file. The
+    // record buffer holds exactly the bytes of the record, header included, starting
+    // at index 0, and is only valid until visit returns. The header fields are read
+    // with Format.timestamp, keySize and valueSize.
+    interface RecordVisitor {
+        void visit(long position, ByteBuffer record) throws IOException;
+    }
+
+    // CorruptionVisitor is called by scan for every damaged range of the file that
+    // is followed by intact records again
+    interface CorruptionVisitor {
+        void visit(long position, long length) throws IOException;
+    }
+
+    private final int fileId;
+    private final Path path;
+    private final FileChannel filechannel;
+    private final int version;
+    private final AtomicLong deadBytes = new AtomicLong();
+    private final AtomicInteger keys = new AtomicInteger();
+    // regions is set once the sealed segment is mapped, see map
+    private volatile ByteBuffer[] regions;
+    private int chunkSize;
+
+    private Segment(int fileId, Path path, FileChannel filechannel, int version) {
+        this.fileId = fileId;
+        this.path = path;
+        this.filechannel = filechannel;
+        this.version = version;
+    }
+
+    static Segment open(Path dir, int fileId, boolean writable, boolean sync) throws IOException {
+        Path path = dir.resolve(fileName(fileId));
+        List<OpenOption> openOptions = new ArrayList<>(List.of(StandardOpenOption.READ));
+        if (writable) {
+            openOptions.add(StandardOpenOption.WRITE);
+            openOptions.add(StandardOpenOption.CREATE);
+        }
+        if (writable && sync) {
+            openOptions.add(StandardOpenOption.SYNC);
+        }
+        FileChannel filechannel = FileChannel.open(path, openOptions.toArray(new OpenOption[0]));
+        try {
+            return new Segment(fileId, path, filechannel, readVersion(filechannel, writable));
+        } catch (IOException e) {
+            filechannel.close();
+            throw e;
+        }
+    }
+
+    // readVersion returns the format version of the file, a new writable file gets
+    // the file header of the current version
+    private static int readVersion(FileChannel filechannel, boolean writable) throws IOException {
+        ByteBuffer fileHeader = ByteBuffer.allocate(FILE_HEADER_SIZE);
+        if (filechannel.size() == 0 && writable) {
+            fileHeader.putInt(FILE_MAGIC).putInt(Format.VERSION).flip();
+            while (fileHeader.hasRemaining()) {
+                filechannel.write(fileHeader, fileHeader.position());
+            }
+            return Format.VERSION;
+        }
+        if (filechannel.size() < FILE_HEADER_SIZE) {
+            return 0;
+        }
+        while (fileHeader.hasRemaining() && filechannel.read(fileHeader, fileHeader.position()) != -1) {
+        }
+        if (fileHeader.getInt(0) != FILE_MAGIC) {
+            return 0;
+        }
+        int version = fileHeader.getInt(4);
+        if (version < 1 || version > Format.VERSION) {
+            throw new IOException("Unsupported data file version " + version);
+        }
+        return version;
+    }
+
+    static String fileName(int fileId) {
+        return String.format("%09d%s", fileId, SUFFIX);
+    }
+
+    static boolean isSegmentFile(Path path) {
+        String name = path.getFileName().toString();
+        return name.endsWith(SUFFIX) && name.substring(0, name.length() - SUFFIX.length()).matches("\\d+");
+    }
+
+    static int parseFileId(Path path) {
+        String name = path.getFileName().toString();
+        return Integer.parseInt(name.substring(0, name.length() - SUFFIX.length()));
+    }
+
+    int fileId() {
+        return fileId;
+    }
+
+    Path path() {
+        return path;
+    }
+
+    FileChannel channel() {
+        return filechannel;
+    }
+
+    int version() {
+        return version;
+    }
+
+    // dataStart is the position of the first record
+    long dataStart() {
+        return version == 0 ? 0 : FILE_HEADER_SIZE;
+    }
+
+    // truncate cuts the file at `size`. Only for a file that is not being appended
+    // to, the segment itself may be read only.
+    void truncate(long size) throws IOException {
+        try (FileChannel writable = FileChannel.open(path, StandardOpenOption.WRITE)) {
+            writable.truncate(size);
+            writable.force(true);
+        }
+    }
+
+    long size() throws IOException {
+        return filechannel.size();
+    }
+
+    long deadBytes() {
+        return deadBytes.get();
+    }
+
+    void addDeadBytes(long bytes) {
+        deadBytes.addAndGet(bytes);
+    }
+
+    int keys() {
+        return keys.get();
+    }
+
+    // addKey is called when the keyDir starts pointing at a record of the segment
+    void addKey() {
+        keys.incrementAndGet();
+    }
+
+    void addKeys(int count) {
+        keys.addAndGet(count);
+    }
+
+    // dropKey is called when the keyDir stops pointing at a record of the segment,
+    // the record becomes dead
+    void dropKey(long totalSize) {
+        keys.decrementAndGet();
+        deadBytes.addAndGet(totalSize);
+    }
+
+    double deadRatio() throws IOException {
+        long size = size();
+        return size == 0 ? 1.0 : (double) deadBytes.get() / size;
+    }
+
+    // map maps the whole file into regions of chunkSize bytes, every read after it
+    // is served from memory. Only for sealed segments: the mapping does not grow
+    // with the file.
+    void map(int chunkSize) throws IOException {
+        long size = filechannel.size();
+        ByteBuffer[] mapped = new ByteBuffer[(int) ((size + chunkSize - 1) / chunkSize)];
+        for (int i = 0; i < mapped.length; i++) {
+            long start = (long) i * chunkSize;
+            mapped[i] = filechannel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(chunkSize, size - start));
+        }
+        this.chunkSize = chunkSize;
+        this.regions = mapped;
+    }
+
+    boolean isMapped() {
+        return regions != null;
+    }
+
+    void read(ByteBuffer buffer, long position) throws IOException {
+        ByteBuffer[] regions = this.regions;
+        if (regions != null) {
+            readMapped(regions, buffer, position);
+            return;
+        }
+        // positional reads leave the channel position alone, so any number of
+        // readers can share the channel
+        int start = buffer.position();
+        while (buffer.hasRemaining()) {
+            int bytesRead = filechannel.read(buffer, position + buffer.position() - start);
+            if (bytesRead == -1) {
+                throw new EOFException("Unexpected EOF in " + path + " at position "
+                        + (position + buffer.position() - start));
+            }
+        }
+        buffer.flip();
+    }
+
+    private void readMapped(ByteBuffer[] regions, ByteBuffer buffer, long position) throws IOException {
+        // absolute bulk copies leave the position of the shared regions alone
+        long offset = position;
+        while (buffer.hasRemaining()) {
+            int chunk = (int) (offset / chunkSize);
+            int regionOffset = (int) (offset % chunkSize);
+            if (chunk >= regions.length || regionOffset >= regions[chunk].limit()) {
+                throw new EOFException("Unexpected EOF in " + path + " at position " + offset);
+            }
+            ByteBuffer region = regions[chunk];
+            int length = Math.min(buffer.remaining(), region.limit() - regionOffset);
+            buffer.put(buffer.position(), region, regionOffset, length);
+            buffer.position(buffer.position() + length);
+            offset += length;
+        }
+        buffer.flip();
+    }
+
+    // scan reads the file sequentially from position `from` with a large buffer and
+    // calls the visitor for every intact record. It returns the position right after
+    // the last intact record, which is the file size unless the tail is torn.
+    long scan(long from, RecordVisitor visitor) throws IOException {
+        return scan(from, visitor, (position, length) -> {
+        });
+    }
+
+    // scan also reports damaged ranges. A record is damaged when its sizes point past
+    // the end of the file or, from version 1 on, when its checksum does not match.
+    // scan then looks for the next position where an intact record starts, the
+    // bytes in between go to the corruption visitor. If no intact record follows,
+    // the rest of the file is a torn tail and scan stops there. Version 0 files
+    // have no checksums, the first damaged record ends the scan.
+    //
+    // Batches are all or nothing: the records of a batch are only visited once all
+    // of them were found intact. A batch cut off by the end of the file is a torn
+    // tail, a batch with a damaged record is one damaged range. Batch markers
+    // themselves are not visited.
+    long scan(long from, RecordVisitor visitor, CorruptionVisitor corruption) throws IOException {
+        return scan(from, filechannel.size(), visitor, corruption);
+    }
+
+    // scan with a `to` only visits the records that start before `to`, the last one
+    // (or the last batch) may end after it. It returns the position right after the
+    // last record visited.
+    long scan(long from, long to, RecordVisitor visitor, CorruptionVisitor corruption) throws IOException {
+        Window window = new Window(filechannel.size());
+        long position = from;
+        while (position < to && position < window.size) {
+            int totalSize = window.recordAt(position, true);
+            if (totalSize >= 0 && window.valueSize == Format.BATCH) {
+                ByteBuffer buffer = window.buffer;
+                int count = Format.batchCount(buffer, buffer.position());
+                long bodyStart = position + totalSize;
+                long bodyEnd = bodyStart + Format.batchLength(buffer, buffer.position());
+                int checked = window.checkBatch(bodyStart, bodyEnd, count);
+                if (checked == Window.TORN) {
+                    break;
+                }
+                if (checked == Window.DAMAGED) {
+                    corruption.visit(position, bodyEnd - position);
+                    position = bodyEnd;
+                    continue;
+                }
+                position = bodyStart;
+                for (int i = 0; i < count; i++) {
+                    position += visit(window, position, window.recordAt(position, false), visitor);
+                }
+                continue;
+            }
+            if (totalSize < 0) {
+                long next = version == 0 ? -1 : window.nextRecord(position + 1);
+                if (next < 0) {
+                    break;
+                }
+                corruption.visit(position, next - position);
+                position = next;
+                continue;
+            }
+            position += visit(window, position, totalSize, visitor);
+        }
+        return position;
+    }
+
+    private static int visit(Window window, long position, int totalSize, RecordVisitor visitor) throws IOException {
+        ByteBuffer buffer = window.buffer;
+        visitor.visit(position, buffer.slice(buffer.position(), totalSize));
+        return totalSize;
+    }
+
+    // Window holds the file bytes [start, start + buffer.limit()) for scan
+    private final class Window {
+        static final int TORN = -1;
+        static final int DAMAGED = -2;
+        static final int INTACT = 0;
+
+        private final long size;
+        private ByteBuffer buffer = ByteBuffer.allocate(SCAN_BUFFER_SIZE);
+        private long start;
+        // keySize and valueSize are from the header of the record last found by recordAt
+        private int keySize;
+        private int valueSize;
+
+        Window(long size) {
+            this.size = size;
+            buffer.limit(0);
+        }
+
+        // recordAt returns the size of the intact record at `position`, with the
+        // buffer positioned at it, or -1 if there is none. The checksum is only
+        // verified when asked for.
+        int recordAt(long position, boolean verify) throws IOException {
+            if (!fill(position, Format.HEADER_SIZE)) {
+                return -1;
+            }
+            keySize = Format.keySize(buffer, buffer.position());
+            valueSize = Format.valueSize(buffer, buffer.position());
+            if ((valueSize < 0 && !isKnownMarker())
+                    || (Format.isCompressed(buffer, buffer.position()) && (version < 2 || valueSize < 0))) {
+                return -1;
+            }
+            long totalSize = (long) keySize + Format.valueLength(valueSize) + Format.recordSize(version, 0, 0);
+            if (totalSize > size - position || totalSize > Integer.MAX_VALUE || !fill(position, (int) totalSize)) {
+                return -1;
+            }
+            if (verify && version > 0 && !Format.isIntact(buffer, buffer.position(), (int) totalSize)) {
+                return -1;
+            }
+            return (int) totalSize;
+        }
+
+        // version 0 predates tombstones and batches
+        private boolean isKnownMarker() {
+            return version > 0 && (valueSize == Format.TOMBSTONE
+                    || (valueSize == Format.BATCH && keySize == Format.BATCH_INFO_SIZE));
+        }
+
+        // checkBatch verifies that `count` intact records, and nothing else, fill
+        // [bodyStart, bodyEnd). Returns INTACT, TORN or DAMAGED.
+        int checkBatch(long bodyStart, long bodyEnd, int count) throws IOException {
+            if (bodyEnd > size) {
+                return TORN;
+            }
+            long position = bodyStart;
+            for (int i = 0; i < count && position < bodyEnd; i++) {
+                int totalSize = recordAt(position, true);
+                if (totalSize < 0 || valueSize == Format.BATCH) {
+                    return DAMAGED;
+                }
+                position += totalSize;
+            }
+            return position == bodyEnd && count >= 0 ? INTACT : DAMAGED;
+        }
+
+        // nextRecord returns the first position from `from` on where an intact record
+        // starts, or -1. Garbage rarely passes the size checks of recordAt, so most
+        // positions are rejected without computing a checksum.
+        long nextRecord(long from) throws IOException {
+            for (long position = from; position <= size - Format.recordSize(version, 0, 0); position++) {
+                if (recordAt(position, true) >= 0) {
+                    return position;
+                }
+            }
+            return -1;
+        }
+
+        // fill positions the buffer at `position` with at least `length` bytes left,
+        // refilling (and growing) it from the file when needed. It returns false if
+        // the file ends before `length` bytes.
+        private boolean fill(long position, int length) throws IOException {
+            if (position >= start && position + length <= start + buffer.limit()) {
+                buffer.position((int) (position - start));
+                return true;
+            }
+            if (position + length > size) {
+                return false;
+            }
+            if (length > buffer.capacity()) {
+                buffer = ByteBuffer.allocate(length);
+            }
+            buffer.clear();
+            while (buffer.hasRemaining()) {
+                int bytesRead = filechannel.read(buffer, position + buffer.position());
+                if (bytesRead == -1) {
+                    break;
+                }
+            }
+            buffer.flip();
+            start = position;
+            return buffer.limit() >= length;
+        }
+    }
+
+    public void close() throws IOException {
+        // a mapping can not be unmapped explicitly, it goes away once the regions are
+        // garbage collected. Readers that picked up the regions before close still
+        // read valid bytes, the file is immutable and unlinking it keeps the pages.
+        // Later reads fall back to the closed channel and retry like any other read.
+        regions = null;
+        filechannel.close();
+    }
+}
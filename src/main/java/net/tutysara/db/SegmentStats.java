@@ -0,0 +1,12 @@
+package net.tutysara.db;
+
+// SegmentStats describes one data file of a store.
+//
+//    fileId     - the number in the file name, see Segment
+//    size       - bytes in the file
+//    liveBytes  - bytes of records the keyDir points at, plus the file header
+//    deadBytes  - bytes of overwritten records, tombstones and skipped damage
+//    keys       - keys whose newest record is in this file
+//    active     - whether it is the file appended to
+public record SegmentStats(int fileId, long size, long liveBytes, long deadBytes, int keys, boolean active) {
+}
@@ -0,0 +1,260 @@
+package net.tutysara.db;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+
+// Segments is the set of open data files of a store, indexed by file id.
+//
+// The map itself is immutable: adding or removing a segment builds a new map and
+// publishes it through a volatile field. Readers resolve a KeyEntry.fileId with a
+// single volatile read and a lookup, they never lock and never see a half updated
+// set. Changes are rare (a rollover or a merge) so copying the map is cheap.
+//
+// A Snapshot pins the map it was taken with. Segments removed while pins that may
+// use them are held are retired instead of deleted: they stay open and on disk
+// until the last of those pins is released.
+//
+//    pin 1 ──────────────────────────── release
+//                  remove(3, 4) ─ retired ────────▶ closed and deleted
+//                          pin 2 ─────────────────────── release
+//
+// Pin 2 was taken after 3 and 4 were removed and never sees them, so only pin 1
+// holds them.
+final class Segments implements AutoCloseable {
+
+    // Pin is a set of segments that stays readable until release
+    record Pin(long sequence, Map<Integer, Segment> segments) {
+    }
+
+    // Retired are removed segments that only pins older than pinnedBefore can use
+    private record Retired(List<Segment> segments, long pinnedBefore) {
+    }
+
+    // MAP_CHUNK_SIZE is the size of one mapped region of a sealed segment
+    static final int MAP_CHUNK_SIZE = 1 << 30;
+
+    private final Path dir;
+    private final ReadMode readMode;
+    private final ReentrantLock updateLock = new ReentrantLock();
+    private volatile Map<Integer, Segment> segments = Map.of();
+    private int nextFileId = 1;
+    // pins, retired and nextPin are guarded by updateLock
+    private final TreeSet<Long> pins = new TreeSet<>();
+    private final List<Retired> retired = new ArrayList<>();
+    private long nextPin;
+
+    Segments(Path dir, ReadMode readMode) {
+        this.dir = dir;
+        this.readMode = readMode;
+    }
+
+    // openExisting opens every data file of the directory read only, in file id
+    // order, and returns them. Must be called before any segment is created.
+    List<Segment> openExisting() throws IOException {
+        List<Path> paths;
+        try (Stream<Path> files = Files.list(dir)) {
+            paths = files.filter(Segment::isSegmentFile)
+                    .sorted(Comparator.comparingInt(Segment::parseFileId))
+                    .toList();
+        }
+        List<Segment> opened = new ArrayList<>();
+        for (Path path : paths) {
+            opened.add(Segment.open(dir, Segment.parseFileId(path), false, false));
+        }
+        add(opened);
+        return opened;
+    }
+
+    // create makes a new, empty, writable segment with the next file id
+    Segment create(boolean sync) throws IOException {
+        updateLock.lock();
+        try {
+            Segment segment = Segment.open(dir, nextFileId, true, sync);
+            add(List.of(segment));
+            return segment;
+        } finally {
+            updateLock.unlock();
+        }
+    }
+
+    // seal is called once a segment will never be written again. With
+    // ReadMode.MMAP it maps the segment so that reads skip the channel.
+    void seal(Segment segment) throws IOException {
+        if (readMode == ReadMode.MMAP) {
+            segment.map(MAP_CHUNK_SIZE);
+        }
+    }
+
+    // reserve skips `count` file ids and returns the first one. Reserved ids are
+    // handed to the merger, which creates its output files with createReserved.
+    int reserve(int count) {
+        updateLock.lock();
+        try {
+            int first = nextFileId;
+            nextFileId += count;
+            return first;
+        } finally {
+            updateLock.unlock();
+        }
+    }
+
+    // createReserved makes a writable segment with an id returned by reserve. The
+    // segment is not visible to readers until it is published with add.
+    Segment createReserved(int fileId) throws IOException {
+        return Segment.open(dir, fileId, true, false);
+    }
+
+    void publish(Segment segment) {
+        add(List.of(segment));
+    }
+
+    // remove drops segments from the set, closes and deletes their data and hint
+    // files, or retires them while they are pinned. Readers that still hold one of
+    // them get a ClosedChannelException and retry.
+    void remove(List<Segment> removed) throws IOException {
+        updateLock.lock();
+        try {
+            var updated = new HashMap<>(segments);
+            removed.forEach(segment -> updated.remove(segment.fileId()));
+            segments = Map.copyOf(updated);
+            if (!pins.isEmpty()) {
+                retired.add(new Retired(List.copyOf(removed), nextPin));
+                return;
+            }
+        } finally {
+            updateLock.unlock();
+        }
+        delete(removed);
+    }
+
+    // pin returns the current segments, none of them is closed or deleted before the
+    // pin is released
+    Pin pin() {
+        updateLock.lock();
+        try {
+            Pin pin = new Pin(nextPin++, segments);
+            pins.add(pin.sequence());
+            return pin;
+        } finally {
+            updateLock.unlock();
+        }
+    }
+
+    // release drops the pin and deletes the retired segments no other pin holds
+    void release(Pin pin) throws IOException {
+        List<Segment> unused = new ArrayList<>();
+        updateLock.lock();
+        try {
+            if (!pins.remove(pin.sequence())) {
+                return;
+            }
+            long oldest = pins.isEmpty() ? Long.MAX_VALUE : pins.first();
+            var iterator = retired.iterator();
+            while (iterator.hasNext()) {
+                var next = iterator.next();
+                if (next.pinnedBefore() <= oldest) {
+                    unused.addAll(next.segments());
+                    iterator.remove();
+                }
+            }
+        } finally {
+            updateLock.unlock();
+        }
+        delete(unused);
+    }
+
+    private void delete(List<Segment> removed) throws IOException {
+        for (Segment segment : removed) {
+            segment.close();
+            Files.deleteIfExists(segment.path());
+            HintFile.delete(dir, segment.fileId());
+        }
+    }
+
+    // reopenWritable swaps a segment opened by openExisting for a writable one so
+    // that the store can keep appending to it
+    Segment reopenWritable(Segment segment, boolean sync) throws IOException {
+        updateLock.lock();
+        try {
+            Segment writable = Segment.open(dir, segment.fileId(), true, sync);
+            writable.addDeadBytes(segment.deadBytes());
+            writable.addKeys(segment.keys());
+            var updated = new HashMap<>(segments);
+            updated.put(writable.fileId(), writable);
+            segments = Map.copyOf(updated);
+            segment.close();
+            return writable;
+        } finally {
+            updateLock.unlock();
+        }
+    }
+
+    Segment get(int fileId) {
+        return segments.get(fileId);
+    }
+
+    // all returns the current segments in file id order
+    List<Segment> all() {
+        return segments.values().stream()
+                .sorted(Comparator.comparingInt(Segment::fileId))
+                .toList();
+    }
+
+    Path dir() {
+        return dir;
+    }
+
+    private void add(List<Segment> added) {
+        updateLock.lock();
+        try {
+            var updated = new HashMap<>(segments);
+            for (Segment segment : added) {
+                updated.put(segment.fileId(), segment);
+                nextFileId = Math.max(nextFileId, segment.fileId() + 1);
+            }
+            segments = Map.copyOf(updated);
+        } finally {
+            updateLock.unlock();
+        }
+    }
+
+    // close also deletes the retired segments, snapshots that are still open can
+    // not be read any more. Left on disk they would be loaded again by the next
+    // open, with tombstones that the merge has already dropped.
+    public void close() throws IOException {
+        IOException failure = null;
+        for (Segment segment : segments.values()) {
+            try {
+                segment.close();
+            } catch (IOException e) {
+                failure = e;
+            }
+        }
+        List<Segment> unused = new ArrayList<>();
+        updateLock.lock();
+        try {
+            retired.forEach(next -> unused.addAll(next.segments()));
+            retired.clear();
+            pins.clear();
+        } finally {
+            updateLock.unlock();
+        }
+        try {
+            delete(unused);
+        } catch (IOException e) {
+            failure = e;
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+}
@@ -0,0 +1,238 @@
+package net.tutysara.db;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+// ShardedStore spreads the keys over N independent DiskStores, the shards. Every
+// shard has its own log, writer, keyDir and merge, so N shards append N records at
+// once where one DiskStore appends one. Shards can live on different disks.
+//
+//    key ──► CRC32C(key) mod N ──► shard
+//
+//    dir/shard-000/   000000001.data ...
+//    dir/shard-001/   000000001.data ...
+//    ...
+//
+// The hash only depends on the key bytes and N, so a key is found in the same
+// shard after a restart, on any JVM. Changing N would move most keys, so every
+// shard directory holds a SHARD file with "<index>/<count>" and opening it with a
+// different count or order fails. A directory without a SHARD file is only taken
+// as a new shard while it is empty, the data of a plain DiskStore or of a shard
+// that lost its file would be on the wrong shard for most keys.
+//
+// The shards are opened, and recover, in parallel. Each one gets its share of
+// Options.recoveryThreads.
+//
+// Operations on different keys are independent: there is no ordering between
+// shards and no WriteBatch across them.
+public final class ShardedStore implements Store, ByteStore, AutoCloseable {
+    private static final Logger log = LoggerFactory.getLogger(ShardedStore.class);
+    static final String SHARD_FILE = "SHARD";
+    // crc is reset for every key rather than allocated, shard runs on every call
+    private static final ThreadLocal<CRC32C> crc = ThreadLocal.withInitial(CRC32C::new);
+
+    private final List<DiskStore> shards;
+
+    // dirName is the parent directory of `count` shard directories, see above
+    public ShardedStore(String dirName, int count, Options options) throws IOException {
+        this(shardDirs(dirName, count), options);
+    }
+
+    // shardDirs holds one directory per shard, for example one per disk. The order
+    // is part of the layout, it has to stay the same from one open to the next.
+    public ShardedStore(List<String> shardDirs, Options options) throws IOException {
+        if (shardDirs.isEmpty()) {
+            throw new IllegalArgumentException("shardDirs should not be empty");
+        }
+        int count = shardDirs.size();
+        Options shardOptions = options.withRecoveryThreads(Math.max(1, options.recoveryThreads() / count));
+        ExecutorService pool = Executors.newFixedThreadPool(Math.min(count, Runtime.getRuntime().availableProcessors()),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "bitcask-shard-open");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        List<Future<DiskStore>> futures = new ArrayList<>();
+        List<DiskStore> opened = new ArrayList<>();
+        try {
+            for (int i = 0; i < count; i++) {
+                int index = i;
+                futures.add(pool.submit(() -> open(Paths.get(shardDirs.get(index)), index, count, shardOptions)));
+            }
+            IOException failure = null;
+            for (Future<DiskStore> future : futures) {
+                try {
+                    opened.add(future.get());
+                } catch (ExecutionException e) {
+                    if (failure == null) {
+                        failure = e.getCause() instanceof IOException ioException
+                                ? ioException : new IOException(e.getCause());
+                    }
+                }
+            }
+            if (failure != null) {
+                closeAll(opened);
+                throw failure;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            closeAll(opened);
+            throw new IOException("Interrupted while opening the shards", e);
+        } finally {
+            pool.shutdown();
+        }
+        this.shards = List.copyOf(opened);
+    }
+
+    private static List<String> shardDirs(String dirName, int count) {
+        if (count <= 0) {
+            throw new IllegalArgumentException("count should be positive: " + count);
+        }
+        return IntStream.range(0, count)
+                .mapToObj(i -> Paths.get(dirName, String.format("shard-%03d", i)).toString())
+                .toList();
+    }
+
+    // open checks the SHARD file of the directory, writing it for a new shard, and
+    // opens the shard
+    private static DiskStore open(Path dir, int index, int count, Options options) throws IOException {
+        Files.createDirectories(dir);
+        Path shardFile = dir.resolve(SHARD_FILE);
+        String expected = index + "/" + count;
+        if (Files.exists(shardFile)) {
+            String found = Files.readString(shardFile).trim();
+            if (!found.equals(expected)) {
+                throw new IOException("Shard directory " + dir + " is shard " + found + ", not " + expected);
+            }
+        } else {
+            try (Stream<Path> files = Files.list(dir)) {
+                if (files.findAny().isPresent()) {
+                    throw new IOException("Shard directory " + dir + " has no " + SHARD_FILE
+                            + " file and is not empty, it is not a shard of this store");
+                }
+            }
+            Files.writeString(shardFile, expected);
+        }
+        return new DiskStore(dir.toString(), options);
+    }
+
+    private static void closeAll(List<DiskStore> stores) {
+        for (DiskStore store : stores) {
+            try {
+                store.close();
+            } catch (Exception e) {
+                log.warn("Failed to close a shard", e);
+            }
+        }
+    }
+
+    // shard returns the index of the shard that holds the key
+    static int shard(byte[] key, int count) {
+        return shard(ByteBuffer.wrap(key), count);
+    }
+
+    private static int shard(ByteBuffer key, int count) {
+        CRC32C crc = ShardedStore.crc.get();
+        crc.reset();
+        crc.update(key.duplicate());
+        return (int) (crc.getValue() % count);
+    }
+
+    private DiskStore shardOf(byte[] key) {
+        return shards.get(shard(key, shards.size()));
+    }
+
+    private DiskStore shardOf(ByteBuffer key) {
+        return shards.get(shard(key, shards.size()));
+    }
+
+    // shards returns the shards in index order
+    public List<DiskStore> shards() {
+        return shards;
+    }
+
+    public String get(String key) throws IOException {
+        byte[] value = get(key.getBytes(Format.CHAR_SET));
+        return value == null ? "" : new String(value, Format.CHAR_SET);
+    }
+
+    public byte[] get(byte[] key) throws IOException {
+        return shardOf(key).get(key);
+    }
+
+    public int get(ByteBuffer key, ByteBuffer dst) throws IOException {
+        return shardOf(key).get(key, dst);
+    }
+
+    public void set(String key, String value) throws IOException {
+        set(key.getBytes(Format.CHAR_SET), value.getBytes(Format.CHAR_SET));
+    }
+
+    public void set(byte[] key, byte[] value) throws IOException {
+        shardOf(key).set(key, value);
+    }
+
+    public void set(ByteBuffer key, ByteBuffer value) throws IOException {
+        shardOf(key).set(key, value);
+    }
+
+    public CompletableFuture<Void> setAsync(ByteBuffer key, ByteBuffer value) {
+        return shardOf(key).setAsync(key, value);
+    }
+
+    public void delete(String key) throws IOException {
+        delete(key.getBytes(Format.CHAR_SET));
+    }
+
+    public void delete(byte[] key) throws IOException {
+        shardOf(key).delete(key);
+    }
+
+    public CompletableFuture<Void> deleteAsync(ByteBuffer key) {
+        return shardOf(key).deleteAsync(key);
+    }
+
+    // merge merges every shard, one after the other. Returns the number of segments
+    // merged.
+    public int merge() throws IOException {
+        int merged = 0;
+        for (DiskStore shard : shards) {
+            merged += shard.merge();
+        }
+        return merged;
+    }
+
+    public void close() throws Exception {
+        Exception failure = null;
+        for (DiskStore shard : shards) {
+            try {
+                shard.close();
+            } catch (Exception e) {
+                if (failure == null) {
+                    failure = e;
+                } else {
+                    failure.addSuppressed(e);
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+}
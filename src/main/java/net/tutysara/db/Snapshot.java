@@ -0,0 +1,198 @@
+package net.tutysara.db;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Snapshot is a read only view of a DiskStore as of one position of the log, see
+// DiskStore.snapshot. Writes made after the snapshot was taken are not visible
+// through it, whatever they overwrite or delete. Expiry is the exception: a key
+// whose ttl runs out disappears from the snapshot too.
+//
+// Records are never changed once written, so the view is simply every record up
+// to position():
+//
+//    000000003.data  ┌─────┬─────┬─────┐
+//                    │ rec │ rec │ rec │                 sealed, all in the view
+//                    └─────┴─────┴─────┘
+//    000000005.data  ┌─────┬─────┬─────┬─────┬─────┐
+//                    │ rec │ rec │ rec │ rec │ rec │     active
+//                    └─────┴─────┴─────┴─────┴─────┘
+//                                      ^ position()
+//
+// Taking a snapshot copies nothing: it opens an overlay of the keyDir (see
+// VersionedKeyDir) and pins the segments of the store (see Segments.pin), so a
+// merge does not delete them while the snapshot is open. The overlay keeps the
+// old entries of the keys written after the snapshot, the newest record of every
+// key as of position() is either there or in the keyDir. So get costs about as
+// much as DiskStore.get. Merged segments keep their disk space and overwritten
+// keys their old entry in memory until the snapshot is closed.
+//
+// iterator reads every segment once, sequentially and in file order, and returns
+// the records the snapshot's entries point at. The keys therefore come in file
+// order, not in key order.
+public final class Snapshot implements Iterable<KeyValue>, AutoCloseable {
+
+    // SCAN_SIZE is how much of a segment the iterator reads ahead at a time
+    private static final long SCAN_SIZE = 4 * 1024 * 1024;
+
+    private final VersionedKeyDir keyDir;
+    private final VersionedKeyDir.Overlay overlay;
+    private final Segments segments;
+    // visible are the pinned segments in file order
+    private final List<Segment> visible;
+    // closeLock makes close run once, closed is checked by every read
+    private final ReentrantLock closeLock = new ReentrantLock();
+    private volatile boolean closed;
+
+    Snapshot(VersionedKeyDir keyDir, VersionedKeyDir.Overlay overlay, Segments segments) {
+        this.keyDir = keyDir;
+        this.overlay = overlay;
+        this.segments = segments;
+        this.visible = overlay.pin().segments().values().stream()
+                .sorted(Comparator.comparingInt(Segment::fileId))
+                .toList();
+    }
+
+    // position is where the log ended when the snapshot was taken
+    public LogPosition position() {
+        return overlay.position();
+    }
+
+    // get returns the value the key had when the snapshot was taken, or null
+    public byte[] get(byte[] key) throws IOException {
+        var keyEntry = entry(key);
+        if (keyEntry == null || keyEntry.expired(System.currentTimeMillis())) {
+            return null;
+        }
+        Segment segment = overlay.pin().segments().get(keyEntry.fileId());
+        int valueOffset = Format.valueOffset(key.length);
+        byte[] value = new byte[keyEntry.totalSize() - valueOffset - Format.trailerSize(segment.version())];
+        segment.read(ByteBuffer.wrap(value), keyEntry.position() + valueOffset);
+        return keyEntry.compressed() ? Compression.decompress(value) : value;
+    }
+
+    public String get(String key) throws IOException {
+        byte[] value = get(key.getBytes(Format.CHAR_SET));
+        return value == null ? "" : new String(value, Format.CHAR_SET);
+    }
+
+    // size returns the number of keys in the snapshot, keys whose ttl ran out but
+    // that the store still had when the snapshot was taken included. It holds up
+    // the writer for a walk over the overlay.
+    public int size() {
+        checkOpen();
+        return keyDir.size(overlay);
+    }
+
+    // iterator returns every key of the snapshot with its value, in file order. I/O
+    // errors are thrown as UncheckedIOException.
+    public Iterator<KeyValue> iterator() {
+        checkOpen();
+        return new Records();
+    }
+
+    private Format.KeyEntry entry(byte[] key) {
+        checkOpen();
+        return keyDir.get(overlay, key);
+    }
+
+    private void checkOpen() {
+        if (closed) {
+            throw new IllegalStateException("Snapshot is closed");
+        }
+    }
+
+    // end is where the records of the snapshot end in the segment. Segments after
+    // position() are merge outputs or the active segment started since, it has
+    // nothing of the snapshot and is read to its end anyway.
+    private long end(Segment segment) throws IOException {
+        return segment.fileId() == position().fileId() ? position().offset() : segment.size();
+    }
+
+    // close releases the pinned segments and the overlay
+    public void close() throws IOException {
+        closeLock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            keyDir.close(overlay);
+            segments.release(overlay.pin());
+        } finally {
+            closeLock.unlock();
+        }
+    }
+
+    // Records walks the visible segments SCAN_SIZE bytes at a time and keeps the
+    // records the snapshot's entries point at
+    private final class Records implements Iterator<KeyValue> {
+        private final ArrayDeque<KeyValue> ready = new ArrayDeque<>();
+        private int next;
+        private Segment segment;
+        private long scanned;
+        private long end;
+
+        public boolean hasNext() {
+            try {
+                while (ready.isEmpty() && advance()) {
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return !ready.isEmpty();
+        }
+
+        public KeyValue next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return ready.poll();
+        }
+
+        // advance scans the next piece of the current segment, or moves on to the
+        // next segment. Returns false once every segment was read.
+        private boolean advance() throws IOException {
+            if (segment == null || scanned >= end) {
+                if (next == visible.size()) {
+                    return false;
+                }
+                segment = visible.get(next++);
+                scanned = segment.dataStart();
+                end = end(segment);
+                return true;
+            }
+            Segment current = segment;
+            long from = scanned;
+            scanned = current.scan(from, Math.min(end, from + SCAN_SIZE), (recordPosition, record) -> {
+                int keySize = Format.keySize(record, 0);
+                int valueSize = Format.valueSize(record, 0);
+                if (valueSize == Format.TOMBSTONE) {
+                    return;
+                }
+                byte[] key = new byte[keySize];
+                record.get(Format.HEADER_SIZE, key);
+                var keyEntry = entry(key);
+                if (keyEntry != null && keyEntry.fileId() == current.fileId() && keyEntry.position() == recordPosition
+                        && !keyEntry.expired(System.currentTimeMillis())) {
+                    byte[] value = new byte[valueSize];
+                    record.get(Format.valueOffset(keySize), value);
+                    ready.add(new KeyValue(key, keyEntry.compressed() ? Compression.decompress(value) : value));
+                }
+            }, (damagedPosition, length) -> {
+            });
+            if (scanned == from) {
+                // a torn tail, the rest of the segment has nothing intact
+                scanned = end;
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package net.tutysara.db;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.BinaryOperator;
+
+// SortedKeyDir keeps the keyDir in a ConcurrentSkipListMap ordered by the unsigned
+// bytes of the keys, which is also the order of their UTF-8 strings. Point lookups
+// are O(log n) instead of O(1), in exchange range returns the keys of a range in
+// order without looking at the others.
+final class SortedKeyDir implements KeyDir {
+
+    private final ConcurrentSkipListMap<byte[], Format.KeyEntry> entries =
+            new ConcurrentSkipListMap<>(Arrays::compareUnsigned);
+
+    public Format.KeyEntry get(byte[] key) {
+        return entries.get(key);
+    }
+
+    public Format.KeyEntry put(byte[] key, Format.KeyEntry keyEntry) {
+        return entries.put(key.clone(), keyEntry);
+    }
+
+    public boolean replace(byte[] key, Format.KeyEntry expected, Format.KeyEntry keyEntry) {
+        return entries.replace(key, expected, keyEntry);
+    }
+
+    public Format.KeyEntry merge(byte[] key, Format.KeyEntry keyEntry, BinaryOperator<Format.KeyEntry> remapping) {
+        return entries.merge(key.clone(), keyEntry, remapping);
+    }
+
+    public Format.KeyEntry remove(byte[] key) {
+        return entries.remove(key);
+    }
+
+    public boolean remove(byte[] key, Format.KeyEntry expected) {
+        return entries.remove(key, expected);
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public boolean isOrdered() {
+        return true;
+    }
+
+    public Iterator<Map.Entry<byte[], Format.KeyEntry>> range(byte[] from, byte[] to) {
+        ConcurrentNavigableMap<byte[], Format.KeyEntry> range = entries;
+        if (from != null) {
+            range = range.tailMap(from, true);
+        }
+        if (to != null) {
+            range = range.headMap(to, false);
+        }
+        return range.entrySet().iterator();
+    }
+
+    public void close() {
+        entries.clear();
+    }
+}
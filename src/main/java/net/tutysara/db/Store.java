@@ -5,5 +5,6 @@ import java.io.IOException;
 public interface Store {
     public String get(String key) throws IOException;
     public void set(String key, String value) throws IOException;
+    public void delete(String key) throws IOException;
     public void close() throws Exception;
 }
@@ -0,0 +1,41 @@
+package net.tutysara.db;
+
+import java.util.List;
+
+// StoreMetrics is a point in time copy of the counters of a DiskStore, see
+// DiskStore.metrics. Counters count from when the store was opened.
+//
+//    gets .. batches - calls of get, set, delete and write. A get that finds
+//                      nothing counts too
+//    bytesWritten    - bytes appended to the data files, headers and checksums
+//                      included, merges not
+//    bytesRead       - value bytes read from the data files by get, as stored.
+//                      Values from the value cache are not counted
+//    syncs           - fsyncs of the data files, or writes to an O_DSYNC file with
+//                      Durability.syncPerWrite
+//    expired         - keys the ExpirySweeper or a merge removed because their ttl
+//                      ran out
+//    getLatency      - time of get, from the call until the value is copied
+//    setLatency      - time of set, from the call until the keyDir points at the
+//                      new record. Waiting for the group commit is included
+//    syncLatency     - time of one sync
+//                      get and set latencies are sampled, their count is the
+//                      number of operations timed, see Options.latencySampling
+//    keys            - keys in the keyDir
+//    segments        - every data file, in file order
+//    recovery        - how the keyDir was rebuilt when the store was opened
+//    merge, cache    - see MergeMetrics and CacheStats
+public record StoreMetrics(long gets, long sets, long deletes, long batches,
+                           long bytesWritten, long bytesRead, long syncs, long expired,
+                           LatencyStats getLatency, LatencyStats setLatency, LatencyStats syncLatency,
+                           int keys, List<SegmentStats> segments, RecoveryStats recovery,
+                           MergeMetrics merge, CacheStats cache) {
+
+    public long liveBytes() {
+        return segments.stream().mapToLong(SegmentStats::liveBytes).sum();
+    }
+
+    public long deadBytes() {
+        return segments.stream().mapToLong(SegmentStats::deadBytes).sum();
+    }
+}
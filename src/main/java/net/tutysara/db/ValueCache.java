@@ -0,0 +1,319 @@
+package net.tutysara.db;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+// ValueCache keeps recently read values in memory, up to maxBytes of them. It is
+// keyed by the location of the record, (fileId, position), not by the key: a record
+// never changes once written, so a cached value can never be stale. An overwrite or
+// a merge gives the key a new location and its old entry is simply never hit
+// again, the writer drops it eagerly to free the space.
+//
+// Eviction follows W-TinyLFU. New entries go into a small LRU window, entries that
+// fall out of the window compete with the LRU victim of the main area and only the
+// one seen more often stays:
+//
+//    put ─▶ window (1%) ──▶ candidate ─┐
+//                                      ├─▶ frequency(candidate) > frequency(victim)?
+//           main (99%) ──▶ victim ─────┘        yes: evict victim, admit candidate
+//           ┌───────────────┬────────────┐      no:  evict candidate
+//           │ probation 20% │ protected  │
+//           └───────────────┴────────────┘
+//
+// A hit in probation promotes the entry to protected, protected overflows back into
+// probation. Frequencies come from a count-min sketch (FrequencySketch) that is
+// halved periodically, so one pass over cold keys cannot flush the hot ones.
+//
+// Lookups are a ConcurrentHashMap read. The policy is guarded by one lock: inserts
+// take it, hits only try it and skip the bookkeeping when it is busy.
+final class ValueCache {
+    // ENTRY_OVERHEAD is roughly the heap cost of an entry besides its value
+    static final int ENTRY_OVERHEAD = 96;
+    private static final int WINDOW = 0;
+    private static final int PROBATION = 1;
+    private static final int PROTECTED = 2;
+
+    private record Key(int fileId, long position) {
+    }
+
+    private static final class Node {
+        final Key key;
+        final byte[] value;
+        final int weight;
+        int queue;
+        Node prev;
+        Node next;
+
+        Node(Key key, byte[] value) {
+            this.key = key;
+            this.value = value;
+            this.weight = value.length + ENTRY_OVERHEAD;
+        }
+    }
+
+    private final ConcurrentHashMap<Key, Node> map = new ConcurrentHashMap<>();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final long maxBytes;
+    private final long maxWindow;
+    private final long maxProtected;
+    private final Queue window = new Queue();
+    private final Queue probation = new Queue();
+    private final Queue protectedQueue = new Queue();
+    private final FrequencySketch sketch;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    ValueCache(long maxBytes) {
+        assert maxBytes > 0 : "maxBytes should be positive";
+        this.maxBytes = maxBytes;
+        this.maxWindow = Math.max(1, maxBytes / 100);
+        this.maxProtected = (maxBytes - maxWindow) * 8 / 10;
+        this.sketch = new FrequencySketch(maxBytes / (ENTRY_OVERHEAD + 128));
+    }
+
+    // get returns the cached value, the caller must not change it
+    byte[] get(int fileId, long position) {
+        Node node = map.get(new Key(fileId, position));
+        if (node == null) {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        if (lock.tryLock()) {
+            try {
+                onHit(node);
+            } finally {
+                lock.unlock();
+            }
+        }
+        return node.value;
+    }
+
+    // put caches the value of the record at (fileId, position), the cache keeps
+    // the array so the caller must not change it afterwards
+    void put(int fileId, long position, byte[] value) {
+        Key key = new Key(fileId, position);
+        Node node = new Node(key, value);
+        if (node.weight > maxBytes - maxWindow) {
+            return;
+        }
+        lock.lock();
+        try {
+            sketch.increment(key.hashCode());
+            if (map.putIfAbsent(key, node) != null) {
+                return;
+            }
+            window.addFirst(node, WINDOW);
+            while (window.bytes > maxWindow) {
+                admit(window.removeLast());
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void invalidate(int fileId, long position) {
+        Key key = new Key(fileId, position);
+        if (!map.containsKey(key)) {
+            return;
+        }
+        lock.lock();
+        try {
+            Node node = map.remove(key);
+            if (node != null) {
+                queue(node).remove(node);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    CacheStats stats() {
+        lock.lock();
+        try {
+            return new CacheStats(hits.sum(), misses.sum(), evictions.sum(), map.size(),
+                    window.bytes + probation.bytes + protectedQueue.bytes, maxBytes);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // admit moves a candidate that fell out of the window into probation, evicting
+    // from the main area as long as the candidate is the more frequent one
+    private void admit(Node candidate) {
+        long maxMain = maxBytes - maxWindow;
+        int candidateFrequency = sketch.frequency(candidate.key.hashCode());
+        while (probation.bytes + protectedQueue.bytes + candidate.weight > maxMain) {
+            Queue victims = probation.isEmpty() ? protectedQueue : probation;
+            Node victim = victims.last();
+            if (candidateFrequency <= sketch.frequency(victim.key.hashCode())) {
+                evict(candidate);
+                return;
+            }
+            victims.remove(victim);
+            evict(victim);
+        }
+        probation.addFirst(candidate, PROBATION);
+    }
+
+    private void onHit(Node node) {
+        // a concurrent invalidate or eviction may have unlinked the node already
+        if (map.get(node.key) != node) {
+            return;
+        }
+        sketch.increment(node.key.hashCode());
+        switch (node.queue) {
+            case WINDOW -> window.moveToFront(node);
+            case PROTECTED -> protectedQueue.moveToFront(node);
+            default -> {
+                probation.remove(node);
+                protectedQueue.addFirst(node, PROTECTED);
+                while (protectedQueue.bytes > maxProtected) {
+                    probation.addFirst(protectedQueue.removeLast(), PROBATION);
+                }
+            }
+        }
+    }
+
+    private void evict(Node node) {
+        map.remove(node.key, node);
+        evictions.increment();
+    }
+
+    private Queue queue(Node node) {
+        return switch (node.queue) {
+            case WINDOW -> window;
+            case PROBATION -> probation;
+            default -> protectedQueue;
+        };
+    }
+
+    // Queue is an LRU list of nodes that tracks its size in bytes, most recently
+    // used first
+    private static final class Queue {
+        private Node head;
+        private Node tail;
+        private long bytes;
+
+        boolean isEmpty() {
+            return head == null;
+        }
+
+        Node last() {
+            return tail;
+        }
+
+        void addFirst(Node node, int queue) {
+            node.queue = queue;
+            node.prev = null;
+            node.next = head;
+            if (head != null) {
+                head.prev = node;
+            } else {
+                tail = node;
+            }
+            head = node;
+            bytes += node.weight;
+        }
+
+        Node removeLast() {
+            Node node = tail;
+            remove(node);
+            return node;
+        }
+
+        void remove(Node node) {
+            if (node.prev != null) {
+                node.prev.next = node.next;
+            } else {
+                head = node.next;
+            }
+            if (node.next != null) {
+                node.next.prev = node.prev;
+            } else {
+                tail = node.prev;
+            }
+            node.prev = null;
+            node.next = null;
+            bytes -= node.weight;
+        }
+
+        void moveToFront(Node node) {
+            if (head != node) {
+                int queue = node.queue;
+                remove(node);
+                addFirst(node, queue);
+            }
+        }
+    }
+
+    // FrequencySketch is a count-min sketch of 4 bit counters, 16 to a long. Every
+    // hash sets one counter in each of 4 rows, the estimate is the smallest of them.
+    // After 10 increments per counter row all counters are halved, which ages out
+    // keys that used to be popular.
+    static final class FrequencySketch {
+        private static final long[] SEEDS = {
+                0x97cb3127L, 0xab61c2b3L, 0xc2b2ae35L, 0x27d4eb2fL};
+        private static final long RESET_MASK = 0x7777777777777777L;
+        private final long[] table;
+        private final int mask;
+        private final int sampleSize;
+        private int additions;
+
+        FrequencySketch(long expectedEntries) {
+            int size = Integer.highestOneBit((int) Math.max(16, Math.min(expectedEntries, 1 << 24)) - 1) << 1;
+            table = new long[size];
+            mask = size - 1;
+            sampleSize = 10 * size;
+        }
+
+        int frequency(int hash) {
+            hash = spread(hash);
+            int frequency = Integer.MAX_VALUE;
+            for (int i = 0; i < 4; i++) {
+                int index = index(hash, i);
+                int shift = counterShift(hash, i);
+                frequency = Math.min(frequency, (int) ((table[index] >>> shift) & 0xF));
+            }
+            return frequency;
+        }
+
+        void increment(int hash) {
+            hash = spread(hash);
+            boolean added = false;
+            for (int i = 0; i < 4; i++) {
+                int index = index(hash, i);
+                int shift = counterShift(hash, i);
+                if (((table[index] >>> shift) & 0xF) < 15) {
+                    table[index] += 1L << shift;
+                    added = true;
+                }
+            }
+            if (added && ++additions == sampleSize) {
+                for (int i = 0; i < table.length; i++) {
+                    table[i] = (table[i] >>> 1) & RESET_MASK;
+                }
+                additions /= 2;
+            }
+        }
+
+        // spread mixes the bits of a hash, record positions alone have regular low bits
+        private static int spread(int hash) {
+            hash *= 0x9e3779b9;
+            return hash ^ (hash >>> 16);
+        }
+
+        private int index(int hash, int row) {
+            long h = (hash + SEEDS[row]) * SEEDS[row];
+            return (int) (h ^ (h >>> 32)) & mask;
+        }
+
+        // counterShift picks one of the 16 counters of the long, a different one per row
+        private static int counterShift(int hash, int row) {
+            return (((hash >>> (row << 3)) & 3) + (row << 2)) << 2;
+        }
+    }
+}
@@ -0,0 +1,250 @@
+package net.tutysara.db;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BinaryOperator;
+import java.util.function.Supplier;
+
+// VersionedKeyDir is the keyDir of an open store. It keeps, for every open
+// Snapshot, the entries the keyDir held when the snapshot was taken for the keys
+// that changed since, and nothing for the others:
+//
+//    keyDir      a → 3:10   b → 5:40   c → 5:88          live, what get reads
+//    overlay     b → 4:20   d → absent                   before the first change
+//                                                        after the snapshot
+//    snapshot    a → 3:10   b → 4:20   c → 5:88
+//
+// A key the snapshot has no overlay entry for has not changed, so its live entry is
+// the snapshot's too. Taking a snapshot costs an empty overlay, a lookup in it costs
+// two hash lookups, and it grows with the keys written while it is open.
+//
+// Every change goes through lock. With snapshots open it records the previous
+// entry in each overlay that has none for the key yet, and sequence is odd while
+// it does, so that a snapshot never reads the live entry of a change that is not
+// recorded yet (see get). A change made by the writer is published as one with
+// publish: the snapshot sees all of a WriteBatch or none of it, and position
+// matches the keyDir.
+//
+// Recovery fills the wrapped keyDir directly, before there is anything to version.
+final class VersionedKeyDir implements KeyDir {
+
+    // ABSENT is kept in an overlay for a key the keyDir did not have
+    private static final Format.KeyEntry ABSENT = new Format.KeyEntry(-1, -1, -1, -1);
+
+    // Overlay is the state of one snapshot, see the top of the file
+    static final class Overlay {
+        private final LogPosition position;
+        private final Segments.Pin pin;
+        // before maps a copy of the key to its entry, ABSENT if it had none
+        private final ConcurrentHashMap<ByteBuffer, Format.KeyEntry> before = new ConcurrentHashMap<>();
+
+        private Overlay(LogPosition position, Segments.Pin pin) {
+            this.position = position;
+            this.pin = pin;
+        }
+
+        LogPosition position() {
+            return position;
+        }
+
+        Segments.Pin pin() {
+            return pin;
+        }
+    }
+
+    private final KeyDir keyDir;
+    private final ReentrantLock lock = new ReentrantLock();
+    // sequence is odd while a change is recorded, overlays and position only
+    // change under lock
+    private volatile long sequence;
+    private volatile List<Overlay> overlays = List.of();
+    private LogPosition position = new LogPosition(0, 0);
+
+    VersionedKeyDir(KeyDir keyDir) {
+        this.keyDir = keyDir;
+    }
+
+    // publish runs the keyDir updates of one append of the writer, which ends the
+    // log at position
+    void publish(LogPosition position, Runnable update) {
+        lock();
+        try {
+            update.run();
+            this.position = position;
+        } finally {
+            unlock();
+        }
+    }
+
+    // open starts an overlay. pin is called while the keyDir can not change, so
+    // it holds every segment the keyDir points at.
+    Overlay open(Supplier<Segments.Pin> pin) {
+        lock.lock();
+        try {
+            Overlay overlay = new Overlay(position, pin.get());
+            List<Overlay> open = new ArrayList<>(overlays);
+            open.add(overlay);
+            overlays = List.copyOf(open);
+            return overlay;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // close stops recording for the overlay and frees it
+    void close(Overlay overlay) {
+        lock.lock();
+        try {
+            List<Overlay> open = new ArrayList<>(overlays);
+            open.remove(overlay);
+            overlays = List.copyOf(open);
+        } finally {
+            lock.unlock();
+        }
+        overlay.before.clear();
+    }
+
+    // get returns the entry the key had when the overlay was opened, or null. A
+    // change that overlaps the lookup makes it look again.
+    Format.KeyEntry get(Overlay overlay, byte[] key) {
+        while (true) {
+            long seen = sequence;
+            if ((seen & 1) != 0) {
+                Thread.onSpinWait();
+                continue;
+            }
+            Format.KeyEntry keyEntry = overlay.before.get(ByteBuffer.wrap(key));
+            if (keyEntry == null) {
+                keyEntry = keyDir.get(key);
+            }
+            if (sequence == seen) {
+                return keyEntry == ABSENT ? null : keyEntry;
+            }
+        }
+    }
+
+    // size returns the number of keys the keyDir had when the overlay was opened.
+    // It goes over the overlay with every change on hold.
+    int size(Overlay overlay) {
+        lock.lock();
+        try {
+            int[] size = {keyDir.size()};
+            overlay.before.forEach((key, keyEntry) -> {
+                boolean live = keyDir.get(key.array()) != null;
+                boolean before = keyEntry != ABSENT;
+                size[0] += (before ? 1 : 0) - (live ? 1 : 0);
+            });
+            return size[0];
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public Format.KeyEntry get(byte[] key) {
+        return keyDir.get(key);
+    }
+
+    public Format.KeyEntry put(byte[] key, Format.KeyEntry keyEntry) {
+        lock();
+        try {
+            Format.KeyEntry previous = keyDir.put(key, keyEntry);
+            record(key, previous);
+            return previous;
+        } finally {
+            unlock();
+        }
+    }
+
+    public boolean replace(byte[] key, Format.KeyEntry expected, Format.KeyEntry keyEntry) {
+        lock();
+        try {
+            boolean replaced = keyDir.replace(key, expected, keyEntry);
+            if (replaced) {
+                record(key, expected);
+            }
+            return replaced;
+        } finally {
+            unlock();
+        }
+    }
+
+    public Format.KeyEntry merge(byte[] key, Format.KeyEntry keyEntry, BinaryOperator<Format.KeyEntry> remapping) {
+        lock();
+        try {
+            Format.KeyEntry previous = keyDir.get(key);
+            Format.KeyEntry merged = keyDir.merge(key, keyEntry, remapping);
+            record(key, previous);
+            return merged;
+        } finally {
+            unlock();
+        }
+    }
+
+    public Format.KeyEntry remove(byte[] key) {
+        lock();
+        try {
+            Format.KeyEntry previous = keyDir.remove(key);
+            record(key, previous);
+            return previous;
+        } finally {
+            unlock();
+        }
+    }
+
+    public boolean remove(byte[] key, Format.KeyEntry expected) {
+        lock();
+        try {
+            boolean removed = keyDir.remove(key, expected);
+            if (removed) {
+                record(key, expected);
+            }
+            return removed;
+        } finally {
+            unlock();
+        }
+    }
+
+    public int size() {
+        return keyDir.size();
+    }
+
+    public boolean isOrdered() {
+        return keyDir.isOrdered();
+    }
+
+    public Iterator<Map.Entry<byte[], Format.KeyEntry>> range(byte[] from, byte[] to) {
+        return keyDir.range(from, to);
+    }
+
+    public void close() {
+        keyDir.close();
+    }
+
+    // lock makes sequence odd for the outermost change while overlays are open
+    private void lock() {
+        lock.lock();
+        if (lock.getHoldCount() == 1 && !overlays.isEmpty()) {
+            sequence++;
+        }
+    }
+
+    private void unlock() {
+        if (lock.getHoldCount() == 1 && (sequence & 1) != 0) {
+            sequence++;
+        }
+        lock.unlock();
+    }
+
+    // record keeps the previous entry in every overlay that has none for the key,
+    // caller holds lock
+    private void record(byte[] key, Format.KeyEntry previous) {
+        for (Overlay overlay : overlays) {
+            overlay.before.putIfAbsent(ByteBuffer.wrap(key.clone()), previous == null ? ABSENT : previous);
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package net.tutysara.db;
+
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// WriteBatch collects puts and deletes that DiskStore.write applies together.
+// Every operation is encoded as soon as it is added, into one buffer that starts
+// with room for the batch marker:
+//
+//    ┌──────────────┬────────┬───────────┬────────┬─────
+//    │ batch marker │ record │ tombstone │ record │ ...
+//    └──────────────┴────────┴───────────┴────────┴─────
+//
+// so writing the batch is a single append of that buffer, with a single sync.
+// The marker tells recovery how many records belong to the batch, a batch that
+// did not fully make it to disk is dropped as a whole. See Format for the marker.
+//
+// A WriteBatch is not thread safe. It can be reused after write returned, or
+// after clear.
+public final class WriteBatch {
+    private static final int INITIAL_CAPACITY = 4096;
+
+    // Op is an encoded operation, offset is where its record starts in the buffer.
+    // timestamp is the expiry time when expires is set.
+    record Op(byte[] key, long timestamp, int offset, int size, boolean tombstone, boolean expires) {
+    }
+
+    private ByteBuffer buffer = ByteBuffer.allocate(INITIAL_CAPACITY);
+    private final List<Op> ops = new ArrayList<>();
+
+    public WriteBatch() {
+        clear();
+    }
+
+    public WriteBatch set(String key, String value) {
+        return set(key.getBytes(Format.CHAR_SET), value.getBytes(Format.CHAR_SET));
+    }
+
+    public WriteBatch set(byte[] key, byte[] value) {
+        return set(key, value, 0);
+    }
+
+    // set with a ttl sets a key that expires, see DiskStore.set. The ttl counts
+    // from this call, not from the write of the batch.
+    public WriteBatch set(byte[] key, byte[] value, Duration ttl) {
+        return set(key, value, DiskStore.expiresAt(ttl));
+    }
+
+    // set with expiresAt, in epoch seconds, or 0 for a key that does not expire
+    WriteBatch set(byte[] key, byte[] value, long expiresAt) {
+        boolean expires = expiresAt != 0;
+        long timeStamp = expires ? expiresAt : System.currentTimeMillis() / 1000L;
+        int offset = reserve(Format.recordSize(key.length, value.length));
+        Format.encode(timeStamp, ByteBuffer.wrap(key), ByteBuffer.wrap(value), false, expires, buffer);
+        ops.add(new Op(key.clone(), timeStamp, offset, buffer.position() - offset, false, expires));
+        return this;
+    }
+
+    public WriteBatch delete(String key) {
+        return delete(key.getBytes(Format.CHAR_SET));
+    }
+
+    public WriteBatch delete(byte[] key) {
+        long timeStamp = System.currentTimeMillis() / 1000L;
+        int offset = reserve(Format.tombstoneSize(key.length));
+        Format.encodeTombstone(timeStamp, ByteBuffer.wrap(key), buffer);
+        ops.add(new Op(key.clone(), timeStamp, offset, buffer.position() - offset, true, false));
+        return this;
+    }
+
+    // size is the number of operations in the batch
+    public int size() {
+        return ops.size();
+    }
+
+    public boolean isEmpty() {
+        return ops.isEmpty();
+    }
+
+    public void clear() {
+        ops.clear();
+        buffer.clear();
+        buffer.position(Format.batchMarkerSize());
+    }
+
+    List<Op> ops() {
+        return List.copyOf(ops);
+    }
+
+    // encode completes the batch marker and returns the encoded batch. The array
+    // is a copy: it is handed to the writer, which may still hold it after the
+    // caller changed the batch.
+    byte[] encode() {
+        int end = buffer.position();
+        buffer.position(0);
+        Format.encodeBatchMarker(System.currentTimeMillis() / 1000L, ops.size(),
+                end - Format.batchMarkerSize(), buffer);
+        buffer.position(end);
+        return Arrays.copyOf(buffer.array(), end);
+    }
+
+    // reserve makes room for `length` more bytes and returns the current position
+    private int reserve(int length) {
+        if (buffer.remaining() < length) {
+            long capacity = Math.max(2L * buffer.capacity(), (long) buffer.position() + length);
+            if (capacity > Integer.MAX_VALUE) {
+                throw new IllegalStateException("WriteBatch is larger than 2 GiB");
+            }
+            ByteBuffer grown = ByteBuffer.allocate((int) capacity);
+            grown.put(buffer.flip());
+            buffer = grown;
+        }
+        return buffer.position();
+    }
+}
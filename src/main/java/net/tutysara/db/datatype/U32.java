@@ -1,8 +1,5 @@
 package net.tutysara.db.datatype;
 
-import java.nio.ByteBuffer;
-import java.util.Arrays;
-
 // use 4 byte signed int as container for u32
 //
 //+----------+----+----+----------+------------------+------------+------------+------------------+
@@ -13,39 +10,27 @@ import java.util.Arrays;
 public record U32(int val) {
 
     public static long maxval() {
-        return (long) Math.pow(2, 32) -1;
+        return 0xFFFFFFFFL;
     }
-    public static U32 fromLong(Long lval) {
+
+    // The conversions are plain bit arithmetic, none of them allocates besides the
+    // U32 itself (which the JIT usually removes) and the array bytes returns.
+    public static U32 fromLong(long lval) {
         assert lval <= maxval(): "long val cannot be more than : " + maxval();
         assert lval >= 0 : "long val should be positive";
-        ByteBuffer buffer = ByteBuffer.allocate(Long.BYTES);
-        buffer.putLong(lval);
-        var converted = buffer.array();
-        var u32 = Arrays.copyOfRange(converted, 4, Long.BYTES);
-        ByteBuffer buffer2 = ByteBuffer.wrap(u32);
-        return new U32(buffer2.getInt());
+        return new U32((int) lval);
     }
 
     public static U32 fromBytes(byte[] bytes) {
-        ByteBuffer buffer = ByteBuffer.allocate(Integer.BYTES);
-        buffer.put(bytes);
-        buffer.flip();
-        return new U32(buffer.getInt());
+        return new U32((bytes[0] & 0xFF) << 24 | (bytes[1] & 0xFF) << 16 | (bytes[2] & 0xFF) << 8 | (bytes[3] & 0xFF));
     }
 
     public long toLong() {
-        ByteBuffer buffer = ByteBuffer.allocate(Long.BYTES);
-        byte[] zeroMSB = {0, 0, 0, 0};
-        buffer.put(zeroMSB);
-        buffer.put(bytes());
-        buffer.flip();
-        return buffer.getLong();
+        return Integer.toUnsignedLong(val);
     }
 
     public byte[] bytes() {
-        ByteBuffer buffer = ByteBuffer.allocate(Integer.BYTES);
-        buffer.putInt(val);
-        return buffer.array();
+        return new byte[]{(byte) (val >>> 24), (byte) (val >>> 16), (byte) (val >>> 8), (byte) val};
     }
 
     public void printBytes() {
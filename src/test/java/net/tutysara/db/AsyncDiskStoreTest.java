@@ -0,0 +1,160 @@
+package net.tutysara.db;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AsyncDiskStoreTest {
+
+    private static final String filename = "async.db";
+
+    private static void deleteDir() throws IOException {
+        Path dir = Paths.get(filename);
+        if (Files.exists(dir)) {
+            try (Stream<Path> files = Files.walk(dir)) {
+                for (Path path : files.sorted(Comparator.reverseOrder()).toList()) {
+                    Files.delete(path);
+                }
+            }
+        }
+    }
+
+    @BeforeEach
+    void setUp() throws IOException {
+        deleteDir();
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        deleteDir();
+    }
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    // tens of thousands of requests in flight at once, started from one thread and
+    // served by a pool of 4
+    @Test
+    void test_ManyInFlight() throws Exception {
+        var options = Options.defaults()
+                .withDurability(Durability.groupCommit(256, Duration.ofMillis(1)));
+        int requests = 20_000;
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        Set<String> completedOn = ConcurrentHashMap.newKeySet();
+        try (DiskStore ds = new DiskStore(filename, options)) {
+            AsyncStore store = ds.async(pool);
+            List<CompletableFuture<Void>> sets = new ArrayList<>(requests);
+            for (int i = 0; i < requests; i++) {
+                sets.add(store.set(bytes("key-" + i), bytes("value-" + i))
+                        .thenRun(() -> completedOn.add(Thread.currentThread().getName())));
+            }
+            CompletableFuture.allOf(sets.toArray(new CompletableFuture[0])).get();
+            // nothing the caller chains runs on the writer
+            assertFalse(completedOn.contains("bitcask-group-commit"), completedOn.toString());
+
+            List<CompletableFuture<byte[]>> gets = new ArrayList<>(requests);
+            for (int i = 0; i < requests; i++) {
+                gets.add(store.get(bytes("key-" + i)));
+            }
+            for (int i = 0; i < requests; i++) {
+                assertArrayEquals(bytes("value-" + i), gets.get(i).get());
+            }
+
+            // a missing key completes at once, without the executor
+            CompletableFuture<byte[]> missing = store.get(bytes("missing"));
+            assertTrue(missing.isDone());
+            assertNull(missing.get());
+
+            store.delete(bytes("key-0")).get();
+            assertNull(store.get(bytes("key-0")).get());
+            WriteBatch batch = new WriteBatch();
+            batch.set("key-0", "batch");
+            batch.delete("key-1");
+            store.write(batch).get();
+            assertEquals("batch", ds.get("key-0"));
+            assertNull(store.get(bytes("key-1")).get());
+            assertEquals(requests + 4, ds.metrics().gets());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    // with SYNC_PER_WRITE the write itself runs on the executor
+    @Test
+    void test_SyncPerWrite() throws Exception {
+        ExecutorService pool = Executors.newSingleThreadExecutor(task -> new Thread(task, "async-test"));
+        Set<String> writtenOn = ConcurrentHashMap.newKeySet();
+        AsyncStore store;
+        try (DiskStore ds = new DiskStore(filename)) {
+            store = ds.async(pool);
+            CompletableFuture<Void> set = store.set(bytes("key"), bytes("value"))
+                    .thenRun(() -> writtenOn.add(Thread.currentThread().getName()));
+            set.get();
+            assertEquals(Set.of("async-test"), writtenOn);
+            assertArrayEquals(bytes("value"), store.get(bytes("key")).get());
+        }
+        // the store is closed, so is its AsyncStore
+        var e = assertThrows(ExecutionException.class, () -> store.set(bytes("key"), bytes("value")).get());
+        assertInstanceOf(ClosedChannelException.class, e.getCause());
+        pool.shutdownNow();
+    }
+
+    // the executor runs the appends only after the caller changed its batch and
+    // arrays, what was passed in is still what gets written
+    @Test
+    void test_ReuseAfterCall() throws Exception {
+        var options = Options.defaults().withDurability(Durability.osFlush());
+        List<Runnable> held = new ArrayList<>();
+        try (DiskStore ds = new DiskStore(filename, options)) {
+            AsyncStore store = ds.async(held::add);
+            WriteBatch batch = new WriteBatch().set("a", "1").set("b", "1");
+            CompletableFuture<Void> write = store.write(batch);
+            batch.clear();
+            batch.set("a", "reused").delete("b");
+
+            byte[] key = bytes("c");
+            byte[] value = bytes("1");
+            CompletableFuture<Void> set = store.set(key, value);
+            key[0] = 'x';
+            value[0] = '2';
+
+            assertFalse(write.isDone());
+            while (!held.isEmpty()) {
+                held.remove(0).run();
+            }
+            write.get();
+            set.get();
+            assertEquals("1", ds.get("a"));
+            assertEquals("1", ds.get("b"));
+            assertEquals("1", ds.get("c"));
+            assertEquals("", ds.get("x"));
+        }
+    }
+}
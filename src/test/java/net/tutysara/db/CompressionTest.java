@@ -0,0 +1,67 @@
+package net.tutysara.db;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.zip.Deflater;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CompressionTest {
+
+    private static byte[] json(int records) {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < records; i++) {
+            builder.append("{\"id\":").append(i).append(",\"name\":\"user-").append(i)
+                    .append("\",\"active\":true,\"tags\":[\"a\",\"b\"]}");
+        }
+        return builder.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Test
+    void test_RoundTrip() throws IOException {
+        byte[] value = json(50);
+        ByteBuffer buffer = ByteBuffer.wrap(value, 3, value.length - 3);
+        byte[] stored = Compression.compress(buffer, Deflater.BEST_SPEED);
+        assertTrue(stored.length < value.length / 4, "stored " + stored.length + " of " + value.length);
+        assertEquals(3, buffer.position());
+        assertEquals(value.length - 3, Compression.rawSize(ByteBuffer.wrap(stored)));
+
+        byte[] expected = new byte[value.length - 3];
+        System.arraycopy(value, 3, expected, 0, expected.length);
+        assertArrayEquals(expected, Compression.decompress(stored));
+
+        // into the middle of a larger buffer
+        ByteBuffer dst = ByteBuffer.allocate(expected.length + 10).position(5);
+        Compression.decompress(ByteBuffer.wrap(stored), dst);
+        assertEquals(5 + expected.length, dst.position());
+        byte[] out = new byte[expected.length];
+        dst.get(5, out);
+        assertArrayEquals(expected, out);
+    }
+
+    @Test
+    void test_IncompressibleStaysRaw() {
+        byte[] random = new byte[1000];
+        new Random(42).nextBytes(random);
+        assertNull(Compression.compress(ByteBuffer.wrap(random), Deflater.BEST_COMPRESSION));
+        assertNull(Compression.compress(ByteBuffer.wrap(new byte[4]), Deflater.BEST_SPEED));
+    }
+
+    @Test
+    void test_CorruptValue() {
+        byte[] stored = Compression.compress(ByteBuffer.wrap(json(10)), Deflater.BEST_SPEED);
+        byte[] truncated = new byte[stored.length / 2];
+        System.arraycopy(stored, 0, truncated, 0, truncated.length);
+        assertThrows(IOException.class, () -> Compression.decompress(truncated));
+        stored[Compression.SIZE_PREFIX] ^= 0x7f;
+        assertThrows(IOException.class, () -> Compression.decompress(stored));
+    }
+}
@@ -7,12 +7,38 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Stream;
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 class DiskStoreTest {
 
@@ -20,8 +46,15 @@ class DiskStoreTest {
     private static final Logger log = LoggerFactory.getLogger(DiskStoreTest.class);
 
     private void deleteFile() throws IOException {
-        Path file = Paths.get(DiskStoreTest.filename);
-        Files.deleteIfExists(file);
+        for (Path dir : List.of(Paths.get(filename), Paths.get(filename + ".adopt"))) {
+            if (Files.exists(dir)) {
+                try (Stream<Path> files = Files.walk(dir)) {
+                    for (Path path : files.sorted(Comparator.reverseOrder()).toList()) {
+                        Files.delete(path);
+                    }
+                }
+            }
+        }
     }
 
     @BeforeEach
@@ -134,4 +167,945 @@ class DiskStoreTest {
             });
         }
     }
-}
\ No newline at end of file
+
+    @Test
+    void test_ConcurrentSetGet() throws Exception {
+        // every writer owns its keys and writes increasing versions to them, readers
+        // check that a key never goes back to an older version once a newer one
+        // has been observed, and that writers always read their own writes
+        int writers = 4, readers = 4, keysPerWriter = 8, versions = 50;
+        AtomicBoolean done = new AtomicBoolean(false);
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService pool = Executors.newFixedThreadPool(writers + readers);
+
+        try (DiskStore ds = new DiskStore(filename)) {
+            List<Future<?>> writerFutures = new ArrayList<>();
+            List<Future<?>> readerFutures = new ArrayList<>();
+            for (int w = 0; w < writers; w++) {
+                int writer = w;
+                writerFutures.add(pool.submit(() -> {
+                    start.await();
+                    for (int v = 1; v <= versions; v++) {
+                        for (int k = 0; k < keysPerWriter; k++) {
+                            String key = "key-" + writer + "-" + k;
+                            ds.set(key, key + ":" + v);
+                            assertEquals(key + ":" + v, ds.get(key));
+                        }
+                    }
+                    return null;
+                }));
+            }
+            for (int r = 0; r < readers; r++) {
+                readerFutures.add(pool.submit(() -> {
+                    Map<String, Integer> lastSeen = new HashMap<>();
+                    start.await();
+                    var random = ThreadLocalRandom.current();
+                    while (!done.get()) {
+                        String key = "key-" + random.nextInt(writers) + "-" + random.nextInt(keysPerWriter);
+                        String value = ds.get(key);
+                        if (value.isEmpty()) {
+                            assertEquals(0, lastSeen.getOrDefault(key, 0), "key disappeared " + key);
+                            continue;
+                        }
+                        assertTrue(value.startsWith(key + ":"), "torn read " + value);
+                        int version = Integer.parseInt(value.substring(key.length() + 1));
+                        assertTrue(version >= lastSeen.getOrDefault(key, 0), "stale read for " + key);
+                        lastSeen.put(key, version);
+                    }
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<?> f : writerFutures) {
+                f.get();
+            }
+            done.set(true);
+            for (Future<?> f : readerFutures) {
+                f.get();
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+
+        try (DiskStore ds = new DiskStore(filename)) {
+            for (int w = 0; w < writers; w++) {
+                for (int k = 0; k < keysPerWriter; k++) {
+                    String key = "key-" + w + "-" + k;
+                    assertEquals(key + ":" + versions, ds.get(key));
+                }
+            }
+        }
+    }
+
+    @Test
+    void test_ConcurrentSetSameKey() throws Exception {
+        // writers race on a single key, whichever append wins must be the value
+        // seen in memory and the value recovered from the file
+        int writers = 8, writes = 50;
+        Set<String> written = ConcurrentHashMap.newKeySet();
+        ExecutorService pool = Executors.newFixedThreadPool(writers);
+        String lastValue;
+
+        try (DiskStore ds = new DiskStore(filename)) {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int w = 0; w < writers; w++) {
+                int writer = w;
+                futures.add(pool.submit(() -> {
+                    for (int i = 0; i < writes; i++) {
+                        String value = writer + ":" + i;
+                        ds.set("shared", value);
+                        written.add(value);
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> f : futures) {
+                f.get();
+            }
+            lastValue = ds.get("shared");
+            assertTrue(written.contains(lastValue));
+        } finally {
+            pool.shutdownNow();
+        }
+
+        try (DiskStore ds = new DiskStore(filename)) {
+            assertEquals(lastValue, ds.get("shared"));
+        }
+    }
+
+    @Test
+    void test_GroupCommit() throws Exception {
+        assertThrows(IllegalArgumentException.class, () -> Durability.groupCommit(0, Duration.ZERO));
+        assertThrows(IllegalArgumentException.class, () -> Durability.groupCommit(8, Duration.ofMillis(-1)));
+        var options = Options.defaults()
+                .withDurability(Durability.groupCommit(32, Duration.ofMillis(2)));
+        int threads = 8, writes = 100;
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+
+        try (DiskStore ds = new DiskStore(filename, options)) {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                int thread = t;
+                futures.add(pool.submit(() -> {
+                    List<CompletableFuture<Void>> pending = new ArrayList<>();
+                    for (int i = 0; i < writes; i++) {
+                        pending.add(ds.setAsync("key-" + thread + "-" + i, "value-" + i));
+                    }
+                    CompletableFuture.allOf(pending.toArray(new CompletableFuture[0])).get();
+                    // a completed future means the record is durable and visible
+                    for (int i = 0; i < writes; i++) {
+                        assertEquals("value-" + i, ds.get("key-" + thread + "-" + i));
+                    }
+                    ds.set("key-" + thread + "-0", "overwritten");
+                    assertEquals("overwritten", ds.get("key-" + thread + "-0"));
+                    return null;
+                }));
+            }
+            for (Future<?> f : futures) {
+                f.get();
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+
+        try (DiskStore ds = new DiskStore(filename, options)) {
+            for (int t = 0; t < threads; t++) {
+                assertEquals("overwritten", ds.get("key-" + t + "-0"));
+                for (int i = 1; i < writes; i++) {
+                    assertEquals("value-" + i, ds.get("key-" + t + "-" + i));
+                }
+            }
+        }
+    }
+
+    @Test
+    void test_OsFlush() throws Exception {
+        var options = Options.defaults().withDurability(Durability.osFlush());
+        try (DiskStore ds = new DiskStore(filename, options)) {
+            ds.set("hamlet", "shakespeare");
+            ds.set("dune", "frank herbert");
+        }
+        try (DiskStore ds = new DiskStore(filename)) {
+            assertEquals("shakespeare", ds.get("hamlet"));
+            assertEquals("frank herbert", ds.get("dune"));
+        }
+    }
+
+    @Test
+    void test_SetAsyncAfterClose() throws Exception {
+        var options = Options.defaults()
+                .withDurability(Durability.groupCommit(8, Duration.ZERO));
+        DiskStore ds = new DiskStore(filename, options);
+        ds.close();
+        var future = ds.setAsync("name", "jojo");
+        assertThrows(ExecutionException.class, future::get);
+    }
+
+    @Test
+    void test_OpenSingleFileStore() throws Exception {
+        // before segments the store was a single file at the path, App's test.db
+        // for instance
+        Files.write(Paths.get(filename), singleFileStore("name", "jojo", "other", "x", "name", "kiki"));
+        try (DiskStore ds = new DiskStore(filename)) {
+            assertTrue(Files.isDirectory(Paths.get(filename)));
+            assertFalse(Files.exists(Paths.get(filename + ".adopt")));
+            assertEquals("kiki", ds.get("name"));
+            assertEquals("x", ds.get("other"));
+            ds.set("name", "jojo");
+        }
+        try (DiskStore ds = new DiskStore(filename)) {
+            assertEquals("jojo", ds.get("name"));
+            assertEquals("x", ds.get("other"));
+        }
+
+        // a crash between the two renames leaves the file in the temporary directory
+        deleteFile();
+        Path adopt = Paths.get(filename + ".adopt");
+        Files.createDirectories(adopt);
+        Files.write(adopt.resolve(Segment.fileName(1)), singleFileStore("name", "jojo"));
+        try (DiskStore ds = new DiskStore(filename)) {
+            assertFalse(Files.exists(adopt));
+            assertEquals("jojo", ds.get("name"));
+        }
+    }
+
+    // singleFileStore returns the bytes the store wrote before segments for the
+    // given key, value pairs: 12 byte big endian headers, no checksums
+    private static byte[] singleFileStore(String... keyValues) {
+        ByteBuffer buffer = ByteBuffer.allocate(1024);
+        for (int k = 0; k < keyValues.length; k += 2) {
+            byte[] key = keyValues[k].getBytes(StandardCharsets.UTF_8);
+            byte[] value = keyValues[k + 1].getBytes(StandardCharsets.UTF_8);
+            buffer.putInt(1_700_000_000).putInt(key.length).putInt(value.length).put(key).put(value);
+        }
+        return Arrays.copyOf(buffer.array(), buffer.position());
+    }
+
+    @Test
+    void test_SegmentRollover() throws Exception {
+        var options = Options.defaults().withMaxSegmentSize(256);
+        int keys = 100;
+
+        try (DiskStore ds = new DiskStore(filename, options)) {
+            for (int i = 0; i < keys; i++) {
+                ds.set("key-" + i, "value-" + i);
+            }
+            for (int i = 0; i < keys; i += 2) {
+                ds.set("key-" + i, "updated-" + i);
+            }
+            for (int i = 0; i < keys; i++) {
+                assertEquals((i % 2 == 0 ? "updated-" : "value-") + i, ds.get("key-" + i));
+            }
+        }
+
+        List<Path> dataFiles;
+        try (Stream<Path> files = Files.list(Paths.get(filename))) {
+            dataFiles = files.filter(Segment::isSegmentFile).toList();
+        }
+        assertTrue(dataFiles.size() > 1, "expected more than one data file");
+        for (Path dataFile : dataFiles) {
+            assertTrue(Files.size(dataFile) <= 256, "segment larger than the limit " + dataFile);
+        }
+
+        // reopen with a bigger limit, records from every sealed segment are found
+        try (DiskStore ds = new DiskStore(filename)) {
+            for (int i = 0; i < keys; i++) {
+                assertEquals((i % 2 == 0 ? "updated-" : "value-") + i, ds.get("key-" + i));
+            }
+        }
+    }
+
+    @Test
+    void test_RecordLargerThanSegment() throws Exception {
+        var options = Options.defaults().withMaxSegmentSize(64);
+        String large = "x".repeat(1000);
+        try (DiskStore ds = new DiskStore(filename, options)) {
+            ds.set("small", "value");
+            ds.set("large", large);
+            ds.set("after", "value");
+            assertEquals(large, ds.get("large"));
+        }
+        try (DiskStore ds = new DiskStore(filename, options)) {
+            assertEquals("value", ds.get("small"));
+            assertEquals(large, ds.get("large"));
+            assertEquals("value", ds.get("after"));
+        }
+    }
+
+    @Test
+    void test_OffHeapKeyDir() throws Exception {
+        var options = Options.defaults()
+                .withKeyDirType(KeyDirType.OFF_HEAP)
+                .withMaxSegmentSize(512);
+        try (DiskStore ds = new DiskStore(filename, options)) {
+            for (int i = 0; i < 200; i++) {
+                ds.set("key-" + (i % 50), "value-" + i);
+            }
+            ds.merge();
+            for (int i = 150; i < 200; i++) {
+                assertEquals("value-" + i, ds.get("key-" + (i % 50)));
+            }
+        }
+        try (DiskStore ds = new DiskStore(filename, options)) {
+            for (int i = 150; i < 200; i++) {
+                assertEquals("value-" + i, ds.get("key-" + (i % 50)));
+            }
+            assertEquals("", ds.get("missing"));
+        }
+    }
+
+    @Test
+    void test_ByteStore() throws Exception {
+        byte[] key = {0, 1, 2, (byte) 0xff};
+        byte[] value = new byte[1000];
+        ThreadLocalRandom.current().nextBytes(value);
+        try (DiskStore ds = new DiskStore(filename)) {
+            assertNull(ds.get(key));
+            ds.set(key, value);
+            assertArrayEquals(value, ds.get(key));
+
+            // the ByteBuffer variants only use the remaining bytes
+            ByteBuffer keyBuffer = ByteBuffer.allocate(16).put(3, key).position(3).limit(3 + key.length);
+            ByteBuffer valueBuffer = ByteBuffer.wrap(value, 10, 500);
+            ds.set(keyBuffer, valueBuffer);
+            assertEquals(3, keyBuffer.position());
+            assertEquals(10, valueBuffer.position());
+            assertArrayEquals(Arrays.copyOfRange(value, 10, 510), ds.get(key));
+            ds.set("text".getBytes(StandardCharsets.UTF_8), "🔑".getBytes(StandardCharsets.UTF_8));
+            assertEquals("🔑", ds.get("text"));
+        }
+        try (DiskStore ds = new DiskStore(filename)) {
+            ByteBuffer small = ByteBuffer.allocate(100);
+            assertEquals(500, ds.get(ByteBuffer.wrap(key), small));
+            assertEquals(0, small.position());
+
+            ByteBuffer dst = ByteBuffer.allocate(600).position(50);
+            assertEquals(500, ds.get(ByteBuffer.wrap(key), dst));
+            assertEquals(550, dst.position());
+            assertEquals(ByteBuffer.wrap(value, 10, 500), dst.flip().position(50));
+            assertEquals(-1, ds.get(ByteBuffer.wrap(new byte[]{42}), dst));
+        }
+    }
+
+    @Test
+    void test_MmapReads() throws Exception {
+        var options = Options.defaults()
+                .withReadMode(ReadMode.MMAP)
+                .withMaxSegmentSize(512);
+        try (DiskStore ds = new DiskStore(filename, options)) {
+            for (int i = 0; i < 200; i++) {
+                ds.set("key-" + (i % 50), "value-" + i);
+            }
+            for (int i = 150; i < 200; i++) {
+                assertEquals("value-" + i, ds.get("key-" + (i % 50)));
+            }
+            ds.merge();
+            for (int i = 150; i < 200; i++) {
+                assertEquals("value-" + i, ds.get("key-" + (i % 50)));
+            }
+        }
+        try (DiskStore ds = new DiskStore(filename, options)) {
+            for (int i = 150; i < 200; i++) {
+                assertEquals("value-" + i, ds.get("key-" + (i % 50)));
+            }
+            ds.set("key-0", "latest");
+            assertEquals("latest", ds.get("key-0"));
+        }
+    }
+
+    @Test
+    void test_DeleteWithTombstone() throws Exception {
+        var options = Options.defaults().withMaxSegmentSize(256);
+        try (DiskStore ds = new DiskStore(filename, options)) {
+            for (int i = 0; i < 50; i++) {
+                ds.set("key-" + i, "value-" + i);
+            }
+            for (int i = 0; i < 50; i += 2) {
+                ds.delete("key-" + i);
+            }
+            ds.delete("never-set");
+            assertEquals("", ds.get("key-0"));
+            assertEquals("value-1", ds.get("key-1"));
+            assertNull(ds.get("key-2".getBytes(StandardCharsets.UTF_8)));
+
+            // a key can come back after it was deleted
+            ds.set("key-4", "again");
+            assertEquals("again", ds.get("key-4"));
+        }
+        for (KeyDirType type : KeyDirType.values()) {
+            try (DiskStore ds = new DiskStore(filename, options.withKeyDirType(type))) {
+                assertEquals(26, ds.recoveryStats().keys(), type.name());
+                for (int i = 0; i < 50; i++) {
+                    String expected = i == 4 ? "again" : i % 2 == 0 ? "" : "value-" + i;
+                    assertEquals(expected, ds.get("key-" + i), type.name());
+                }
+            }
+        }
+    }
+
+    @Test
+    void test_WriteBatch() throws Exception {
+        var options = Options.defaults().withMaxSegmentSize(512);
+        try (DiskStore ds = new DiskStore(filename, options)) {
+            ds.set("key-0", "old");
+            ds.set("key-1", "old");
+            for (int round = 0; round < 20; round++) {
+                var batch = new WriteBatch();
+                for (int i = 0; i < 10; i++) {
+                    batch.set("key-" + i, "value-" + i + "-" + round);
+                }
+                batch.delete("key-1");
+                ds.write(batch);
+            }
+            ds.write(new WriteBatch());
+            assertEquals("value-0-19", ds.get("key-0"));
+            assertEquals("", ds.get("key-1"));
+            assertEquals("value-9-19", ds.get("key-9"));
+        }
+        // sealed segments are loaded from their hints, the tail is scanned
+        for (KeyDirType type : KeyDirType.values()) {
+            try (DiskStore ds = new DiskStore(filename, options.withKeyDirType(type))) {
+                assertEquals(9, ds.recoveryStats().keys(), type.name());
+                assertEquals("value-0-19", ds.get("key-0"));
+                assertEquals("", ds.get("key-1"));
+                assertEquals("value-9-19", ds.get("key-9"));
+            }
+        }
+    }
+
+    @Test
+    void test_WriteBatchVisibleAtOnce() throws Exception {
+        var options = Options.defaults().withDurability(Durability.osFlush());
+        int keys = 50, rounds = 2000;
+        try (DiskStore ds = new DiskStore(filename, options)) {
+            AtomicBoolean done = new AtomicBoolean();
+            ExecutorService writer = Executors.newSingleThreadExecutor();
+            Future<?> writes = writer.submit(() -> {
+                for (int round = 1; round <= rounds; round++) {
+                    var batch = new WriteBatch();
+                    for (int k = 0; k < keys; k++) {
+                        batch.set("key-" + k, String.valueOf(round));
+                    }
+                    ds.write(batch);
+                }
+                done.set(true);
+                return null;
+            });
+            // the batch publishes key-0 first, once it is seen the last key must
+            // be from the same round or a later one
+            while (!done.get()) {
+                String first = ds.get("key-0");
+                String last = ds.get("key-" + (keys - 1));
+                int firstRound = first.isEmpty() ? 0 : Integer.parseInt(first);
+                int lastRound = last.isEmpty() ? 0 : Integer.parseInt(last);
+                assertTrue(lastRound >= firstRound, "key-0 from round " + firstRound + ", last key from " + lastRound);
+            }
+            writes.get();
+            writer.shutdown();
+        }
+    }
+
+    @Test
+    void test_ValueCache() throws Exception {
+        var options = Options.defaults()
+                .withMaxSegmentSize(1024)
+                .withValueCacheSize(64 * 1024)
+                .withMergeInterval(Duration.ZERO);
+        try (DiskStore ds = new DiskStore(filename, options)) {
+            for (int i = 0; i < 20; i++) {
+                ds.set("key-" + i, "value-" + i);
+            }
+            for (int round = 0; round < 3; round++) {
+                for (int i = 0; i < 20; i++) {
+                    assertEquals("value-" + i, ds.get("key-" + i));
+                }
+            }
+            var stats = ds.cacheStats();
+            assertEquals(20, stats.misses());
+            assertEquals(40, stats.hits());
+            assertEquals(20, stats.entries());
+
+            // overwrites and merges move the key, the cached value is never served
+            ds.set("key-0", "new");
+            assertEquals("new", ds.get("key-0"));
+            assertEquals(20, ds.cacheStats().entries());
+            ds.merge();
+            ByteBuffer dst = ByteBuffer.allocate(16);
+            assertEquals(3, ds.get(ByteBuffer.wrap("key-0".getBytes(StandardCharsets.UTF_8)), dst));
+            assertEquals("new", new String(dst.array(), 0, 3, StandardCharsets.UTF_8));
+            for (int i = 1; i < 20; i++) {
+                assertEquals("value-" + i, ds.get("key-" + i));
+            }
+            // values handed out are copies
+            ds.get("key-1".getBytes(StandardCharsets.UTF_8))[0] = 'X';
+            assertEquals("value-1", ds.get("key-1"));
+        }
+        try (DiskStore ds = new DiskStore(filename)) {
+            assertEquals(0, ds.cacheStats().hits());
+            assertEquals("value-1", ds.get("key-1"));
+        }
+    }
+
+    @Test
+    void test_ScanAndPrefix() throws Exception {
+        var options = Options.defaults()
+                .withKeyDirType(KeyDirType.SORTED)
+                .withMaxSegmentSize(2048)
+                .withMergeInterval(Duration.ZERO);
+        int keys = 1000;
+        try (DiskStore ds = new DiskStore(filename, options)) {
+            // written in an order unrelated to key order, and spread over many segments
+            for (int i = 0; i < keys; i++) {
+                int k = (i * 7919) % keys;
+                ds.set(String.format("user:%04d", k), "v" + k);
+            }
+            ds.set("other", "x");
+            for (int k = 0; k < keys; k += 3) {
+                ds.set(String.format("user:%04d", k), "w" + k);
+            }
+            ds.delete("user:0005");
+            assertScan(ds.prefix("user:".getBytes(StandardCharsets.UTF_8)), 0, keys);
+            assertScan(ds.scan("user:0100".getBytes(StandardCharsets.UTF_8),
+                    "user:0600".getBytes(StandardCharsets.UTF_8)), 100, 600);
+            assertFalse(ds.prefix("nobody".getBytes(StandardCharsets.UTF_8)).hasNext());
+
+            // segments merged away behind an open iterator are read again by key
+            var iterator = ds.prefix("user:".getBytes(StandardCharsets.UTF_8));
+            assertTrue(iterator.hasNext());
+            ds.merge();
+            int count = 0;
+            while (iterator.hasNext()) {
+                var kv = iterator.next();
+                int k = Integer.parseInt(new String(kv.key(), StandardCharsets.UTF_8).substring(5));
+                assertEquals((k % 3 == 0 ? "w" : "v") + k, new String(kv.value(), StandardCharsets.UTF_8));
+                count++;
+            }
+            assertEquals(keys - 1, count);
+        }
+        try (DiskStore ds = new DiskStore(filename, options)) {
+            assertScan(ds.prefix("user:".getBytes(StandardCharsets.UTF_8)), 0, keys);
+        }
+        try (DiskStore ds = new DiskStore(filename)) {
+            assertThrows(UnsupportedOperationException.class, () -> ds.prefix(new byte[0]));
+        }
+    }
+
+    @Test
+    void test_Snapshot() throws Exception {
+        var options = Options.defaults()
+                .withMaxSegmentSize(512)
+                .withMergeInterval(Duration.ZERO);
+        int keys = 100;
+        try (DiskStore ds = new DiskStore(filename, options)) {
+            ds.set("stable", "s");
+            for (int k = 0; k < keys; k++) {
+                ds.set("key-" + k, "v1-" + k);
+            }
+            ds.delete("key-7");
+            WriteBatch batch = new WriteBatch().set("batch-a", "1").set("batch-b", "1");
+            ds.write(batch);
+            Snapshot snapshot = ds.snapshot();
+            batch.clear();
+            ds.write(batch.set("batch-a", "2").set("batch-b", "2"));
+
+            // nothing written after the snapshot is visible through it
+            for (int k = 0; k < keys; k++) {
+                ds.set("key-" + k, "v2-" + k);
+            }
+            ds.delete("key-8");
+            ds.set("new", "x");
+            assertEquals("v1-8", snapshot.get("key-8"));
+            assertEquals("", snapshot.get("key-7"));
+            assertEquals("", snapshot.get("new"));
+            assertEquals("1", snapshot.get("batch-a"));
+            assertEquals("1", snapshot.get("batch-b"));
+            assertEquals(keys + 2, snapshot.size());
+
+            // a merge does not delete the segments the snapshot uses, and moving a
+            // record does not change what the snapshot sees
+            List<Path> before = segmentFiles();
+            assertTrue(ds.merge() > 0);
+            assertTrue(before.stream().allMatch(Files::exists));
+            assertEquals("v1-8", snapshot.get("key-8"));
+            assertEquals("1", snapshot.get("batch-a"));
+            assertEquals("s", snapshot.get("stable"));
+            Map<String, String> seen = new HashMap<>();
+            for (KeyValue kv : snapshot) {
+                assertNull(seen.put(new String(kv.key(), StandardCharsets.UTF_8),
+                        new String(kv.value(), StandardCharsets.UTF_8)));
+            }
+            assertEquals(keys + 2, seen.size());
+            assertEquals("1", seen.get("batch-b"));
+            assertEquals("s", seen.get("stable"));
+            for (int k = 0; k < keys; k++) {
+                assertEquals(k == 7 ? null : "v1-" + k, seen.get("key-" + k));
+            }
+
+            // closing it deletes them
+            snapshot.close();
+            assertFalse(before.stream().allMatch(Files::exists));
+            assertEquals("v2-9", ds.get("key-9"));
+            assertThrows(IllegalStateException.class, () -> snapshot.get("key-9"));
+        }
+    }
+
+    @Test
+    void test_SnapshotWhileWriting() throws Exception {
+        var options = Options.defaults()
+                .withDurability(Durability.osFlush())
+                .withMaxSegmentSize(4096)
+                .withMergeInterval(Duration.ofMillis(10))
+                .withMergeTriggerRatio(0.1);
+        int keys = 200;
+        try (DiskStore ds = new DiskStore(filename, options)) {
+            for (int k = 0; k < keys; k++) {
+                ds.set("key-" + k, "0");
+            }
+            // every round writes all keys, a snapshot has to see every key with the
+            // same round, or a key of the next round only after all of the keys
+            // before it
+            AtomicBoolean done = new AtomicBoolean();
+            ExecutorService writer = Executors.newSingleThreadExecutor();
+            Future<?> writes = writer.submit(() -> {
+                for (int round = 1; !done.get(); round++) {
+                    for (int k = 0; k < keys; k++) {
+                        ds.set("key-" + k, Integer.toString(round));
+                    }
+                }
+                return null;
+            });
+            for (int i = 0; i < 20; i++) {
+                try (Snapshot snapshot = ds.snapshot()) {
+                    int[] rounds = new int[keys];
+                    int count = 0;
+                    for (KeyValue kv : snapshot) {
+                        int k = Integer.parseInt(new String(kv.key(), StandardCharsets.UTF_8).substring(4));
+                        rounds[k] = Integer.parseInt(new String(kv.value(), StandardCharsets.UTF_8));
+                        count++;
+                    }
+                    assertEquals(keys, count);
+                    for (int k = 1; k < keys; k++) {
+                        assertTrue(rounds[k] == rounds[k - 1] || rounds[k] == rounds[k - 1] - 1,
+                                "key-" + k + " is from round " + rounds[k] + ", key-" + (k - 1) + " from " + rounds[k - 1]);
+                    }
+                }
+            }
+            done.set(true);
+            writes.get();
+            writer.shutdown();
+        }
+    }
+
+    @Test
+    void test_Compression() throws Exception {
+        var options = Options.defaults()
+                .withMaxSegmentSize(8 * 1024)
+                .withMergeInterval(Duration.ZERO)
+                .withCompressionThreshold(128);
+        int keys = 200;
+        Map<String, String> expected = new HashMap<>();
+        for (int k = 0; k < keys; k++) {
+            expected.put("key-" + k, k % 4 == 0 ? "small-" + k : "{\"id\":" + k + ",\"name\":\"user\"}".repeat(20));
+        }
+        for (KeyDirType type : List.of(KeyDirType.HASH_MAP, KeyDirType.OFF_HEAP)) {
+            deleteFile();
+            var typed = options.withKeyDirType(type);
+            long raw = 0;
+            try (DiskStore ds = new DiskStore(filename, typed)) {
+                for (int k = 0; k < keys; k++) {
+                    ds.set("key-" + k, expected.get("key-" + k));
+                    raw += expected.get("key-" + k).length();
+                }
+                assertTrue(segmentFiles().stream().mapToLong(DiskStoreTest::size).sum() < raw / 4);
+                assertStore(ds, expected);
+
+                // get into a buffer gets the raw size, too small a buffer gets nothing
+                byte[] key = "key-1".getBytes(StandardCharsets.UTF_8);
+                ByteBuffer small = ByteBuffer.allocate(10);
+                assertEquals(expected.get("key-1").length(), ds.get(ByteBuffer.wrap(key), small));
+                assertEquals(0, small.position());
+            }
+            // again from the hint files and the scan of the tail
+            try (DiskStore ds = new DiskStore(filename, typed)) {
+                assertStore(ds, expected);
+            }
+        }
+
+        // values written raw, before compression was on or in a batch, are compressed
+        // by the merge
+        deleteFile();
+        try (DiskStore ds = new DiskStore(filename, options.withCompressionThreshold(0))) {
+            for (int k = 0; k < keys; k++) {
+                ds.set("key-" + k, expected.get("key-" + k));
+            }
+        }
+        try (DiskStore ds = new DiskStore(filename, options)) {
+            // overwrites leave dead bytes in every sealed segment, so all of them are merged
+            WriteBatch batch = new WriteBatch();
+            for (int k = 1; k < keys; k += 5) {
+                batch.set("key-" + k, expected.get("key-" + k));
+            }
+            ds.write(batch);
+            long before = segmentFiles().stream().mapToLong(DiskStoreTest::size).sum();
+            assertTrue(ds.merge() > 0);
+            long after = segmentFiles().stream().mapToLong(DiskStoreTest::size).sum();
+            assertTrue(after < before / 2, "before=" + before + " after=" + after);
+            assertStore(ds, expected);
+            try (Snapshot snapshot = ds.snapshot()) {
+                int count = 0;
+                for (KeyValue kv : snapshot) {
+                    assertEquals(expected.get(new String(kv.key(), StandardCharsets.UTF_8)),
+                            new String(kv.value(), StandardCharsets.UTF_8));
+                    count++;
+                }
+                assertEquals(keys, count);
+            }
+        }
+    }
+
+    @Test
+    void test_Metrics() throws Exception {
+        var options = Options.defaults()
+                .withMaxSegmentSize(4 * 1024)
+                .withMergeInterval(Duration.ZERO)
+                .withJmx(true)
+                .withLatencySampling(1);
+        int keys = 100;
+        try (DiskStore ds = new DiskStore(filename, options)) {
+            for (int k = 0; k < keys; k++) {
+                ds.set("key-" + k, "value-" + k);
+            }
+            for (int k = 0; k < keys; k += 2) {
+                ds.set("key-" + k, "again-" + k);
+            }
+            for (int k = 0; k < 10; k++) {
+                ds.delete("key-" + k);
+            }
+            // brings key-1 back
+            WriteBatch batch = new WriteBatch();
+            batch.set("key-1", "batch");
+            batch.delete("key-3");
+            ds.write(batch);
+            for (int k = 0; k < keys; k++) {
+                ds.get("key-" + k);
+            }
+            ds.get("missing");
+
+            StoreMetrics metrics = ds.metrics();
+            assertEquals(keys + keys / 2, metrics.sets());
+            assertEquals(10, metrics.deletes());
+            assertEquals(1, metrics.batches());
+            assertEquals(keys + 1, metrics.gets());
+            assertEquals(keys + 1, metrics.getLatency().count());
+            assertEquals(keys + keys / 2, metrics.setLatency().count());
+            assertTrue(metrics.getLatency().p50() <= metrics.getLatency().p99());
+            assertTrue(metrics.getLatency().p99() <= metrics.getLatency().max());
+            // every set and delete is synced on its own
+            assertEquals(keys + keys / 2 + 10 + 1, metrics.syncLatency().count());
+            assertTrue(metrics.syncs() >= metrics.syncLatency().count());
+            assertEquals(segmentFiles().stream().mapToLong(DiskStoreTest::size).sum()
+                    - Segment.FILE_HEADER_SIZE * metrics.segments().size(), metrics.bytesWritten());
+            assertTrue(metrics.bytesRead() > 0);
+            assertMetrics(metrics, keys - 9);
+
+            ds.merge();
+            assertMetrics(ds.metrics(), keys - 9);
+
+            var server = java.lang.management.ManagementFactory.getPlatformMBeanServer();
+            var name = DiskStoreJmx.name(Paths.get(filename));
+            assertEquals(keys - 9, server.getAttribute(name, "Keys"));
+            assertEquals(keys + keys / 2, (long) server.getAttribute(name, "Sets"));
+            assertTrue((long) server.getAttribute(name, "GetLatencyP99") > 0);
+        }
+        // unregistered on close
+        var server = java.lang.management.ManagementFactory.getPlatformMBeanServer();
+        assertFalse(server.isRegistered(DiskStoreJmx.name(Paths.get(filename))));
+
+        try (DiskStore ds = new DiskStore(filename, options.withJmx(false))) {
+            StoreMetrics metrics = ds.metrics();
+            assertEquals(0, metrics.gets());
+            assertEquals(0, metrics.bytesWritten());
+            assertEquals(keys - 9, metrics.recovery().keys());
+            assertMetrics(metrics, keys - 9);
+        }
+    }
+
+    @Test
+    void test_Ttl() throws Exception {
+        var options = Options.defaults()
+                .withMaxSegmentSize(1024)
+                .withMergeInterval(Duration.ZERO);
+        try (DiskStore ds = new DiskStore(filename, options)) {
+            assertThrows(IllegalArgumentException.class, () -> ds.set("key", "value", Duration.ZERO));
+            assertThrows(IllegalArgumentException.class, () -> ds.set("key", "value", Duration.ofSeconds(-1)));
+            assertThrows(IllegalArgumentException.class, () -> new WriteBatch().set(
+                    "key".getBytes(StandardCharsets.UTF_8), "value".getBytes(StandardCharsets.UTF_8), Duration.ZERO));
+            assertEquals("", ds.get("key"));
+        }
+        for (KeyDirType type : List.of(KeyDirType.HASH_MAP, KeyDirType.OFF_HEAP)) {
+            deleteFile();
+            var typed = options.withKeyDirType(type);
+            try (DiskStore ds = new DiskStore(filename, typed)) {
+                ds.set("old", "value");
+                ds.set("old", "short", Duration.ofSeconds(1));
+                ds.set("short", "value", Duration.ofSeconds(1));
+                ds.set("long", "value", Duration.ofHours(1));
+                ds.set("cleared", "short", Duration.ofSeconds(1));
+                ds.set("cleared", "forever");
+                ds.write(new WriteBatch().set("batch".getBytes(StandardCharsets.UTF_8),
+                        "value".getBytes(StandardCharsets.UTF_8), Duration.ofSeconds(1)));
+                // enough to seal the segments the records above are in
+                for (int k = 0; k < 50; k++) {
+                    ds.set("key-" + k, "value-" + k);
+                }
+                assertEquals("short", ds.get("old"));
+                assertEquals("value", ds.get("short"));
+
+                awaitExpiry(ds, 3);
+                for (String key : List.of("old", "short", "batch")) {
+                    assertEquals("", ds.get(key), key);
+                    assertFalse(ds.containsKey(key.getBytes(StandardCharsets.UTF_8)), key);
+                }
+                assertEquals("value", ds.get("long"));
+                assertEquals("forever", ds.get("cleared"));
+                assertEquals(3, ds.metrics().expired());
+
+                // the expired records go, without bringing the older value of old back
+                assertTrue(ds.merge() > 0);
+                assertEquals("", ds.get("old"));
+            }
+            try (DiskStore ds = new DiskStore(filename, typed)) {
+                for (String key : List.of("old", "short", "batch")) {
+                    assertEquals("", ds.get(key), key);
+                }
+                assertEquals("value", ds.get("long"));
+                assertEquals("forever", ds.get("cleared"));
+                assertEquals("value-49", ds.get("key-49"));
+            }
+        }
+    }
+
+    @Test
+    void test_TtlRecovery() throws Exception {
+        var options = Options.defaults().withMergeInterval(Duration.ZERO);
+        try (DiskStore ds = new DiskStore(filename, options)) {
+            ds.set("old", "value");
+            ds.set("old", "short", Duration.ofSeconds(1));
+            ds.set("long", "value", Duration.ofHours(1));
+        }
+        Thread.sleep(2100);
+        // the records are in the tail, recovery scans them
+        try (DiskStore ds = new DiskStore(filename, options)) {
+            assertEquals("", ds.get("old"));
+            assertEquals("value", ds.get("long"));
+            assertEquals(1, ds.metrics().keys());
+            // the ttl goes on counting after the restart
+            ds.set("again", "value", Duration.ofSeconds(1));
+        }
+        try (DiskStore ds = new DiskStore(filename, options)) {
+            assertEquals("value", ds.get("again"));
+            awaitExpiry(ds, 1);
+            assertEquals("", ds.get("again"));
+            assertEquals(1, ds.metrics().keys());
+        }
+    }
+
+    // a merge that runs the moment the keys expire removes most of them before
+    // the sweeper does, they are counted all the same
+    @Test
+    void test_TtlMerge() throws Exception {
+        var options = Options.defaults()
+                .withMaxSegmentSize(1024)
+                .withMergeTriggerRatio(0.01)
+                .withMergeInterval(Duration.ZERO);
+        int keys = 20;
+        try (DiskStore ds = new DiskStore(filename, options)) {
+            // pad leaves dead records next to the expiring ones, so their segments
+            // are merged
+            for (int k = 0; k < keys; k++) {
+                ds.set("short-" + k, "value-" + k, Duration.ofSeconds(1));
+                ds.set("pad", "value-" + k);
+            }
+            long expiresAt = DiskStore.expiresAt(Duration.ofSeconds(1));
+            for (int k = 0; k < 50; k++) {
+                ds.set("key-" + k, "value-" + k);
+            }
+            Thread.sleep(Math.max(0, expiresAt * 1000 + 20 - System.currentTimeMillis()));
+            assertTrue(ds.merge() > 0);
+
+            awaitExpiry(ds, keys);
+            assertEquals(keys, ds.metrics().expired());
+            assertEquals(51, ds.metrics().keys());
+        }
+    }
+
+    // awaitExpiry waits for the sweeper to remove that many keys
+    private static void awaitExpiry(DiskStore ds, long expired) throws Exception {
+        long deadline = System.nanoTime() + Duration.ofSeconds(10).toNanos();
+        while (ds.metrics().expired() < expired && System.nanoTime() < deadline) {
+            Thread.sleep(50);
+        }
+    }
+
+    @Test
+    void test_LatencySamplingOff() throws Exception {
+        assertThrows(IllegalArgumentException.class, () -> Options.defaults().withLatencySampling(-1));
+        try (DiskStore ds = new DiskStore(filename, Options.defaults().withLatencySampling(0))) {
+            ds.set("key", "value");
+            assertEquals("value", ds.get("key"));
+            StoreMetrics metrics = ds.metrics();
+            assertEquals(1, metrics.sets());
+            assertEquals(1, metrics.gets());
+            assertEquals(0, metrics.getLatency().count());
+            assertEquals(0, metrics.setLatency().count());
+        }
+    }
+
+    // assertMetrics checks that the segments hold every key once and account for
+    // every byte
+    private static void assertMetrics(StoreMetrics metrics, int keys) throws IOException {
+        assertEquals(keys, metrics.keys());
+        assertEquals(keys, metrics.segments().stream().mapToInt(SegmentStats::keys).sum());
+        assertEquals(1, metrics.segments().stream().filter(SegmentStats::active).count());
+        assertEquals(segmentFiles().stream().mapToLong(DiskStoreTest::size).sum(),
+                metrics.liveBytes() + metrics.deadBytes());
+        for (SegmentStats segment : metrics.segments()) {
+            assertTrue(segment.keys() >= 0 && segment.deadBytes() >= 0, segment.toString());
+        }
+    }
+
+    private static void assertStore(DiskStore ds, Map<String, String> expected) throws IOException {
+        for (var entry : expected.entrySet()) {
+            assertEquals(entry.getValue(), ds.get(entry.getKey()));
+        }
+    }
+
+    private static long size(Path path) {
+        try {
+            return Files.size(path);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static List<Path> segmentFiles() throws IOException {
+        try (Stream<Path> files = Files.list(Paths.get(filename))) {
+            return files.filter(Segment::isSegmentFile).toList();
+        }
+    }
+
+    // assertScan checks that the iterator returns user:from .. user:to-1 in order,
+    // without the deleted user:0005
+    private static void assertScan(Iterator<KeyValue> iterator, int from, int to) {
+        for (int k = from; k < to; k++) {
+            if (k == 5) {
+                continue;
+            }
+            assertTrue(iterator.hasNext());
+            var kv = iterator.next();
+            assertEquals(String.format("user:%04d", k), new String(kv.key(), StandardCharsets.UTF_8));
+            assertEquals((k % 3 == 0 ? "w" : "v") + k, new String(kv.value(), StandardCharsets.UTF_8));
+        }
+        assertFalse(iterator.hasNext());
+    }
+}
@@ -0,0 +1,42 @@
+package net.tutysara.db;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ExpirySweeperTest {
+
+    // the thread starts with the first expiring key, and a key the wheel holds at
+    // a stale time is put back at the one the keyDir has
+    @Test
+    void test_Sweep() throws Exception {
+        KeyDir keyDir = new HashMapKeyDir();
+        List<Format.KeyEntry> dropped = new ArrayList<>();
+        try (ExpirySweeper sweeper = new ExpirySweeper(keyDir, dropped::add)) {
+            assertFalse(sweeper.started());
+
+            byte[] key = "key".getBytes(StandardCharsets.UTF_8);
+            long now = System.currentTimeMillis() / 1000;
+            var later = new Format.KeyEntry(0, now + 20, 0, 10, false, true);
+            var sooner = new Format.KeyEntry(0, now + 10, 0, 10, false, true);
+            // two writers added the key in the other order than the keyDir has it
+            keyDir.put(key, later);
+            sweeper.add(key, later);
+            sweeper.add(key, sooner);
+            assertTrue(sweeper.started());
+            assertEquals(1, sweeper.pending());
+
+            assertEquals(0, sweeper.sweep((now + 10) * 1000));
+            assertEquals(1, sweeper.pending());
+            assertEquals(1, sweeper.sweep((now + 20) * 1000));
+            assertEquals(List.of(later), dropped);
+            assertEquals(0, sweeper.pending());
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package net.tutysara.db;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class ExpiryWheelTest {
+
+    @Test
+    void test_FiresInOrder() {
+        long start = 1_000_000;
+        ExpiryWheel wheel = new ExpiryWheel(start);
+        // one key per level and a few around the level boundaries
+        long[] delays = {1, 2, 63, 64, 65, 100, 4095, 4096, 4097, 300_000, 20_000_000};
+        for (long delay : delays) {
+            wheel.add(key(delay), start + delay);
+        }
+        assertEquals(delays.length, wheel.size());
+        for (long delay : delays) {
+            // nothing comes out a second early
+            assertEquals(List.of(), wheel.advance(start + delay - 1));
+            List<ExpiryWheel.Entry> fired = wheel.advance(start + delay);
+            assertEquals(1, fired.size(), "delay " + delay);
+            assertEquals(start + delay, fired.get(0).expiresAt());
+            assertEquals("key-" + delay, new String(fired.get(0).key(), StandardCharsets.UTF_8));
+        }
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    void test_AlreadyDue() {
+        ExpiryWheel wheel = new ExpiryWheel(100);
+        wheel.add(key(1), 50);
+        wheel.add(key(2), 100);
+        wheel.add(key(3), 101);
+        assertEquals(2, wheel.advance(100).size());
+        assertEquals(1, wheel.size());
+        // a jump over many seconds returns everything in between at once
+        wheel.add(key(4), 5000);
+        wheel.add(key(5), 6000);
+        assertEquals(3, wheel.advance(6000).size());
+        assertEquals(0, wheel.size());
+    }
+
+    // a key added again leaves its old slot, wherever the wheel moved it since
+    @Test
+    void test_OneEntryPerKey() {
+        ExpiryWheel wheel = new ExpiryWheel(0);
+        wheel.add(key(1), 10);
+        wheel.add(key(1), 5000);
+        wheel.add(key(1), 5000);
+        assertEquals(1, wheel.size());
+        assertEquals(List.of(), wheel.advance(4096));
+        // cascaded into level 0 by now
+        wheel.add(key(1), 20_000);
+        assertEquals(1, wheel.size());
+        assertEquals(List.of(), wheel.advance(19_999));
+        List<ExpiryWheel.Entry> fired = wheel.advance(20_000);
+        assertEquals(1, fired.size());
+        assertEquals(20_000, fired.get(0).expiresAt());
+        assertEquals(0, wheel.size());
+    }
+
+    private static byte[] key(long delay) {
+        return ("key-" + delay).getBytes(StandardCharsets.UTF_8);
+    }
+}
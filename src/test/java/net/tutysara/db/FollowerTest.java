@@ -0,0 +1,234 @@
+package net.tutysara.db;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FollowerTest {
+
+    private static final String primaryDir = "primary.db";
+    private static final String followerDir = "follower.db";
+
+    private static final Options primaryOptions = Options.defaults()
+            .withDurability(Durability.osFlush())
+            .withMaxSegmentSize(4096)
+            .withMergeInterval(Duration.ZERO)
+            .withKeepTombstones(true);
+    private static final Options followerOptions = Options.defaults()
+            .withDurability(Durability.osFlush());
+
+    private static void deleteDirs() throws IOException {
+        for (String name : new String[]{primaryDir, followerDir}) {
+            Path dir = Paths.get(name);
+            if (Files.exists(dir)) {
+                try (Stream<Path> files = Files.walk(dir)) {
+                    for (Path path : files.sorted(Comparator.reverseOrder()).toList()) {
+                        Files.delete(path);
+                    }
+                }
+            }
+        }
+    }
+
+    @BeforeEach
+    void setUp() throws IOException {
+        deleteDirs();
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        deleteDirs();
+    }
+
+    @Test
+    void test_Replicate() throws Exception {
+        try (DiskStore primary = new DiskStore(primaryDir, primaryOptions.withCompressionThreshold(64));
+             Follower follower = new Follower(followerDir, followerOptions, primary.logSource())) {
+            for (int k = 0; k < 200; k++) {
+                primary.set("key-" + k, "value-" + k);
+            }
+            primary.set("key-1", "overwritten");
+            primary.delete("key-2");
+            primary.write(new WriteBatch().set("key-3", "batched").delete("key-4").set("key-new", "new"));
+            String large = "large ".repeat(100);
+            primary.set("key-5", large);
+
+            follower.catchUp();
+            for (int k = 0; k < 200; k++) {
+                assertEquals(primary.get("key-" + k), follower.get("key-" + k), "key-" + k);
+            }
+            assertEquals("overwritten", follower.get("key-1"));
+            assertNull(follower.get("key-2".getBytes(Format.CHAR_SET)));
+            assertEquals("batched", follower.get("key-3"));
+            assertEquals("new", follower.get("key-new"));
+            assertEquals(large, follower.get("key-5"));
+            assertEquals(0, follower.poll());
+        }
+    }
+
+    @Test
+    void test_MergeWhileBehind() throws Exception {
+        try (DiskStore primary = new DiskStore(primaryDir, primaryOptions);
+             Follower follower = new Follower(followerDir, followerOptions, primary.logSource())) {
+            for (int k = 0; k < 100; k++) {
+                primary.set("key-" + k, "value-" + k);
+            }
+            follower.catchUp();
+            // the follower misses all of this, and the merge removes the files it was in
+            for (int round = 0; round < 5; round++) {
+                for (int k = 0; k < 100; k++) {
+                    primary.set("key-" + k, "value-" + round + "-" + k);
+                }
+            }
+            for (int k = 0; k < 100; k += 3) {
+                primary.delete("key-" + k);
+            }
+            primary.set("filler", "x".repeat(5000));
+            assertTrue(primary.merge() > 0);
+            primary.set("after-merge", "yes");
+
+            follower.catchUp();
+            for (int k = 0; k < 100; k++) {
+                assertEquals(k % 3 == 0 ? "" : "value-4-" + k, follower.get("key-" + k), "key-" + k);
+            }
+            assertEquals("yes", follower.get("after-merge"));
+        }
+    }
+
+    @Test
+    void test_ResumeAfterRestart() throws Exception {
+        try (DiskStore primary = new DiskStore(primaryDir, primaryOptions)) {
+            LogPosition position;
+            try (Follower follower = new Follower(followerDir, followerOptions, primary.logSource())) {
+                for (int k = 0; k < 100; k++) {
+                    primary.set("key-" + k, "value-" + k);
+                }
+                follower.catchUp();
+                position = follower.position();
+                assertNotEquals(new LogPosition(0, 0), position);
+            }
+            for (int k = 100; k < 150; k++) {
+                primary.set("key-" + k, "value-" + k);
+            }
+            // count what the follower asks for: only what was written while it was down
+            long[] read = new long[1];
+            LogSource source = primary.logSource();
+            LogSource counting = (from, maxBytes) -> {
+                LogChunk chunk = source.read(from, maxBytes);
+                read[0] += chunk.records().length;
+                return chunk;
+            };
+            try (Follower follower = new Follower(followerDir, followerOptions, counting)) {
+                assertEquals(position, follower.position());
+                assertEquals("value-99", follower.get("key-99"));
+                assertEquals("", follower.get("key-100"));
+                follower.catchUp();
+                for (int k = 0; k < 150; k++) {
+                    assertEquals("value-" + k, follower.get("key-" + k));
+                }
+            }
+            assertEquals(50 * Format.recordSize("key-100".length(), "value-100".length()), read[0]);
+        }
+    }
+
+    @Test
+    void test_Lag() throws Exception {
+        try (DiskStore primary = new DiskStore(primaryDir, primaryOptions);
+             Follower follower = new Follower(followerDir, followerOptions, primary.logSource())) {
+            ReplicationLag lag = follower.lag();
+            assertNull(lag.primary());
+            assertEquals(-1, lag.bytes());
+
+            follower.catchUp();
+            assertEquals(0, follower.lag().bytes());
+            assertEquals(0, follower.lag().millis());
+            assertEquals(follower.lag().primary(), follower.lag().position());
+
+            // a source that hands out one record at a time leaves the follower behind
+            LogSource source = primary.logSource();
+            try (Follower slow = new Follower(followerDir + "/slow", followerOptions,
+                    (from, maxBytes) -> source.read(from, 1))) {
+                primary.set("a", "1");
+                primary.set("b", "2");
+                assertEquals(1, slow.poll());
+                lag = slow.lag();
+                assertEquals(Format.recordSize(1, 1), lag.bytes());
+                assertTrue(lag.millis() >= 0);
+                assertEquals(1, slow.poll());
+                assertEquals(0, slow.lag().bytes());
+                assertEquals(0, slow.lag().millis());
+
+                // catchUp goes on with the short chunks until nothing is left
+                for (int k = 0; k < 5; k++) {
+                    primary.set("key-" + k, "value-" + k);
+                }
+                slow.catchUp();
+                assertEquals(0, slow.lag().bytes());
+                assertEquals("value-4", slow.get("key-4"));
+            }
+        }
+    }
+
+    @Test
+    void test_Loopback() throws Exception {
+        // the chunks go through bytes, as they would over a network
+        try (DiskStore primary = new DiskStore(primaryDir, primaryOptions)) {
+            LogSource source = primary.logSource();
+            LogSource loopback = (from, maxBytes) -> LogChunk.decode(source.read(from, maxBytes).encode());
+            try (Follower follower = new Follower(followerDir, followerOptions, loopback)) {
+                assertThrows(IllegalArgumentException.class, () -> follower.start(Duration.ZERO));
+                follower.start(Duration.ofMillis(10));
+                for (int k = 0; k < 300; k++) {
+                    primary.set(("key-" + k).getBytes(Format.CHAR_SET), new byte[]{(byte) k});
+                }
+                long deadline = System.nanoTime() + Duration.ofSeconds(10).toNanos();
+                while (follower.get("key-299".getBytes(Format.CHAR_SET)) == null && System.nanoTime() < deadline) {
+                    Thread.sleep(10);
+                }
+                for (int k = 0; k < 300; k++) {
+                    assertArrayEquals(new byte[]{(byte) k}, follower.get(("key-" + k).getBytes(Format.CHAR_SET)));
+                }
+            }
+        }
+    }
+
+    @Test
+    void test_DamagedChunk() throws Exception {
+        try (DiskStore primary = new DiskStore(primaryDir, primaryOptions)) {
+            primary.set("key", "value");
+            LogSource source = primary.logSource();
+            LogSource damaging = (from, maxBytes) -> {
+                LogChunk chunk = source.read(from, maxBytes);
+                chunk.records()[Format.HEADER_SIZE] ^= 1;
+                return chunk;
+            };
+            try (Follower follower = new Follower(followerDir, followerOptions, damaging)) {
+                assertThrows(IOException.class, follower::poll);
+                assertEquals(new LogPosition(0, 0), follower.position());
+                assertEquals("", follower.get("key"));
+            }
+        }
+    }
+
+    @Test
+    void test_LogSourceNeedsKeepTombstones() throws Exception {
+        try (DiskStore primary = new DiskStore(primaryDir, primaryOptions.withKeepTombstones(false))) {
+            assertThrows(IllegalStateException.class, primary::logSource);
+        }
+    }
+}
@@ -2,10 +2,15 @@ package net.tutysara.db;
 
 import net.tutysara.db.datatype.U32;
 import org.junit.jupiter.api.Test;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 
 import static net.tutysara.db.Format.*;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 public class FormatTest {
 
@@ -31,9 +36,9 @@ public class FormatTest {
     @Test
     void test_EncodeKV() {
         Object[][] tests = {
-                {10, "hello", "world", HEADER_SIZE + 10},
-                {0, "", "", HEADER_SIZE},
-                {100, "🔑", "", HEADER_SIZE + "🔑".getBytes(StandardCharsets.UTF_8).length}
+                {10, "hello", "world", HEADER_SIZE + 10 + CRC_SIZE},
+                {0, "", "", HEADER_SIZE + CRC_SIZE},
+                {100, "🔑", "", HEADER_SIZE + "🔑".getBytes(StandardCharsets.UTF_8).length + CRC_SIZE}
         };
 
         for (Object[] test : tests) {
@@ -52,5 +57,86 @@ public class FormatTest {
         }
     }
 
-}
+    @Test
+    void test_EncodeIntoReusedBuffer() {
+        ByteBuffer dst = ByteBuffer.allocate(64);
+        String[][] tests = {{"hello", "world"}, {"", ""}, {"🔑", "value"}};
+        for (String[] test : tests) {
+            ByteBuffer key = ByteBuffer.wrap(test[0].getBytes(StandardCharsets.UTF_8));
+            ByteBuffer value = ByteBuffer.wrap(test[1].getBytes(StandardCharsets.UTF_8));
+            dst.clear();
+            encode(7, key, value, dst);
+            assertEquals(0, key.position(), "key position moved");
+            assertEquals(0, value.position(), "value position moved");
+            assertEquals(recordSize(key.remaining(), value.remaining()), dst.position(), "size mismatch");
+
+            var header = decodeHeader(dst, 0);
+            assertEquals(7, header.timeStamp().toLong(), "timestamp mismatch");
+            assertEquals(value, dst.slice(valueOffset(header.keySize()), header.valueSize()), "value mismatch");
+            byte[] record = Arrays.copyOf(dst.array(), dst.position());
+            assertArrayEquals(encodeKV(7, test[0], test[1]), record, "encodeKV mismatch");
+        }
+    }
 
+    @Test
+    void test_Checksum() {
+        ByteBuffer record = ByteBuffer.wrap(encodeKV(10, "hello", "world"));
+        assertTrue(isIntact(record, 0, record.limit()));
+        for (int i = 0; i < record.limit(); i++) {
+            record.put(i, (byte) (record.get(i) ^ 0x10));
+            assertFalse(isIntact(record, 0, record.limit()), "bit flip at " + i);
+            record.put(i, (byte) (record.get(i) ^ 0x10));
+        }
+
+        // version 0 records get their checksum when they are rewritten
+        ByteBuffer legacy = record.slice(0, record.limit() - CRC_SIZE);
+        assertEquals(record, upgrade(legacy));
+
+        // the same record inside a larger heap buffer, at an array offset, and in a
+        // direct buffer
+        ByteBuffer larger = ByteBuffer.allocate(record.limit() + 10).position(7).put(record.duplicate());
+        assertTrue(isIntact(larger, 7, record.limit()));
+        assertTrue(isIntact(larger.slice(7, record.limit()), 0, record.limit()));
+        ByteBuffer direct = ByteBuffer.allocateDirect(record.limit() + 10).position(3).put(record.duplicate());
+        assertTrue(isIntact(direct, 3, record.limit()));
+        direct.put(5, (byte) (direct.get(5) ^ 0x10));
+        assertFalse(isIntact(direct, 3, record.limit()));
+    }
+
+    @Test
+    void test_HeaderFieldsInPlace() {
+        ByteBuffer dst = ByteBuffer.allocate(64);
+        dst.position(5);
+        long timestamp = 0xFFFF_FFF0L;
+        encodeHeader(timestamp, 3, TOMBSTONE, dst);
+        assertEquals(5 + HEADER_SIZE, dst.position());
+        assertEquals(timestamp, Format.timestamp(dst, 5));
+        assertEquals(3, keySize(dst, 5));
+        assertEquals(TOMBSTONE, valueSize(dst, 5));
+        assertEquals(0, valueLength(TOMBSTONE));
+
+        var header = decodeHeader(dst, 5);
+        assertEquals(timestamp, header.timeStamp().toLong());
+        assertTrue(header.isTombstone());
+        assertArrayEquals(encodeHeader(new Header(U32.fromLong(timestamp), 3, TOMBSTONE)),
+                Arrays.copyOfRange(dst.array(), 5, 5 + HEADER_SIZE));
+    }
+
+    @Test
+    void test_CompressedFlag() throws Exception {
+        byte[] value = "aaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaa".getBytes(StandardCharsets.UTF_8);
+        byte[] stored = Compression.compress(ByteBuffer.wrap(value), 1);
+        ByteBuffer key = ByteBuffer.wrap("hamlet".getBytes(StandardCharsets.UTF_8));
+        ByteBuffer record = ByteBuffer.allocate(recordSize(6, stored.length));
+        encode(42, key, ByteBuffer.wrap(stored), true, record);
+
+        assertTrue(isCompressed(record, 0));
+        assertEquals(6, keySize(record, 0));
+        assertEquals(stored.length, valueSize(record, 0));
+        assertTrue(isIntact(record, 0, record.limit()));
+        var decoded = decodeKV(record.array());
+        assertEquals("hamlet", decoded.key());
+        assertEquals(new String(value, StandardCharsets.UTF_8), decoded.value());
+        assertFalse(isCompressed(ByteBuffer.wrap(encodeKV(42, "hamlet", "x")), 0));
+    }
+}
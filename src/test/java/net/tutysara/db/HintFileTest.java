@@ -0,0 +1,158 @@
+package net.tutysara.db;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class HintFileTest {
+
+    private static final String dirname = "hint-test.db";
+
+    private static void deleteDir() throws IOException {
+        Path dir = Paths.get(dirname);
+        if (Files.exists(dir)) {
+            try (Stream<Path> files = Files.walk(dir)) {
+                for (Path path : files.sorted(Comparator.reverseOrder()).toList()) {
+                    Files.delete(path);
+                }
+            }
+        }
+    }
+
+    private static List<Path> dataFiles() throws IOException {
+        try (Stream<Path> files = Files.list(Paths.get(dirname))) {
+            return files.filter(Segment::isSegmentFile)
+                    .sorted(Comparator.comparingInt(Segment::parseFileId))
+                    .toList();
+        }
+    }
+
+    @BeforeEach
+    void setUp() throws IOException {
+        deleteDir();
+    }
+
+    @Test
+    void test_WriteAndLoad() throws IOException {
+        Path dir = Paths.get(dirname);
+        Files.createDirectories(dir);
+        var builder = new HintFile.Builder();
+        long position = 0;
+        Map<String, Format.KeyEntry> expected = new LinkedHashMap<>();
+        for (String key : List.of("hamlet", "othello", "", "🔑")) {
+            byte[] record = Format.encodeKV(42, key, "value of " + key);
+            builder.add(ByteBuffer.wrap(record), position);
+            expected.put(key, new Format.KeyEntry(7, 42, position, record.length));
+            position += record.length;
+        }
+        builder.write(dir, 7);
+
+        Map<String, Format.KeyEntry> loaded = new LinkedHashMap<>();
+        HintFile.HintVisitor visitor = (key, keyEntry) -> loaded.put(new String(key, Format.CHAR_SET), keyEntry);
+        assertTrue(HintFile.load(dir, 7, visitor));
+        assertEquals(expected, loaded);
+        assertFalse(HintFile.load(dir, 8, visitor));
+    }
+
+    @Test
+    void test_HintsForSealedSegments() throws Exception {
+        var options = Options.defaults().withMaxSegmentSize(256);
+        try (DiskStore ds = new DiskStore(dirname, options)) {
+            for (int i = 0; i < 100; i++) {
+                ds.set("key-" + (i % 30), "value-" + i);
+            }
+        }
+
+        List<Path> dataFiles = dataFiles();
+        assertTrue(dataFiles.size() > 1);
+        Path dir = Paths.get(dirname);
+        for (Path dataFile : dataFiles.subList(0, dataFiles.size() - 1)) {
+            assertTrue(HintFile.exists(dir, Segment.parseFileId(dataFile)), "no hint for " + dataFile);
+        }
+        // the active segment gets its hint when it is sealed
+        assertFalse(HintFile.exists(dir, Segment.parseFileId(dataFiles.get(dataFiles.size() - 1))));
+
+        try (DiskStore ds = new DiskStore(dirname, options)) {
+            for (int i = 70; i < 100; i++) {
+                assertEquals("value-" + i, ds.get("key-" + (i % 30)));
+            }
+        }
+    }
+
+    @Test
+    void test_MissingHintIsRebuilt() throws Exception {
+        var options = Options.defaults().withMaxSegmentSize(256);
+        try (DiskStore ds = new DiskStore(dirname, options)) {
+            for (int i = 0; i < 100; i++) {
+                ds.set("key-" + (i % 30), "value-" + i);
+            }
+        }
+        Path dir = Paths.get(dirname);
+        int firstId = Segment.parseFileId(dataFiles().get(0));
+        HintFile.delete(dir, firstId);
+
+        try (DiskStore ds = new DiskStore(dirname, options)) {
+            for (int i = 70; i < 100; i++) {
+                assertEquals("value-" + i, ds.get("key-" + (i % 30)));
+            }
+        }
+        assertTrue(HintFile.exists(dir, firstId));
+    }
+
+    @Test
+    void test_MergeWritesHints() throws Exception {
+        var options = Options.defaults().withMaxSegmentSize(256);
+        try (DiskStore ds = new DiskStore(dirname, options)) {
+            for (int i = 0; i < 100; i++) {
+                ds.set("key-" + (i % 10), "value-" + i);
+            }
+            ds.merge();
+        }
+        Path dir = Paths.get(dirname);
+        List<Path> dataFiles = dataFiles();
+        for (Path dataFile : dataFiles.subList(0, dataFiles.size() - 1)) {
+            assertTrue(HintFile.exists(dir, Segment.parseFileId(dataFile)), "no hint for " + dataFile);
+        }
+        try (DiskStore ds = new DiskStore(dirname, options)) {
+            for (int i = 90; i < 100; i++) {
+                assertEquals("value-" + i, ds.get("key-" + (i % 10)));
+            }
+        }
+    }
+
+    @Test
+    void test_Tombstones() throws IOException {
+        Path dir = Paths.get(dirname);
+        Files.createDirectories(dir);
+        var builder = new HintFile.Builder();
+        byte[] record = Format.encodeKV(42, "hamlet", "");
+        ByteBuffer tombstone = ByteBuffer.allocate(Format.tombstoneSize(6));
+        Format.encodeTombstone(43, ByteBuffer.wrap("hamlet".getBytes(Format.CHAR_SET)), tombstone);
+        builder.add(ByteBuffer.wrap(record), 8);
+        builder.add(tombstone.flip(), 8 + record.length);
+        builder.write(dir, 3);
+
+        Map<String, Format.KeyEntry> records = new LinkedHashMap<>();
+        Map<String, Format.KeyEntry> tombstones = new LinkedHashMap<>();
+        assertTrue(HintFile.load(dir, 3,
+                (key, keyEntry) -> records.put(new String(key, Format.CHAR_SET), keyEntry),
+                (key, keyEntry) -> tombstones.put(new String(key, Format.CHAR_SET), keyEntry)));
+        // an empty value and a tombstone have the same size, only the hint tells them apart
+        assertEquals(Map.of("hamlet", new Format.KeyEntry(3, 42, 8, record.length)), records);
+        assertEquals(Map.of("hamlet", new Format.KeyEntry(3, 43, 8 + record.length, record.length)), tombstones);
+    }
+}
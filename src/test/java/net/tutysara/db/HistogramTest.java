@@ -0,0 +1,72 @@
+package net.tutysara.db;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class HistogramTest {
+
+    @Test
+    void test_Buckets() {
+        for (long value = 0; value < 32; value++) {
+            assertEquals(value, Histogram.bucket(value));
+            assertEquals(value, Histogram.highestValue((int) value));
+        }
+        assertEquals(32, Histogram.bucket(32));
+        assertEquals(63, Histogram.bucket(63));
+        assertEquals(64, Histogram.bucket(64));
+        assertEquals(64, Histogram.bucket(65));
+        assertEquals(65, Histogram.highestValue(64));
+        // buckets follow each other without gaps, none is wider than 1/32 of its values
+        for (int bucket = 1; bucket < Histogram.BUCKETS; bucket++) {
+            long lowest = Histogram.highestValue(bucket - 1) + 1;
+            long highest = Histogram.highestValue(bucket);
+            assertEquals(bucket, Histogram.bucket(lowest));
+            assertEquals(bucket, Histogram.bucket(highest));
+            assertTrue(highest - lowest + 1 <= Math.max(1, lowest / 32), "bucket " + bucket);
+        }
+        assertEquals(Histogram.BUCKETS - 1, Histogram.bucket(Histogram.MAX_VALUE));
+    }
+
+    @Test
+    void test_Percentiles() {
+        var histogram = new Histogram();
+        assertSame(LatencyStats.EMPTY, histogram.snapshot());
+
+        Random random = new Random(42);
+        long[] values = new long[100_000];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = (long) Math.exp(random.nextDouble() * 20);
+            histogram.record(values[i]);
+        }
+        Arrays.sort(values);
+        var stats = histogram.snapshot();
+        assertEquals(values.length, stats.count());
+        assertClose(values[values.length / 2 - 1], stats.p50());
+        assertClose(values[values.length * 99 / 100 - 1], stats.p99());
+        assertClose(values[values.length * 999 / 1000 - 1], stats.p999());
+        assertClose(values[values.length - 1], stats.max());
+        assertClose(Arrays.stream(values).sum() / values.length, stats.mean());
+    }
+
+    @Test
+    void test_OutOfRange() {
+        var histogram = new Histogram();
+        histogram.record(-5);
+        histogram.record(Long.MAX_VALUE);
+        var stats = histogram.snapshot();
+        assertEquals(0, stats.p50());
+        assertEquals(Histogram.MAX_VALUE, stats.max());
+    }
+
+    // assertClose checks that a reported value is at most 1/32 above the actual one
+    private static void assertClose(long expected, long actual) {
+        assertTrue(actual >= expected && actual <= expected + expected / 32,
+                "expected about " + expected + " got " + actual);
+    }
+}
@@ -0,0 +1,236 @@
+package net.tutysara.db;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class KeyDirTest {
+
+    private static KeyDir keyDir(KeyDirType type) {
+        return KeyDir.create(Options.defaults().withKeyDirType(type));
+    }
+
+    private static byte[] key(String key) {
+        return key.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Test
+    void test_PutGet() {
+        for (KeyDirType type : KeyDirType.values()) {
+            try (KeyDir keyDir = keyDir(type)) {
+                var first = new Format.KeyEntry(1, 100, 0, 20);
+                var second = new Format.KeyEntry(2, 4_000_000_000L, 5_000_000_000L, 30);
+
+                assertNull(keyDir.get(key("hamlet")), type.name());
+                assertNull(keyDir.put(key("hamlet"), first), type.name());
+                assertEquals(first, keyDir.get(key("hamlet")), type.name());
+                assertEquals(first, keyDir.put(key("hamlet"), second), type.name());
+                assertEquals(second, keyDir.get(key("hamlet")), type.name());
+                assertNull(keyDir.get(key("othello")), type.name());
+                assertNull(keyDir.put(key(""), first), type.name());
+                assertEquals(first, keyDir.get(key("")), type.name());
+                assertEquals(2, keyDir.size(), type.name());
+            }
+        }
+    }
+
+    @Test
+    void test_ReplaceAndMerge() {
+        for (KeyDirType type : KeyDirType.values()) {
+            try (KeyDir keyDir = keyDir(type)) {
+                var older = new Format.KeyEntry(1, 100, 0, 20);
+                var newer = new Format.KeyEntry(2, 100, 0, 20);
+                var moved = new Format.KeyEntry(3, 100, 0, 20);
+
+                assertFalse(keyDir.replace(key("dune"), older, newer), type.name());
+                keyDir.put(key("dune"), older);
+                assertFalse(keyDir.replace(key("dune"), newer, moved), type.name());
+                assertTrue(keyDir.replace(key("dune"), older, newer), type.name());
+                assertEquals(newer, keyDir.get(key("dune")), type.name());
+
+                // keep whichever entry has the higher file id
+                assertEquals(newer, keyDir.merge(key("dune"), older, Recovery::newest), type.name());
+                assertEquals(moved, keyDir.merge(key("dune"), moved, Recovery::newest), type.name());
+                assertEquals(older, keyDir.merge(key("tolstoy"), older, Recovery::newest), type.name());
+            }
+        }
+    }
+
+    @Test
+    void test_VersionedOverlay() {
+        for (KeyDirType type : KeyDirType.values()) {
+            try (VersionedKeyDir keyDir = new VersionedKeyDir(keyDir(type))) {
+                var a = new Format.KeyEntry(1, 100, 0, 20);
+                var b = new Format.KeyEntry(1, 100, 20, 20);
+                var c = new Format.KeyEntry(1, 100, 40, 20);
+                keyDir.publish(new LogPosition(1, 60), () -> {
+                    keyDir.put(key("a"), a);
+                    keyDir.put(key("b"), b);
+                    keyDir.put(key("c"), c);
+                });
+                var overlay = keyDir.open(() -> null);
+                assertEquals(new LogPosition(1, 60), overlay.position(), type.name());
+
+                // overwritten, deleted, added, moved by a merge and written twice
+                var moved = new Format.KeyEntry(2, 100, 0, 20);
+                keyDir.publish(new LogPosition(1, 100), () -> {
+                    keyDir.put(key("b"), new Format.KeyEntry(1, 200, 60, 20));
+                    keyDir.remove(key("c"));
+                    keyDir.put(key("d"), new Format.KeyEntry(1, 200, 80, 20));
+                });
+                assertTrue(keyDir.replace(key("a"), a, moved), type.name());
+                keyDir.put(key("b"), new Format.KeyEntry(1, 300, 100, 20));
+
+                assertEquals(a, keyDir.get(overlay, key("a")), type.name());
+                assertEquals(b, keyDir.get(overlay, key("b")), type.name());
+                assertEquals(c, keyDir.get(overlay, key("c")), type.name());
+                assertNull(keyDir.get(overlay, key("d")), type.name());
+                assertNull(keyDir.get(overlay, key("e")), type.name());
+                assertEquals(3, keyDir.size(overlay), type.name());
+                assertEquals(moved, keyDir.get(key("a")), type.name());
+
+                // a later overlay starts from the keyDir as it is then
+                var later = keyDir.open(() -> null);
+                assertEquals(new LogPosition(1, 100), later.position(), type.name());
+                keyDir.remove(key("a"));
+                assertEquals(moved, keyDir.get(later, key("a")), type.name());
+                assertEquals(a, keyDir.get(overlay, key("a")), type.name());
+                assertEquals(3, keyDir.size(later), type.name());
+                keyDir.close(overlay);
+                keyDir.close(later);
+                assertEquals(2, keyDir.size(), type.name());
+            }
+        }
+    }
+
+    @Test
+    void test_ManyKeys() {
+        int keys = 200_000;
+        for (KeyDirType type : KeyDirType.values()) {
+            try (KeyDir keyDir = keyDir(type)) {
+                for (int i = 0; i < keys; i++) {
+                    keyDir.put(key("key-" + i), new Format.KeyEntry(i % 7, i, i * 10L, i % 1000));
+                }
+                assertEquals(keys, keyDir.size(), type.name());
+                for (int i = 0; i < keys; i++) {
+                    assertEquals(new Format.KeyEntry(i % 7, i, i * 10L, i % 1000), keyDir.get(key("key-" + i)), type.name());
+                }
+                assertNull(keyDir.get(key("key-" + keys)), type.name());
+            }
+        }
+    }
+
+    @Test
+    void test_ConcurrentReadersAndWriter() throws Exception {
+        // the writer keeps growing the table while readers look up keys whose entry
+        // encodes the key, a torn read would show up as a mismatch
+        int keys = 100_000;
+        for (KeyDirType type : KeyDirType.values()) {
+            AtomicBoolean done = new AtomicBoolean(false);
+            ExecutorService pool = Executors.newFixedThreadPool(4);
+            try (KeyDir keyDir = keyDir(type)) {
+                List<Future<?>> readers = new ArrayList<>();
+                for (int r = 0; r < 3; r++) {
+                    readers.add(pool.submit(() -> {
+                        var random = ThreadLocalRandom.current();
+                        while (!done.get()) {
+                            int i = random.nextInt(keys);
+                            var keyEntry = keyDir.get(key("key-" + i));
+                            if (keyEntry != null) {
+                                assertEquals(i, keyEntry.position() % keys);
+                                assertEquals(i, keyEntry.totalSize());
+                            }
+                        }
+                        return null;
+                    }));
+                }
+                for (int round = 0; round < 3; round++) {
+                    for (int i = 0; i < keys; i++) {
+                        keyDir.put(key("key-" + i), new Format.KeyEntry(round, i, (long) round * keys + i, i));
+                    }
+                }
+                done.set(true);
+                for (Future<?> reader : readers) {
+                    reader.get();
+                }
+                assertNotNull(keyDir.get(key("key-0")));
+            } finally {
+                pool.shutdownNow();
+            }
+        }
+    }
+
+    @Test
+    void test_Remove() {
+        int keys = 100_000;
+        for (KeyDirType type : KeyDirType.values()) {
+            try (KeyDir keyDir = keyDir(type)) {
+                for (int i = 0; i < keys; i++) {
+                    keyDir.put(key("key-" + i), new Format.KeyEntry(1, i, i, i));
+                }
+                assertNull(keyDir.remove(key("missing")), type.name());
+                // removing most keys compacts the off heap arena, the rest has to
+                // stay reachable through the shifted probe chains
+                for (int i = 0; i < keys; i++) {
+                    if (i % 5 != 0) {
+                        assertEquals(new Format.KeyEntry(1, i, i, i), keyDir.remove(key("key-" + i)), type.name());
+                    }
+                }
+                assertEquals(keys / 5, keyDir.size(), type.name());
+                for (int i = 0; i < keys; i++) {
+                    var expected = i % 5 == 0 ? new Format.KeyEntry(1, i, i, i) : null;
+                    assertEquals(expected, keyDir.get(key("key-" + i)), type.name());
+                }
+                for (int i = 0; i < keys; i++) {
+                    keyDir.put(key("key-" + i), new Format.KeyEntry(2, i, i, i));
+                }
+                assertEquals(keys, keyDir.size(), type.name());
+                assertEquals(new Format.KeyEntry(2, 7, 7, 7), keyDir.get(key("key-7")), type.name());
+            }
+        }
+    }
+
+    @Test
+    void test_Range() {
+        try (KeyDir keyDir = keyDir(KeyDirType.SORTED)) {
+            assertTrue(keyDir.isOrdered());
+            String[] keys = {"b", "a", "ab", "abc", "b\u00e9", "c", ""};
+            for (int i = 0; i < keys.length; i++) {
+                keyDir.put(key(keys[i]), new Format.KeyEntry(1, i, i, i));
+            }
+            assertEquals(List.of("", "a", "ab", "abc", "b", "b\u00e9", "c"), range(keyDir, null, null));
+            assertEquals(List.of("ab", "abc", "b"), range(keyDir, "ab", "b\u00e9"));
+            assertEquals(List.of("b\u00e9", "c"), range(keyDir, "b\u0001", null));
+            assertEquals(List.of(), range(keyDir, "d", null));
+        }
+        for (KeyDirType type : List.of(KeyDirType.HASH_MAP, KeyDirType.OFF_HEAP)) {
+            try (KeyDir keyDir = keyDir(type)) {
+                assertFalse(keyDir.isOrdered(), type.name());
+                assertThrows(UnsupportedOperationException.class, () -> keyDir.range(null, null), type.name());
+            }
+        }
+    }
+
+    private static List<String> range(KeyDir keyDir, String from, String to) {
+        List<String> keys = new ArrayList<>();
+        var iterator = keyDir.range(from == null ? null : key(from), to == null ? null : key(to));
+        while (iterator.hasNext()) {
+            keys.add(new String(iterator.next().getKey(), StandardCharsets.UTF_8));
+        }
+        return keys;
+    }
+}
@@ -0,0 +1,126 @@
+package net.tutysara.db;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LogShipperTest {
+
+    private static final String filename = "shipper.db";
+
+    private static final Options options = Options.defaults()
+            .withDurability(Durability.osFlush())
+            .withMaxSegmentSize(1024)
+            .withMergeInterval(Duration.ZERO)
+            .withKeepTombstones(true);
+
+    private static void deleteDir() throws IOException {
+        Path dir = Paths.get(filename);
+        if (Files.exists(dir)) {
+            try (Stream<Path> files = Files.walk(dir)) {
+                for (Path path : files.sorted(Comparator.reverseOrder()).toList()) {
+                    Files.delete(path);
+                }
+            }
+        }
+    }
+
+    @BeforeEach
+    void setUp() throws IOException {
+        deleteDir();
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        deleteDir();
+    }
+
+    @Test
+    void test_ReadAcrossSegments() throws Exception {
+        try (DiskStore ds = new DiskStore(filename, options)) {
+            for (int k = 0; k < 100; k++) {
+                ds.set("key-" + k, "value-" + k);
+            }
+            assertTrue(ds.metrics().segments().size() > 2);
+            LogSource source = ds.logSource();
+            int recordSize = Format.recordSize("key-10".length(), "value-10".length());
+
+            List<String> keys = new ArrayList<>();
+            LogPosition position = new LogPosition(0, 0);
+            LogChunk chunk;
+            do {
+                chunk = source.read(position, 3 * recordSize);
+                // the last record may end after maxBytes
+                assertTrue(chunk.records().length <= 4 * recordSize);
+                keys.addAll(keys(chunk));
+                position = chunk.next();
+            } while (chunk.records().length > 0);
+
+            assertEquals(100, keys.size());
+            for (int k = 0; k < 100; k++) {
+                assertEquals("key-" + k, keys.get(k));
+            }
+            assertEquals(chunk.end(), position);
+            assertEquals(0, chunk.behind());
+        }
+    }
+
+    @Test
+    void test_BatchNotSplit() throws Exception {
+        try (DiskStore ds = new DiskStore(filename, options)) {
+            WriteBatch batch = new WriteBatch();
+            for (int k = 0; k < 10; k++) {
+                batch.set("key-" + k, "value-" + k);
+            }
+            ds.write(batch);
+            ds.set("after", "batch");
+            LogChunk chunk = ds.logSource().read(new LogPosition(0, 0), 1);
+            assertEquals(10, keys(chunk).size());
+            assertEquals(Format.recordSize("after".length(), "batch".length()), chunk.behind());
+        }
+    }
+
+    @Test
+    void test_Behind() throws Exception {
+        try (DiskStore ds = new DiskStore(filename, options)) {
+            for (int k = 0; k < 100; k++) {
+                ds.set("key-" + k, "value-" + k);
+            }
+            LogChunk chunk = ds.logSource().read(new LogPosition(0, 0), 1);
+            long total = 0;
+            for (SegmentStats segment : ds.metrics().segments()) {
+                total += segment.size() - Segment.FILE_HEADER_SIZE;
+            }
+            int recordSize = Format.recordSize("key-0".length(), "value-0".length());
+            assertEquals(total - recordSize, chunk.behind());
+        }
+    }
+
+    private static List<String> keys(LogChunk chunk) {
+        List<String> keys = new ArrayList<>();
+        ByteBuffer records = ByteBuffer.wrap(chunk.records());
+        int index = 0;
+        while (index < records.limit()) {
+            int keySize = Format.keySize(records, index);
+            byte[] key = new byte[keySize];
+            records.get(index + Format.HEADER_SIZE, key);
+            keys.add(new String(key, Format.CHAR_SET));
+            index += Format.recordSize(keySize, Format.valueLength(Format.valueSize(records, index)));
+        }
+        return keys;
+    }
+}
@@ -0,0 +1,65 @@
+package net.tutysara.db;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class LogWriterTest {
+
+    @TempDir
+    Path dir;
+
+    // a publisher that throws fails its append and every one after it, for every
+    // mode, instead of leaving the callers waiting
+    @Test
+    void test_PublisherThrows() throws Exception {
+        for (Durability durability : List.of(Durability.syncPerWrite(), Durability.osFlush(),
+                Durability.groupCommit(16, Duration.ofMillis(1)))) {
+            var options = Options.defaults().withDurability(durability);
+            Path modeDir = dir.resolve(durability.mode().name());
+            Files.createDirectories(modeDir);
+            try (Segments segments = new Segments(modeDir, options.readMode());
+                 LogWriter writer = new LogWriter(segments,
+                         segments.create(durability.mode() == Durability.Mode.SYNC_PER_WRITE),
+                         new HintFile.Builder(), options, new Metrics(options.latencySampling()))) {
+                writer.append(record("ok"), (fileId, position) -> {
+                }).get(10, TimeUnit.SECONDS);
+
+                CompletableFuture<Void> failed = writer.append(record("boom"), (fileId, position) -> {
+                    throw new IllegalStateException("keyDir stripe is full");
+                });
+                var e = assertThrows(ExecutionException.class, () -> failed.get(10, TimeUnit.SECONDS));
+                assertInstanceOf(IOException.class, e.getCause());
+                assertInstanceOf(IllegalStateException.class, e.getCause().getCause());
+
+                int[] published = {0};
+                CompletableFuture<Void> after = writer.append(record("after"), (fileId, position) -> published[0]++);
+                e = assertThrows(ExecutionException.class, () -> after.get(10, TimeUnit.SECONDS));
+                assertInstanceOf(IllegalStateException.class, e.getCause().getCause());
+                assertEquals(0, published[0], durability.mode().name());
+            }
+        }
+    }
+
+    private static byte[] record(String key) {
+        byte[] bytes = key.getBytes(StandardCharsets.UTF_8);
+        byte[] record = new byte[Format.recordSize(bytes.length, bytes.length)];
+        Format.encode(0, ByteBuffer.wrap(bytes), ByteBuffer.wrap(bytes), false, false,
+                ByteBuffer.wrap(record));
+        return record;
+    }
+}
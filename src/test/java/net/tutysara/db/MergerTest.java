@@ -0,0 +1,334 @@
+package net.tutysara.db;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MergerTest {
+
+    private static final String dirname = "merge-test.db";
+
+    private static void deleteDir() throws IOException {
+        Path dir = Paths.get(dirname);
+        if (Files.exists(dir)) {
+            try (Stream<Path> files = Files.walk(dir)) {
+                for (Path path : files.sorted(Comparator.reverseOrder()).toList()) {
+                    Files.delete(path);
+                }
+            }
+        }
+    }
+
+    private static long dataSize() throws IOException {
+        try (Stream<Path> files = Files.list(Paths.get(dirname))) {
+            long size = 0;
+            for (Path path : files.filter(Segment::isSegmentFile).toList()) {
+                size += Files.size(path);
+            }
+            return size;
+        }
+    }
+
+    @BeforeEach
+    void setUp() throws IOException {
+        deleteDir();
+    }
+
+    @Test
+    void test_MergeReclaimsDeadRecords() throws Exception {
+        var options = Options.defaults()
+                .withDurability(Durability.osFlush())
+                .withMaxSegmentSize(1024)
+                .withMergeInterval(Duration.ZERO);
+        int keys = 20, rounds = 20;
+
+        try (DiskStore ds = new DiskStore(dirname, options)) {
+            for (int r = 0; r < rounds; r++) {
+                for (int k = 0; k < keys; k++) {
+                    ds.set("key-" + k, "value-" + k + "-" + r);
+                }
+            }
+            long before = dataSize();
+            assertTrue(ds.merge() > 0);
+            long after = dataSize();
+
+            assertTrue(after < before / 5, "merge should drop most of the data, before=" + before + " after=" + after);
+            var metrics = ds.mergeMetrics();
+            assertEquals(1, metrics.merges());
+            assertTrue(metrics.bytesReclaimed() > 0);
+            for (int k = 0; k < keys; k++) {
+                assertEquals("value-" + k + "-" + (rounds - 1), ds.get("key-" + k));
+            }
+
+            // the segment sealed by the first merge may still have dead records, after
+            // that there is nothing left to merge
+            ds.merge();
+            assertEquals(0, ds.merge());
+        }
+
+        try (DiskStore ds = new DiskStore(dirname, options)) {
+            for (int k = 0; k < keys; k++) {
+                assertEquals("value-" + k + "-" + (rounds - 1), ds.get("key-" + k));
+            }
+        }
+    }
+
+    @Test
+    void test_MergeWhileReadingAndWriting() throws Exception {
+        var options = Options.defaults()
+                .withDurability(Durability.osFlush())
+                .withMaxSegmentSize(2048)
+                .withMergeInterval(Duration.ZERO);
+        int keys = 50, rounds = 200;
+        AtomicBoolean done = new AtomicBoolean(false);
+        ExecutorService pool = Executors.newFixedThreadPool(3);
+
+        try (DiskStore ds = new DiskStore(dirname, options)) {
+            Future<?> writer = pool.submit(() -> {
+                for (int r = 0; r < rounds; r++) {
+                    for (int k = 0; k < keys; k++) {
+                        ds.set("key-" + k, "key-" + k + ":" + r);
+                    }
+                }
+                return null;
+            });
+            Future<?> reader = pool.submit(() -> {
+                var random = ThreadLocalRandom.current();
+                while (!done.get()) {
+                    String key = "key-" + random.nextInt(keys);
+                    String value = ds.get(key);
+                    assertTrue(value.isEmpty() || value.startsWith(key + ":"), "bad read " + value);
+                }
+                return null;
+            });
+            Future<?> merger = pool.submit(() -> {
+                while (!done.get()) {
+                    ds.merge();
+                }
+                return null;
+            });
+            writer.get();
+            done.set(true);
+            reader.get();
+            merger.get();
+
+            ds.merge();
+            for (int k = 0; k < keys; k++) {
+                assertEquals("key-" + k + ":" + (rounds - 1), ds.get("key-" + k));
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+
+        try (DiskStore ds = new DiskStore(dirname, options)) {
+            for (int k = 0; k < keys; k++) {
+                assertEquals("key-" + k + ":" + (rounds - 1), ds.get("key-" + k));
+            }
+        }
+    }
+
+    @Test
+    void test_BackgroundMergeTrigger() throws Exception {
+        var options = Options.defaults()
+                .withDurability(Durability.osFlush())
+                .withMaxSegmentSize(512)
+                .withMergeTriggerRatio(0.5)
+                .withMergeInterval(Duration.ofMillis(20));
+
+        try (DiskStore ds = new DiskStore(dirname, options)) {
+            for (int r = 0; r < 50; r++) {
+                ds.set("name", "jojo-" + r);
+            }
+            long deadline = System.nanoTime() + Duration.ofSeconds(10).toNanos();
+            while (ds.mergeMetrics().merges() == 0 && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+            }
+            assertTrue(ds.mergeMetrics().merges() > 0, "background merge did not run");
+            assertEquals("jojo-49", ds.get("name"));
+        }
+    }
+
+    @Test
+    void test_MergeThrottle() throws Exception {
+        var options = Options.defaults()
+                .withDurability(Durability.osFlush())
+                .withMaxSegmentSize(1024)
+                .withMergeInterval(Duration.ZERO)
+                .withMergeBytesPerSecond(20 * 1024);
+        try (DiskStore ds = new DiskStore(dirname, options)) {
+            for (int i = 0; i < 400; i++) {
+                ds.set("key-" + (i % 10), "value-" + i);
+            }
+            long before = dataSize();
+            long started = System.nanoTime();
+            ds.merge();
+            long elapsedMillis = (System.nanoTime() - started) / 1_000_000;
+            // reading `before` bytes at 20KiB/s cannot be much faster than this
+            long expectedMillis = before * 1000 / (20 * 1024);
+            assertTrue(elapsedMillis >= expectedMillis * 8 / 10,
+                    "merge took " + elapsedMillis + " ms, expected at least " + expectedMillis);
+        }
+    }
+
+    // an interrupted merge deletes the output files it already wrote, a reopen
+    // does not find them next to the inputs
+    @Test
+    void test_FailedMergeLeavesNoOutput() throws Exception {
+        var options = Options.defaults()
+                .withDurability(Durability.osFlush())
+                .withMaxSegmentSize(1024)
+                .withMergeInterval(Duration.ZERO);
+        try (DiskStore ds = new DiskStore(dirname, options)) {
+            for (int i = 0; i < 400; i++) {
+                ds.set("key-" + i, "value-" + i);
+            }
+            // every sealed segment has dead records
+            for (int i = 0; i < 400; i += 2) {
+                ds.set("key-" + i, "value-" + i + "-2");
+            }
+            ds.delete("key-0");
+        }
+        long entries;
+        try (DiskStore ds = new DiskStore(dirname, options)) {
+            entries = ds.recoveryStats().entries();
+        }
+        // at 4KiB/s the merge has written its first output when it is interrupted
+        try (DiskStore ds = new DiskStore(dirname, options.withMergeBytesPerSecond(4 * 1024))) {
+            Set<Integer> before = fileIds();
+            AtomicReference<Exception> failure = new AtomicReference<>();
+            Thread merge = new Thread(() -> {
+                try {
+                    ds.merge();
+                } catch (IOException e) {
+                    failure.set(e);
+                }
+            });
+            merge.start();
+            Thread.sleep(500);
+            merge.interrupt();
+            merge.join();
+            assertInstanceOf(IOException.class, failure.get());
+
+            // only the new active segment was added
+            Set<Integer> after = fileIds();
+            after.remove(Collections.max(after));
+            assertEquals(before, after);
+        }
+        try (DiskStore ds = new DiskStore(dirname, options)) {
+            assertEquals(entries, ds.recoveryStats().entries());
+            assertEquals(399, ds.recoveryStats().keys());
+            assertEquals("value-398-2", ds.get("key-398"));
+            assertEquals("value-399", ds.get("key-399"));
+        }
+    }
+
+    // fileIds returns the ids of the data and hint files
+    private static Set<Integer> fileIds() throws IOException {
+        try (Stream<Path> files = Files.list(Paths.get(dirname))) {
+            Set<Integer> ids = new HashSet<>();
+            for (Path path : files.toList()) {
+                String name = path.getFileName().toString();
+                if (name.endsWith(Segment.SUFFIX) || name.endsWith(HintFile.SUFFIX)) {
+                    ids.add(Integer.parseInt(name.substring(0, name.indexOf('.'))));
+                }
+            }
+            return ids;
+        }
+    }
+
+    @Test
+    void test_MergeDropsTombstones() throws Exception {
+        var options = Options.defaults()
+                .withDurability(Durability.osFlush())
+                .withMaxSegmentSize(1024)
+                .withMergeInterval(Duration.ZERO);
+        int keys = 100;
+
+        try (DiskStore ds = new DiskStore(dirname, options)) {
+            for (int k = 0; k < keys; k++) {
+                ds.set("key-" + k, "value-" + k);
+            }
+            for (int k = 0; k < keys; k++) {
+                if (k % 10 != 0) {
+                    ds.delete("key-" + k);
+                }
+            }
+            long before = dataSize();
+            // every segment is merged at once, no older record is left for the
+            // tombstones to hide. The second merge picks up the segment sealed by the
+            // first one, which holds the last tombstones.
+            assertTrue(ds.merge() > 0);
+            assertTrue(ds.merge() > 0);
+            long after = dataSize();
+            assertTrue(after < before / 5, "merge should drop the records and their tombstones, before="
+                    + before + " after=" + after);
+            for (int k = 0; k < keys; k++) {
+                assertEquals(k % 10 == 0 ? "value-" + k : "", ds.get("key-" + k));
+            }
+        }
+        try (DiskStore ds = new DiskStore(dirname, options)) {
+            assertEquals(keys / 10, ds.recoveryStats().keys());
+            for (int k = 0; k < keys; k++) {
+                assertEquals(k % 10 == 0 ? "value-" + k : "", ds.get("key-" + k));
+            }
+        }
+    }
+
+    @Test
+    void test_MergeKeepsNeededTombstones() throws Exception {
+        var options = Options.defaults()
+                .withDurability(Durability.osFlush())
+                .withMaxSegmentSize(512)
+                .withMergeTriggerRatio(0.5)
+                .withMergeInterval(Duration.ofMillis(20));
+
+        try (DiskStore ds = new DiskStore(dirname, options)) {
+            // the first segment is nearly all live, the background merge leaves it
+            // alone together with the old record of "deleted"
+            ds.set("deleted", "value");
+            for (int k = 0; k < 15; k++) {
+                ds.set("key-" + k, "value-" + k);
+            }
+            for (int k = 0; k < 10; k++) {
+                ds.set("filler-" + k, "value-" + k);
+            }
+            ds.delete("deleted");
+            for (int r = 0; r < 20; r++) {
+                for (int k = 0; k < 10; k++) {
+                    ds.set("filler-" + k, "value-" + k + "-" + r);
+                }
+            }
+            long deadline = System.nanoTime() + Duration.ofSeconds(10).toNanos();
+            while (ds.mergeMetrics().segmentsMerged() < 3 && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+            }
+            assertTrue(ds.mergeMetrics().segmentsMerged() >= 3, "background merge did not run");
+            assertEquals("", ds.get("deleted"));
+        }
+        // the tombstone still hides the record in the first segment
+        try (DiskStore ds = new DiskStore(dirname, options.withMergeInterval(Duration.ZERO))) {
+            assertEquals("", ds.get("deleted"));
+            assertEquals("value-14", ds.get("key-14"));
+        }
+    }
+}
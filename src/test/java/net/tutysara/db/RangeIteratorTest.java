@@ -0,0 +1,223 @@
+package net.tutysara.db;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RangeIteratorTest {
+
+    private static final String dirname = "range-test.db";
+
+    private static final Options options = Options.defaults()
+            .withKeyDirType(KeyDirType.SORTED)
+            .withDurability(Durability.osFlush())
+            .withMaxSegmentSize(16 * 1024)
+            .withMergeInterval(Duration.ZERO);
+
+    private static void deleteDir() throws IOException {
+        Path dir = Paths.get(dirname);
+        if (Files.exists(dir)) {
+            try (Stream<Path> files = Files.walk(dir)) {
+                for (Path path : files.sorted(Comparator.reverseOrder()).toList()) {
+                    Files.delete(path);
+                }
+            }
+        }
+    }
+
+    @BeforeEach
+    void setUp() throws IOException {
+        deleteDir();
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        deleteDir();
+    }
+
+    @Test
+    void test_PrefixEnd() {
+        assertArrayEquals(new byte[]{'a', 'c'}, RangeIterator.prefixEnd(new byte[]{'a', 'b'}));
+        assertArrayEquals(new byte[]{'b'}, RangeIterator.prefixEnd(new byte[]{'a', (byte) 0xFF, (byte) 0xFF}));
+        assertArrayEquals(new byte[]{(byte) 0x80}, RangeIterator.prefixEnd(new byte[]{(byte) 0x7F}));
+        assertNull(RangeIterator.prefixEnd(new byte[]{(byte) 0xFF}));
+        assertNull(RangeIterator.prefixEnd(new byte[0]));
+    }
+
+    @Test
+    void test_Bounds() throws Exception {
+        try (DiskStore ds = new DiskStore(dirname, options)) {
+            // more keys than a chunk, every 10th value too large to be read with its
+            // neighbours
+            for (int i = 0; i < 1000; i++) {
+                int k = (i * 7919) % 1000;
+                ds.set(key(k), value(k));
+            }
+            assertKeys(ds.scan(key(100), key(600)), 100, 600);
+            // from is inclusive even if it is not a key, to is exclusive
+            assertKeys(ds.scan(bytes("k0099a"), bytes("k0600")), 100, 600);
+            assertKeys(ds.scan(key(500), bytes("k0500a")), 500, 501);
+            assertKeys(ds.scan(key(500), key(500)), 0, 0);
+            assertKeys(ds.scan(bytes("a"), bytes("b")), 0, 0);
+
+            var iterator = ds.scan(key(998), null);
+            assertEquals(key(998).length, iterator.next().key().length);
+            iterator.next();
+            assertFalse(iterator.hasNext());
+            assertThrows(NoSuchElementException.class, iterator::next);
+        }
+    }
+
+    @Test
+    void test_OpenBounds() throws Exception {
+        try (DiskStore ds = new DiskStore(dirname, options)) {
+            for (int k = 0; k < 300; k++) {
+                ds.set(key(k), value(k));
+            }
+            assertKeys(ds.scan(null, null), 0, 300);
+            assertKeys(ds.scan(null, key(42)), 0, 42);
+            assertKeys(ds.scan(key(258), null), 258, 300);
+            assertKeys(ds.prefix(new byte[0]), 0, 300);
+        }
+    }
+
+    @Test
+    void test_UnsignedByteOrder() throws Exception {
+        byte[][] sorted = {
+                {0x00}, {0x00, 0x00}, {0x01}, {0x7F}, {0x7F, (byte) 0xFF},
+                {(byte) 0x80}, {(byte) 0x80, 0x00}, {(byte) 0xFE}, {(byte) 0xFF}, {(byte) 0xFF, (byte) 0xFF}};
+        try (DiskStore ds = new DiskStore(dirname, options)) {
+            for (int i = sorted.length - 1; i >= 0; i--) {
+                ds.set(sorted[i], new byte[]{(byte) i});
+            }
+            assertOrder(ds.scan(null, null), sorted, 0, sorted.length);
+            // signed order would put 0x80 and above before 0x00
+            assertOrder(ds.scan(new byte[]{(byte) 0x80}, null), sorted, 5, sorted.length);
+            assertOrder(ds.scan(new byte[]{0x01}, new byte[]{(byte) 0x80}), sorted, 2, 5);
+            // the 0xFF prefix has no end key, it runs to the last key
+            assertOrder(ds.prefix(new byte[]{(byte) 0xFF}), sorted, 8, sorted.length);
+            assertOrder(ds.prefix(new byte[]{0x7F}), sorted, 3, 5);
+        }
+    }
+
+    @Test
+    void test_ConcurrentInsertAndDelete() throws Exception {
+        int keys = 2000;
+        try (DiskStore ds = new DiskStore(dirname, options)) {
+            for (int k = 0; k < keys; k += 2) {
+                ds.set(key(k), value(k));
+            }
+            // the odd keys are inserted and every 4th even key is deleted while the
+            // iterator walks the range
+            AtomicBoolean started = new AtomicBoolean();
+            ExecutorService writer = Executors.newSingleThreadExecutor();
+            Future<?> writes = writer.submit(() -> {
+                while (!started.get()) {
+                    Thread.onSpinWait();
+                }
+                for (int k = 1; k < keys; k += 2) {
+                    ds.set(key(k), value(k));
+                    if (k % 4 == 1) {
+                        ds.delete(key(k - 1));
+                    }
+                }
+                return null;
+            });
+
+            Set<String> seen = new HashSet<>();
+            byte[] last = null;
+            var iterator = ds.scan(null, null);
+            started.set(true);
+            while (iterator.hasNext()) {
+                var kv = iterator.next();
+                String key = new String(kv.key(), StandardCharsets.UTF_8);
+                // in order, every key once, and always a value the key had
+                if (last != null) {
+                    assertTrue(Arrays.compareUnsigned(last, kv.key()) < 0, key);
+                }
+                last = kv.key();
+                assertTrue(seen.add(key), key);
+                assertArrayEquals(value(Integer.parseInt(key.substring(1))), kv.value(), key);
+            }
+            writes.get();
+            writer.shutdown();
+
+            // keys that were there all along are all returned
+            for (int k = 2; k < keys; k += 4) {
+                assertTrue(seen.contains(new String(key(k), StandardCharsets.UTF_8)), "k" + k);
+            }
+            // once the writes are done a new iterator sees all of them
+            int count = 0;
+            for (var it = ds.scan(null, null); it.hasNext(); it.next()) {
+                count++;
+            }
+            assertEquals(keys / 2 + keys / 4, count);
+        }
+    }
+
+    private static byte[] key(int k) {
+        return bytes(String.format("k%04d", k));
+    }
+
+    private static byte[] value(int k) {
+        return bytes((k % 10 == 0 ? "x".repeat(5000) : "v") + k);
+    }
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    // assertKeys checks that the iterator returns the keys from .. to-1 in order
+    private static void assertKeys(Iterator<KeyValue> iterator, int from, int to) {
+        List<String> keys = new ArrayList<>();
+        while (iterator.hasNext()) {
+            var kv = iterator.next();
+            String key = new String(kv.key(), StandardCharsets.UTF_8);
+            assertArrayEquals(value(Integer.parseInt(key.substring(1))), kv.value(), key);
+            keys.add(key);
+        }
+        List<String> expected = new ArrayList<>();
+        for (int k = from; k < to; k++) {
+            expected.add(new String(key(k), StandardCharsets.UTF_8));
+        }
+        assertEquals(expected, keys);
+    }
+
+    // assertOrder checks that the iterator returns sorted[from] .. sorted[to-1]
+    private static void assertOrder(Iterator<KeyValue> iterator, byte[][] sorted, int from, int to) {
+        for (int i = from; i < to; i++) {
+            assertTrue(iterator.hasNext(), "missing key " + i);
+            var kv = iterator.next();
+            assertArrayEquals(sorted[i], kv.key(), "key " + i);
+            assertArrayEquals(new byte[]{(byte) i}, kv.value());
+        }
+        assertFalse(iterator.hasNext());
+    }
+}
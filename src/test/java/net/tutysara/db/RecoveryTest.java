@@ -0,0 +1,332 @@
+package net.tutysara.db;
+
+import net.tutysara.db.datatype.U32;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RecoveryTest {
+
+    private static final String dirname = "recovery-test.db";
+
+    private static void deleteDir() throws IOException {
+        Path dir = Paths.get(dirname);
+        if (Files.exists(dir)) {
+            try (Stream<Path> files = Files.walk(dir)) {
+                for (Path path : files.sorted(Comparator.reverseOrder()).toList()) {
+                    Files.delete(path);
+                }
+            }
+        }
+    }
+
+    @BeforeEach
+    void setUp() throws IOException {
+        deleteDir();
+    }
+
+    // fill writes random overwrites over a small key space into many small segments
+    // and returns the latest value of every key
+    private static Map<String, String> fill(Options options) throws Exception {
+        Map<String, String> expected = new HashMap<>();
+        Random random = new Random(42);
+        try (DiskStore ds = new DiskStore(dirname, options)) {
+            for (int i = 0; i < 2000; i++) {
+                String key = "key-" + random.nextInt(200);
+                String value = "value-" + i;
+                ds.set(key, value);
+                expected.put(key, value);
+            }
+        }
+        return expected;
+    }
+
+    @Test
+    void test_ParallelRecoveryMatchesSequential() throws Exception {
+        var options = Options.defaults()
+                .withDurability(Durability.osFlush())
+                .withMaxSegmentSize(512);
+        Map<String, String> expected = fill(options);
+
+        // lose a few hint files so that both loading paths run at the same time
+        List<Path> hints;
+        try (Stream<Path> files = Files.list(Paths.get(dirname))) {
+            hints = files.filter(path -> path.toString().endsWith(HintFile.SUFFIX)).sorted().toList();
+        }
+        for (int i = 0; i < hints.size(); i += 3) {
+            Files.delete(hints.get(i));
+        }
+
+        for (int threads : new int[]{1, 8}) {
+            try (DiskStore ds = new DiskStore(dirname, options.withRecoveryThreads(threads))) {
+                for (var entry : expected.entrySet()) {
+                    assertEquals(entry.getValue(), ds.get(entry.getKey()), "threads=" + threads);
+                }
+                assertEquals(expected.size(), ds.recoveryStats().keys());
+            }
+        }
+    }
+
+    @Test
+    void test_RecoveryStats() throws Exception {
+        var options = Options.defaults()
+                .withDurability(Durability.osFlush())
+                .withMaxSegmentSize(512)
+                .withRecoveryThreads(4);
+        try (DiskStore ds = new DiskStore(dirname, options)) {
+            assertEquals(0, ds.recoveryStats().entries());
+        }
+        Map<String, String> expected = fill(options);
+
+        try (DiskStore ds = new DiskStore(dirname, options)) {
+            var stats = ds.recoveryStats();
+            assertTrue(stats.segmentsFromHints() > 0);
+            assertEquals(1, stats.segmentsScanned());
+            assertEquals(expected.size(), stats.keys());
+            assertTrue(stats.entries() >= 2000);
+            assertFalse(stats.duration().isNegative());
+            assertEquals(4, stats.threads());
+        }
+    }
+
+    private static Path dataFile(int fileId) {
+        return Paths.get(dirname, Segment.fileName(fileId));
+    }
+
+    @Test
+    void test_TornTailIsTruncated() throws Exception {
+        try (DiskStore ds = new DiskStore(dirname)) {
+            for (int i = 0; i < 10; i++) {
+                ds.set("key-" + i, "value-" + i);
+            }
+        }
+        // a crash in the middle of an append leaves part of a record behind
+        byte[] torn = Arrays.copyOf(Format.encodeKV(42, "key-3", "torn"), 15);
+        Files.write(dataFile(1), torn, StandardOpenOption.APPEND);
+        long intactSize = Files.size(dataFile(1)) - torn.length;
+
+        try (DiskStore ds = new DiskStore(dirname)) {
+            assertEquals(torn.length, ds.recoveryStats().truncatedBytes());
+            assertEquals(0, ds.recoveryStats().corruptBytes());
+            assertEquals(intactSize, Files.size(dataFile(1)));
+            assertEquals("value-3", ds.get("key-3"));
+            ds.set("key-10", "value-10");
+        }
+        try (DiskStore ds = new DiskStore(dirname)) {
+            assertEquals(0, ds.recoveryStats().truncatedBytes());
+            for (int i = 0; i < 11; i++) {
+                assertEquals("value-" + i, ds.get("key-" + i));
+            }
+        }
+    }
+
+    @Test
+    void test_CorruptRecordIsQuarantined() throws Exception {
+        int recordSize = Format.encodeKV(0, "key-0", "value-0").length;
+        try (DiskStore ds = new DiskStore(dirname)) {
+            for (int i = 0; i < 10; i++) {
+                ds.set("key-" + i, "value-" + i);
+            }
+        }
+        // flip a bit in the value of the sixth record
+        long corruptAt = Segment.FILE_HEADER_SIZE + 5L * recordSize;
+        try (FileChannel channel = FileChannel.open(dataFile(1), StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer b = ByteBuffer.allocate(1);
+            channel.read(b, corruptAt + Format.HEADER_SIZE + 7);
+            b.put(0, (byte) (b.get(0) ^ 1)).rewind();
+            channel.write(b, corruptAt + Format.HEADER_SIZE + 7);
+        }
+
+        try (DiskStore ds = new DiskStore(dirname)) {
+            assertEquals(recordSize, ds.recoveryStats().corruptBytes());
+            assertEquals(0, ds.recoveryStats().truncatedBytes());
+            assertEquals("", ds.get("key-5"));
+            for (int i = 0; i < 10; i++) {
+                if (i != 5) {
+                    assertEquals("value-" + i, ds.get("key-" + i));
+                }
+            }
+        }
+        Path quarantined = Paths.get(dirname, String.format("%09d-%09d%s", 1, corruptAt, Recovery.QUARANTINE_SUFFIX));
+        assertEquals(recordSize, Files.size(quarantined));
+    }
+
+    @Test
+    void test_LegacyFilesAreReadable() throws Exception {
+        // a data file from before checksums: no file header, no checksum per record
+        Files.createDirectories(Paths.get(dirname));
+        try (FileChannel channel = FileChannel.open(dataFile(1), StandardOpenOption.WRITE, StandardOpenOption.CREATE)) {
+            for (int i = 0; i < 20; i++) {
+                byte[] key = ("key-" + (i % 10)).getBytes(Format.CHAR_SET);
+                byte[] value = ("value-" + i).getBytes(Format.CHAR_SET);
+                ByteBuffer record = ByteBuffer.allocate(Format.recordSize(0, key.length, value.length));
+                Format.encodeHeader(U32.fromLong(42L), key.length, value.length, record);
+                record.put(key).put(value).flip();
+                channel.write(record);
+            }
+        }
+
+        var options = Options.defaults().withMergeInterval(Duration.ZERO);
+        try (DiskStore ds = new DiskStore(dirname, options)) {
+            for (int i = 10; i < 20; i++) {
+                assertEquals("value-" + i, ds.get("key-" + (i % 10)));
+            }
+            ds.set("key-0", "value-new");
+            // the merge rewrites the old file in the current format
+            assertEquals(1, ds.merge());
+            assertEquals("value-new", ds.get("key-0"));
+            assertEquals("value-19", ds.get("key-9"));
+        }
+        assertFalse(Files.exists(dataFile(1)));
+        try (DiskStore ds = new DiskStore(dirname, options)) {
+            assertEquals("value-new", ds.get("key-0"));
+            for (int i = 11; i < 20; i++) {
+                assertEquals("value-" + i, ds.get("key-" + (i % 10)));
+            }
+        }
+    }
+
+    @Test
+    void test_BaselineStoreIsReadable() throws Exception {
+        // exactly what the store wrote before segments and checksums: a single file
+        // at the path, records of a 12 byte big endian header, key and value. The
+        // last record was torn by a crash.
+        ByteBuffer file = ByteBuffer.allocate(4096);
+        for (int i = 0; i < 20; i++) {
+            byte[] key = ("key-" + (i % 10)).getBytes(StandardCharsets.UTF_8);
+            byte[] value = ("value-" + i).getBytes(StandardCharsets.UTF_8);
+            file.put(U32.fromLong(1_700_000_000L + i).bytes()).putInt(key.length).putInt(value.length)
+                    .put(key).put(value);
+        }
+        file.put(U32.fromLong(1_700_000_100L).bytes()).putInt(5).putInt(100).put("key-0".getBytes(StandardCharsets.UTF_8));
+        Files.write(Paths.get(dirname), Arrays.copyOf(file.array(), file.position()));
+
+        var options = Options.defaults().withMergeInterval(Duration.ZERO);
+        try (DiskStore ds = new DiskStore(dirname, options)) {
+            assertEquals(Format.HEADER_SIZE + 5, ds.recoveryStats().truncatedBytes());
+            assertEquals(10, ds.recoveryStats().keys());
+            for (int i = 10; i < 20; i++) {
+                assertEquals("value-" + i, ds.get("key-" + (i % 10)));
+            }
+            ds.set("key-0", "value-new");
+            // the merge rewrites the baseline records with a file header and checksums
+            assertEquals(1, ds.merge());
+        }
+        assertFalse(Files.exists(dataFile(1)));
+        try (DiskStore ds = new DiskStore(dirname, options)) {
+            assertEquals("value-new", ds.get("key-0"));
+            for (int i = 11; i < 20; i++) {
+                assertEquals("value-" + i, ds.get("key-" + (i % 10)));
+            }
+        }
+    }
+
+    @Test
+    void test_Version1FilesAreReadable() throws Exception {
+        // version 1 records look like version 2 ones, they only never have the
+        // compressed flag
+        Files.createDirectories(Paths.get(dirname));
+        try (FileChannel channel = FileChannel.open(dataFile(1), StandardOpenOption.WRITE, StandardOpenOption.CREATE)) {
+            channel.write(ByteBuffer.allocate(Segment.FILE_HEADER_SIZE).putInt(Segment.FILE_MAGIC).putInt(1).flip());
+            for (int i = 0; i < 20; i++) {
+                channel.write(ByteBuffer.wrap(Format.encodeKV(42, "key-" + (i % 10), "value-" + i + "-".repeat(200))));
+            }
+        }
+
+        var options = Options.defaults().withMergeInterval(Duration.ZERO).withCompressionThreshold(100);
+        try (DiskStore ds = new DiskStore(dirname, options)) {
+            for (int i = 10; i < 20; i++) {
+                assertEquals("value-" + i + "-".repeat(200), ds.get("key-" + (i % 10)));
+            }
+            // the version 1 file is sealed, new records go to a version 2 file
+            ds.set("key-0", "value-new" + "-".repeat(200));
+            assertEquals(1, ds.merge());
+        }
+        assertFalse(Files.exists(dataFile(1)));
+        try (DiskStore ds = new DiskStore(dirname, options)) {
+            assertEquals("value-new" + "-".repeat(200), ds.get("key-0"));
+            for (int i = 11; i < 20; i++) {
+                assertEquals("value-" + i + "-".repeat(200), ds.get("key-" + (i % 10)));
+            }
+        }
+    }
+
+    @Test
+    void test_TornBatchIsDropped() throws Exception {
+        try (DiskStore ds = new DiskStore(dirname)) {
+            ds.set("key-0", "value-0");
+        }
+        // the first records of the batch made it to disk, the last one did not
+        var batch = new WriteBatch();
+        for (int i = 0; i < 5; i++) {
+            batch.set("key-" + i, "batch-" + i);
+        }
+        byte[] torn = Arrays.copyOf(batch.encode(), batch.encode().length - 3);
+        Files.write(dataFile(1), torn, StandardOpenOption.APPEND);
+
+        try (DiskStore ds = new DiskStore(dirname)) {
+            assertEquals(torn.length, ds.recoveryStats().truncatedBytes());
+            assertEquals(1, ds.recoveryStats().keys());
+            assertEquals("value-0", ds.get("key-0"));
+            assertEquals("", ds.get("key-1"));
+            ds.write(batch);
+        }
+        try (DiskStore ds = new DiskStore(dirname)) {
+            assertEquals(0, ds.recoveryStats().truncatedBytes());
+            for (int i = 0; i < 5; i++) {
+                assertEquals("batch-" + i, ds.get("key-" + i));
+            }
+        }
+    }
+
+    @Test
+    void test_CorruptBatchIsSkipped() throws Exception {
+        var batch = new WriteBatch();
+        for (int i = 0; i < 5; i++) {
+            batch.set("key-" + i, "batch-" + i);
+        }
+        int batchSize = batch.encode().length;
+        try (DiskStore ds = new DiskStore(dirname)) {
+            ds.write(batch);
+            ds.set("key-5", "value-5");
+        }
+        // flip a bit in the value of the last record of the batch, the other
+        // records of the batch are intact but must not be applied either
+        long corruptAt = Segment.FILE_HEADER_SIZE + batchSize - Format.CRC_SIZE - 1;
+        try (FileChannel channel = FileChannel.open(dataFile(1), StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer b = ByteBuffer.allocate(1);
+            channel.read(b, corruptAt);
+            b.put(0, (byte) (b.get(0) ^ 1)).rewind();
+            channel.write(b, corruptAt);
+        }
+
+        try (DiskStore ds = new DiskStore(dirname)) {
+            assertEquals(batchSize, ds.recoveryStats().corruptBytes());
+            assertEquals(1, ds.recoveryStats().keys());
+            for (int i = 0; i < 5; i++) {
+                assertEquals("", ds.get("key-" + i));
+            }
+            assertEquals("value-5", ds.get("key-5"));
+        }
+    }
+}
@@ -0,0 +1,279 @@
+package net.tutysara.db;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RespServerTest {
+
+    private static final String filename = "resp.db";
+
+    private DiskStore store;
+    private RespServer server;
+
+    private static void deleteDir() throws IOException {
+        Path dir = Paths.get(filename);
+        if (Files.exists(dir)) {
+            try (Stream<Path> files = Files.walk(dir)) {
+                for (Path path : files.sorted(Comparator.reverseOrder()).toList()) {
+                    Files.delete(path);
+                }
+            }
+        }
+    }
+
+    @BeforeEach
+    void setUp() throws IOException {
+        deleteDir();
+        store = new DiskStore(filename, Options.defaults()
+                .withDurability(Durability.groupCommit(256, Duration.ZERO)));
+        server = new RespServer(store, new InetSocketAddress("127.0.0.1", 0), 4);
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        server.close();
+        store.close();
+        deleteDir();
+    }
+
+    // Client sends raw commands and reads replies: simple strings and errors as
+    // "+..." and "-...", integers as Long, bulk strings as String or null, arrays
+    // as List
+    private static final class Client implements AutoCloseable {
+        private final Socket socket;
+        private final OutputStream out;
+        private final InputStream in;
+
+        Client(InetSocketAddress address) throws IOException {
+            socket = new Socket(address.getAddress(), address.getPort());
+            out = socket.getOutputStream();
+            in = new BufferedInputStream(socket.getInputStream());
+        }
+
+        void send(String... command) throws IOException {
+            StringBuilder builder = new StringBuilder("*").append(command.length).append("\r\n");
+            for (String arg : command) {
+                builder.append('$').append(arg.getBytes(StandardCharsets.UTF_8).length).append("\r\n")
+                        .append(arg).append("\r\n");
+            }
+            sendRaw(builder.toString());
+        }
+
+        void sendRaw(String raw) throws IOException {
+            sendRaw(raw.getBytes(StandardCharsets.UTF_8));
+        }
+
+        void sendRaw(byte[] raw) throws IOException {
+            out.write(raw);
+        }
+
+        Object call(String... command) throws IOException {
+            send(command);
+            return reply();
+        }
+
+        Object reply() throws IOException {
+            int type = in.read();
+            String line = line();
+            switch (type) {
+                case '+', '-' -> {
+                    return (char) type + line;
+                }
+                case ':' -> {
+                    return Long.parseLong(line);
+                }
+                case '$' -> {
+                    int size = Integer.parseInt(line);
+                    if (size < 0) {
+                        return null;
+                    }
+                    byte[] value = in.readNBytes(size);
+                    line();
+                    return new String(value, StandardCharsets.UTF_8);
+                }
+                case '*' -> {
+                    List<Object> list = new ArrayList<>();
+                    for (int i = Integer.parseInt(line); i > 0; i--) {
+                        list.add(reply());
+                    }
+                    return list;
+                }
+                case -1 -> throw new EOFException();
+                default -> throw new IOException("Unexpected reply type " + (char) type);
+            }
+        }
+
+        private String line() throws IOException {
+            ByteArrayOutputStream line = new ByteArrayOutputStream();
+            int b;
+            while ((b = in.read()) != '\r') {
+                if (b < 0) {
+                    throw new EOFException();
+                }
+                line.write(b);
+            }
+            in.read();
+            return line.toString(StandardCharsets.UTF_8);
+        }
+
+        public void close() throws IOException {
+            socket.close();
+        }
+    }
+
+    @Test
+    void test_Commands() throws Exception {
+        try (Client client = new Client(server.address())) {
+            assertEquals("+PONG", client.call("PING"));
+            assertEquals("hello", client.call("ping", "hello"));
+            assertEquals("+OK", client.call("SET", "a", "1"));
+            assertEquals("1", client.call("GET", "a"));
+            assertEquals(null, client.call("GET", "missing"));
+            assertEquals("+OK", client.call("MSET", "b", "2", "c", "3"));
+            assertEquals(List.of("1", "2", "3"), client.call("MGET", "a", "b", "c"));
+            assertEquals(2L, client.call("DEL", "a", "b", "x"));
+            assertEquals(Arrays.asList(null, null, "3"), client.call("MGET", "a", "b", "c"));
+            assertEquals("-ERR wrong number of arguments for 'get' command", client.call("GET"));
+            assertEquals("-ERR syntax error", client.call("SET", "a", "1", "EX", "10"));
+            assertEquals("-ERR unknown command 'incr'", client.call("INCR", "a"));
+            assertEquals(List.of(), client.call("COMMAND", "DOCS"));
+            // inline, the way telnet sends it
+            client.sendRaw("get c\r\n");
+            assertEquals("3", client.reply());
+            assertEquals("+OK", client.call("QUIT"));
+            assertThrows(EOFException.class, client::reply);
+        }
+        assertEquals("3", store.get("c"));
+    }
+
+    // pipelined writes are batched, a read in the pipeline sees the writes before it
+    @Test
+    void test_Pipeline() throws Exception {
+        int commands = 1000;
+        try (Client client = new Client(server.address())) {
+            StringBuilder pipeline = new StringBuilder();
+            for (int i = 0; i < commands; i++) {
+                pipeline.append("*3\r\n$3\r\nSET\r\n$").append(("key-" + i).length()).append("\r\nkey-").append(i)
+                        .append("\r\n$").append(("value-" + i).length()).append("\r\nvalue-").append(i).append("\r\n");
+                if (i % 100 == 99) {
+                    pipeline.append("*2\r\n$3\r\nGET\r\n$").append(("key-" + i).length()).append("\r\nkey-")
+                            .append(i).append("\r\n");
+                }
+            }
+            client.sendRaw(pipeline.toString());
+            for (int i = 0; i < commands; i++) {
+                assertEquals("+OK", client.reply());
+                if (i % 100 == 99) {
+                    assertEquals("value-" + i, client.reply());
+                }
+            }
+        }
+        for (int i = 0; i < commands; i++) {
+            assertEquals("value-" + i, store.get("key-" + i));
+        }
+        // every GET ends a batch, at least 10 batches and far fewer than commands
+        long batches = store.metrics().batches();
+        assertTrue(batches >= 10 && batches < commands / 2, "batches=" + batches);
+    }
+
+    @Test
+    void test_ProtocolError() throws Exception {
+        try (Client client = new Client(server.address())) {
+            client.send("SET", "a", "1");
+            client.sendRaw("*1\r\n:oops\r\n");
+            assertEquals("+OK", client.reply());
+            assertTrue(((String) client.reply()).startsWith("-ERR Protocol error"));
+            assertThrows(EOFException.class, client::reply);
+        }
+        assertEquals("1", store.get("a"));
+    }
+
+    // the arguments of a command are held as they arrive, up to MAX_BUFFERED
+    @Test
+    void test_TooBigRequest() throws Exception {
+        try (Client client = new Client(server.address())) {
+            Thread sender = new Thread(() -> {
+                byte[] block = new byte[1024 * 1024];
+                try {
+                    client.sendRaw("*3\r\n");
+                    for (int arg = 0; arg < 2; arg++) {
+                        client.sendRaw("$" + Resp.MAX_BULK + "\r\n");
+                        for (int sent = 0; sent < Resp.MAX_BULK; sent += block.length) {
+                            client.sendRaw(block);
+                        }
+                        client.sendRaw("\r\n");
+                    }
+                } catch (IOException e) {
+                    // the server stopped reading and closed the connection
+                }
+            });
+            sender.start();
+            assertEquals("-ERR Protocol error: too big request", client.reply());
+            assertThrows(EOFException.class, client::reply);
+            sender.join();
+        }
+        // the server goes on serving the other clients
+        try (Client client = new Client(server.address())) {
+            assertEquals("+PONG", client.call("PING"));
+        }
+    }
+
+    @Test
+    void test_ManyClients() throws Exception {
+        int clients = 16, keys = 200;
+        ExecutorService pool = Executors.newFixedThreadPool(clients);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int c = 0; c < clients; c++) {
+                int id = c;
+                futures.add(pool.submit(() -> {
+                    try (Client client = new Client(server.address())) {
+                        for (int k = 0; k < keys; k++) {
+                            client.send("SET", "key-" + id + "-" + k, "value-" + k);
+                        }
+                        for (int k = 0; k < keys; k++) {
+                            assertEquals("+OK", client.reply());
+                        }
+                        for (int k = 0; k < keys; k++) {
+                            assertEquals("value-" + k, client.call("GET", "key-" + id + "-" + k));
+                        }
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        assertEquals(clients * keys, store.metrics().keys());
+    }
+}
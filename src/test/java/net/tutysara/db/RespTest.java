@@ -0,0 +1,91 @@
+package net.tutysara.db;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class RespTest {
+
+    private static ByteBuffer buffer(String s) {
+        return ByteBuffer.wrap(s.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static List<String> strings(byte[][] args) {
+        return Arrays.stream(args).map(arg -> new String(arg, StandardCharsets.UTF_8)).toList();
+    }
+
+    @Test
+    void test_Parse() throws Exception {
+        ByteBuffer buffer = buffer("*3\r\n$3\r\nSET\r\n$3\r\nkey\r\n$0\r\n\r\n*1\r\n$4\r\nPING\r\nget  key\r\n\r\n");
+        assertEquals(List.of("SET", "key", ""), strings(Resp.parse(buffer)));
+        assertEquals(List.of("PING"), strings(Resp.parse(buffer)));
+        assertEquals(List.of("get", "key"), strings(Resp.parse(buffer)));
+        assertEquals(List.of(), strings(Resp.parse(buffer)));
+        assertNull(Resp.parse(buffer));
+    }
+
+    // a command split anywhere is not parsed until it is complete
+    @Test
+    void test_Partial() throws Exception {
+        String command = "*2\r\n$3\r\nGET\r\n$11\r\nkey-\r\n-0001\r\n";
+        for (int split = 0; split < command.length(); split++) {
+            ByteBuffer buffer = buffer(command.substring(0, split));
+            assertNull(Resp.parse(buffer), "split at " + split);
+            assertEquals(0, buffer.position());
+        }
+        assertEquals(List.of("GET", "key-\r\n-0001"), strings(Resp.parse(buffer(command))));
+    }
+
+    // the parser takes every whole argument out of the buffer, a command split
+    // over many reads is parsed once, and a large count allocates nothing up front
+    @Test
+    void test_Parser() throws Exception {
+        var parser = new Resp.Parser();
+        ByteBuffer buffer = buffer("*1000000\r\n$3\r\nSET\r\n$3\r\nke");
+        assertNull(parser.parse(buffer));
+        assertEquals("$3\r\nke", StandardCharsets.UTF_8.decode(buffer.duplicate()).toString());
+        assertEquals(3, parser.buffered());
+
+        parser = new Resp.Parser();
+        String command = "*3\r\n$3\r\nSET\r\n$3\r\nkey\r\n$5\r\nvalue\r\n*1\r\n$4\r\nPING\r\n";
+        ByteBuffer input = ByteBuffer.allocate(command.length());
+        List<List<String>> parsed = new ArrayList<>();
+        for (byte b : command.getBytes(StandardCharsets.UTF_8)) {
+            input.put(b).flip();
+            byte[][] args;
+            while ((args = parser.parse(input)) != null) {
+                parsed.add(strings(args));
+            }
+            input.compact();
+        }
+        assertEquals(List.of(List.of("SET", "key", "value"), List.of("PING")), parsed);
+        assertEquals(0, input.position());
+        assertEquals(0, parser.buffered());
+    }
+
+    @Test
+    void test_ProtocolErrors() {
+        for (String bad : List.of("*x\r\n", "*1\r\n:5\r\n", "*1\r\n$-5\r\n", "*1\r\n$3\r\nabcde\r\n",
+                "*1\r\n$" + (Resp.MAX_BULK + 1) + "\r\n", "*1\n")) {
+            assertThrows(Resp.ProtocolException.class, () -> Resp.parse(buffer(bad)), bad);
+        }
+        assertThrows(Resp.ProtocolException.class, () -> Resp.parse(buffer("x".repeat(Resp.MAX_INLINE + 1))));
+    }
+
+    @Test
+    void test_Reply() {
+        var reply = new Resp.Reply().ok().error("ERR no").integer(-3).bulk(null)
+                .bulk("é".getBytes(StandardCharsets.UTF_8)).array(1).bulk(new byte[0]);
+        ByteBuffer bytes = reply.toByteBuffer();
+        assertEquals("+OK\r\n-ERR no\r\n:-3\r\n$-1\r\n$2\r\né\r\n*1\r\n$0\r\n\r\n",
+                StandardCharsets.UTF_8.decode(bytes).toString());
+    }
+}
@@ -0,0 +1,74 @@
+package net.tutysara.db;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SegmentTest {
+
+    private static final String dirname = "segment-test.db";
+
+    private static void deleteDir() throws IOException {
+        Path dir = Paths.get(dirname);
+        if (Files.exists(dir)) {
+            try (Stream<Path> files = Files.walk(dir)) {
+                for (Path path : files.sorted(Comparator.reverseOrder()).toList()) {
+                    Files.delete(path);
+                }
+            }
+        }
+    }
+
+    @BeforeEach
+    void setUp() throws IOException {
+        deleteDir();
+        Files.createDirectories(Paths.get(dirname));
+    }
+
+    @Test
+    void test_MappedReadAcrossChunks() throws IOException {
+        byte[] data = new byte[1000];
+        new Random(42).nextBytes(data);
+        try (Segment segment = Segment.open(Paths.get(dirname), 1, true, false)) {
+            segment.channel().write(ByteBuffer.wrap(data), 0);
+            assertFalse(segment.isMapped());
+            // 1000 bytes in regions of 64, the last one is only 40 bytes
+            segment.map(64);
+            assertTrue(segment.isMapped());
+
+            int[][] reads = {{0, 64}, {60, 10}, {100, 300}, {960, 40}, {0, 1000}, {999, 1}, {5, 0}};
+            for (int[] read : reads) {
+                ByteBuffer buffer = ByteBuffer.allocate(read[1]);
+                segment.read(buffer, read[0]);
+                assertEquals(ByteBuffer.wrap(data, read[0], read[1]), buffer, "read at " + read[0]);
+            }
+            assertThrows(EOFException.class, () -> segment.read(ByteBuffer.allocate(10), 995));
+            assertThrows(EOFException.class, () -> segment.read(ByteBuffer.allocate(10), 2000));
+        }
+    }
+
+    @Test
+    void test_ReadAfterClose() throws IOException {
+        Segment segment = Segment.open(Paths.get(dirname), 1, true, false);
+        segment.channel().write(ByteBuffer.wrap(new byte[100]), 0);
+        segment.map(Segments.MAP_CHUNK_SIZE);
+        segment.close();
+        // readers retry on a closed segment, mapped or not
+        assertThrows(ClosedChannelException.class, () -> segment.read(ByteBuffer.allocate(10), 0));
+    }
+}
@@ -0,0 +1,109 @@
+package net.tutysara.db;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ShardedStoreTest {
+
+    private static final String filename = "sharded.db";
+
+    @BeforeEach
+    void setUp() throws IOException {
+        Path dir = Paths.get(filename);
+        if (Files.exists(dir)) {
+            try (Stream<Path> files = Files.walk(dir)) {
+                for (Path path : files.sorted(Comparator.reverseOrder()).toList()) {
+                    Files.delete(path);
+                }
+            }
+        }
+    }
+
+    @Test
+    void test_StableHash() {
+        // the shard of a key must never change, these are part of the file layout
+        assertEquals(2, ShardedStore.shard("key-0".getBytes(StandardCharsets.UTF_8), 4));
+        assertEquals(1, ShardedStore.shard("key-1".getBytes(StandardCharsets.UTF_8), 4));
+        assertEquals(0, ShardedStore.shard("user:7".getBytes(StandardCharsets.UTF_8), 4));
+        assertEquals(0, ShardedStore.shard(new byte[0], 4));
+        int[] counts = new int[8];
+        for (int i = 0; i < 80_000; i++) {
+            counts[ShardedStore.shard(("key-" + i).getBytes(StandardCharsets.UTF_8), 8)]++;
+        }
+        for (int count : counts) {
+            assertTrue(count > 9_000 && count < 11_000, "unbalanced: " + count);
+        }
+    }
+
+    @Test
+    void test_SetGetDelete() throws Exception {
+        var options = Options.defaults().withDurability(Durability.osFlush());
+        int keys = 1000;
+        try (ShardedStore store = new ShardedStore(filename, 4, options)) {
+            for (int k = 0; k < keys; k++) {
+                store.set("key-" + k, "value-" + k);
+            }
+            for (int k = 0; k < keys; k += 10) {
+                store.delete("key-" + k);
+            }
+            for (DiskStore shard : store.shards()) {
+                assertTrue(shard.metrics().keys() > keys / 8);
+            }
+        }
+        // reopened, every shard recovers on its own
+        try (ShardedStore store = new ShardedStore(filename, 4, options)) {
+            for (int k = 0; k < keys; k++) {
+                assertEquals(k % 10 == 0 ? "" : "value-" + k, store.get("key-" + k));
+            }
+            assertEquals(keys - keys / 10, store.shards().stream()
+                    .mapToInt(shard -> shard.recoveryStats().keys()).sum());
+        }
+    }
+
+    @Test
+    void test_ShardCountMismatch() throws Exception {
+        assertThrows(IllegalArgumentException.class, () -> new ShardedStore(filename, 0, Options.defaults()));
+        assertThrows(IllegalArgumentException.class, () -> new ShardedStore(List.of(), Options.defaults()));
+        try (ShardedStore store = new ShardedStore(filename, 2, Options.defaults())) {
+            store.set("key", "value");
+        }
+        assertThrows(IOException.class, () -> new ShardedStore(filename, 3, Options.defaults()));
+        // the shards it could open were closed again
+        String first = Paths.get(filename, "shard-000").toString();
+        String second = Paths.get(filename, "shard-001").toString();
+        assertThrows(IOException.class, () -> new ShardedStore(List.of(second, first), Options.defaults()));
+        try (ShardedStore store = new ShardedStore(List.of(first, second), Options.defaults())) {
+            assertEquals("value", store.get("key"));
+        }
+    }
+
+    // a directory with data and no SHARD file, here a plain DiskStore, is not
+    // taken as a shard
+    @Test
+    void test_UnmarkedDirectory() throws Exception {
+        String first = Paths.get(filename, "shard-000").toString();
+        try (DiskStore ds = new DiskStore(first)) {
+            ds.set("key", "value");
+        }
+        var e = assertThrows(IOException.class, () -> new ShardedStore(filename, 2, Options.defaults()));
+        assertTrue(e.getMessage().contains(first), e.getMessage());
+        assertFalse(Files.exists(Paths.get(first, ShardedStore.SHARD_FILE)));
+        try (DiskStore ds = new DiskStore(first)) {
+            assertEquals("value", ds.get("key"));
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package net.tutysara.db;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ValueCacheTest {
+
+    private static final int VALUE_SIZE = 100;
+    private static final int WEIGHT = VALUE_SIZE + ValueCache.ENTRY_OVERHEAD;
+
+    // read is what DiskStore does on a get: a miss reads the file and fills the cache
+    private static void read(ValueCache cache, int fileId, long position) {
+        if (cache.get(fileId, position) == null) {
+            cache.put(fileId, position, new byte[VALUE_SIZE]);
+        }
+    }
+
+    @Test
+    void test_GetPut() {
+        var cache = new ValueCache(100 * WEIGHT);
+        byte[] value = {1, 2, 3};
+        assertNull(cache.get(1, 0));
+        cache.put(1, 0, value);
+        assertArrayEquals(value, cache.get(1, 0));
+        assertNull(cache.get(1, 8));
+        assertNull(cache.get(2, 0));
+
+        cache.invalidate(1, 0);
+        assertNull(cache.get(1, 0));
+
+        var stats = cache.stats();
+        assertEquals(1, stats.hits());
+        assertEquals(4, stats.misses());
+        assertEquals(0, stats.entries());
+        assertEquals(0, stats.bytes());
+    }
+
+    @Test
+    void test_StaysWithinMaxBytes() {
+        long maxBytes = 50 * WEIGHT;
+        var cache = new ValueCache(maxBytes);
+        for (int i = 0; i < 10_000; i++) {
+            read(cache, 1, i % 500);
+            assertTrue(cache.stats().bytes() <= maxBytes);
+        }
+        var stats = cache.stats();
+        assertTrue(stats.evictions() > 0);
+        assertEquals(stats.entries() * WEIGHT, stats.bytes());
+        // a value larger than the cache is never kept
+        cache.put(2, 0, new byte[(int) maxBytes]);
+        assertNull(cache.get(2, 0));
+    }
+
+    @Test
+    void test_ScanResistance() {
+        var cache = new ValueCache(100 * WEIGHT);
+        // a hot set that fits, read a few times
+        for (int round = 0; round < 5; round++) {
+            for (int i = 0; i < 50; i++) {
+                read(cache, 1, i);
+            }
+        }
+        // one pass over many cold records, each read once
+        for (int i = 0; i < 10_000; i++) {
+            read(cache, 2, i);
+        }
+        int hot = 0;
+        for (int i = 0; i < 50; i++) {
+            if (cache.get(1, i) != null) {
+                hot++;
+            }
+        }
+        assertTrue(hot >= 45, "only " + hot + " of the hot entries survived the scan");
+    }
+
+    @Test
+    void test_FrequencySketch() {
+        var sketch = new ValueCache.FrequencySketch(1024);
+        assertEquals(0, sketch.frequency(42));
+        for (int i = 0; i < 5; i++) {
+            sketch.increment(42);
+        }
+        assertEquals(5, sketch.frequency(42));
+        for (int i = 0; i < 100; i++) {
+            sketch.increment(7);
+        }
+        // counters saturate at 15
+        assertEquals(15, sketch.frequency(7));
+        // and are halved once enough increments were seen
+        for (int i = 0; i < 20_000; i++) {
+            sketch.increment(1000 + i);
+        }
+        assertTrue(sketch.frequency(7) < 15);
+    }
+}
@@ -40,4 +40,15 @@ public class U32Test {
         }, "This should throw an AssertionError for negative values");
         Assertions.assertNotNull(thrown);
     }
-}
\ No newline at end of file
+
+    @Test
+    public void test_BytesRoundTrip() {
+        long[] values = {0, 1, 255, 256, 0x7FFF_FFFFL, 0x8000_0000L, U32.maxval()};
+        for (long value : values) {
+            var u32 = U32.fromLong(value);
+            assertEquals(value, u32.toLong());
+            assertEquals(u32, U32.fromBytes(u32.bytes()));
+            assertEquals(value, U32.fromBytes(u32.bytes()).toLong());
+        }
+    }
+}